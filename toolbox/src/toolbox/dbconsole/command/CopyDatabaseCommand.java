@@ -15,6 +15,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -50,10 +51,12 @@ import toolbox.dbconsole.TestConsole;
 import toolbox.dbconsole.TestDatabase;
 import toolbox.dbconsole.TestEnvironment;
 import toolbox.dbconsole.util.CountingOutputStream;
+import toolbox.dbconsole.util.TableCopier;
 import toolbox.dbconsole.util.TimedOperation;
 import toolbox.util.ArrayUtil;
 import toolbox.util.FileUtil;
 import toolbox.util.JDBCSession;
+import toolbox.util.JDBCUtil;
 import toolbox.util.StringUtil;
 import toolbox.util.db.oracle.OracleSequence;
 import toolbox.util.db.oracle.OracleUtil;
@@ -109,6 +112,27 @@ public class CopyDatabaseCommand implements Command {
      */
     private boolean useTruncate;
 
+    /**
+     * Copy tables directly between the databases instead of going through an
+     * export file.
+     */
+    private boolean direct;
+
+    /**
+     * Number of rows fetched from the source at a time in direct mode.
+     */
+    private int fetchSize;
+
+    /**
+     * Number of rows inserted between commits in direct mode.
+     */
+    private int commitInterval;
+
+    /**
+     * Number of tables copied at the same time in direct mode.
+     */
+    private int threads;
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -122,6 +146,7 @@ public class CopyDatabaseCommand implements Command {
      *   <li>constraints are disabled
      *   <li>sequences are synced
      *   <li>truncate is used instead of delete
+     *   <li>the copy goes through an export file
      * </ul>
      */
     public CopyDatabaseCommand() {
@@ -131,6 +156,10 @@ public class CopyDatabaseCommand implements Command {
         setDisableConstraints(true);
         setSyncSequences(true);
         setUseTruncate(true);
+        setDirect(false);
+        setFetchSize(TableCopier.DEFAULT_FETCH_SIZE);
+        setCommitInterval(TableCopier.DEFAULT_COMMIT_INTERVAL);
+        setThreads(TableCopier.DEFAULT_THREADS);
     }
 
     //--------------------------------------------------------------------------
@@ -168,7 +197,11 @@ public class CopyDatabaseCommand implements Command {
             + "  disableConstraints = " + isDisableConstraints() + "\n"
             + "  keepTempFiles      = " + isKeepTempFiles() + "\n"
             + "  syncSequences      = " + isSyncSequences() + "\n"
-            + "  useTruncate        = " + isUseTruncate()));
+            + "  useTruncate        = " + isUseTruncate() + "\n"
+            + "  direct             = " + isDirect() + "\n"
+            + "  fetchSize          = " + getFetchSize() + "\n"
+            + "  commitInterval     = " + getCommitInterval() + "\n"
+            + "  threads            = " + getThreads()));
 
 
         // Time the whole thing...
@@ -215,6 +248,8 @@ public class CopyDatabaseCommand implements Command {
           + "that the temp directory on the local machine has plenty of    \n"
           + "space (~200MB) for temporary storage. Database sequences are  \n"
           + "also synchronized as part of this operation.                  \n"
+          + "With --direct, tables are streamed straight from the source   \n"
+          + "to the destination in parallel and no temp space is needed.   \n"
           + ".                                                             \n";
 
         HelpFormatter hf = new HelpFormatter();
@@ -237,7 +272,8 @@ public class CopyDatabaseCommand implements Command {
 
     /**
      * Copies one database to another. Internally exports the source db to a
-     * flatfile and them imports it from flatfile to the destination database.
+     * flatfile and them imports it from flatfile to the destination database
+     * unless direct mode is enabled.
      *
      * @param source Database in the test environment to copy.
      * @param dest Database in the destination test environment to copy to.
@@ -248,6 +284,11 @@ public class CopyDatabaseCommand implements Command {
         TestDatabase dest)
         throws Exception {
 
+        if (isDirect()) {
+            copyDirect(source, dest);
+            return;
+        }
+
         File exportFile = exportDatabase(source);
         importDatabase(dest, exportFile);
 
@@ -263,6 +304,88 @@ public class CopyDatabaseCommand implements Command {
     }
 
 
+    /**
+     * Copies one database to another by streaming each table from the source
+     * into batched inserts on the destination. Tables are copied in parallel
+     * in foreign key order.
+     *
+     * @param source Database in the test environment to copy.
+     * @param dest Database in the destination test environment to copy to.
+     * @throws Exception on error.
+     */
+    protected void copyDirect(
+        TestDatabase source,
+        TestDatabase dest)
+        throws Exception {
+
+        // Both sessions must be up, leave the destination as the active env
+        new SetEnvCommand().execute(
+            getConsole(),
+            new String[] { getSourceEnv().getName() });
+
+        new SetEnvCommand().execute(
+            getConsole(),
+            new String[] { getDestEnv().getName() });
+
+        Connection sourceJdbcConnection =
+            JDBCSession.getConnection(source.getName());
+
+        String[] tables;
+        Map dependencies;
+
+        try {
+            IDatabaseConnection sourceConnection = new OracleConnection(
+                sourceJdbcConnection,
+                source.getAdminUser());
+
+            // Sorted so parents come before children
+            DatabaseSequenceFilter filter =
+                new DatabaseSequenceFilter(sourceConnection);
+
+            tables = filter.getTableNames(sourceConnection.createDataSet());
+
+            dependencies = TableCopier.getDependencies(
+                sourceJdbcConnection,
+                sourceConnection.getSchema(),
+                tables);
+        }
+        finally {
+            JDBCUtil.releaseConnection(sourceJdbcConnection);
+        }
+
+        logger.debug(StringUtil.banner(
+            "Copying "
+            + tables.length
+            + " tables directly from "
+            + sourceEnv
+            + ":"
+            + source.getName()
+            + " to "
+            + destEnv
+            + ":"
+            + dest.getName()
+            + "..."));
+
+        TableCopier copier = new TableCopier(source.getName(), dest.getName());
+        copier.setFetchSize(getFetchSize());
+        copier.setCommitInterval(getCommitInterval());
+        copier.setThreads(getThreads());
+
+        // Constraints must be disabled if using truncate!
+        setDisableConstraints(isUseTruncate());
+
+        if (isDisableConstraints())
+            OracleUtil.setConstraintsEnabled(dest.getName(), false);
+
+        copier.clear(tables, isUseTruncate());
+
+        if (isDisableConstraints())
+            OracleUtil.setConstraintsEnabled(dest.getName(), true);
+
+        copier.copy(tables, dependencies);
+    }
+
+
     /**
      * Import a database from an XML file that was generated via
      * exportDatabase().
@@ -623,6 +746,34 @@ public class CopyDatabaseCommand implements Command {
             "Don't disable foreign key constraints when 'delete' is used to "
             + "clear the tables. Disregarded if truncate is enabled.");
 
+        Option direct = new Option(
+            "d",
+            "direct",
+            false,
+            "Stream tables directly to the destination instead of through "
+            + "an export file");
+
+        Option fetchSize = new Option(
+            "f",
+            "fetchSize",
+            true,
+            "Rows fetched from the source at a time in direct mode (default "
+            + TableCopier.DEFAULT_FETCH_SIZE + ")");
+
+        Option commitInterval = new Option(
+            "i",
+            "commitInterval",
+            true,
+            "Rows inserted between commits in direct mode (default "
+            + TableCopier.DEFAULT_COMMIT_INTERVAL + ")");
+
+        Option parallel = new Option(
+            "p",
+            "parallel",
+            true,
+            "Tables copied at the same time in direct mode (default "
+            + TableCopier.DEFAULT_THREADS + ")");
+
         Option helpOption = new Option(
             "h",
             "help",
@@ -641,6 +792,10 @@ public class CopyDatabaseCommand implements Command {
         options.addOption(noTruncate);
         options.addOption(dontSyncSequences);
         options.addOption(dontDisableConstraints);
+        options.addOption(direct);
+        options.addOption(fetchSize);
+        options.addOption(commitInterval);
+        options.addOption(parallel);
 
         CommandLine cmdLine = parser.parse(options, args, true);
 
@@ -661,6 +816,18 @@ public class CopyDatabaseCommand implements Command {
             else if (opt.equals(dontDisableConstraints.getOpt())) {
                 setDisableConstraints(false);
             }
+            else if (opt.equals(direct.getOpt())) {
+                setDirect(true);
+            }
+            else if (opt.equals(fetchSize.getOpt())) {
+                setFetchSize(parseCount(option));
+            }
+            else if (opt.equals(commitInterval.getOpt())) {
+                setCommitInterval(parseCount(option));
+            }
+            else if (opt.equals(parallel.getOpt())) {
+                setThreads(parseCount(option));
+            }
             else if (opt.equals(helpOption.getOpt())
                 || opt.equals(helpOption2.getOpt())) {
                 // printHelp(out);
@@ -741,6 +908,33 @@ public class CopyDatabaseCommand implements Command {
         return true;
     }
 
+
+    /**
+     * Parses the positive number passed to an option.
+     *
+     * @param option Option with a value.
+     * @return int
+     * @throws ParseException if the value is not a positive number.
+     */
+    protected int parseCount(Option option) throws ParseException {
+
+        try {
+            int count = Integer.parseInt(option.getValue());
+
+            if (count > 0)
+                return count;
+        }
+        catch (NumberFormatException e) {
+            ; // Fall through
+        }
+
+        throw new ParseException(
+            "Option "
+            + option.getLongOpt()
+            + " requires a positive number: "
+            + option.getValue());
+    }
+
     //--------------------------------------------------------------------------
     // Accessors/Mutators
     //--------------------------------------------------------------------------
@@ -891,4 +1085,87 @@ public class CopyDatabaseCommand implements Command {
     public void setUseTruncate(boolean b) {
         useTruncate = b;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Returns true if tables are copied directly between the databases
+     * instead of through an export file.
+     *
+     * @return boolean
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+
+    /**
+     * Sets the flag to copy tables directly between the databases.
+     *
+     * @param b True to copy directly, false to use an export file.
+     */
+    public void setDirect(boolean b) {
+        direct = b;
+    }
+
+
+    /**
+     * Returns the number of rows fetched from the source at a time in direct
+     * mode.
+     *
+     * @return int
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+
+    /**
+     * Sets the number of rows fetched from the source at a time in direct
+     * mode.
+     *
+     * @param i Fetch size.
+     */
+    public void setFetchSize(int i) {
+        fetchSize = i;
+    }
+
+
+    /**
+     * Returns the number of rows inserted between commits in direct mode.
+     *
+     * @return int
+     */
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+
+    /**
+     * Sets the number of rows inserted between commits in direct mode.
+     *
+     * @param i Rows between commits.
+     */
+    public void setCommitInterval(int i) {
+        commitInterval = i;
+    }
+
+
+    /**
+     * Returns the number of tables copied at the same time in direct mode.
+     *
+     * @return int
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+
+    /**
+     * Sets the number of tables copied at the same time in direct mode.
+     *
+     * @param i Number of threads.
+     */
+    public void setThreads(int i) {
+        threads = i;
+    }
+}
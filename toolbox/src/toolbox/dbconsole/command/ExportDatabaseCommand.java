@@ -39,13 +39,16 @@ import toolbox.dbconsole.Command;
 import toolbox.dbconsole.TestConsole;
 import toolbox.dbconsole.TestDatabase;
 import toolbox.dbconsole.TestEnvironment;
+import toolbox.dbconsole.util.BinaryDataSetWriter;
 import toolbox.dbconsole.util.CountingOutputStream;
 import toolbox.util.FileUtil;
 import toolbox.util.JDBCSession;
 import toolbox.util.StringUtil;
 
 /**
- * Exports a database to a flatfile.
+ * Exports a database to a flatfile. The file is FlatXml by default or a
+ * compact binary dump written by {@link BinaryDataSetWriter}, optionally
+ * compressed. {@link ImportDatabaseCommand} reads either format.
  */
 public class ExportDatabaseCommand implements Command {
 
@@ -71,6 +74,16 @@ public class ExportDatabaseCommand implements Command {
      */
     private boolean keepTempFiles;
 
+    /**
+     * Export to a binary dump instead of FlatXml?
+     */
+    private boolean binary;
+
+    /**
+     * Compress the binary dump?
+     */
+    private boolean compress;
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -81,6 +94,7 @@ public class ExportDatabaseCommand implements Command {
      * Defaults are:
      * <ul>
      *   <li>temp files are not kept
+     *   <li>exports are FlatXml
      * </ul>
      */
     public ExportDatabaseCommand() {
@@ -117,7 +131,9 @@ public class ExportDatabaseCommand implements Command {
 
         logger.debug(StringUtil.banner(
             "Options:\n"
-            + "  keepTempFiles      = " + isKeepTempFiles() + "\n"));
+            + "  keepTempFiles      = " + isKeepTempFiles() + "\n"
+            + "  binary             = " + isBinary() + "\n"
+            + "  compress           = " + isCompress() + "\n"));
 
         // Time the whole thing...
         StopWatch watch = new StopWatch();
@@ -227,7 +243,11 @@ public class ExportDatabaseCommand implements Command {
             + " to "
             + exportFile + "..."));
 
-        FlatXmlDataSet.write(fullDataSet, cos);
+        if (isBinary())
+            BinaryDataSetWriter.write(fullDataSet, cos, isCompress());
+        else
+            FlatXmlDataSet.write(fullDataSet, cos);
+
         cos.close();
 
         exportTimer.stop();
@@ -261,6 +281,18 @@ public class ExportDatabaseCommand implements Command {
             false,
             "Keeps temp files during export instead of deleting them");
 
+        Option binaryOption = new Option(
+            "b",
+            "binary",
+            false,
+            "Exports to a compact binary dump instead of FlatXml");
+
+        Option compressOption = new Option(
+            "z",
+            "compress",
+            false,
+            "Exports to a compressed binary dump. Implies --binary");
+
         Option helpOption = new Option(
             "h",
             "help",
@@ -276,6 +308,8 @@ public class ExportDatabaseCommand implements Command {
         options.addOption(helpOption2);
         options.addOption(helpOption);
         options.addOption(keepTempFiles);
+        options.addOption(binaryOption);
+        options.addOption(compressOption);
 
         CommandLine cmdLine = parser.parse(options, args, true);
 
@@ -287,6 +321,13 @@ public class ExportDatabaseCommand implements Command {
             if (opt.equals(keepTempFiles.getOpt())) {
                 setKeepTempFiles(true);
             }
+            else if (opt.equals(binaryOption.getOpt())) {
+                setBinary(true);
+            }
+            else if (opt.equals(compressOption.getOpt())) {
+                setBinary(true);
+                setCompress(true);
+            }
             else if (opt.equals(helpOption.getOpt())
                 || opt.equals(helpOption2.getOpt())) {
                 
@@ -424,6 +465,42 @@ public class ExportDatabaseCommand implements Command {
     public void setKeepTempFiles(boolean b) {
         keepTempFiles = b;
     }
+
+    /**
+     * Returns true to export to a binary dump, false to export to FlatXml.
+     *
+     * @return boolean
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Sets the flag to export to a binary dump instead of FlatXml.
+     *
+     * @param b True for a binary dump, false for FlatXml.
+     */
+    public void setBinary(boolean b) {
+        binary = b;
+    }
+
+    /**
+     * Returns true if the binary dump is compressed.
+     *
+     * @return boolean
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * Sets the flag to compress the binary dump. Has no effect on FlatXml.
+     *
+     * @param b True to compress, false otherwise.
+     */
+    public void setCompress(boolean b) {
+        compress = b;
+    }
     
     /**
      * Returns the source test environment.
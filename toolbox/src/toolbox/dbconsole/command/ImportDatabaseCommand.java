@@ -1,6 +1,7 @@
 package toolbox.dbconsole.command;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -34,6 +35,7 @@ import toolbox.dbconsole.Command;
 import toolbox.dbconsole.TestConsole;
 import toolbox.dbconsole.TestDatabase;
 import toolbox.dbconsole.TestEnvironment;
+import toolbox.dbconsole.util.BinaryDataSetProducer;
 import toolbox.dbconsole.util.TimedOperation;
 import toolbox.util.JDBCSession;
 import toolbox.util.StringUtil;
@@ -41,7 +43,8 @@ import toolbox.util.db.oracle.OracleUtil;
 
 /**
  * Imports to a database from a flatfile generated by the 
- * {@link toolbox.dbconsole.command.ExportDatabaseCommand}.
+ * {@link toolbox.dbconsole.command.ExportDatabaseCommand}. The format of the
+ * file, FlatXml or binary dump, is detected from its contents.
  */
 public class ImportDatabaseCommand implements Command {
 
@@ -112,7 +115,8 @@ public class ImportDatabaseCommand implements Command {
      * @see toolbox.dbconsole.Command#getDescription()
      */
     public String getDescription() {
-        return "Imports a flatfile generated by exportdb into a database.";
+        return "Imports a flatfile or binary dump generated by exportdb into "
+            + "a database.";
     }
 
 
@@ -189,11 +193,11 @@ public class ImportDatabaseCommand implements Command {
 
 
     /**
-     * Import a database from an XML file that was generated via
-     * exportDatabase().
+     * Import a database from an XML file or binary dump that was generated
+     * via exportDatabase().
      *
      * @param dest Destination database.
-     * @param exportFile XML file generated via exportDatabase().
+     * @param exportFile File generated via exportDatabase().
      * @throws Exception on error.
      * @throws SQLException on sql error.
      * @throws DatabaseUnitException on dbunit error.
@@ -224,8 +228,7 @@ public class ImportDatabaseCommand implements Command {
             DatabaseConfig.PROPERTY_RESULTSET_TABLE_FACTORY,
             new ForwardOnlyResultSetTableFactory());
 
-        IDataSetProducer producer =
-            new FlatXmlProducer(new InputSource(exportFile.getAbsolutePath()));
+        IDataSetProducer producer = createProducer(exportFile);
 
         // Use streaming so the entire dataset is not kept resident in memory...
         StreamingDataSet ds = new StreamingDataSet(producer);
@@ -273,6 +276,28 @@ public class ImportDatabaseCommand implements Command {
             DatabaseOperation.INSERT).execute(destConnection, ds);
     }
 
+    /**
+     * Returns a producer for an export file in either format. Files that do
+     * not start with the binary dump header are read as FlatXml.
+     *
+     * @param exportFile File generated via exportDatabase().
+     * @return IDataSetProducer
+     * @throws IOException on I/O error.
+     */
+    protected IDataSetProducer createProducer(File exportFile)
+        throws IOException {
+
+        if (BinaryDataSetProducer.isBinary(exportFile)) {
+            logger.debug(exportFile + " is a binary dump");
+            return new BinaryDataSetProducer(exportFile);
+        }
+
+        logger.debug(exportFile + " is FlatXml");
+        return new FlatXmlProducer(
+            new InputSource(exportFile.getAbsolutePath()));
+    }
+
+
     /**
      * Parses the command line options and arguments to this command.
      *
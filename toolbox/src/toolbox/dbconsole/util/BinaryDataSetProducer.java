@@ -0,0 +1,358 @@
+package toolbox.dbconsole.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.stream.DefaultConsumer;
+import org.dbunit.dataset.stream.IDataSetConsumer;
+import org.dbunit.dataset.stream.IDataSetProducer;
+
+/**
+ * Reads a binary dump written by {@link BinaryDataSetWriter} and streams it to
+ * a dbunit consumer, usually through a
+ * {@link org.dbunit.dataset.stream.StreamingDataSet}. Only one block of rows
+ * is held in memory at a time.
+ * <p>
+ * Like FlatXmlProducer the columns are typed as UNKNOWN, so database
+ * operations use the types of the target table. The file is opened again
+ * every time the dataset is produced.
+ */
+public class BinaryDataSetProducer implements IDataSetProducer {
+
+    private static final Log logger =
+        LogFactory.getLog(BinaryDataSetProducer.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Dump to read.
+     */
+    private File file;
+
+    /**
+     * Receives the dataset events.
+     */
+    private IDataSetConsumer consumer;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a BinaryDataSetProducer.
+     *
+     * @param file Binary dump to read.
+     */
+    public BinaryDataSetProducer(File file) {
+        this.file = file;
+        this.consumer = new DefaultConsumer();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns true if a file starts with the header of a binary dump.
+     *
+     * @param file File to check.
+     * @return boolean
+     * @throws IOException on I/O error.
+     */
+    public static boolean isBinary(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+
+        try {
+            byte[] magic = new byte[BinaryDataSetWriter.MAGIC.length];
+            int length = 0;
+            int read;
+
+            while (length < magic.length
+                && (read = is.read(magic, length, magic.length - length)) > 0)
+                length += read;
+
+            return Arrays.equals(magic, BinaryDataSetWriter.MAGIC);
+        }
+        finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // IDataSetProducer Interface
+    //--------------------------------------------------------------------------
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetProducer#setConsumer(
+     *      org.dbunit.dataset.stream.IDataSetConsumer)
+     */
+    public void setConsumer(IDataSetConsumer consumer)
+        throws DataSetException {
+        this.consumer = consumer;
+    }
+
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetProducer#produce()
+     */
+    public void produce() throws DataSetException {
+        InputStream is = null;
+
+        try {
+            is = new BufferedInputStream(new FileInputStream(file));
+            produce(openBody(is));
+        }
+        catch (EOFException e) {
+            throw new DataSetException("Truncated dump " + file, e);
+        }
+        catch (IOException e) {
+            throw new DataSetException(e);
+        }
+        finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Reads and checks the header and returns a stream over the body.
+     *
+     * @param is Stream positioned at the header.
+     * @return DataInputStream
+     * @throws IOException on I/O error.
+     * @throws DataSetException if the file is not a binary dump.
+     */
+    private DataInputStream openBody(InputStream is)
+        throws IOException, DataSetException {
+
+        DataInputStream header = new DataInputStream(is);
+        byte[] magic = new byte[BinaryDataSetWriter.MAGIC.length];
+        header.readFully(magic);
+
+        if (!Arrays.equals(magic, BinaryDataSetWriter.MAGIC))
+            throw new DataSetException(file + " is not a binary dump");
+
+        int version = header.readUnsignedByte();
+
+        if (version > BinaryDataSetWriter.VERSION)
+            throw new DataSetException(
+                "Unsupported version " + version + " of " + file);
+
+        int flags = header.readUnsignedByte();
+
+        if ((flags & BinaryDataSetWriter.FLAG_COMPRESSED) != 0)
+            return new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(is, BUFFER_SIZE), BUFFER_SIZE));
+
+        return header;
+    }
+
+
+    /**
+     * Reads the tables of the dump and sends them to the consumer.
+     *
+     * @param in Stream positioned after the header.
+     * @throws IOException on I/O error.
+     * @throws DataSetException on dataset error.
+     */
+    private void produce(DataInputStream in)
+        throws IOException, DataSetException {
+
+        consumer.startDataSet();
+
+        for (int tag = in.readUnsignedByte();
+            tag != BinaryDataSetWriter.TAG_END;
+            tag = in.readUnsignedByte()) {
+
+            if (tag != BinaryDataSetWriter.TAG_TABLE)
+                throw new DataSetException("Expected a table but got " + tag);
+
+            produceTable(in);
+        }
+
+        consumer.endDataSet();
+    }
+
+
+    /**
+     * Reads one table and sends its rows to the consumer.
+     *
+     * @param in Stream positioned after the table tag.
+     * @throws IOException on I/O error.
+     * @throws DataSetException on dataset error.
+     */
+    private void produceTable(DataInputStream in)
+        throws IOException, DataSetException {
+
+        String tableName = readString(in);
+        Column[] columns = new Column[readVarInt(in)];
+
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = new Column(readString(in), DataType.UNKNOWN);
+
+        logger.debug("Reading table " + tableName);
+        consumer.startTable(new DefaultTableMetaData(tableName, columns));
+
+        for (int tag = in.readUnsignedByte();
+            tag != BinaryDataSetWriter.TAG_END_TABLE;
+            tag = in.readUnsignedByte()) {
+
+            if (tag != BinaryDataSetWriter.TAG_ROWS)
+                throw new DataSetException(
+                    "Expected rows of " + tableName + " but got " + tag);
+
+            // Values are stored a column at a time, rows are sent whole
+            Object[][] block = new Object[readVarInt(in)][columns.length];
+
+            for (int col = 0; col < columns.length; col++)
+                for (int row = 0; row < block.length; row++)
+                    block[row][col] = readValue(in);
+
+            for (int row = 0; row < block.length; row++)
+                consumer.row(block[row]);
+        }
+
+        consumer.endTable();
+    }
+
+
+    /**
+     * Reads a value written by BinaryDataSetWriter.
+     *
+     * @param in Stream positioned at the type of the value.
+     * @return Object
+     * @throws IOException on I/O error.
+     * @throws DataSetException on an unknown type.
+     */
+    private Object readValue(DataInputStream in)
+        throws IOException, DataSetException {
+
+        int type = in.readUnsignedByte();
+
+        switch (type) {
+
+            case BinaryDataSetWriter.TYPE_NULL:
+                return null;
+
+            case BinaryDataSetWriter.TYPE_STRING:
+                return readString(in);
+
+            case BinaryDataSetWriter.TYPE_BYTES:
+                return readBytes(in);
+
+            case BinaryDataSetWriter.TYPE_DECIMAL:
+                int scale = readVarInt(in);
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+
+            case BinaryDataSetWriter.TYPE_INTEGER:
+                return new Integer(in.readInt());
+
+            case BinaryDataSetWriter.TYPE_LONG:
+                return new Long(in.readLong());
+
+            case BinaryDataSetWriter.TYPE_DOUBLE:
+                return new Double(in.readDouble());
+
+            case BinaryDataSetWriter.TYPE_FLOAT:
+                return new Float(in.readFloat());
+
+            case BinaryDataSetWriter.TYPE_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+
+            case BinaryDataSetWriter.TYPE_DATE:
+                return new java.sql.Date(in.readLong());
+
+            case BinaryDataSetWriter.TYPE_TIME:
+                return new Time(in.readLong());
+
+            case BinaryDataSetWriter.TYPE_BOOLEAN:
+                return Boolean.valueOf(in.readBoolean());
+
+            default:
+                throw new DataSetException("Unknown value type " + type);
+        }
+    }
+
+
+    /**
+     * Reads a length prefixed array of bytes.
+     *
+     * @param in Stream positioned at the length.
+     * @return byte[]
+     * @throws IOException on I/O error.
+     */
+    private byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+
+    /**
+     * Reads a length prefixed UTF-8 string.
+     *
+     * @param in Stream positioned at the length.
+     * @return String
+     * @throws IOException on I/O error.
+     */
+    private String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), BinaryDataSetWriter.ENCODING);
+    }
+
+
+    /**
+     * Reads an int written seven bits at a time by BinaryDataSetWriter.
+     *
+     * @param in Stream positioned at the first byte of the number.
+     * @return int
+     * @throws IOException on I/O error.
+     */
+    private int readVarInt(DataInputStream in) throws IOException {
+        int i = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            i |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return i;
+        }
+
+        throw new IOException("Malformed variable length int");
+    }
+}
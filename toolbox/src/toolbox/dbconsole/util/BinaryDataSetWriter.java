@@ -0,0 +1,468 @@
+package toolbox.dbconsole.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.stream.DataSetProducerAdapter;
+import org.dbunit.dataset.stream.IDataSetConsumer;
+
+/**
+ * Writes a dataset to a compact binary dump that can be read back with
+ * {@link BinaryDataSetProducer}. The dump is a fraction of the size of the
+ * equivalent FlatXml and is read without any parsing, so imports are bound by
+ * the database instead of the file.
+ * <p>
+ * Layout of a dump:
+ * <pre>
+ * header : magic "TBDS", version byte, flags byte
+ * table  : TABLE, name, column count, column names
+ * block  : ROWS, row count, then the values of each column in turn
+ * end    : END_TABLE after the blocks of a table, END after the last table
+ * </pre>
+ * Everything after the header is gzipped when the compressed flag is set.
+ * Rows are buffered into blocks and written a column at a time so similar
+ * values sit next to each other, which helps compression. Each value is a
+ * type byte followed by a fixed size or length prefixed payload. Lengths,
+ * counts and scales are variable length so small values take a single byte.
+ * <p>
+ * The writer is a dbunit consumer so it can be fed by any producer. The
+ * underlying stream is flushed but not closed at the end of the dataset.
+ */
+public class BinaryDataSetWriter implements IDataSetConsumer {
+
+    private static final Log logger =
+        LogFactory.getLog(BinaryDataSetWriter.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * First bytes of every binary dump.
+     */
+    static final byte[] MAGIC = {'T', 'B', 'D', 'S'};
+
+    /**
+     * Current version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Header flag set when the body of the dump is gzipped.
+     */
+    static final int FLAG_COMPRESSED = 0x01;
+
+    /**
+     * Record tags.
+     */
+    static final int TAG_END       = 0;
+    static final int TAG_TABLE     = 1;
+    static final int TAG_ROWS      = 2;
+    static final int TAG_END_TABLE = 3;
+
+    /**
+     * Value types.
+     */
+    static final int TYPE_NULL      = 0;
+    static final int TYPE_STRING    = 1;
+    static final int TYPE_BYTES     = 2;
+    static final int TYPE_DECIMAL   = 3;
+    static final int TYPE_INTEGER   = 4;
+    static final int TYPE_LONG      = 5;
+    static final int TYPE_DOUBLE    = 6;
+    static final int TYPE_FLOAT     = 7;
+    static final int TYPE_TIMESTAMP = 8;
+    static final int TYPE_DATE      = 9;
+    static final int TYPE_TIME      = 10;
+    static final int TYPE_BOOLEAN   = 11;
+
+    /**
+     * Encoding of string values.
+     */
+    static final String ENCODING = "UTF-8";
+
+    /**
+     * Default number of rows in a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Stream the dump is written to.
+     */
+    private DataOutputStream out;
+
+    /**
+     * Compressing stream under out, or null if not compressed.
+     */
+    private GZIPOutputStream gzip;
+
+    /**
+     * Maximum number of rows in a block.
+     */
+    private int blockSize;
+
+    /**
+     * Rows of the current block. Reused from block to block.
+     */
+    private Object[][] block;
+
+    /**
+     * Number of rows in the current block.
+     */
+    private int rows;
+
+    /**
+     * Number of columns in the current table.
+     */
+    private int columns;
+
+    /**
+     * Number of rows in the current table.
+     */
+    private long tableRows;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a BinaryDataSetWriter.
+     *
+     * @param out Stream to write the dump to.
+     * @param compress True to gzip the body of the dump.
+     * @throws IOException on I/O error.
+     */
+    public BinaryDataSetWriter(OutputStream out, boolean compress)
+        throws IOException {
+
+        // The header is never compressed so the format can be detected
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(compress ? FLAG_COMPRESSED : 0);
+
+        if (compress) {
+            gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            out = gzip;
+        }
+
+        this.out = new DataOutputStream(
+            new BufferedOutputStream(out, BUFFER_SIZE));
+
+        setBlockSize(DEFAULT_BLOCK_SIZE);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Writes a dataset to a stream as a binary dump. The stream is not closed.
+     *
+     * @param dataSet Dataset to write.
+     * @param out Stream to write the dump to.
+     * @param compress True to gzip the body of the dump.
+     * @throws IOException on I/O error.
+     * @throws DataSetException on dataset error.
+     */
+    public static void write(IDataSet dataSet, OutputStream out,
+        boolean compress) throws IOException, DataSetException {
+
+        DataSetProducerAdapter producer = new DataSetProducerAdapter(dataSet);
+        producer.setConsumer(new BinaryDataSetWriter(out, compress));
+        producer.produce();
+    }
+
+    //--------------------------------------------------------------------------
+    // IDataSetConsumer Interface
+    //--------------------------------------------------------------------------
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetConsumer#startDataSet()
+     */
+    public void startDataSet() throws DataSetException {
+    }
+
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetConsumer#endDataSet()
+     */
+    public void endDataSet() throws DataSetException {
+        try {
+            out.writeByte(TAG_END);
+            out.flush();
+
+            if (gzip != null) {
+                gzip.finish();
+                gzip.flush();
+            }
+        }
+        catch (IOException e) {
+            throw new DataSetException(e);
+        }
+    }
+
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetConsumer#startTable(
+     *      org.dbunit.dataset.ITableMetaData)
+     */
+    public void startTable(ITableMetaData metaData) throws DataSetException {
+        Column[] cols = metaData.getColumns();
+        columns = cols.length;
+        rows = 0;
+        tableRows = 0;
+
+        if (block.length == 0 || block[0].length != columns)
+            block = new Object[blockSize][columns];
+
+        try {
+            out.writeByte(TAG_TABLE);
+            writeString(metaData.getTableName());
+            writeVarInt(columns);
+
+            for (int i = 0; i < columns; i++)
+                writeString(cols[i].getColumnName());
+        }
+        catch (IOException e) {
+            throw new DataSetException(e);
+        }
+
+        logger.debug("Writing table " + metaData.getTableName());
+    }
+
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetConsumer#row(java.lang.Object[])
+     */
+    public void row(Object[] values) throws DataSetException {
+        System.arraycopy(values, 0, block[rows], 0, columns);
+        tableRows++;
+
+        if (++rows == blockSize)
+            flushBlock();
+    }
+
+
+    /*
+     * @see org.dbunit.dataset.stream.IDataSetConsumer#endTable()
+     */
+    public void endTable() throws DataSetException {
+        flushBlock();
+
+        try {
+            out.writeByte(TAG_END_TABLE);
+        }
+        catch (IOException e) {
+            throw new DataSetException(e);
+        }
+
+        logger.debug("Wrote " + tableRows + " rows");
+    }
+
+    //--------------------------------------------------------------------------
+    // Accessors/Mutators
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum number of rows in a block.
+     *
+     * @return int
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Sets the maximum number of rows in a block. Larger blocks compress
+     * better but take more memory to write and read. Must be set before the
+     * first table.
+     *
+     * @param blockSize Number of rows.
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException(
+                "Block size must be at least 1: " + blockSize);
+
+        this.blockSize = blockSize;
+        this.block = new Object[0][];
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Writes the buffered rows a column at a time and empties the block.
+     *
+     * @throws DataSetException on I/O error.
+     */
+    private void flushBlock() throws DataSetException {
+        if (rows == 0)
+            return;
+
+        try {
+            out.writeByte(TAG_ROWS);
+            writeVarInt(rows);
+
+            for (int col = 0; col < columns; col++)
+                for (int row = 0; row < rows; row++)
+                    writeValue(block[row][col]);
+        }
+        catch (IOException e) {
+            throw new DataSetException(e);
+        }
+
+        // Don't hold on to the values of the last block
+        for (int row = 0; row < rows; row++)
+            for (int col = 0; col < columns; col++)
+                block[row][col] = null;
+
+        rows = 0;
+    }
+
+
+    /**
+     * Writes a value as its type followed by its payload. Values of types
+     * without an encoding of their own are written as strings.
+     *
+     * @param value Value to write.
+     * @throws IOException on I/O error.
+     */
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        }
+        else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString((String) value);
+        }
+        else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(TYPE_BYTES);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (value instanceof BigDecimal) {
+            writeDecimal((BigDecimal) value);
+        }
+        else if (value instanceof BigInteger) {
+            writeDecimal(new BigDecimal((BigInteger) value));
+        }
+        else if (value instanceof Integer
+            || value instanceof Short
+            || value instanceof Byte) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(((Number) value).intValue());
+        }
+        else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((Long) value).longValue());
+        }
+        else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        }
+        else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat(((Float) value).floatValue());
+        }
+        else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        }
+        else if (value instanceof java.sql.Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value instanceof Time) {
+            out.writeByte(TYPE_TIME);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value instanceof Date) {
+            writeValue(new Timestamp(((Date) value).getTime()));
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean(((Boolean) value).booleanValue());
+        }
+        else {
+            out.writeByte(TYPE_STRING);
+            writeString(value.toString());
+        }
+    }
+
+
+    /**
+     * Writes a decimal as its scale and unscaled two's complement bytes.
+     *
+     * @param value Decimal to write.
+     * @throws IOException on I/O error.
+     */
+    private void writeDecimal(BigDecimal value) throws IOException {
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        out.writeByte(TYPE_DECIMAL);
+        writeVarInt(value.scale());
+        writeVarInt(unscaled.length);
+        out.write(unscaled);
+    }
+
+
+    /**
+     * Writes a string as its length in bytes followed by the UTF-8 bytes.
+     * Unlike writeUTF() there is no 64K limit.
+     *
+     * @param s String to write.
+     * @throws IOException on I/O error.
+     */
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(ENCODING);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Writes an int seven bits at a time, low bits first, with the high bit
+     * of each byte set when more bytes follow. Negative numbers always take
+     * five bytes.
+     *
+     * @param i Number to write.
+     * @throws IOException on I/O error.
+     */
+    private void writeVarInt(int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+
+        out.writeByte(i);
+    }
+}
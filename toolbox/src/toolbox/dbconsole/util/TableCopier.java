@@ -0,0 +1,619 @@
+package toolbox.dbconsole.util;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.time.StopWatch;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import toolbox.util.JDBCSession;
+import toolbox.util.JDBCUtil;
+
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.CompletionService;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorCompletionService;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+
+/**
+ * Copies tables directly from one JDBC session to another. Rows are streamed
+ * from a forward only result set on the source into batched inserts on the
+ * destination, so nothing is staged on disk and only a fetch worth of rows is
+ * held in memory per table.
+ * <p>
+ * Tables are copied in parallel, one table per worker, each with its own pair
+ * of connections. A table is not started until all the tables it references
+ * through foreign keys have been copied, so the copy works with the
+ * constraints on the destination enabled.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * TableCopier copier = new TableCopier("srcdb", "destdb");
+ * copier.setThreads(4);
+ * Map parents = TableCopier.getDependencies(conn, "SCHEMA", tables);
+ * copier.clear(tables, true);
+ * copier.copy(tables, parents);
+ * </pre>
+ */
+public class TableCopier {
+
+    private static final Log logger = LogFactory.getLog(TableCopier.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default number of rows fetched from the source at a time.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /**
+     * Default number of rows sent to the destination per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Default number of rows inserted between commits.
+     */
+    public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+
+    /**
+     * Default number of tables copied at the same time.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * JDBCSession to copy from.
+     */
+    private String sourceSession;
+
+    /**
+     * JDBCSession to copy to.
+     */
+    private String destSession;
+
+    /**
+     * Number of rows fetched from the source at a time.
+     */
+    private int fetchSize;
+
+    /**
+     * Number of rows sent to the destination per batch.
+     */
+    private int batchSize;
+
+    /**
+     * Number of rows inserted between commits.
+     */
+    private int commitInterval;
+
+    /**
+     * Number of tables copied at the same time.
+     */
+    private int threads;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a TableCopier.
+     *
+     * @param sourceSession Name of the JDBCSession to copy from.
+     * @param destSession Name of the JDBCSession to copy to.
+     */
+    public TableCopier(String sourceSession, String destSession) {
+        this.sourceSession = sourceSession;
+        this.destSession = destSession;
+
+        setFetchSize(DEFAULT_FETCH_SIZE);
+        setBatchSize(DEFAULT_BATCH_SIZE);
+        setCommitInterval(DEFAULT_COMMIT_INTERVAL);
+        setThreads(DEFAULT_THREADS);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the tables each table references through a foreign key.
+     *
+     * @param conn Connection to the database.
+     * @param schema Schema the tables belong to or null.
+     * @param tables Table names.
+     * @return Map with key = table name and value = Set of the upper case
+     *         names of the tables it references.
+     * @throws SQLException on database error.
+     */
+    public static Map getDependencies(
+        Connection conn,
+        String schema,
+        String[] tables)
+        throws SQLException {
+
+        DatabaseMetaData meta = conn.getMetaData();
+        Map dependencies = new HashMap();
+
+        for (int i = 0; i < tables.length; i++) {
+
+            Set parents = new HashSet();
+            ResultSet rs = meta.getImportedKeys(null, schema, tables[i]);
+
+            try {
+                while (rs.next())
+                    parents.add(rs.getString("PKTABLE_NAME").toUpperCase());
+            }
+            finally {
+                JDBCUtil.close(rs);
+            }
+
+            dependencies.put(tables[i], parents);
+        }
+
+        return dependencies;
+    }
+
+
+    /**
+     * Empties tables in the destination in the reverse of the given order so
+     * that children are emptied before their parents.
+     *
+     * @param tables Table names in foreign key order.
+     * @param truncate True to truncate, false to delete.
+     * @throws SQLException on database error.
+     */
+    public void clear(String[] tables, boolean truncate) throws SQLException {
+
+        for (int i = tables.length - 1; i >= 0; i--) {
+
+            String sql = truncate
+                ? "TRUNCATE TABLE " + tables[i]
+                : "DELETE FROM " + tables[i];
+
+            int rows = JDBCSession.executeUpdate(destSession, sql);
+            logger.debug("Executed: " + sql + " (" + rows + " rows)");
+        }
+    }
+
+
+    /**
+     * Copies tables from the source to the destination.
+     *
+     * @param tables Table names in foreign key order.
+     * @param dependencies Tables referenced by each table as returned by
+     *        getDependencies(). A table is only started once the tables it
+     *        references have been copied. May be null to copy in any order.
+     * @throws Exception on error. The first failure stops the copy.
+     */
+    public void copy(String[] tables, Map dependencies) throws Exception {
+
+        StopWatch watch = new StopWatch();
+        watch.start();
+
+        List pending = new ArrayList(Arrays.asList(tables));
+        Set copying = new HashSet();
+        Set done = new HashSet();
+
+        for (int i = 0; i < tables.length; i++)
+            copying.add(tables[i].toUpperCase());
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactory() {
+
+                private int count;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TableCopier-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        CompletionService completed = new ExecutorCompletionService(pool);
+        int running = 0;
+
+        try {
+            while (!pending.isEmpty() || running > 0) {
+
+                // Start every table whose parents have been copied
+                for (Iterator i = pending.iterator(); i.hasNext();) {
+                    String table = (String) i.next();
+
+                    if (isReady(table, dependencies, copying, done)) {
+                        i.remove();
+                        completed.submit(new CopyTask(table));
+                        running++;
+                    }
+                }
+
+                // Only a foreign key cycle leaves nothing to wait for
+                if (running == 0) {
+                    String table = (String) pending.remove(0);
+
+                    logger.warn(
+                        "Foreign key cycle involving "
+                        + table
+                        + ", copying it before its parents");
+
+                    completed.submit(new CopyTask(table));
+                    running++;
+                }
+
+                Future future = completed.take();
+                running--;
+
+                try {
+                    done.add(((String) future.get()).toUpperCase());
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+
+                    throw e;
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        watch.stop();
+        logger.debug("Copied " + tables.length + " tables in " + watch);
+    }
+
+
+    /**
+     * Copies one table from the source to the destination.
+     *
+     * @param table Table name.
+     * @return Number of rows copied.
+     * @throws SQLException on database error.
+     */
+    public long copyTable(String table) throws SQLException {
+
+        StopWatch watch = new StopWatch();
+        watch.start();
+
+        Connection source = null;
+        Connection dest = null;
+        Statement select = null;
+        ResultSet rs = null;
+        PreparedStatement insert = null;
+        boolean autoCommit = true;
+        long rows = 0;
+
+        try {
+            source = JDBCSession.getConnection(sourceSession);
+            dest = JDBCSession.getConnection(destSession);
+
+            select = source.createStatement(
+                ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+
+            select.setFetchSize(fetchSize);
+            rs = select.executeQuery("SELECT * FROM " + table);
+
+            ResultSetMetaData meta = rs.getMetaData();
+            int columns = meta.getColumnCount();
+            int[] types = new int[columns + 1];
+
+            for (int c = 1; c <= columns; c++)
+                types[c] = meta.getColumnType(c);
+
+            insert = dest.prepareStatement(getInsertSql(table, meta));
+            autoCommit = dest.getAutoCommit();
+            dest.setAutoCommit(false);
+
+            int batched = 0;
+
+            while (rs.next()) {
+
+                for (int c = 1; c <= columns; c++)
+                    setParameter(insert, rs, c, types[c]);
+
+                insert.addBatch();
+                rows++;
+
+                if (++batched == batchSize) {
+                    insert.executeBatch();
+                    batched = 0;
+                }
+
+                if (rows % commitInterval == 0) {
+                    if (batched > 0) {
+                        insert.executeBatch();
+                        batched = 0;
+                    }
+
+                    dest.commit();
+                    logger.debug(table + ": " + rows + " rows committed");
+                }
+            }
+
+            if (batched > 0)
+                insert.executeBatch();
+
+            dest.commit();
+        }
+        catch (SQLException e) {
+            rollback(dest);
+            throw e;
+        }
+        finally {
+            JDBCUtil.close(rs);
+            JDBCUtil.close(select);
+            JDBCUtil.close(insert);
+            restoreAutoCommit(dest, autoCommit);
+            JDBCUtil.releaseConnection(source);
+            JDBCUtil.releaseConnection(dest);
+        }
+
+        watch.stop();
+        logger.debug("Copied " + table + ": " + rows + " rows in " + watch);
+        return rows;
+    }
+
+    //--------------------------------------------------------------------------
+    // Protected
+    //--------------------------------------------------------------------------
+
+    /**
+     * Builds the parameterized insert statement for a table.
+     *
+     * @param table Table name.
+     * @param meta Metadata of the source result set.
+     * @return String
+     * @throws SQLException on database error.
+     */
+    protected String getInsertSql(String table, ResultSetMetaData meta)
+        throws SQLException {
+
+        StringBuffer columns = new StringBuffer();
+        StringBuffer values = new StringBuffer();
+
+        for (int c = 1; c <= meta.getColumnCount(); c++) {
+            if (c > 1) {
+                columns.append(", ");
+                values.append(", ");
+            }
+
+            columns.append(meta.getColumnName(c));
+            values.append("?");
+        }
+
+        return "INSERT INTO " + table + " (" + columns + ") VALUES ("
+            + values + ")";
+    }
+
+
+    /**
+     * Copies a column of the current row to an insert parameter. LOBs are
+     * read into memory since a LOB locator can't outlive the row it came from
+     * or be used on another connection.
+     *
+     * @param insert Insert statement.
+     * @param rs Source result set.
+     * @param column Column index.
+     * @param type SQL type of the column.
+     * @throws SQLException on database error.
+     */
+    protected void setParameter(
+        PreparedStatement insert,
+        ResultSet rs,
+        int column,
+        int type)
+        throws SQLException {
+
+        Object value;
+
+        switch (type) {
+
+            case Types.BLOB:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                value = rs.getBytes(column);
+                break;
+
+            case Types.CLOB:
+            case Types.LONGVARCHAR:
+                value = rs.getString(column);
+                break;
+
+            default:
+                value = rs.getObject(column);
+        }
+
+        if (value == null)
+            insert.setNull(column, type);
+        else
+            insert.setObject(column, value);
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns true if all the tables a table references that are part of the
+     * copy have been copied.
+     */
+    private static boolean isReady(
+        String table,
+        Map dependencies,
+        Set copying,
+        Set done) {
+
+        if (dependencies == null)
+            return true;
+
+        Set parents = (Set) dependencies.get(table);
+
+        if (parents == null)
+            return true;
+
+        for (Iterator i = parents.iterator(); i.hasNext();) {
+            String parent = (String) i.next();
+
+            // Self references don't hold up a table
+            if (parent.equalsIgnoreCase(table))
+                continue;
+
+            if (copying.contains(parent) && !done.contains(parent))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    private static void rollback(Connection conn) {
+        try {
+            if (conn != null)
+                conn.rollback();
+        }
+        catch (SQLException e) {
+            logger.warn("Rollback failed", e);
+        }
+    }
+
+
+    private static void restoreAutoCommit(Connection conn, boolean autoCommit) {
+        try {
+            if (conn != null && !conn.isClosed())
+                conn.setAutoCommit(autoCommit);
+        }
+        catch (SQLException e) {
+            logger.warn("Unable to restore auto commit", e);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // CopyTask
+    //--------------------------------------------------------------------------
+
+    /**
+     * Copies a table and returns its name.
+     */
+    class CopyTask implements Callable {
+
+        private String table;
+
+        CopyTask(String table) {
+            this.table = table;
+        }
+
+        public Object call() throws Exception {
+            copyTable(table);
+            return table;
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Accessors/Mutators
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the number of rows fetched from the source at a time.
+     *
+     * @return int
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+
+    /**
+     * Sets the number of rows fetched from the source at a time.
+     *
+     * @param fetchSize Fetch size.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+
+    /**
+     * Returns the number of rows sent to the destination per batch.
+     *
+     * @return int
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+
+    /**
+     * Sets the number of rows sent to the destination per batch.
+     *
+     * @param batchSize Batch size.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+
+    /**
+     * Returns the number of rows inserted between commits.
+     *
+     * @return int
+     */
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+
+    /**
+     * Sets the number of rows inserted between commits.
+     *
+     * @param commitInterval Rows between commits.
+     */
+    public void setCommitInterval(int commitInterval) {
+        this.commitInterval = Math.max(1, commitInterval);
+    }
+
+
+    /**
+     * Returns the number of tables copied at the same time.
+     *
+     * @return int
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+
+    /**
+     * Sets the number of tables copied at the same time.
+     *
+     * @param threads Number of worker threads.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+}
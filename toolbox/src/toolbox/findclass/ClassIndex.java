@@ -0,0 +1,556 @@
+package toolbox.findclass;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.FileUtil;
+
+/**
+ * Index of the classes contained in archives that is kept on disk between
+ * searches. Each archive is keyed by its absolute path, size and last modified
+ * time so that only archives that have been added or changed since the index
+ * was saved need to be opened again. Searching an indexed archive is done
+ * entirely in memory.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * ClassIndex index = new ClassIndex(ClassIndex.getDefaultIndexFile());
+ * index.load();
+ *
+ * FindClass finder = new FindClass();
+ * finder.setIndex(index);
+ * finder.findClass("Object", true); // Saves the index if it changed
+ * </pre>
+ *
+ * @see toolbox.findclass.FindClass#setIndex(ClassIndex)
+ */
+public class ClassIndex
+{
+    private static final Logger logger_ = Logger.getLogger(ClassIndex.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Identifies an index file.
+     */
+    private static final int MAGIC = 0x46434958; // FCIX
+
+    /**
+     * Version of the index file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Name of the default index file in the user's home directory.
+     */
+    private static final String DEFAULT_INDEX_FILE = ".toolbox-findclass.idx";
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * File the index is saved to.
+     */
+    private File indexFile_;
+
+    /**
+     * Key = String absolute path of an archive, Value = Archive.
+     */
+    private Map archives_;
+
+    /**
+     * Set when the index has changed since it was loaded or saved.
+     */
+    private boolean dirty_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates an empty ClassIndex.
+     *
+     * @param indexFile File the index is loaded from and saved to.
+     */
+    public ClassIndex(File indexFile)
+    {
+        indexFile_ = indexFile;
+        archives_ = new HashMap();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public Static
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the default index file which is .toolbox-findclass.idx in the
+     * user's home directory.
+     *
+     * @return File
+     */
+    public static File getDefaultIndexFile()
+    {
+        return new File(FileUtil.trailWithSeparator(
+            System.getProperty("user.home")) + DEFAULT_INDEX_FILE);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the up to date index of an archive, reading the archive if it
+     * has not been indexed yet or has changed since it was indexed.
+     *
+     * @param archivePath Path of the archive.
+     * @return Archive or null if the archive does not exist or is not a valid
+     *         zip file.
+     */
+    public Archive getArchive(String archivePath)
+    {
+        File file = new File(archivePath);
+        String key = file.getAbsolutePath();
+
+        synchronized (this)
+        {
+            Archive archive = (Archive) archives_.get(key);
+
+            if (!file.isFile())
+            {
+                if (archives_.remove(key) != null)
+                    dirty_ = true;
+
+                return null;
+            }
+
+            if (archive != null &&
+                archive.size_ == file.length() &&
+                archive.lastModified_ == file.lastModified())
+                return archive;
+        }
+
+        // Read outside the lock so that archives can be indexed in parallel
+        Archive archive = null;
+
+        try
+        {
+            archive = Archive.read(file);
+        }
+        catch (IOException e)
+        {
+            logger_.debug("Unable to index " + key + ": " + e.getMessage());
+        }
+
+        synchronized (this)
+        {
+            if (archive == null)
+                archives_.remove(key);
+            else
+                archives_.put(key, archive);
+
+            dirty_ = true;
+        }
+
+        return archive;
+    }
+
+
+    /**
+     * Loads the index file, replacing the current contents of the index. A
+     * missing index file results in an empty index.
+     *
+     * @throws IOException on I/O error or if the file is not an index file.
+     */
+    public synchronized void load() throws IOException
+    {
+        archives_.clear();
+        dirty_ = false;
+
+        if (!indexFile_.exists())
+            return;
+
+        DataInputStream in = null;
+
+        try
+        {
+            in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile_)));
+
+            if (in.readInt() != MAGIC)
+                throw new IOException(indexFile_ + " is not a class index");
+
+            int version = in.readInt();
+
+            if (version != VERSION)
+                throw new IOException(
+                    "Unsupported class index version " + version);
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++)
+            {
+                Archive archive = Archive.read(in);
+                archives_.put(archive.path_, archive);
+            }
+
+            logger_.debug(
+                "Loaded index of " + count + " archives from " + indexFile_);
+        }
+        catch (IOException e)
+        {
+            archives_.clear();
+            throw e;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+
+    /**
+     * Saves the index file. The index is written to a temporary file which
+     * then replaces the index file.
+     *
+     * @throws IOException on I/O error.
+     */
+    public synchronized void save() throws IOException
+    {
+        File parent = indexFile_.getAbsoluteFile().getParentFile();
+
+        if (parent != null)
+            parent.mkdirs();
+
+        File temp = new File(indexFile_.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try
+        {
+            out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(archives_.size());
+
+            for (Iterator i = archives_.values().iterator(); i.hasNext();)
+                ((Archive) i.next()).write(out);
+
+            out.close();
+            out = null;
+
+            indexFile_.delete();
+
+            if (!temp.renameTo(indexFile_))
+                throw new IOException(
+                    "Unable to rename " + temp + " to " + indexFile_);
+
+            dirty_ = false;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+
+    /**
+     * Removes all archives from the index.
+     */
+    public synchronized void clear()
+    {
+        dirty_ = dirty_ || !archives_.isEmpty();
+        archives_.clear();
+    }
+
+
+    /**
+     * @return True if the index changed since it was last loaded or saved.
+     */
+    public synchronized boolean isDirty()
+    {
+        return dirty_;
+    }
+
+
+    /**
+     * @return Number of archives in the index.
+     */
+    public synchronized int getArchiveCount()
+    {
+        return archives_.size();
+    }
+
+
+    /**
+     * @return File the index is loaded from and saved to.
+     */
+    public File getIndexFile()
+    {
+        return indexFile_;
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Writes a string as the length of the prefix it shares with the previous
+     * string followed by the remainder. Class names in an archive share long
+     * package prefixes so this shrinks the index considerably.
+     */
+    private static void writePrefixed(
+        DataOutputStream out,
+        String previous,
+        String s) throws IOException
+    {
+        int max = Math.min(Math.min(previous.length(), s.length()), 0xFFFF);
+        int common = 0;
+
+        while (common < max && previous.charAt(common) == s.charAt(common))
+            common++;
+
+        out.writeShort(common);
+        out.writeUTF(s.substring(common));
+    }
+
+
+    /**
+     * Reads a string written by writePrefixed().
+     */
+    private static String readPrefixed(DataInputStream in, String previous)
+        throws IOException
+    {
+        int common = in.readUnsignedShort();
+
+        if (common > previous.length())
+            throw new IOException("Corrupt class index");
+
+        return previous.substring(0, common) + in.readUTF();
+    }
+
+    //--------------------------------------------------------------------------
+    // Archive
+    //--------------------------------------------------------------------------
+
+    /**
+     * Classes contained in a single archive. Class names are stored in entry
+     * name order with their sizes and timestamps in parallel arrays.
+     */
+    public static class Archive
+    {
+        private String path_;
+        private long size_;
+        private long lastModified_;
+        private String[] classNames_;
+        private String[] lowerCaseNames_;
+        private long[] classSizes_;
+        private long[] classTimes_;
+
+        /**
+         * Reads the class entries of an archive.
+         */
+        static Archive read(File file) throws IOException
+        {
+            ZipFile zf = new ZipFile(file);
+
+            try
+            {
+                List entries = new ArrayList();
+
+                for (Enumeration e = zf.entries(); e.hasMoreElements();)
+                {
+                    ZipEntry ze = (ZipEntry) e.nextElement();
+
+                    if (!ze.isDirectory() && ze.getName().endsWith(".class"))
+                        entries.add(ze);
+                }
+
+                // Sorted so that neighbouring names share package prefixes
+                ZipEntry[] sorted =
+                    (ZipEntry[]) entries.toArray(new ZipEntry[0]);
+
+                Arrays.sort(sorted, new Comparator()
+                {
+                    public int compare(Object o1, Object o2)
+                    {
+                        return ((ZipEntry) o1).getName().compareTo(
+                            ((ZipEntry) o2).getName());
+                    }
+                });
+
+                String[] names = new String[sorted.length];
+
+                for (int i = 0; i < sorted.length; i++)
+                {
+                    String name = sorted[i].getName().replace('/', '.');
+                    names[i] = name.substring(
+                        0, name.length() - ".class".length());
+                }
+
+                Archive archive = new Archive();
+                archive.path_ = file.getAbsolutePath();
+                archive.size_ = file.length();
+                archive.lastModified_ = file.lastModified();
+                archive.classNames_ = names;
+                archive.classSizes_ = new long[names.length];
+                archive.classTimes_ = new long[names.length];
+
+                for (int i = 0; i < sorted.length; i++)
+                {
+                    archive.classSizes_[i] = sorted[i].getSize();
+                    archive.classTimes_[i] = sorted[i].getTime();
+                }
+
+                return archive;
+            }
+            finally
+            {
+                zf.close();
+            }
+        }
+
+
+        /**
+         * Reads an archive from the index file.
+         */
+        static Archive read(DataInputStream in) throws IOException
+        {
+            Archive archive = new Archive();
+            archive.path_ = in.readUTF();
+            archive.size_ = in.readLong();
+            archive.lastModified_ = in.readLong();
+
+            int count = in.readInt();
+            archive.classNames_ = new String[count];
+            archive.classSizes_ = new long[count];
+            archive.classTimes_ = new long[count];
+
+            String previous = "";
+
+            for (int i = 0; i < count; i++)
+            {
+                previous = readPrefixed(in, previous);
+                archive.classNames_[i] = previous;
+                archive.classSizes_[i] = in.readLong();
+                archive.classTimes_[i] = in.readLong();
+            }
+
+            return archive;
+        }
+
+
+        /**
+         * Writes this archive to the index file.
+         */
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeUTF(path_);
+            out.writeLong(size_);
+            out.writeLong(lastModified_);
+            out.writeInt(classNames_.length);
+
+            String previous = "";
+
+            for (int i = 0; i < classNames_.length; i++)
+            {
+                writePrefixed(out, previous, classNames_[i]);
+                out.writeLong(classSizes_[i]);
+                out.writeLong(classTimes_[i]);
+                previous = classNames_[i];
+            }
+        }
+
+
+        /**
+         * @return Absolute path of the archive.
+         */
+        public String getPath()
+        {
+            return path_;
+        }
+
+
+        /**
+         * @return Number of classes in the archive.
+         */
+        public int getClassCount()
+        {
+            return classNames_.length;
+        }
+
+
+        /**
+         * @param index Index of the class.
+         * @return Fully qualified class name.
+         */
+        public String getClassName(int index)
+        {
+            return classNames_[index];
+        }
+
+
+        /**
+         * Returns the class name in lower case. The lower case names are
+         * computed on first use for case insensitive searches.
+         *
+         * @param index Index of the class.
+         * @return Fully qualified class name in lower case.
+         */
+        public synchronized String getLowerCaseClassName(int index)
+        {
+            if (lowerCaseNames_ == null)
+            {
+                lowerCaseNames_ = new String[classNames_.length];
+
+                for (int i = 0; i < classNames_.length; i++)
+                    lowerCaseNames_[i] = classNames_[i].toLowerCase();
+            }
+
+            return lowerCaseNames_[index];
+        }
+
+
+        /**
+         * @param index Index of the class.
+         * @return Uncompressed size of the class file.
+         */
+        public long getClassSize(int index)
+        {
+            return classSizes_[index];
+        }
+
+
+        /**
+         * @param index Index of the class.
+         * @return Timestamp of the class file.
+         */
+        public long getClassTime(int index)
+        {
+            return classTimes_[index];
+        }
+    }
+}
@@ -11,6 +11,13 @@ import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.lang.StringUtils;
@@ -38,8 +45,22 @@ import toolbox.util.service.Cancelable;
  *   <li>archive - collectively refers to either a jar file or a zip file.
  * </ul>
  * 
+ * <p>
+ * Archives are normally opened and scanned on every search. Setting a 
+ * {@link ClassIndex} lets repeat searches skip archives that have not changed
+ * since they were indexed and search their class names in memory instead.
+ * <p>
+ * Search targets are searched one after the other unless more than one thread
+ * is set with {@link #setThreads(int)}, in which case they are searched in
+ * parallel and results are delivered to listeners as soon as they are found,
+ * so their order is no longer the order of the search targets. Listeners are
+ * never called concurrently. The time taken to search each target is reported
+ * to {@link FindClassListener#targetSearched(String, long)} either way, which
+ * helps to spot slow archives on network drives.
+ * 
  * @see toolbox.findclass.FindClassResult
  * @see toolbox.findclass.FindClassListener
+ * @see toolbox.findclass.ClassIndex
  */
 public class FindClass implements Cancelable 
 { 
@@ -61,6 +82,12 @@ public class FindClass implements Cancelable
     private static final IOFileFilter FILEFILTER_ARCHIVE = 
         new SuffixFileFilter(new String[]{".jar", ".zip", ".ear", ".war", ".rar"});
     
+    /**
+     * Regular expression characters other than '.' which rule out matching
+     * class names against the literal parts of the search string first.
+     */
+    private static final String REGEXP_SPECIAL = "\\^$|?*+()[]{}";
+    
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
@@ -76,9 +103,20 @@ public class FindClass implements Cancelable
     private boolean ignoreCase_;
 
     /** 
-     * Flag to cancel the search. 
+     * Flag to cancel the search. Checked between the entries of each target.
+     */
+    private volatile boolean canceled_;
+    
+    /**
+     * Number of threads that search targets in parallel. 1 searches 
+     * sequentially.
+     */
+    private int threads_;
+    
+    /**
+     * Serializes listener notifications from parallel searches.
      */
-    private boolean canceled_;
+    private final Object listenerLock_ = new Object();
 
     /** 
      * Regular expression matcher. 
@@ -100,6 +138,18 @@ public class FindClass implements Cancelable
      */ 
     private FindClassCollector defaultCollector_;
     
+    /**
+     * Optional index of archive contents. Null to scan archives every time.
+     */
+    private ClassIndex index_;
+    
+    /**
+     * Longest literal part of the search string that every match must 
+     * contain, in lower case if the search ignores case. Null if the search
+     * string is a regular expression that can't be prefiltered.
+     */
+    private String literal_;
+    
     //--------------------------------------------------------------------------
     //  Constructors
     //--------------------------------------------------------------------------
@@ -110,6 +160,7 @@ public class FindClass implements Cancelable
     public FindClass() 
     {
         findListeners_ = new FindClassListener[0];
+        threads_ = 1;
         defaultCollector_ = new FindClassCollector();
         searchTargets_ = new ArrayList();
         addSearchListener(defaultCollector_);
@@ -140,35 +191,37 @@ public class FindClass implements Cancelable
         defaultCollector_.clear();
 
         // Setup regexp based on case sensitivity flag
-        regExp_ = new RE(classToFind_);
-        
-        if (ignoreCase_)
-            regExp_.setMatchFlags(RE.MATCH_CASEINDEPENDENT);        
+        regExp_ = createRegExp();
+        literal_ = getLiteral(classToFind_, ignoreCase_);
 
         String[] targets = (String[]) getSearchTargets().toArray(new String[0]);
 
-        // Search each target
-        for (int i = 0; i < targets.length; i++) 
-        { 
-            if (!canceled_)
+        if (threads_ > 1 && targets.length > 1)
+        {
+            searchParallel(targets);
+        }
+        else
+        {
+            // Search each target
+            for (int i = 0; i < targets.length && !canceled_; i++) 
+                searchTarget(targets[i], regExp_);
+        }
+        
+        if (index_ != null && index_.isDirty())
+        {
+            try
             {
-                String target = targets[i];
-                
-                fireSearchingTarget(target);
-                
-                if (ClassUtil.isArchive(target))
-                    findInArchive(target);
-                else
-                    findInPath(target);
+                index_.save();
             }
-            else
+            catch (IOException e)
             {
-                fireSearchCanceled();
-                break;                    
+                logger_.warn("Unable to save " + index_.getIndexFile(), e);
             }
         }
         
-        if (!canceled_)
+        if (canceled_)
+            fireSearchCanceled();
+        else
             fireSearchCompleted();
         
         return defaultCollector_.getResults();
@@ -244,6 +297,52 @@ public class FindClass implements Cancelable
     }
 
     
+    /**
+     * Sets the number of threads used to search targets in parallel.
+     * 
+     * @param threads Number of threads. Defaults to 1 which searches the 
+     *        targets one after the other.
+     */
+    public void setThreads(int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException(
+                "Threads must be at least 1: " + threads);
+        
+        threads_ = threads;
+    }
+    
+    
+    /**
+     * @return Number of threads used to search targets.
+     */
+    public int getThreads()
+    {
+        return threads_;
+    }
+    
+    
+    /**
+     * Sets the index used to search archives. The index is saved at the end of
+     * every search that changed it.
+     * 
+     * @param index Index or null to scan archives on every search.
+     */
+    public void setIndex(ClassIndex index)
+    {
+        index_ = index;
+    }
+    
+    
+    /**
+     * @return Index used to search archives or null if there is none.
+     */
+    public ClassIndex getIndex()
+    {
+        return index_;
+    }
+    
+    
     /**
      * Returns a list of archives that exist in a given directory. The 
      * directory is searched recursively.
@@ -326,6 +425,112 @@ public class FindClass implements Cancelable
     }
 
     
+    /**
+     * Creates a matcher for the class to find. Matchers are not thread safe
+     * so each thread searching in parallel has its own.
+     * 
+     * @return RE
+     * @throws RESyntaxException on regular expression error.
+     */
+    protected RE createRegExp() throws RESyntaxException
+    {
+        RE regExp = new RE(classToFind_);
+        
+        if (ignoreCase_)
+            regExp.setMatchFlags(RE.MATCH_CASEINDEPENDENT);
+        
+        return regExp;
+    }
+    
+    
+    /**
+     * Searches a single archive or directory and reports how long it took.
+     * 
+     * @param target Archive or directory to search.
+     * @param regExp Matcher for the class to find.
+     * @throws IOException on I/O error.
+     */
+    protected void searchTarget(String target, RE regExp) throws IOException
+    {
+        fireSearchingTarget(target);
+        long start = System.currentTimeMillis();
+        
+        if (ClassUtil.isArchive(target))
+            findInArchive(target, regExp);
+        else
+            findInPath(target, regExp);
+        
+        fireTargetSearched(target, System.currentTimeMillis() - start);
+    }
+    
+    
+    /**
+     * Searches targets in parallel and waits for all of them to finish or be
+     * canceled. Errors searching a target are logged and don't stop the 
+     * search of the other targets.
+     * 
+     * @param targets Archives and directories to search.
+     */
+    protected void searchParallel(String[] targets)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(
+            Math.min(threads_, targets.length), 
+            new ThreadFactory()
+            {
+                private int count_;
+                
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "FindClass-" + (++count_));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        
+        try
+        {
+            Future[] futures = new Future[targets.length];
+            
+            for (int i = 0; i < targets.length; i++)
+            {
+                final String target = targets[i];
+                
+                futures[i] = pool.submit(new Callable()
+                {
+                    public Object call() throws Exception
+                    {
+                        if (!canceled_)
+                            searchTarget(target, createRegExp());
+                        
+                        return null;
+                    }
+                });
+            }
+            
+            for (int i = 0; i < futures.length; i++)
+            {
+                try
+                {
+                    futures[i].get();
+                }
+                catch (ExecutionException e)
+                {
+                    logger_.error("Error searching " + targets[i], e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            canceled_ = true;
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+    
+    
     /**
      * Finds a class in a given jar file.
      * 
@@ -333,7 +538,26 @@ public class FindClass implements Cancelable
      * @throws IOException on I/O error.
      */
     protected void findInArchive(String jarName) throws IOException
+    {
+        findInArchive(jarName, regExp_);
+    }
+    
+    
+    /**
+     * Finds a class in a given jar file.
+     * 
+     * @param jarName Name of the jar file to search.
+     * @param regExp Matcher for the class to find.
+     * @throws IOException on I/O error.
+     */
+    private void findInArchive(String jarName, RE regExp) throws IOException
     { 
+        if (index_ != null)
+        {
+            findInIndex(jarName, regExp);
+            return;
+        }
+        
         ZipFile zf = null;
 
         try 
@@ -358,7 +582,7 @@ public class FindClass implements Cancelable
             return;
         }
         
-        for (Enumeration e = zf.entries(); e.hasMoreElements();) 
+        for (Enumeration e = zf.entries(); e.hasMoreElements() && !canceled_;) 
         { 
             ZipEntry ze = (ZipEntry) e.nextElement();
 
@@ -367,7 +591,7 @@ public class FindClass implements Cancelable
                 String name = ze.getName().replace('/', '.');
                 name = name.substring(0, name.length() - ".class".length());
                 
-                if (regExp_.match(name))
+                if (regExp.match(name))
                 {
                     long size = ze.getSize();
                     Date date = new Date(ze.getTime());
@@ -378,8 +602,8 @@ public class FindClass implements Cancelable
                         name,
                         size,
                         date,
-                        regExp_.getParenStart(0),
-                        regExp_.getParenEnd(0));
+                        regExp.getParenStart(0),
+                        regExp.getParenEnd(0));
                     
                     fireClassFound(result);
                 }
@@ -390,12 +614,114 @@ public class FindClass implements Cancelable
     }
     
     
+    /**
+     * Finds a class in the index of a given jar file, indexing the jar first
+     * if it is new or has changed.
+     * 
+     * @param jarName Name of the jar file to search.
+     */
+    protected void findInIndex(String jarName)
+    {
+        findInIndex(jarName, regExp_);
+    }
+    
+    
+    /**
+     * Finds a class in the index of a given jar file.
+     * 
+     * @param jarName Name of the jar file to search.
+     * @param regExp Matcher for the class to find.
+     */
+    private void findInIndex(String jarName, RE regExp)
+    {
+        ClassIndex.Archive archive = index_.getArchive(jarName);
+        
+        if (archive == null)
+        {
+            if (!new File(jarName).exists())
+                System.out.println("Error: Could not locate " + jarName + ".");
+            
+            return;
+        }
+        
+        for (int i = 0, n = archive.getClassCount(); i < n && !canceled_; i++)
+        {
+            if (literal_ != null)
+            {
+                String name = ignoreCase_ 
+                    ? archive.getLowerCaseClassName(i) 
+                    : archive.getClassName(i);
+                
+                if (name.indexOf(literal_) < 0)
+                    continue;
+            }
+            
+            String name = archive.getClassName(i);
+            
+            if (regExp.match(name))
+            {
+                FindClassResult result = new FindClassResult(
+                    classToFind_,
+                    jarName,
+                    name,
+                    archive.getClassSize(i),
+                    new Date(archive.getClassTime(i)),
+                    regExp.getParenStart(0),
+                    regExp.getParenEnd(0));
+                
+                fireClassFound(result);
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns the longest literal part of a search string that every matching
+     * class name must contain. This is only possible when the only special
+     * character in the search string is '.', which matches any character
+     * including the '.' in the class name.
+     * 
+     * @param classToFind Search string.
+     * @param ignoreCase True to return the literal in lower case.
+     * @return Literal or null if the search string can't be prefiltered.
+     */
+    static String getLiteral(String classToFind, boolean ignoreCase)
+    {
+        if (!StringUtils.containsNone(classToFind, REGEXP_SPECIAL))
+            return null;
+        
+        String[] parts = StringUtils.split(classToFind, '.');
+        String literal = null;
+        
+        for (int i = 0; i < parts.length; i++)
+            if (literal == null || parts[i].length() > literal.length())
+                literal = parts[i];
+        
+        if (literal == null)
+            return null;
+        
+        return ignoreCase ? literal.toLowerCase() : literal;
+    }
+    
+    
     /**
      * Finds a class in a given directory including child directories.
      * 
      * @param dirPath Absolute name of the directory to start searching from.
      */    
     protected void findInPath(String dirPath) 
+    {
+        findInPath(dirPath, regExp_);
+    }
+    
+    
+    /**
+     * Finds a class in a given directory including child directories.
+     * 
+     * @param dirPath Absolute name of the directory to start searching from.
+     * @param regExp Matcher for the class to find.
+     */    
+    private void findInPath(String dirPath, RE regExp) 
     { 
         // Tack a slash on the end
         dirPath = FileUtil.trailWithSeparator(dirPath);
@@ -403,7 +729,7 @@ public class FindClass implements Cancelable
         // Regular expression search
         List classFiles = FileUtil.find(dirPath, FILEFILTER_CLASSFILE);
         
-        for (Iterator i = classFiles.iterator(); i.hasNext();)
+        for (Iterator i = classFiles.iterator(); i.hasNext() && !canceled_;)
         {
             String fileName = (String) i.next();
             String dotted = fileName.replace(File.separatorChar, '.');
@@ -415,7 +741,7 @@ public class FindClass implements Cancelable
             
             //logger_.debug("file = " + dotted);
             
-            if (regExp_.match(dotted))
+            if (regExp.match(dotted))
             {
                 File classFile = new File(fileName);
                 
@@ -426,8 +752,8 @@ public class FindClass implements Cancelable
                         dotted,
                         classFile.length(),
                         new Date(classFile.lastModified()),
-                        regExp_.getParenStart(0),
-                        regExp_.getParenEnd(0));
+                        regExp.getParenStart(0),
+                        regExp.getParenEnd(0));
                     
                 fireClassFound(result);
             }
@@ -446,8 +772,11 @@ public class FindClass implements Cancelable
      */
     protected void fireClassFound(FindClassResult result)
     {
-        for (int i = 0; i < findListeners_.length; i++)
-            findListeners_[i].classFound(result);
+        synchronized (listenerLock_)
+        {
+            for (int i = 0; i < findListeners_.length; i++)
+                findListeners_[i].classFound(result);
+        }
     }
 
     
@@ -456,8 +785,11 @@ public class FindClass implements Cancelable
      */
     protected void fireSearchCompleted()
     {
-        for (int i = 0; i < findListeners_.length; i++)
-            findListeners_[i].searchCompleted(classToFind_);
+        synchronized (listenerLock_)
+        {
+            for (int i = 0; i < findListeners_.length; i++)
+                findListeners_[i].searchCompleted(classToFind_);
+        }
     }
 
     
@@ -468,8 +800,27 @@ public class FindClass implements Cancelable
      */
     protected void fireSearchingTarget(String target)
     {
-        for (int i = 0; i < findListeners_.length; i++)
-            findListeners_[i].searchingTarget(target);
+        synchronized (listenerLock_)
+        {
+            for (int i = 0; i < findListeners_.length; i++)
+                findListeners_[i].searchingTarget(target);
+        }
+    }
+    
+    
+    /**
+     * Called when a search target has been searched.
+     *
+     * @param target Target that was searched.
+     * @param elapsed Time taken to search the target in milliseconds.
+     */
+    protected void fireTargetSearched(String target, long elapsed)
+    {
+        synchronized (listenerLock_)
+        {
+            for (int i = 0; i < findListeners_.length; i++)
+                findListeners_[i].targetSearched(target, elapsed);
+        }
     }
     
     
@@ -478,8 +829,11 @@ public class FindClass implements Cancelable
      */
     protected void fireSearchCanceled()
     {
-        for (int i = 0; i < findListeners_.length; i++)
-            findListeners_[i].searchCanceled();
+        synchronized (listenerLock_)
+        {
+            for (int i = 0; i < findListeners_.length; i++)
+                findListeners_[i].searchCanceled();
+        }
     }
  
     
@@ -24,6 +24,10 @@ public class FindClassAdapter implements FindClassListener {
     }
 
 
+    public void targetSearched(String target, long elapsed) {
+    }
+
+
     public void searchCanceled() {
     }
 
@@ -31,6 +31,15 @@ public interface FindClassListener {
     void searchingTarget(String target);
 
 
+    /**
+     * Notification that a given target has been searched.
+     * 
+     * @param target Name of the target directory or archive.
+     * @param elapsed Time taken to search the target in milliseconds.
+     */
+    void targetSearched(String target, long elapsed);
+
+
     /**
      * Notification that a search was canceled.
      */
@@ -59,6 +59,16 @@ public class Main extends FindClassAdapter
     
     private boolean showFileSize_;
     
+    /**
+     * Flag to search archives using the class index in the user's home dir.
+     */
+    private boolean useIndex_;
+    
+    /**
+     * Number of threads to search with.
+     */
+    private int threads_ = 1;
+    
     //--------------------------------------------------------------------------
     // Main
     //--------------------------------------------------------------------------
@@ -81,12 +91,16 @@ public class Main extends FindClassAdapter
             Option helpOption = new Option("h", "help", false, "Print usage");
             Option verboseOption = new Option("v", "verbose", false, "Verbose logging");
             Option showFileSizeOption = new Option("s", "size", false, "Show file sizes");
+            Option indexOption = new Option("i", "index", false, "Search archives using a persistent class index");
+            Option threadsOption = new Option("p", "parallel", true, "Number of threads to search with");
             
             options.addOption(helpOption);
             options.addOption(caseSensetiveOption);        
             options.addOption(showTargetsOption);
             options.addOption(verboseOption);
             options.addOption(showFileSizeOption);
+            options.addOption(indexOption);
+            options.addOption(threadsOption);
     
             // Parse options
             CommandLine cmdLine = parser.parse(options, args, true);
@@ -114,6 +128,14 @@ public class Main extends FindClassAdapter
                 {
                 	mainClass.setShowFileSize(true);
                 }
+                else if (opt.equals(indexOption.getOpt()))
+                {
+                    mainClass.setUseIndex(true);
+                }
+                else if (opt.equals(threadsOption.getOpt()))
+                {
+                    mainClass.setThreads(Integer.parseInt(option.getValue()));
+                }
                 else if (opt.equals(verboseOption.getOpt()))
                 {
                     Logger l = Logger.getLogger("toolbox.findclass");
@@ -180,6 +202,23 @@ public class Main extends FindClassAdapter
     {
         FindClass finder = new FindClass();
         finder.addSearchListener(this);
+        finder.setThreads(threads_);
+        
+        if (useIndex_)
+        {
+            ClassIndex index = new ClassIndex(ClassIndex.getDefaultIndexFile());
+            
+            try
+            {
+                index.load();
+            }
+            catch (IOException e)
+            {
+                logger_.warn("Rebuilding unreadable class index: " + e.getMessage());
+            }
+            
+            finder.setIndex(index);
+        }
 
         if (showTargets_)
         {        
@@ -243,6 +282,28 @@ public class Main extends FindClassAdapter
         writer_ = writer;
     }
     
+    /**
+     * Mutator for the use index flag.
+     * 
+     * @param b Use index flag.
+     */
+    public void setUseIndex(boolean b)
+    {
+        useIndex_ = b;
+    }
+    
+    
+    /**
+     * Mutator for the number of threads to search with.
+     * 
+     * @param threads Number of threads.
+     */
+    public void setThreads(int threads)
+    {
+        threads_ = threads;
+    }
+    
+    
     public void setShowFileSize(boolean b) 
     {
     	showFileSize_ = b;
@@ -304,4 +365,16 @@ public class Main extends FindClassAdapter
 
         writer_.println(sb.toString());
     }
-}
\ No newline at end of file
+    
+    
+    /**
+     * Logs the time taken to search each target when verbose.
+     * 
+     * @see toolbox.findclass.FindClassListener#targetSearched(
+     *      java.lang.String, long)
+     */
+    public void targetSearched(String target, long elapsed)
+    {
+        logger_.debug(target + " searched in " + elapsed + "ms");
+    }
+}
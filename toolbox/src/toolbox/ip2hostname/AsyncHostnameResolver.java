@@ -3,6 +3,11 @@ package toolbox.ip2hostname;
 import java.util.ArrayList;
 import java.util.List;
 
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.FutureTask;
+
 import org.apache.commons.collections.Buffer;
 import org.apache.commons.collections.buffer.BlockingBuffer;
 import org.apache.commons.collections.buffer.UnboundedFifoBuffer;
@@ -17,6 +22,9 @@ public class AsyncHostnameResolver implements HostnameResolver, Runnable {
     /** Buffer of Strings which represent ip addresses */
     private Buffer queue;
 
+    /** Maps ip address to the FutureTask of a queued or running lookup */
+    private ConcurrentHashMap pending = new ConcurrentHashMap();
+
     /** List of Threads */
     private List asyncResolvers;
     
@@ -47,16 +55,40 @@ public class AsyncHostnameResolver implements HostnameResolver, Runnable {
         if (delegate.hasResolved(ipAddress)) {
             hostname = delegate.resolve(ipAddress);
         }
-        else if (!queue.contains(ipAddress)) {
-            queue.add(ipAddress);
-            hostname = ipAddress;
-        }
         else {
+            submit(ipAddress);
             hostname = ipAddress;
         }
         return hostname;
     }
     
+    // =======================================================================
+    // Public
+    // =======================================================================
+    
+    /**
+     * Queues a lookup unless one is already queued or running and returns a 
+     * Future whose result is the hostname. The Future is already done if the 
+     * address has been resolved.
+     */
+    public Future submit(String ipAddress) {
+        checkInitialized();
+        FutureTask task = new FutureTask(new Lookup(ipAddress));
+        
+        if (delegate.hasResolved(ipAddress)) {
+            task.run();
+            return task;
+        }
+        
+        FutureTask existing = (FutureTask) pending.putIfAbsent(ipAddress, task);
+        
+        if (existing != null)
+            return existing;
+        
+        queue.add(ipAddress);
+        return task;
+    }
+    
     // =======================================================================
     // Runnable Interface
     // =======================================================================
@@ -64,8 +96,14 @@ public class AsyncHostnameResolver implements HostnameResolver, Runnable {
     public void run() {
         while (true) {
             String ipAddress = (String) queue.remove();
-            String hostname = delegate.resolve(ipAddress);
-            log.debug("Popped " + ipAddress + " resolved to " + hostname);
+            FutureTask task = (FutureTask) pending.get(ipAddress);
+            
+            try {
+                task.run();
+            }
+            finally {
+                pending.remove(ipAddress, task);
+            }
         }
     }
     
@@ -73,7 +111,7 @@ public class AsyncHostnameResolver implements HostnameResolver, Runnable {
     // Private
     // =======================================================================
     
-    private void checkInitialized() {
+    private synchronized void checkInitialized() {
         if (queue == null) {
             queue = BlockingBuffer.decorate(new UnboundedFifoBuffer());
             asyncResolvers = new ArrayList();
@@ -84,4 +122,23 @@ public class AsyncHostnameResolver implements HostnameResolver, Runnable {
             }
         }
     }
+    
+    // =======================================================================
+    // Inner Classes
+    // =======================================================================
+    
+    class Lookup implements Callable {
+        
+        private String ipAddress;
+        
+        Lookup(String ipAddress) {
+            this.ipAddress = ipAddress;
+        }
+        
+        public Object call() {
+            String hostname = delegate.resolve(ipAddress);
+            log.debug("Popped " + ipAddress + " resolved to " + hostname);
+            return hostname;
+        }
+    }
 }
\ No newline at end of file
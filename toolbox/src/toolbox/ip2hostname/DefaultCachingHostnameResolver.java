@@ -1,35 +1,239 @@
 package toolbox.ip2hostname;
 
-import java.util.HashMap;
-import java.util.Map;
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.FutureTask;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
 
+import toolbox.util.collections.LRUMap;
+import toolbox.util.collections.StripedLRUMap;
+
+/**
+ * Thread safe caching resolver. The cache is bounded and evicts the least
+ * recently used addresses once full. Successful lookups and failed lookups
+ * (the delegate returned null or the ip address itself) are cached with
+ * separate time to live values so that unresolvable addresses are retried
+ * sooner. Concurrent lookups of the same address are coalesced so that the
+ * delegate is only ever asked once at a time per address.
+ */
 public class DefaultCachingHostnameResolver implements CachingHostnameResolver {
 
-    private Map cache; 
+    // =======================================================================
+    // Constants
+    // =======================================================================
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** One hour */
+    public static final long DEFAULT_POSITIVE_TTL = 60 * 60 * 1000;
+
+    /** Five minutes */
+    public static final long DEFAULT_NEGATIVE_TTL = 5 * 60 * 1000;
+
+    // =======================================================================
+    // Fields
+    // =======================================================================
+
+    /** Maps ip address to CacheEntry */
+    private StripedLRUMap cache;
+
+    /** Maps ip address to the FutureTask of a lookup in progress */
+    private ConcurrentHashMap inFlight;
+
     private HostnameResolver delegate;
-        
+    private long positiveTtl;
+    private long negativeTtl;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong coalesced = new AtomicLong();
+    private AtomicLong negatives = new AtomicLong();
+
+    // =======================================================================
+    // Constructors
+    // =======================================================================
+
     public DefaultCachingHostnameResolver(HostnameResolver delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * @param delegate Resolver that does the actual lookups.
+     * @param maxEntries Maximum number of addresses to cache.
+     * @param positiveTtl Millis to cache an address that resolved.
+     * @param negativeTtl Millis to cache an address that did not resolve.
+     */
+    public DefaultCachingHostnameResolver(
+        HostnameResolver delegate,
+        int maxEntries,
+        long positiveTtl,
+        long negativeTtl) {
+
         this.delegate = delegate;
-        cache = new HashMap();
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        cache = new StripedLRUMap(maxEntries, LRUMap.NO_TIME_LIMIT);
+        inFlight = new ConcurrentHashMap();
     }
-    
+
+    // =======================================================================
+    // HostnameResolver Interface
+    // =======================================================================
+
     public String resolve(String ipAddress) {
-        
-        String cachedHostname = (String) cache.get(ipAddress);
-        
-        if (cachedHostname == null) {
-            cachedHostname = delegate.resolve(ipAddress);
-            cache.put(ipAddress, cachedHostname);
+
+        CacheEntry entry = lookup(ipAddress);
+
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.hostname;
         }
-        
-        return cachedHostname;
+
+        misses.incrementAndGet();
+        FutureTask task = new FutureTask(new Lookup(ipAddress));
+        FutureTask existing = (FutureTask) inFlight.putIfAbsent(ipAddress, task);
+
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing, ipAddress);
+        }
+
+        try {
+            task.run();
+        }
+        finally {
+            inFlight.remove(ipAddress, task);
+        }
+
+        return await(task, ipAddress);
     }
-    
+
+    // =======================================================================
+    // CachingHostnameResolver Interface
+    // =======================================================================
+
     public void clear() {
         cache.clear();
     }
-    
+
     public boolean hasResolved(String ipAddress) {
-        return cache.containsKey(ipAddress);
+        return lookup(ipAddress) != null;
+    }
+
+    // =======================================================================
+    // Statistics
+    // =======================================================================
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Number of resolves not satisfied by the cache, including coalesced */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Number of misses that waited on a lookup already in progress */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** Number of lookups by the delegate that did not resolve */
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public String toString() {
+        return "hits=" + getHits()
+            + " misses=" + getMisses()
+            + " coalesced=" + getCoalesced()
+            + " negatives=" + getNegatives()
+            + " cached=" + getCacheSize();
+    }
+
+    // =======================================================================
+    // Private
+    // =======================================================================
+
+    /**
+     * Returns the unexpired cache entry for an address or null.
+     */
+    private CacheEntry lookup(String ipAddress) {
+        CacheEntry entry = (CacheEntry) cache.get(ipAddress);
+
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            cache.remove(ipAddress);
+            entry = null;
+        }
+
+        return entry;
+    }
+
+    private String await(FutureTask task, String ipAddress) {
+        try {
+            return (String) task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ipAddress;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw new RuntimeException(cause);
+        }
+    }
+
+    // =======================================================================
+    // Inner Classes
+    // =======================================================================
+
+    static class CacheEntry {
+
+        String hostname;
+        long expires;
+
+        CacheEntry(String hostname, long expires) {
+            this.hostname = hostname;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Asks the delegate and caches the result before the lookup is removed
+     * from the in flight map so that there is no window in which a concurrent
+     * resolve finds neither.
+     */
+    class Lookup implements Callable {
+
+        private String ipAddress;
+
+        Lookup(String ipAddress) {
+            this.ipAddress = ipAddress;
+        }
+
+        public Object call() {
+            String hostname = delegate.resolve(ipAddress);
+            long ttl = positiveTtl;
+
+            if (hostname == null || hostname.equals(ipAddress)) {
+                negatives.incrementAndGet();
+                ttl = negativeTtl;
+            }
+
+            cache.put(ipAddress, new CacheEntry(hostname, System.currentTimeMillis() + ttl));
+            return hostname;
+        }
     }
-}
\ No newline at end of file
+}
@@ -34,6 +34,9 @@ public class IP2Hostname {
     private HostnameResolver resolver;
     private boolean insertHostname;
     
+    /** Lines to read ahead in pipelined mode or 0 if not pipelined */
+    private int pipelineWindow;
+    
     // -------------------------------------------------------------------------
     // Main
     // -------------------------------------------------------------------------
@@ -53,6 +56,7 @@ public class IP2Hostname {
             Option helpOption = new Option("h", "help", false, "Print usage");
             Option maxThreadsOption = new Option("m", "maxthreads", true, "Max concurrent DNS lookups [1..20] (default = 5)");
             Option insertHostnameOption = new Option("i", "insert", false, "Insert hostname instead of replacing IP address");
+            Option pipelineOption = new Option("p", "pipeline", true, "Read ahead up to n lines and resolve them in parallel, preserving order (async and caching only)");
             
             options.addOption(helpOption);
             options.addOption(asyncOption);        
@@ -62,6 +66,7 @@ public class IP2Hostname {
             options.addOption(verboseOption);
             options.addOption(maxThreadsOption);
             options.addOption(insertHostnameOption);
+            options.addOption(pipelineOption);
     
             // Parse options
             CommandLine cmdLine = parser.parse(options, args, true);
@@ -70,6 +75,7 @@ public class IP2Hostname {
             boolean async = true;
             boolean caching = true;
             int maxThreads = 5;
+            int pipelineWindow = 0;
             
             // Handle options
             for (Iterator i = cmdLine.iterator(); i.hasNext();) {
@@ -115,6 +121,19 @@ public class IP2Hostname {
                         return;
                     }
                 }
+                else if (opt.equals(pipelineOption.getOpt())) {
+                    try {
+                        pipelineWindow = Integer.parseInt(StringUtils.trimToEmpty(option.getValue()));
+                        if (pipelineWindow < 1) {
+                            System.err.println("Pipeline window must be at least 1");
+                            return;
+                        }
+                    }
+                    catch (NumberFormatException nfe) {
+                        System.err.println("Invalid pipeline argument. Try -p 1000");
+                        return;
+                    }
+                }
                 else if (opt.equals(insertHostnameOption.getOpt())) {
                     insertHostname = true;
                 }
@@ -143,18 +162,25 @@ public class IP2Hostname {
             }
             
             HostnameResolver resolver;
+            DefaultCachingHostnameResolver cachingResolver = null;
+            
+            if (caching)
+                cachingResolver = new DefaultCachingHostnameResolver(new DnsHostnameResolver());
             
             if (caching && async)
-                resolver = new AsyncHostnameResolver(new DefaultCachingHostnameResolver(new DnsHostnameResolver()), maxThreads);
+                resolver = new AsyncHostnameResolver(cachingResolver, maxThreads);
             else if (caching && !async)
-                resolver = new DefaultCachingHostnameResolver(new DnsHostnameResolver());
+                resolver = cachingResolver;
             else if (!caching)
                 resolver = new DnsHostnameResolver();
             else
                 throw new IllegalArgumentException("Could not determine with hostname resolver to use");
             
-            IP2Hostname ip2hostname = new IP2Hostname(resolver, insertHostname);
+            IP2Hostname ip2hostname = new IP2Hostname(resolver, insertHostname, pipelineWindow);
             ip2hostname.start(System.in, System.out);
+            
+            if (cachingResolver != null)
+                logger.debug("Cache statistics: " + cachingResolver);
         }
         catch (Exception e) {
             logger.error("main", e);
@@ -170,8 +196,17 @@ public class IP2Hostname {
     }
     
     public IP2Hostname(HostnameResolver resolver, boolean insertHostname) {
+        this(resolver, insertHostname, 0);
+    }
+    
+    /**
+     * @param pipelineWindow Lines to read ahead and resolve in parallel. Only
+     *        applies if the resolver is an AsyncHostnameResolver. 0 disables.
+     */
+    public IP2Hostname(HostnameResolver resolver, boolean insertHostname, int pipelineWindow) {
         this.resolver = resolver;
         this.insertHostname = insertHostname;
+        this.pipelineWindow = pipelineWindow;
     }
     
     // -------------------------------------------------------------------------
@@ -180,7 +215,19 @@ public class IP2Hostname {
     
     public void start(InputStream is, OutputStream os) {
         
-        IP2HostnameReader reader = new IP2HostnameReader(new InputStreamReader(is), resolver, insertHostname);
+        IP2HostnameReader reader;
+        
+        if (pipelineWindow > 0 && resolver instanceof AsyncHostnameResolver) {
+            reader = new IP2HostnameReader(
+                new InputStreamReader(is), 
+                (AsyncHostnameResolver) resolver, 
+                insertHostname, 
+                pipelineWindow, 
+                IP2HostnameReader.DEFAULT_PIPELINE_TIMEOUT);
+        }
+        else {
+            reader = new IP2HostnameReader(new InputStreamReader(is), resolver, insertHostname);
+        }
         
         PrintWriter writer = new PrintWriter(os);
         String line = null;
@@ -3,6 +3,16 @@ package toolbox.ip2hostname;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -11,6 +21,13 @@ import org.apache.regexp.RE;
 /**
  * Reader that replaces all occurrences of an IPv4 ip address with its 
  * associated hostname (if it has one). 
+ * <p>
+ * In pipelined mode the reader reads ahead up to a window of lines, submits 
+ * the lookups of all addresses in the window to an AsyncHostnameResolver so 
+ * they run in parallel, and returns lines in their original order once their
+ * lookups have finished or timed out. Read ahead only blocks for the first 
+ * line, so interactive input is not held back waiting for a full window. The
+ * line number reflects the lines read ahead, not the lines returned.
  */
 public class IP2HostnameReader extends LineNumberReader {
 
@@ -30,6 +47,9 @@ public class IP2HostnameReader extends LineNumberReader {
         + "\\."             // .      
         + "[:digit:]{1,3})"; // 1-3 digits
 
+    /** Default millis to wait for the lookups of a line in pipelined mode */
+    public static final long DEFAULT_PIPELINE_TIMEOUT = 5000;
+
     // -------------------------------------------------------------------------
     // Fields
     // -------------------------------------------------------------------------
@@ -49,6 +69,31 @@ public class IP2HostnameReader extends LineNumberReader {
      */
     private boolean insertHostname;
     
+    /**
+     * Resolver for pipelined mode or null if not pipelined.
+     */
+    private AsyncHostnameResolver asyncResolver;
+    
+    /**
+     * Max number of lines to read ahead in pipelined mode.
+     */
+    private int window;
+    
+    /**
+     * Max millis to wait for the lookups of a line in pipelined mode.
+     */
+    private long timeout;
+    
+    /**
+     * Lines read ahead in pipelined mode. List of PendingLine.
+     */
+    private LinkedList pendingLines = new LinkedList();
+    
+    /**
+     * Set once the underlying reader has been exhausted in pipelined mode.
+     */
+    private boolean eof;
+    
     // --------------------------------------------------------------------------
     // Constructors
     // --------------------------------------------------------------------------
@@ -64,6 +109,26 @@ public class IP2HostnameReader extends LineNumberReader {
         this.insertHostname = insertHostname;
     }
     
+    /**
+     * Creates a pipelined reader.
+     * 
+     * @param window Max number of lines to read ahead.
+     * @param timeout Max millis to wait for the lookups of a line after it was
+     *        read. Addresses that are not resolved by then are left as is.
+     */
+    public IP2HostnameReader(
+        Reader in, 
+        AsyncHostnameResolver resolver, 
+        boolean insertHostname, 
+        int window, 
+        long timeout) {
+        
+        this(in, resolver, insertHostname);
+        this.asyncResolver = resolver;
+        this.window = Math.max(1, window);
+        this.timeout = timeout;
+    }
+    
     // --------------------------------------------------------------------------
     // Overrides java.io.LineNumberReader
     // --------------------------------------------------------------------------
@@ -76,36 +141,148 @@ public class IP2HostnameReader extends LineNumberReader {
      * @throws IOException on error.
      */
     public String readLine() throws IOException {
+        if (asyncResolver != null)
+            return readPipelinedLine();
+        
         String line = super.readLine();
 
-        if (line != null) {
+        if (line != null)
+            line = replaceAddresses(line, null);
+        
+        return line;
+    }
+    
+    // --------------------------------------------------------------------------
+    // Private
+    // --------------------------------------------------------------------------
+    
+    private String readPipelinedLine() throws IOException {
+        readAhead();
+        
+        if (pendingLines.isEmpty())
+            return null;
+        
+        PendingLine pending = (PendingLine) pendingLines.removeFirst();
+        Map hostnames = new HashMap();
+        
+        for (int i = 0; i < pending.ipAddresses.size(); i++) {
+            String ipAddress = (String) pending.ipAddresses.get(i);
+            Future future = (Future) pending.lookups.get(i);
+            hostnames.put(ipAddress, await(future, ipAddress, pending.deadline));
+        }
+        
+        return replaceAddresses(pending.line, hostnames);
+    }
+    
+    /**
+     * Fills the window with lines and submits their lookups. Blocks only if 
+     * there are no lines pending.
+     */
+    private void readAhead() throws IOException {
+        while (!eof && pendingLines.size() < window 
+            && (pendingLines.isEmpty() || ready())) {
+            
+            String line = super.readLine();
+            
+            if (line == null) {
+                eof = true;
+                break;
+            }
             
-            boolean match = false;
+            PendingLine pending = new PendingLine(line, System.currentTimeMillis() + timeout);
             int index = 0;
             
-            while (match = matcher.match(line, index)) {
+            while (matcher.match(line, index)) {
                 String ipAddress = matcher.getParen(0);
-                String hostname = resolver.resolve(ipAddress);
-                int ipStart = matcher.getParenStart(0);
-                int ipEnd   = matcher.getParenEnd(0);
                 
-                // only replace if resolved to something other than IP
-                if (!ipAddress.equals(hostname)) {
-                    
-                    if (insertHostname) {
-                        // Append hostname to ip addr instead of replacing it
-                        hostname = ipAddress + " [" + hostname + "] ";
-                    }
-                    
-                    line = StringUtils.replace(line, ipAddress, hostname);
-                    index = ipStart + hostname.length() + 1;
+                if (!pending.ipAddresses.contains(ipAddress)) {
+                    pending.ipAddresses.add(ipAddress);
+                    pending.lookups.add(asyncResolver.submit(ipAddress));
                 }
-                else {
-                    index = ipStart + ipAddress.length() + 1;
+                
+                index = matcher.getParenEnd(0);
+            }
+            
+            pendingLines.addLast(pending);
+        }
+    }
+    
+    private String await(Future future, String ipAddress, long deadline) {
+        try {
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            String hostname = (String) future.get(remaining, TimeUnit.MILLISECONDS);
+            return hostname == null ? ipAddress : hostname;
+        }
+        catch (TimeoutException e) {
+            logger.debug("Timed out resolving " + ipAddress);
+        }
+        catch (ExecutionException e) {
+            logger.warn("Error resolving " + ipAddress, e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return ipAddress;
+    }
+    
+    /**
+     * Replaces the ip addresses in a line with their hostnames.
+     * 
+     * @param hostnames Maps ip address to hostname. If null, the resolver is
+     *        asked for each address.
+     */
+    private String replaceAddresses(String line, Map hostnames) {
+        boolean match = false;
+        int index = 0;
+        
+        while (match = matcher.match(line, index)) {
+            String ipAddress = matcher.getParen(0);
+            String hostname = hostnames == null 
+                ? resolver.resolve(ipAddress) 
+                : (String) hostnames.get(ipAddress);
+            int ipStart = matcher.getParenStart(0);
+            int ipEnd   = matcher.getParenEnd(0);
+            
+            // only replace if resolved to something other than IP
+            if (hostname != null && !ipAddress.equals(hostname)) {
+                
+                if (insertHostname) {
+                    // Append hostname to ip addr instead of replacing it
+                    hostname = ipAddress + " [" + hostname + "] ";
                 }
+                
+                line = StringUtils.replace(line, ipAddress, hostname);
+                index = ipStart + hostname.length() + 1;
+            }
+            else {
+                index = ipStart + ipAddress.length() + 1;
             }
         }
         
         return line;
     }
+    
+    // --------------------------------------------------------------------------
+    // Inner Classes
+    // --------------------------------------------------------------------------
+    
+    /**
+     * Line read ahead along with the lookups of its unique ip addresses.
+     */
+    static class PendingLine {
+        
+        String line;
+        long deadline;
+        
+        /** Unique ip addresses in the line */
+        List ipAddresses = new ArrayList();
+        
+        /** Futures of the lookups in the same order as ipAddresses */
+        List lookups = new ArrayList();
+        
+        PendingLine(String line, long deadline) {
+            this.line = line;
+            this.deadline = deadline;
+        }
+    }
 }
\ No newline at end of file
@@ -517,6 +517,18 @@ public class FindClassPane extends JPanel implements IPreferenced
         }
 
 
+        /**
+         * Logs the time taken to search a target.
+         *
+         * @see toolbox.findclass.FindClassListener#targetSearched(
+         *      java.lang.String, long)
+         */
+        public void targetSearched(String target, long elapsed)
+        {
+            logger_.debug("Searched " + target + " in " + elapsed + "ms");
+        }
+
+
         /**
          * When a search is canceled, update the status bar.
          *
@@ -665,6 +677,15 @@ public class FindClassPane extends JPanel implements IPreferenced
         }
 
 
+        /**
+         * @see toolbox.findclass.FindClassListener#targetSearched(
+         *      java.lang.String, long)
+         */
+        public void targetSearched(String target, long elapsed)
+        {
+        }
+
+
         /**
          * When a search is cancelled, update the status bar.
          * 
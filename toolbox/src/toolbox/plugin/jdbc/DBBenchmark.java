@@ -1,5 +1,8 @@
 package toolbox.plugin.jdbc;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.sql.Connection;
@@ -16,7 +19,11 @@ import java.util.List;
 
 import nu.xom.Element;
 
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.collections.MapUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import toolbox.util.DateTimeUtil;
@@ -27,6 +34,7 @@ import toolbox.util.PreferencedUtil;
 import toolbox.util.RandomUtil;
 import toolbox.util.StringUtil;
 import toolbox.util.XOMUtil;
+import toolbox.util.concurrent.LatencyHistogram;
 import toolbox.util.service.ServiceException;
 import toolbox.util.service.ServiceState;
 import toolbox.util.service.ServiceTransition;
@@ -41,6 +49,18 @@ import toolbox.workspace.PreferencedException;
  * Council Benchmark B coded in Java and ANSI SQL2. This version is using one
  * connection per thread to parallellize server operations. Lifted from HSQLDB
  * with minor mods.
+ * <p>
+ * Each run can start with an unmeasured warmup and then runs either a fixed
+ * number of transactions per client or for a fixed time. Clients normally
+ * start the next transaction as soon as the last one is done. With a target
+ * rate they instead start transactions on a fixed schedule and latency is
+ * measured from the scheduled start, so a stall shows up in the latency of
+ * every transaction queued behind it instead of quietly lowering the rate.
+ * <p>
+ * The latency of each transaction and of each statement in it is recorded
+ * in a {@link LatencyHistogram} per client and the percentiles are reported
+ * at the end of the run. Results can also be appended to a CSV or JSON file
+ * to compare drivers and settings over time.
  */
 public class DBBenchmark implements Startable, IPreferenced
 {
@@ -53,6 +73,56 @@ public class DBBenchmark implements Startable, IPreferenced
     public static final int TELLER = 0;
     public static final int BRANCH = 1;
     public static final int ACCOUNT = 2;
+
+    /**
+     * Timed operations. The first is the whole transaction and the rest are
+     * the statements in it.
+     */
+    public static final String[] OPERATIONS = new String[] {
+        "transaction",
+        "updateAccount",
+        "selectBalance",
+        "updateTeller",
+        "updateBranch",
+        "insertHistory",
+        "commit"
+    };
+
+    private static final int OP_TRANSACTION    = 0;
+    private static final int OP_UPDATE_ACCOUNT = 1;
+    private static final int OP_SELECT_BALANCE = 2;
+    private static final int OP_UPDATE_TELLER  = 3;
+    private static final int OP_UPDATE_BRANCH  = 4;
+    private static final int OP_INSERT_HISTORY = 5;
+    private static final int OP_COMMIT         = 6;
+
+    /**
+     * Report file format of comma separated values, one row per operation.
+     */
+    public static final String FORMAT_CSV = "csv";
+
+    /**
+     * Report file format of one JSON object per run.
+     */
+    public static final String FORMAT_JSON = "json";
+
+    /**
+     * Milliseconds between progress reports while loading accounts.
+     */
+    private static final long LOAD_PROGRESS_INTERVAL = 2000;
+
+    /**
+     * Percentiles that are reported.
+     */
+    private static final double[] PERCENTILES = {50.0, 99.0, 99.9};
+
+    /**
+     * Column headings of the CSV report file.
+     */
+    private static final String CSV_HEADER =
+        "time,driver,url,product,clients,transactions,prepared,targetRate,"
+        + "warmupSecs,seconds,passed,failed,tps,operation,count,meanUs,"
+        + "p50Us,p99Us,p999Us,maxUs";
     
     /**
      * Number formatter used during report generation.
@@ -76,7 +146,15 @@ public class DBBenchmark implements Startable, IPreferenced
     public static final String[] SAVED_PROPS = new String[] {
         "verbose",
         "numClients",
-        "numTxPerClient"
+        "numTxPerClient",
+        "warmupSeconds",
+        "durationSeconds",
+        "targetRate",
+        "reportFile",
+        "reportFormat",
+        "scaleFactor",
+        "loadBatchSize",
+        "loadThreads"
     };
     
     //--------------------------------------------------------------------------
@@ -146,19 +224,61 @@ public class DBBenchmark implements Startable, IPreferenced
     private int numClients_ = 10;
     
     /**
-     * Number of failed transactions.
+     * Seconds to run before measuring starts.
      */
-    private int failedTx_ = 0;
-    
+    private int warmupSeconds_ = 0;
+
     /**
-     * Transaction count.
+     * Seconds to measure for. If zero, each client runs numTxPerClient
+     * measured transactions instead.
      */
-    private int txCount_ = 0;
-    
+    private int durationSeconds_ = 0;
+
+    /**
+     * Transactions per second to start across all clients. If zero, clients
+     * run transactions back to back.
+     */
+    private int targetRate_ = 0;
+
+    /**
+     * File results are appended to. Empty for none.
+     */
+    private String reportFile_ = "";
+
+    /**
+     * Format of the report file, FORMAT_CSV or FORMAT_JSON.
+     */
+    private String reportFormat_ = FORMAT_CSV;
+
+    /**
+     * Number of rows inserted per batch and commit when populating tables.
+     */
+    private int loadBatchSize_ = 1000;
+
+    /**
+     * Number of connections that populate the accounts table in parallel.
+     */
+    private int loadThreads_ = 4;
+
     /**
-     * Start time.
+     * Set while transactions are measured, cleared during warmup.
+     */
+    private volatile boolean measuring_;
+
+    /**
+     * Set to tell the clients of a timed run to stop.
+     */
+    private volatile boolean stopping_;
+
+    /**
+     * Start time of the measured part of the last run in nanoseconds.
      */
     private long startTime_ = 0;
+
+    /**
+     * End time of the measured part of the last run in nanoseconds.
+     */
+    private long endTime_ = 0;
     
     /**
      * Tracks memory usage while the test is running.
@@ -412,6 +532,190 @@ public class DBBenchmark implements Startable, IPreferenced
         verbose_ = verbose;
     }
 
+
+    /**
+     * Returns the number of seconds to run before measuring starts.
+     * 
+     * @return int
+     */
+    public int getWarmupSeconds()
+    {
+        return warmupSeconds_;
+    }
+
+
+    /**
+     * Sets the number of seconds to run before measuring starts.
+     * 
+     * @param warmupSeconds Seconds of warmup, 0 for none.
+     */
+    public void setWarmupSeconds(int warmupSeconds)
+    {
+        warmupSeconds_ = warmupSeconds;
+    }
+
+
+    /**
+     * Returns the number of seconds to measure for.
+     * 
+     * @return int
+     */
+    public int getDurationSeconds()
+    {
+        return durationSeconds_;
+    }
+
+
+    /**
+     * Sets the number of seconds to measure for.
+     * 
+     * @param durationSeconds Seconds to measure for, 0 to run numTxPerClient
+     *        transactions per client instead.
+     */
+    public void setDurationSeconds(int durationSeconds)
+    {
+        durationSeconds_ = durationSeconds;
+    }
+
+
+    /**
+     * Returns the number of transactions per second to start across all
+     * clients.
+     * 
+     * @return int
+     */
+    public int getTargetRate()
+    {
+        return targetRate_;
+    }
+
+
+    /**
+     * Sets the number of transactions per second to start across all clients.
+     * 
+     * @param targetRate Transactions per second, 0 to run them back to back.
+     */
+    public void setTargetRate(int targetRate)
+    {
+        targetRate_ = targetRate;
+    }
+
+
+    /**
+     * Returns the name of the file results are appended to.
+     * 
+     * @return String
+     */
+    public String getReportFile()
+    {
+        return reportFile_;
+    }
+
+
+    /**
+     * Sets the name of the file results are appended to.
+     * 
+     * @param reportFile File name, empty for none.
+     */
+    public void setReportFile(String reportFile)
+    {
+        reportFile_ = reportFile;
+    }
+
+
+    /**
+     * Returns the format of the report file.
+     * 
+     * @return String
+     */
+    public String getReportFormat()
+    {
+        return reportFormat_;
+    }
+
+
+    /**
+     * Sets the format of the report file.
+     * 
+     * @param reportFormat FORMAT_CSV or FORMAT_JSON.
+     */
+    public void setReportFormat(String reportFormat)
+    {
+        reportFormat_ = reportFormat;
+    }
+
+
+    /**
+     * Returns the tps scaling factor. Each unit is a branch with its tellers
+     * and accounts.
+     * 
+     * @return int
+     */
+    public int getScaleFactor()
+    {
+        return tps_;
+    }
+
+
+    /**
+     * Sets the tps scaling factor. Takes effect when the tables are next
+     * initialized.
+     * 
+     * @param scaleFactor Number of branches, at least 1.
+     */
+    public void setScaleFactor(int scaleFactor)
+    {
+        tps_ = Math.max(1, scaleFactor);
+    }
+
+
+    /**
+     * Returns the number of rows inserted per batch and commit when the 
+     * tables are populated.
+     * 
+     * @return int
+     */
+    public int getLoadBatchSize()
+    {
+        return loadBatchSize_;
+    }
+
+
+    /**
+     * Sets the number of rows inserted per batch and commit when the tables
+     * are populated.
+     * 
+     * @param loadBatchSize Rows per batch.
+     */
+    public void setLoadBatchSize(int loadBatchSize)
+    {
+        loadBatchSize_ = loadBatchSize;
+    }
+
+
+    /**
+     * Returns the number of connections that populate the accounts table in
+     * parallel.
+     * 
+     * @return int
+     */
+    public int getLoadThreads()
+    {
+        return loadThreads_;
+    }
+
+
+    /**
+     * Sets the number of connections that populate the accounts table in
+     * parallel.
+     * 
+     * @param loadThreads Number of connections.
+     */
+    public void setLoadThreads(int loadThreads)
+    {
+        loadThreads_ = loadThreads;
+    }
+
     //--------------------------------------------------------------------------
     // Protected
     //--------------------------------------------------------------------------
@@ -456,55 +760,88 @@ public class DBBenchmark implements Startable, IPreferenced
         memoryWatcher_.initialize(MapUtils.EMPTY_MAP);
         memoryWatcher_.start();
         
+        List clients = new ArrayList();            
+        
         try
         {
             transactions_ = useTransactions;
             preparedStmt_ = usePreparedStatements;
-            Thread client;
+            measuring_ = warmupSeconds_ <= 0;
+            stopping_ = false;
+            ClientThread client;
             
-            List clients = new ArrayList();            
-            startTime_ = System.currentTimeMillis();
-    
             for (int i = 0; i < numClients_; i++)
+                clients.add(new ClientThread(numTxPerClient_));
+    
+            startTime_ = System.nanoTime();
+            
+            for (Iterator it = clients.iterator(); it.hasNext(); )
+                ((Thread) it.next()).start();
+
+            if (!measuring_)
             {
-                client = new ClientThread(numTxPerClient_);
-                client.start();
-                clients.add(client);
+                Thread.sleep(warmupSeconds_ * 1000L);
+                startTime_ = System.nanoTime();
+                measuring_ = true;
+            }
+            
+            if (durationSeconds_ > 0)
+            {
+                Thread.sleep(durationSeconds_ * 1000L);
+                endTime_ = System.nanoTime();
+                stopping_ = true;
             }
             
             // Barrier to complete this test session
             
-            Iterator it = clients.iterator();
-    
-            while (it.hasNext())
+            for (Iterator it = clients.iterator(); it.hasNext(); )
             {
-                client = (Thread) it.next();
+                client = (ClientThread) it.next();
                 client.join();
             }
-    
-            clients.clear();
+            
+            if (durationSeconds_ <= 0)
+                endTime_ = System.nanoTime();
         }
         finally 
         {
+            // Let the clients wind down if the run was interrupted
+            stopping_ = true;
             memoryWatcher_.stop();
             memoryWatcher_.destroy();
         }
         
-        generateReport();
+        generateReport(clients);
         memoryWatcher_ = null;
     }
 
     
     /**
      * Generates a report containing statistics from the last executed 
-     * benchmark. 
+     * benchmark and appends the results to the report file, if any.
      *
+     * @param clients ClientThreads of the last executed benchmark.
      * @throws ServiceException on error. 
      */
-    protected void generateReport() throws ServiceException
+    protected void generateReport(List clients) throws ServiceException
     {
-        long endTime = System.currentTimeMillis();
-        double completionTime = ((double) endTime - (double) startTime_) / 1000;
+        double completionTime = (endTime_ - startTime_) / 1000000000.0;
+        int txCount = 0;
+        int failedTx = 0;
+        LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+        
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+        
+        for (Iterator it = clients.iterator(); it.hasNext(); )
+        {
+            ClientThread client = (ClientThread) it.next();
+            txCount += client.txCount_;
+            failedTx += client.failedTx_;
+
+            for (int i = 0; i < histograms.length; i++)
+                histograms[i].add(client.histograms_[i]);
+        }
 
         writer_.println();
         writer_.print("Benchmark: ");
@@ -527,16 +864,23 @@ public class DBBenchmark implements Startable, IPreferenced
             writer_.print("+ Auto-commit");
         }
 
+        if (targetRate_ > 0)
+            writer_.print(" @ " + targetRate_ + " tx/sec");
+
         writer_.println("\n" + StringUtil.BR);
         
         writer_.println(
             "Time        " + FMT.format(completionTime) + " sec(s)");
 
+        if (warmupSeconds_ > 0)
+            writer_.println(
+                "Warmup      " + warmupSeconds_ + " sec(s)");
+
         writer_.println(
             "Passed      " +
-            (txCount_ - failedTx_) + "/" + txCount_);
+            (txCount - failedTx) + "/" + txCount);
 
-        double rate = (txCount_ - failedTx_) / completionTime;
+        double rate = (txCount - failedTx) / completionTime;
         
         writer_.println(
             "Throughput  " + FMT.format(rate) + " transactions/sec.");
@@ -547,29 +891,106 @@ public class DBBenchmark implements Startable, IPreferenced
         writer_.println(
             "Max memory  " + FMT.format(memoryWatcher_.getMax()) + " KB");
 
-        txCount_ = 0;
-        failedTx_ = 0;
-    }
+        writer_.println();
+        
+        writer_.println(
+            StringUtils.rightPad("Latency (ms)", 16)
+            + StringUtils.leftPad("Count", 10)
+            + StringUtils.leftPad("Mean", 10)
+            + StringUtils.leftPad("p50", 10)
+            + StringUtils.leftPad("p99", 10)
+            + StringUtils.leftPad("p99.9", 10)
+            + StringUtils.leftPad("Max", 10));
+        
+        for (int i = 0; i < histograms.length; i++)
+        {
+            LatencyHistogram h = histograms[i];
+            
+            if (h.getCount() == 0)
+                continue;
+            
+            StringBuffer line = new StringBuffer();
+            line.append(StringUtils.rightPad(OPERATIONS[i], 16));
+            line.append(StringUtils.leftPad(FMT.format(h.getCount()), 10));
+            line.append(StringUtils.leftPad(toMillis(h.getMean()), 10));
+
+            for (int j = 0; j < PERCENTILES.length; j++)
+                line.append(StringUtils.leftPad(
+                    toMillis(h.getPercentile(PERCENTILES[j])), 10));
+            
+            line.append(StringUtils.leftPad(toMillis(h.getMax()), 10));
+            writer_.println(line);
+        }
 
-    
-    /**
-     * Bump up the transaction count.
-     */
-    protected synchronized void incrementTransactionCount()
-    {
-        txCount_++;
+        if (!StringUtils.isBlank(reportFile_))
+            writeReportFile(
+                completionTime, txCount - failedTx, failedTx, histograms);
     }
 
 
     /**
-     * Bump up failed transaction count.
+     * Appends the results of the last executed benchmark to the report file.
+     * A CSV file gets a header line when it is created. Failure to write the
+     * file is reported but does not fail the benchmark.
+     *
+     * @param seconds Measured time.
+     * @param passed Number of transactions that passed.
+     * @param failed Number of transactions that failed.
+     * @param histograms Latencies of each operation.
      */
-    protected synchronized void incrementFailedTransactionCount()
+    protected void writeReportFile(
+        double seconds,
+        int passed,
+        int failed,
+        LatencyHistogram[] histograms)
     {
-        failedTx_++;
+        File file = new File(reportFile_);
+        boolean json = FORMAT_JSON.equalsIgnoreCase(reportFormat_);
+        boolean header = !json && (!file.exists() || file.length() == 0);
+        PrintWriter pw = null;
+        
+        try
+        {
+            // Columns common to every operation
+            String[] run = new String[] {
+                DateTimeUtil.formatToSecond(new Date()),
+                plugin_.getCurrentProfile().getDriver(),
+                plugin_.getCurrentProfile().getUrl(),
+                getProductName(),
+                String.valueOf(numClients_),
+                String.valueOf(transactions_),
+                String.valueOf(preparedStmt_),
+                String.valueOf(targetRate_),
+                String.valueOf(warmupSeconds_),
+                String.valueOf(seconds),
+                String.valueOf(passed),
+                String.valueOf(failed),
+                String.valueOf(seconds > 0 ? passed / seconds : 0)
+            };
+            
+            pw = new PrintWriter(new FileWriter(file, true));
+
+            if (json)
+                writeJson(pw, run, histograms);
+            else
+                writeCsv(pw, header, run, histograms);
+
+            pw.flush();
+            
+            if (pw.checkError())
+                throw new IOException("Error writing " + file);
+        }
+        catch (IOException e)
+        {
+            logger_.error("Could not write report file", e);
+            writer_.println("Could not write report file: " + e.getMessage());
+        }
+        finally
+        {
+            IOUtils.closeQuietly(pw);
+        }
     }
 
-    
     /**
      * Creates the test database.
      * 
@@ -765,144 +1186,188 @@ public class DBBenchmark implements Startable, IPreferenced
             if (transactions_)
                 conn.commit();
 
+            JDBCUtil.close(stmt);
+
             /*
              * prime database using TPC BM B scaling rules. Note that for each
              * branch and teller: 
              * branch_id = teller_id/ntellers 
              * branch_id = account_id/naccounts
              */
-            PreparedStatement pstmt = null;
+            writer_.println("Populating branches table...");
+            
+            load(conn, 
+                "INSERT INTO branches(Bid,Bbalance) VALUES (?,0)",
+                0, numBranches_ * tps_, 0, new AtomicLong());
+            
+            writer_.println("Populating tellers table...");
+            
+            load(conn, 
+                "INSERT INTO tellers(Tid,Bid,Tbalance) VALUES (?,?,0)",
+                0, numTellers_ * tps_, numTellers_, new AtomicLong());
+            
+            writer_.println("Populating accounts table...");
+            loadAccounts();
+        }
+        catch (Exception ex)
+        {
+            writer_.println(ex.getMessage());
+            ex.printStackTrace(writer_);
+        }
 
-            preparedStmt_ = true;
+        JDBCUtil.releaseConnection(conn);
+    }
 
-            if (preparedStmt_)
+    
+    /**
+     * Populates the accounts table. The range of account ids is split evenly
+     * between loadThreads loaders, each with its own connection, and progress
+     * is reported every few seconds until they are all done.
+     * 
+     * @throws Exception if any of the loaders failed.
+     */
+    protected void loadAccounts() throws Exception
+    {
+        int numAccounts = numAccounts_ * tps_;
+        int numLoaders = Math.max(1, Math.min(loadThreads_, numAccounts));
+        AtomicLong loaded = new AtomicLong();
+        List loaders = new ArrayList();
+        long start = System.currentTimeMillis();
+        
+        writer_.println(
+            "[Loading in batches of " + loadBatchSize_ + " with " 
+            + numLoaders + " connection(s)]");
+        
+        for (int i = 0; i < numLoaders; i++)
+        {
+            // Contiguous ranges so each loader inserts in primary key order
+            int from = (int) ((long) numAccounts * i / numLoaders);
+            int to = (int) ((long) numAccounts * (i + 1) / numLoaders);
+            
+            LoaderThread loader = new LoaderThread(
+                "INSERT INTO accounts(Aid,Bid,Abalance) VALUES (?,?,0)",
+                from, to, numAccounts_, loaded);
+            
+            loader.start();
+            loaders.add(loader);
+        }
+
+        long reported = 0;
+        
+        for (Iterator it = loaders.iterator(); it.hasNext(); )
+        {
+            LoaderThread loader = (LoaderThread) it.next();
+            
+            while (loader.isAlive())
             {
-                try
-                {
-                    query = "INSERT INTO branches(Bid,Bbalance) VALUES (?,0)";
-                    pstmt = conn.prepareStatement(query);
-                    writer_.println("[Using prepared statements]");
-                }
-                catch (SQLException se)
+                loader.join(LOAD_PROGRESS_INTERVAL);
+                
+                if (loaded.get() != reported)
                 {
-                    pstmt = null;
-                    preparedStmt_ = false;
+                    reported = loaded.get();
+                    reportProgress(reported, numAccounts, start);
                 }
             }
+        }
 
-            writer_.println("Populating branches table...");
+        for (Iterator it = loaders.iterator(); it.hasNext(); )
+        {
+            LoaderThread loader = (LoaderThread) it.next();
             
-            for (int i = 0; i < numBranches_ * tps_; i++)
-            {
-                if (preparedStmt_)
-                {
-                    pstmt.setInt(1, i);
-                    pstmt.executeUpdate();
-                    pstmt.clearWarnings();
-                }
-                else
-                {
-                    query = "INSERT INTO branches (Bid,Bbalance) " +
-                            "VALUES (" + i + ",0)";
-
-                    stmt.executeUpdate(query);
-                }
-
-                if ((i % 100 == 0) && (transactions_))
-                    conn.commit();
-            }
-
-            if (preparedStmt_)
-                JDBCUtil.close(stmt);
-
-            if (transactions_)
-                conn.commit();
-
-            if (preparedStmt_)
-            {
-                query = "INSERT INTO tellers(Tid,Bid,Tbalance) VALUES (?,?,0)";
-                pstmt = conn.prepareStatement(query);
-            }
+            if (loader.getError() != null)
+                throw loader.getError();
+        }
+        
+        if (loaded.get() != reported)
+            reportProgress(loaded.get(), numAccounts, start);
+    }
 
-            writer_.println("Populating tellers table...");
+    
+    /**
+     * Inserts a range of rows with a prepared statement, executing a batch 
+     * and committing every loadBatchSize rows. The first parameter of the
+     * statement is the row id and the second, if perBranch is not zero, the 
+     * branch id. Drivers without batch support execute one row at a time.
+     * 
+     * @param conn Connection to insert with. Auto-commit is turned off while
+     *        loading.
+     * @param sql Insert statement.
+     * @param from First row id.
+     * @param to Row id after the last.
+     * @param perBranch Rows per branch or 0 if there is no branch id.
+     * @param loaded Incremented by the number of rows committed.
+     * @throws SQLException on db error.
+     */
+    protected void load(
+        Connection conn, 
+        String sql, 
+        int from, 
+        int to, 
+        int perBranch, 
+        AtomicLong loaded) 
+        throws SQLException
+    {
+        boolean batch = conn.getMetaData().supportsBatchUpdates();
+        boolean autoCommit = conn.getAutoCommit();
+        int batchSize = Math.max(1, loadBatchSize_);
+        int pending = 0;
+        PreparedStatement pstmt = null;
+        
+        try
+        {
+            conn.setAutoCommit(false);
+            pstmt = conn.prepareStatement(sql);
             
-            for (int i = 0; i < numTellers_ * tps_; i++)
+            for (int i = from; i < to; i++)
             {
-                if (preparedStmt_)
-                {
-                    pstmt.setInt(1, i);
-                    pstmt.setInt(2, i / numTellers_);
-                    pstmt.executeUpdate();
-                    pstmt.clearWarnings();
-                }
+                pstmt.setInt(1, i);
+                
+                if (perBranch > 0)
+                    pstmt.setInt(2, i / perBranch);
+                
+                if (batch)
+                    pstmt.addBatch();
                 else
-                {
-                    query = "INSERT INTO tellers(Tid,Bid,Tbalance) VALUES ("
-                        + i + "," + i / numTellers_ + ",0)";
-
-                    stmt.executeUpdate(query);
-                }
-
-                if ((i % 100 == 0) && (transactions_))
-                    conn.commit();
-            }
-
-            if (preparedStmt_)
-                JDBCUtil.close(pstmt);
-
-            if (transactions_)
-                conn.commit();
-
-            if (preparedStmt_)
-            {
-                query = "INSERT INTO accounts(Aid,Bid,Abalance) VALUES (?,?,0)";
-                pstmt = conn.prepareStatement(query);
-            }
-
-            writer_.println("Populating accounts table...");
-            
-            for (int i = 0; i < numAccounts_ * tps_; i++)
-            {
-                if (preparedStmt_)
-                {
-                    pstmt.setInt(1, i);
-                    pstmt.setInt(2, i / numAccounts_);
                     pstmt.executeUpdate();
-                    pstmt.clearWarnings();
-                }
-                else
+                
+                if (++pending == batchSize || i == to - 1)
                 {
-                    query = "INSERT INTO accounts(Aid,Bid,Abalance) VALUES ("
-                        + i + "," + i / numAccounts_ + ",0)";
-
-                    stmt.executeUpdate(query);
-                }
-
-                if ((i % 10000 == 0) && (transactions_))
+                    if (batch)
+                        pstmt.executeBatch();
+                    
                     conn.commit();
-
-                if ((i > 0) && ((i % 10000) == 0))
-                    writer_.println("\t" + i + "\t records inserted");
+                    loaded.addAndGet(pending);
+                    pending = 0;
+                }
             }
-
-            if (preparedStmt_)
-                JDBCUtil.close(pstmt);
-
-            if (transactions_)
-                conn.commit();
-
-            writer_.println(
-                "\t" + (numAccounts_ * tps_) + "\t records inserted");
-            
-            JDBCUtil.close(stmt);
         }
-        catch (Exception ex)
+        catch (SQLException e)
         {
-            writer_.println(ex.getMessage());
-            ex.printStackTrace(writer_);
+            conn.rollback();
+            throw e;
         }
-
-        JDBCUtil.releaseConnection(conn);
+        finally
+        {
+            JDBCUtil.close(pstmt);
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+    
+    
+    /**
+     * Prints the number of rows loaded so far and the rate.
+     * 
+     * @param loaded Rows loaded.
+     * @param total Rows to load.
+     * @param start Start time of the load in milliseconds.
+     */
+    protected void reportProgress(long loaded, long total, long start)
+    {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        
+        writer_.println(
+            "\t" + loaded + "\t of " + total + " records inserted ("
+            + FMT.format(loaded * 1000.0 / elapsed) + " records/sec)");
     }
 
     
@@ -932,38 +1397,31 @@ public class DBBenchmark implements Startable, IPreferenced
 
     
     /**
-     * Returns a random ID.
+     * Returns a random ID. Ids of each type start at zero, the same as the
+     * rows inserted by createDatabase().
      * 
      * @param type ACCOUNT, TELLER, or BRANCH
      * @return int
      */
     protected int getRandomID(int type)
     {
-        int min = 0;
-        int max = 0;
-        int num = numAccounts_;
+        int num;
 
         switch (type)
         {
             case TELLER:
-                min += numBranches_;
-                num = numTellers_;
-
-            // FALLTHROUGH
+                num = numTellers_ * tps_;
+                break;
+                
             case BRANCH:
-                if (type == BRANCH)
-                {
-                    num = numBranches_;
-                }
-
-                min += numAccounts_;
-
-            // FALLTHROUGH
-            case ACCOUNT:
-                max = min + num - 1;
+                num = numBranches_ * tps_;
+                break;
+                
+            default:
+                num = numAccounts_ * tps_;
         }
 
-        return RandomUtil.nextInt(min, max);
+        return RandomUtil.nextInt(0, num - 1);
     }
 
     
@@ -1001,6 +1459,309 @@ public class DBBenchmark implements Startable, IPreferenced
         return JDBCSession.getConnection(name);
     }
     
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Writes the results as CSV, one line per operation that was timed.
+     * 
+     * @param pw Destination.
+     * @param header True to write the column headings first.
+     * @param run Columns common to every operation.
+     * @param histograms Latencies of each operation.
+     */
+    private void writeCsv(
+        PrintWriter pw, 
+        boolean header, 
+        String[] run, 
+        LatencyHistogram[] histograms)
+    {
+        if (header)
+            pw.println(CSV_HEADER);
+        
+        StringBuffer common = new StringBuffer();
+        
+        for (int i = 0; i < run.length; i++)
+            common.append(escapeCsv(run[i])).append(',');
+        
+        for (int i = 0; i < histograms.length; i++)
+        {
+            LatencyHistogram h = histograms[i];
+            
+            if (h.getCount() == 0)
+                continue;
+            
+            pw.print(common);
+            pw.print(OPERATIONS[i]);
+            pw.print(',');
+            pw.print(h.getCount());
+            pw.print(',');
+            pw.print(toMicros(h.getMean()));
+            
+            for (int j = 0; j < PERCENTILES.length; j++)
+            {
+                pw.print(',');
+                pw.print(toMicros(h.getPercentile(PERCENTILES[j])));
+            }
+            
+            pw.print(',');
+            pw.println(toMicros(h.getMax()));
+        }
+    }
+
+    
+    /**
+     * Writes the results as a single line JSON object with the same names as
+     * the CSV columns and the operations nested by name.
+     * 
+     * @param pw Destination.
+     * @param run Columns common to every operation.
+     * @param histograms Latencies of each operation.
+     */
+    private void writeJson(
+        PrintWriter pw, 
+        String[] run, 
+        LatencyHistogram[] histograms)
+    {
+        String[] names = StringUtils.split(CSV_HEADER, ',');
+        StringBuffer sb = new StringBuffer("{");
+        
+        for (int i = 0; i < run.length; i++)
+        {
+            sb.append('"').append(names[i]).append("\":");
+            
+            // The first four columns are text, the rest numbers and booleans
+            if (i < 4)
+                sb.append('"').append(escapeJson(run[i])).append('"');
+            else
+                sb.append(run[i]);
+            
+            sb.append(',');
+        }
+        
+        sb.append("\"operations\":{");
+        boolean first = true;
+        
+        for (int i = 0; i < histograms.length; i++)
+        {
+            LatencyHistogram h = histograms[i];
+            
+            if (h.getCount() == 0)
+                continue;
+            
+            if (!first)
+                sb.append(',');
+            
+            first = false;
+            sb.append('"').append(OPERATIONS[i]).append("\":{");
+            sb.append("\"count\":").append(h.getCount());
+            sb.append(",\"meanUs\":").append(toMicros(h.getMean()));
+            sb.append(",\"p50Us\":").append(toMicros(h.getPercentile(50.0)));
+            sb.append(",\"p99Us\":").append(toMicros(h.getPercentile(99.0)));
+            sb.append(",\"p999Us\":").append(toMicros(h.getPercentile(99.9)));
+            sb.append(",\"maxUs\":").append(toMicros(h.getMax()));
+            sb.append('}');
+        }
+        
+        sb.append("}}");
+        pw.println(sb);
+    }
+
+    
+    /**
+     * Returns the name of the database product or an empty string if it 
+     * can't be determined.
+     * 
+     * @return String
+     */
+    private String getProductName()
+    {
+        Connection conn = null;
+        
+        try
+        {
+            conn = connect();
+            return conn.getMetaData().getDatabaseProductName();
+        }
+        catch (SQLException e)
+        {
+            logger_.error(e);
+            return "";
+        }
+        finally
+        {
+            JDBCUtil.releaseConnection(conn);
+        }
+    }
+
+    
+    /**
+     * Formats nanoseconds as milliseconds.
+     * 
+     * @param nanos Nanoseconds.
+     * @return String
+     */
+    private static String toMillis(double nanos)
+    {
+        return FMT.format(nanos / 1000000);
+    }
+
+    
+    /**
+     * Converts nanoseconds to whole microseconds.
+     * 
+     * @param nanos Nanoseconds.
+     * @return long
+     */
+    private static long toMicros(double nanos)
+    {
+        return Math.round(nanos / 1000);
+    }
+
+    
+    /**
+     * Quotes a CSV field if it contains a comma, quote or line break.
+     * 
+     * @param field Field value.
+     * @return String
+     */
+    private static String escapeCsv(String field)
+    {
+        if (field == null)
+            return "";
+        
+        if (StringUtils.containsNone(field, ",\"\r\n"))
+            return field;
+        
+        return '"' + StringUtils.replace(field, "\"", "\"\"") + '"';
+    }
+
+    
+    /**
+     * Escapes backslashes, quotes and control characters in a JSON string.
+     * 
+     * @param s String to escape.
+     * @return String
+     */
+    private static String escapeJson(String s)
+    {
+        if (s == null)
+            return "";
+        
+        StringBuffer sb = new StringBuffer(s.length());
+        
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append("\\u").append(
+                    StringUtils.leftPad(Integer.toHexString(c), 4, '0'));
+            else
+                sb.append(c);
+        }
+        
+        return sb.toString();
+    }
+    
+    //--------------------------------------------------------------------------
+    // LoaderThread
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Loads a range of rows on a connection of its own.
+     */
+    class LoaderThread extends Thread
+    {
+        //----------------------------------------------------------------------
+        // Fields
+        //----------------------------------------------------------------------
+        
+        private String sql_;
+        private int from_;
+        private int to_;
+        private int perBranch_;
+        private AtomicLong loaded_;
+        
+        /**
+         * Error that stopped the load, if any. Read after the thread is 
+         * joined.
+         */
+        private Exception error_;
+
+        //----------------------------------------------------------------------
+        // Constructors
+        //----------------------------------------------------------------------
+        
+        /**
+         * Creates a LoaderThread.
+         * 
+         * @param sql Insert statement.
+         * @param from First row id.
+         * @param to Row id after the last.
+         * @param perBranch Rows per branch or 0 if there is no branch id.
+         * @param loaded Incremented by the number of rows committed.
+         */
+        public LoaderThread(
+            String sql, 
+            int from, 
+            int to, 
+            int perBranch, 
+            AtomicLong loaded)
+        {
+            super("DBBenchmark-loader-" + from);
+            sql_ = sql;
+            from_ = from;
+            to_ = to;
+            perBranch_ = perBranch;
+            loaded_ = loaded;
+        }
+
+        //----------------------------------------------------------------------
+        // Public
+        //----------------------------------------------------------------------
+        
+        /**
+         * Returns the error that stopped the load or null if it succeeded. 
+         * Call after the thread is joined.
+         * 
+         * @return Exception
+         */
+        public Exception getError()
+        {
+            return error_;
+        }
+        
+        //----------------------------------------------------------------------
+        // Runnable Interface
+        //----------------------------------------------------------------------
+        
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            Connection conn = null;
+            
+            try
+            {
+                conn = connect();
+                load(conn, sql_, from_, to_, perBranch_, loaded_);
+            }
+            catch (Exception e)
+            {
+                error_ = e;
+            }
+            finally
+            {
+                JDBCUtil.releaseConnection(conn);
+            }
+        }
+    }
+    
     //--------------------------------------------------------------------------
     // ClientThread
     //--------------------------------------------------------------------------
@@ -1012,6 +1773,27 @@ public class DBBenchmark implements Startable, IPreferenced
         //----------------------------------------------------------------------
         
         private int numTx_ = 0;
+        
+        /**
+         * Number of measured transactions. Read after the thread is joined.
+         */
+        private int txCount_ = 0;
+        
+        /**
+         * Number of measured transactions that failed.
+         */
+        private int failedTx_ = 0;
+        
+        /**
+         * Latencies of the measured transactions, one per operation.
+         */
+        private LatencyHistogram[] histograms_;
+        
+        /**
+         * Latencies of the last transaction, one per operation.
+         */
+        private long[] elapsed_ = new long[OPERATIONS.length];
+        
         private Connection conn_;
         private PreparedStatement pstmt1_ = null;
         private PreparedStatement pstmt2_ = null;
@@ -1032,6 +1814,11 @@ public class DBBenchmark implements Startable, IPreferenced
         public ClientThread(int numOfTx) throws SQLException
         {
             numTx_ = numOfTx;
+            histograms_ = new LatencyHistogram[OPERATIONS.length];
+            
+            for (int i = 0; i < histograms_.length; i++)
+                histograms_[i] = new LatencyHistogram();
+            
             conn_ = connect();
 
             if (conn_ == null)
@@ -1087,15 +1874,57 @@ public class DBBenchmark implements Startable, IPreferenced
          */
         public void run()
         {
-            while (numTx_-- > 0)
+            // Share of the target rate, as the time between transactions
+            long interval = 
+                targetRate_ > 0 
+                    ? 1000000000L * numClients_ / targetRate_ 
+                    : 0;
+            
+            long next = System.nanoTime();
+            
+            while (!stopping_ && (durationSeconds_ > 0 || numTx_ > 0))
             {
                 int account = getRandomID(ACCOUNT);
                 int branch = getRandomID(BRANCH);
                 int teller = getRandomID(TELLER);
                 int delta = RandomUtil.nextInt(0, 1000);
+                long start;
 
-                doOne(branch, teller, account, delta);
-                incrementTransactionCount();
+                if (interval > 0)
+                {
+                    // Measure from the scheduled start so time spent behind
+                    // schedule counts against the transaction
+                    start = next;
+                    next += interval;
+                    
+                    if (!sleepUntil(start))
+                        break;
+                }
+                else
+                {
+                    start = System.nanoTime();
+                }
+                
+                boolean measured = measuring_;
+                boolean passed = doOne(branch, teller, account, delta);
+                elapsed_[OP_TRANSACTION] = System.nanoTime() - start;
+                
+                if (measured)
+                {
+                    numTx_--;
+                    txCount_++;
+                    
+                    if (passed)
+                    {
+                        for (int i = 0; i < elapsed_.length; i++)
+                            if (elapsed_[i] >= 0)
+                                histograms_[i].record(elapsed_[i]);
+                    }
+                    else
+                    {
+                        failedTx_++;
+                    }
+                }
             }
 
             if (preparedStmt_)
@@ -1123,32 +1952,36 @@ public class DBBenchmark implements Startable, IPreferenced
         //----------------------------------------------------------------------
         
         /**
-         * Executes a single TPC BM B transaction.
+         * Executes a single TPC BM B transaction and saves the time each
+         * statement took.
          *
          * @param bid B id.
          * @param tid t id.
          * @param aid A id.
          * @param delta Delta. 
-         * @return int
+         * @return True if the transaction passed, false otherwise.
          */
-        protected int doOne(int bid, int tid, int aid, int delta)
+        protected boolean doOne(int bid, int tid, int aid, int delta)
         {
             int balance = 0;
+            
+            for (int i = 0; i < elapsed_.length; i++)
+                elapsed_[i] = -1;
 
             if (conn_ == null)
-            {
-                incrementFailedTransactionCount();
-                return 0;
-            }
+                return false;
 
             try
             {
+                long time = System.nanoTime();
+                
                 if (preparedStmt_)
                 {
                     pstmt1_.setInt(1, delta);
                     pstmt1_.setInt(2, aid);
                     pstmt1_.executeUpdate();
                     pstmt1_.clearWarnings();
+                    time = lap(OP_UPDATE_ACCOUNT, time);
                     pstmt2_.setInt(1, aid);
 
                     ResultSet rs = pstmt2_.executeQuery();
@@ -1158,20 +1991,25 @@ public class DBBenchmark implements Startable, IPreferenced
                     while (rs.next())
                         balance = rs.getInt(1);
 
+                    JDBCUtil.close(rs);
+                    time = lap(OP_SELECT_BALANCE, time);
                     pstmt3_.setInt(1, delta);
                     pstmt3_.setInt(2, tid);
                     pstmt3_.executeUpdate();
                     pstmt3_.clearWarnings();
+                    time = lap(OP_UPDATE_TELLER, time);
                     pstmt4_.setInt(1, delta);
                     pstmt4_.setInt(2, bid);
                     pstmt4_.executeUpdate();
                     pstmt4_.clearWarnings();
+                    time = lap(OP_UPDATE_BRANCH, time);
                     pstmt5_.setInt(1, tid);
                     pstmt5_.setInt(2, bid);
                     pstmt5_.setInt(3, aid);
                     pstmt5_.setInt(4, delta);
                     pstmt5_.executeUpdate();
                     pstmt5_.clearWarnings();
+                    time = lap(OP_INSERT_HISTORY, time);
                 }
                 else
                 {
@@ -1183,6 +2021,7 @@ public class DBBenchmark implements Startable, IPreferenced
 
                     stmt.executeUpdate(query);
                     stmt.clearWarnings();
+                    time = lap(OP_UPDATE_ACCOUNT, time);
 
                     query = "SELECT Abalance ";
                     query += "FROM   accounts ";
@@ -1195,12 +2034,15 @@ public class DBBenchmark implements Startable, IPreferenced
                     while (rs.next())
                         balance = rs.getInt(1);
 
+                    JDBCUtil.close(rs);
+                    time = lap(OP_SELECT_BALANCE, time);
                     query = "UPDATE tellers ";
                     query += "SET    Tbalance = Tbalance + " + delta + " ";
                     query += "WHERE  Tid = " + tid;
 
                     stmt.executeUpdate(query);
                     stmt.clearWarnings();
+                    time = lap(OP_UPDATE_TELLER, time);
 
                     query = "UPDATE branches ";
                     query += "SET    Bbalance = Bbalance + " + delta + " ";
@@ -1208,6 +2050,7 @@ public class DBBenchmark implements Startable, IPreferenced
 
                     stmt.executeUpdate(query);
                     stmt.clearWarnings();
+                    time = lap(OP_UPDATE_BRANCH, time);
 
                     query = "INSERT INTO history(Tid, Bid, Aid, delta) ";
                     query += "VALUES (";
@@ -1219,12 +2062,16 @@ public class DBBenchmark implements Startable, IPreferenced
                     stmt.executeUpdate(query);
                     stmt.clearWarnings();
                     JDBCUtil.close(stmt); 
+                    time = lap(OP_INSERT_HISTORY, time);
                 }
 
                 if (transactions_)
+                {
                     conn_.commit();
+                    lap(OP_COMMIT, time);
+                }
 
-                return balance;
+                return true;
             }
             catch (Exception ex)
             {
@@ -1234,8 +2081,6 @@ public class DBBenchmark implements Startable, IPreferenced
                     ex.printStackTrace(writer_);
                 }
 
-                incrementFailedTransactionCount();
-
                 if (transactions_)
                 {
                     try
@@ -1248,7 +2093,50 @@ public class DBBenchmark implements Startable, IPreferenced
                 }
             }
 
-            return 0;
+            return false;
+        }
+        
+        //----------------------------------------------------------------------
+        // Private
+        //----------------------------------------------------------------------
+        
+        /**
+         * Saves the time taken by an operation.
+         * 
+         * @param op Index of the operation.
+         * @param start Start time of the operation in nanoseconds.
+         * @return Current time in nanoseconds, the start of the next operation.
+         */
+        private long lap(int op, long start)
+        {
+            long now = System.nanoTime();
+            elapsed_[op] = now - start;
+            return now;
+        }
+        
+        
+        /**
+         * Sleeps until the given time.
+         * 
+         * @param time Time to wake up in nanoseconds.
+         * @return False if interrupted, true otherwise.
+         */
+        private boolean sleepUntil(long time)
+        {
+            long wait = time - System.nanoTime();
+            
+            if (wait <= 0)
+                return true;
+            
+            try
+            {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                return true;
+            }
+            catch (InterruptedException e)
+            {
+                return false;
+            }
         }
     }
     
@@ -4,13 +4,17 @@ import java.awt.BorderLayout;
 import java.awt.CardLayout;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.AbstractAction;
@@ -25,6 +29,7 @@ import javax.swing.JSplitPane;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
 
 import nu.xom.Element;
 import nu.xom.Elements;
@@ -184,6 +189,23 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
      */
     private boolean showSqlInResults_;
     
+    /**
+     * Number of rows fetched from the database at a time. Defaults to 500.
+     */
+    private int fetchSize_;
+    
+    /**
+     * Max number of rows of a query shown in the results text area. Defaults
+     * to 1000. Zero shows all rows.
+     */
+    private int maxTextRows_;
+    
+    /**
+     * Max number of rows of a query read into the results table. Defaults to
+     * 100000. Zero reads all rows.
+     */
+    private int maxTableRows_;
+    
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
@@ -288,6 +310,9 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
         setSqlTerminator(";");
         setAutoScrollThreshold(50);
         setShowSqlInResults(false);
+        setFetchSize(500);
+        setMaxTextRows(1000);
+        setMaxTableRows(100000);
     }
 
     //--------------------------------------------------------------------------
@@ -430,7 +455,7 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
             // Execute select statement
             
             String            formattedResults = null;
-            Object[][]        tableResults     = null;
+            List              tableResults     = new ArrayList();
             Connection        conn             = null;
             PreparedStatement stmt             = null;
             ResultSet         resultSet        = null;
@@ -441,13 +466,27 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
                 
                 stmt = conn.prepareStatement(
                     JDBCSession.prepSQL(sql), 
-                    ResultSet.TYPE_SCROLL_INSENSITIVE, 
+                    ResultSet.TYPE_FORWARD_ONLY, 
                     ResultSet.CONCUR_READ_ONLY);
                 
+                if (getFetchSize() > 0)
+                    stmt.setFetchSize(getFetchSize());
+                
                 resultSet = stmt.executeQuery();
-                formattedResults = JDBCUtil.format(resultSet);
-                resultSet.beforeFirst();
-                tableResults = JDBCUtil.toArray(resultSet, false);
+                
+                // The rows shown as text also seed the table so the result 
+                // set is only read once. Neither may read past the table's
+                // limit and the rest of the rows are left to the table.
+                StringWriter sw = new StringWriter();
+                
+                JDBCUtil.format(
+                    resultSet, 
+                    sw, 
+                    getSeedRows(),
+                    JDBCUtil.DEFAULT_SAMPLE_ROWS,
+                    tableResults);
+                
+                formattedResults = sw.toString();
                 
                 // Output to textarea
                 formattedResults = 
@@ -457,17 +496,29 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
                 
                 resultsArea_.append(formattedResults);
                 
-                // Output to table
-                DefaultTableModel dtm = 
-                    new DefaultTableModel(
+                // Output to table, which reads the remaining rows as needed
+                // and owns the connection from here on
+                ResultSetTableModel model = 
+                    new ResultSetTableModel(
+                        resultSet, 
+                        stmt, 
+                        conn, 
                         tableResults, 
-                        JDBCUtil.getColumnNames(resultSet)); 
-
-                TableSorter sorter = (TableSorter) resultsTable_.getModel();
-                sorter.setTableModel(dtm);
+                        getFetchSize(), 
+                        getMaxTableRows());
                 
+                conn = null;
+                stmt = null;
+                resultSet = null;
+                
+                setResultsModel(model);
                 metaResults = formattedResults;
             }
+            catch (IOException e)
+            {
+                // StringWriter does not throw
+                throw new IllegalStateException(e.getMessage());
+            }
             finally
             {
                 JDBCUtil.close(stmt);
@@ -506,6 +557,46 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
         return metaResults;
     }
 
+    
+    /**
+     * Returns the number of rows read up front for the results text area and
+     * the results table, which is the smaller of the text and table limits. A
+     * text limit of zero is taken to be the table limit.
+     * 
+     * @return Max number of rows or zero for all rows.
+     */
+    protected int getSeedRows()
+    {
+        int maxTextRows = getMaxTextRows();
+        int maxTableRows = getMaxTableRows();
+        
+        if (maxTextRows <= 0)
+            return maxTableRows;
+        
+        if (maxTableRows <= 0)
+            return maxTextRows;
+        
+        return Math.min(maxTextRows, maxTableRows);
+    }
+    
+    
+    /**
+     * Shows a model in the results table. If the model it replaces is still
+     * reading rows from a query, its result set and connection are closed.
+     * 
+     * @param model Table model to show.
+     */
+    protected void setResultsModel(TableModel model)
+    {
+        TableSorter sorter = (TableSorter) resultsTable_.getModel();
+        TableModel previous = sorter.getTableModel();
+        
+        if (previous instanceof ResultSetTableModel)
+            ((ResultSetTableModel) previous).close();
+        
+        sorter.setTableModel(model);
+    }
+
     //--------------------------------------------------------------------------
     // Build UI
     //--------------------------------------------------------------------------
@@ -891,6 +982,11 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
     public void destroy() throws ServiceException
     {
         checkTransition(ServiceTransition.DESTROY);
+        
+        // Release a connection still held by the results table
+        if (resultsTable_ != null)
+            setResultsModel(new DefaultTableModel());
+        
         transition(ServiceTransition.DESTROY);
     }
 
@@ -1109,6 +1205,72 @@ public class QueryPlugin extends AbstractPlugin implements QueryPluginConstants
         showSqlInResults_ = showSqlInResults;
     }
 
+
+    /**
+     * Returns the number of rows fetched from the database at a time.
+     * 
+     * @return int
+     */
+    public int getFetchSize()
+    {
+        return fetchSize_;
+    }
+
+
+    /**
+     * Sets the number of rows fetched from the database at a time.
+     * 
+     * @param fetchSize Number of rows. Zero uses the driver's default.
+     */
+    public void setFetchSize(int fetchSize)
+    {
+        fetchSize_ = fetchSize;
+    }
+
+
+    /**
+     * Returns the max number of rows shown in the results text area.
+     * 
+     * @return int
+     */
+    public int getMaxTextRows()
+    {
+        return maxTextRows_;
+    }
+
+
+    /**
+     * Sets the max number of rows shown in the results text area.
+     * 
+     * @param maxTextRows Max number of rows. Zero shows all rows.
+     */
+    public void setMaxTextRows(int maxTextRows)
+    {
+        maxTextRows_ = maxTextRows;
+    }
+
+
+    /**
+     * Returns the max number of rows read into the results table.
+     * 
+     * @return int
+     */
+    public int getMaxTableRows()
+    {
+        return maxTableRows_;
+    }
+
+
+    /**
+     * Sets the max number of rows read into the results table.
+     * 
+     * @param maxTableRows Max number of rows. Zero reads all rows.
+     */
+    public void setMaxTableRows(int maxTableRows)
+    {
+        maxTableRows_ = maxTableRows;
+    }
+
     //--------------------------------------------------------------------------
     // CtrlUpAction
     //--------------------------------------------------------------------------
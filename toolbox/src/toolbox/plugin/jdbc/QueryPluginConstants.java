@@ -58,6 +58,25 @@ public interface QueryPluginConstants
      */
     static final String PROP_SQL_IN_RESULTS = "showSqlInResults";
     
+    /**
+     * Property that specifies the number of rows the JDBC driver fetches from
+     * the database at a time for a query. Also the number of rows added to
+     * the results table each time it is scrolled near the end.
+     */
+    static final String PROP_FETCH_SIZE = "fetchSize";
+    
+    /**
+     * Property that specifies the max number of rows of a query shown in the
+     * results text area.
+     */
+    static final String PROP_MAX_TEXT_ROWS = "maxTextRows";
+    
+    /**
+     * Property that specifies the max number of rows of a query read into the
+     * results table.
+     */
+    static final String PROP_MAX_TABLE_ROWS = "maxTableRows";
+    
     /**
      * List of javabean properties that are persisted.
      */
@@ -67,7 +86,10 @@ public interface QueryPluginConstants
         PROP_SQL_TERMINATOR,
         PROP_AUTOSCROLL_THRESHOLD,
         PROP_MAX_HISTORY,
-        PROP_SQL_IN_RESULTS
+        PROP_SQL_IN_RESULTS,
+        PROP_FETCH_SIZE,
+        PROP_MAX_TEXT_ROWS,
+        PROP_MAX_TABLE_ROWS
     };
 
     //--------------------------------------------------------------------------
@@ -0,0 +1,345 @@
+package toolbox.plugin.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.JDBCUtil;
+
+/**
+ * Table model over an open ResultSet that reads rows a page at a time as the
+ * table asks for them, so a query that returns a huge number of rows can be
+ * browsed without first reading all of them into memory. When the table asks
+ * for a value near the last row read, the next page is read on a background
+ * thread and the new rows are inserted into the table on the event dispatch
+ * thread, so a slow read never blocks painting.
+ * <p>
+ * The model owns the result set, its statement and its connection and closes
+ * them once the last row has been read, maxRows rows have been read or
+ * {@link #close()} is called, whichever comes first. Sorting a table backed
+ * by this model asks for every row and so reads pages until the end or the
+ * limit is reached.
+ */
+public class ResultSetTableModel extends AbstractTableModel
+{
+    private static final Logger logger_ =
+        Logger.getLogger(ResultSetTableModel.class);
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Names of the columns.
+     */
+    private final String[] columnNames_;
+
+    /**
+     * Rows read so far, each an Object[].
+     */
+    private final List rows_;
+
+    /**
+     * Number of rows read per page.
+     */
+    private final int pageSize_;
+
+    /**
+     * Maximum number of rows to read or 0 for no limit.
+     */
+    private final int maxRows_;
+
+    /**
+     * Guards the result set, statement, connection and number of rows read.
+     * Held while a page is read so that close() never closes the result set
+     * out from under a read.
+     */
+    private final Object readLock_ = new Object();
+
+    /**
+     * Number of rows read from the result set, including rows of a page that
+     * has been read but not yet inserted into the table.
+     */
+    private int numRead_;
+
+    /**
+     * True once the result set has been closed.
+     */
+    private volatile boolean closed_;
+
+    /**
+     * Result set rows are read from. Null once closed.
+     */
+    private ResultSet resultSet_;
+
+    /**
+     * Statement that produced the result set.
+     */
+    private Statement statement_;
+
+    /**
+     * Connection the statement was executed on.
+     */
+    private Connection connection_;
+
+    /**
+     * True from when a read of the next page is started until its rows have
+     * been inserted into the table.
+     */
+    private boolean fetchPending_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a ResultSetTableModel that takes ownership of the result set,
+     * statement and connection. If fewer than a page of rows are given, the
+     * rest of the first page is read right away.
+     *
+     * @param resultSet Open result set positioned after the rows given.
+     * @param statement Statement that produced the result set.
+     * @param connection Connection the statement was executed on.
+     * @param rows Rows already read from the result set, each an Object[].
+     * @param pageSize Number of rows to read at a time.
+     * @param maxRows Maximum number of rows to read or 0 for no limit.
+     * @throws SQLException on SQL error.
+     */
+    public ResultSetTableModel(
+        ResultSet resultSet,
+        Statement statement,
+        Connection connection,
+        List rows,
+        int pageSize,
+        int maxRows)
+        throws SQLException
+    {
+        resultSet_   = resultSet;
+        statement_   = statement;
+        connection_  = connection;
+        columnNames_ = JDBCUtil.getColumnNames(resultSet);
+        rows_        = new ArrayList(rows);
+        pageSize_    = Math.max(1, pageSize);
+        maxRows_     = maxRows;
+        numRead_     = rows_.size();
+
+        if (isLimitReached())
+            close();
+        else if (rows_.size() < pageSize_)
+            insert(read(pageSize_ - rows_.size()));
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Reads the next page of rows on the calling thread and inserts them into
+     * the table. Does nothing once the model is closed.
+     */
+    public void fetchPage()
+    {
+        insert(read(pageSize_));
+    }
+
+
+    /**
+     * Closes the result set, statement and connection. The rows already read
+     * remain in the model.
+     */
+    public void close()
+    {
+        synchronized (readLock_)
+        {
+            if (closed_)
+                return;
+
+            logger_.debug("Closing result set after " + numRead_ + " rows");
+
+            JDBCUtil.close(resultSet_);
+            JDBCUtil.close(statement_);
+            JDBCUtil.releaseConnection(connection_);
+
+            resultSet_  = null;
+            statement_  = null;
+            connection_ = null;
+            closed_     = true;
+        }
+    }
+
+
+    /**
+     * Returns true once every row the model will hold has been read.
+     *
+     * @return boolean
+     */
+    public boolean isClosed()
+    {
+        return closed_;
+    }
+
+    //--------------------------------------------------------------------------
+    // TableModel Interface
+    //--------------------------------------------------------------------------
+
+    public synchronized int getRowCount()
+    {
+        return rows_.size();
+    }
+
+
+    public int getColumnCount()
+    {
+        return columnNames_.length;
+    }
+
+
+    public String getColumnName(int column)
+    {
+        return columnNames_[column];
+    }
+
+
+    public synchronized Object getValueAt(int row, int column)
+    {
+        if (row >= rows_.size() - pageSize_ / 2)
+            scheduleFetch();
+
+        return ((Object[]) rows_.get(row))[column];
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Reads rows from the result set, closing it if there are no more rows to
+     * read or the limit has been reached.
+     *
+     * @param count Max number of rows to read.
+     * @return Rows read, each an Object[].
+     */
+    private List read(int count)
+    {
+        List page = new ArrayList();
+
+        synchronized (readLock_)
+        {
+            if (closed_)
+                return page;
+
+            boolean exhausted = false;
+
+            try
+            {
+                int numCols = columnNames_.length;
+
+                while (page.size() < count && !isLimitReached())
+                {
+                    if (!resultSet_.next())
+                    {
+                        exhausted = true;
+                        break;
+                    }
+
+                    Object[] row = new Object[numCols];
+
+                    for (int i = 0; i < numCols; i++)
+                        row[i] = resultSet_.getObject(i + 1);
+
+                    page.add(row);
+                    numRead_++;
+                }
+            }
+            catch (SQLException e)
+            {
+                logger_.error("Reading rows after row " + numRead_, e);
+                exhausted = true;
+            }
+
+            if (exhausted || isLimitReached())
+                close();
+        }
+
+        return page;
+    }
+
+
+    /**
+     * Adds rows to the end of the table and notifies its listeners.
+     *
+     * @param page Rows to add, each an Object[].
+     */
+    private void insert(List page)
+    {
+        if (page.isEmpty())
+            return;
+
+        int first;
+
+        synchronized (this)
+        {
+            first = rows_.size();
+            rows_.addAll(page);
+        }
+
+        fireTableRowsInserted(first, first + page.size() - 1);
+    }
+
+
+    /**
+     * Returns true if the maximum number of rows has been read.
+     *
+     * @return boolean
+     */
+    private boolean isLimitReached()
+    {
+        return maxRows_ > 0 && numRead_ >= maxRows_;
+    }
+
+
+    /**
+     * Starts a read of the next page on a background thread unless one is
+     * already under way or there are no more rows. The rows read are
+     * inserted into the table on the event dispatch thread.
+     */
+    private synchronized void scheduleFetch()
+    {
+        if (fetchPending_ || closed_)
+            return;
+
+        fetchPending_ = true;
+
+        Thread reader = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                final List page = read(pageSize_);
+
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        insert(page);
+
+                        synchronized (ResultSetTableModel.this)
+                        {
+                            fetchPending_ = false;
+                        }
+                    }
+                });
+            }
+        }, "ResultSetTableModel-fetch");
+
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
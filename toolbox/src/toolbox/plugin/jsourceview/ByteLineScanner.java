@@ -0,0 +1,127 @@
+package toolbox.plugin.jsourceview;
+
+/**
+ * LineScanner that tokenizes a line of source code in place in a byte buffer
+ * instead of a String. The bytes must be in an ASCII compatible encoding such
+ * as UTF-8 or ISO-8859-1 since only the ASCII comment characters are
+ * recognized. Nothing is allocated while scanning.
+ */
+public class ByteLineScanner extends LineScanner
+{
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Buffer containing the line of source code to scan.
+     */
+    private byte[] buffer_;
+
+    /**
+     * Current position of the scanner in the buffer.
+     */
+    private int position_;
+
+    /**
+     * Position one past the end of the line in the buffer.
+     */
+    private int end_;
+
+    //--------------------------------------------------------------------------
+    //  Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a ByteLineScanner.
+     */
+    public ByteLineScanner()
+    {
+    }
+
+    //--------------------------------------------------------------------------
+    //  Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Sets the current line.
+     *
+     * @param buffer Buffer containing the line.
+     * @param start Position of the first byte of the line.
+     * @param end Position one past the last byte of the line.
+     */
+    public void setLine(byte[] buffer, int start, int end)
+    {
+        buffer_ = buffer;
+        position_ = start;
+        end_ = end;
+    }
+
+
+    /**
+     * Sets the current line. The line is converted to bytes so prefer
+     * {@link #setLine(byte[], int, int)}.
+     *
+     * @param line Line of source code.
+     */
+    public void setLine(String line)
+    {
+        byte[] buffer = line.getBytes();
+        setLine(buffer, 0, buffer.length);
+    }
+
+
+    /*
+     * @see toolbox.plugin.jsourceview.LineScanner#peek()
+     */
+    public int peek()
+    {
+        if (position_ >= end_)
+            return EOL;
+
+        if (position_ + 2 <= end_)
+        {
+            byte first  = buffer_[position_];
+            byte second = buffer_[position_ + 1];
+
+            if (first == '/')
+            {
+                if (second == '/')
+                    return LINE_COMMENT;
+
+                if (second == '*')
+                    return COMMENT_BEGIN;
+            }
+            else if (first == '*' && second == '/')
+            {
+                return COMMENT_END;
+            }
+        }
+
+        return ANY_CHAR;
+    }
+
+
+    /*
+     * @see toolbox.plugin.jsourceview.LineScanner#getNextToken()
+     */
+    public int getNextToken()
+    {
+        int i = peek();
+
+        switch (i)
+        {
+            case ANY_CHAR:
+                position_++;
+                return i;
+
+            case LINE_COMMENT:
+            case COMMENT_BEGIN:
+            case COMMENT_END:
+                position_ += 2;
+                return i;
+
+            default:
+                return i;
+        }
+    }
+}
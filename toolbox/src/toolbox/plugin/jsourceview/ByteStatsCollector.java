@@ -0,0 +1,336 @@
+package toolbox.plugin.jsourceview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Collects source code statistics directly from the bytes of a file without
+ * decoding them into String lines. Produces the same statistics as
+ * {@link StatsCollector} as long as the bytes are in an ASCII compatible
+ * encoding, see {@link #isSupported(String)}.
+ * <p>
+ * Files are read into a buffer that is reused from file to file so a
+ * collector allocates next to nothing once it has warmed up. A collector keeps
+ * state between lines and is not thread safe; use one per thread.
+ */
+public class ByteStatsCollector
+{
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Initial size of the read buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Lines starting with this are imports. The trailing space may also be a
+     * tab.
+     */
+    private static final byte[] IMPORT = {'i', 'm', 'p', 'o', 'r', 't', ' '};
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Buffer files are read into.
+     */
+    private byte[] buffer_;
+
+    /**
+     * Tokenizes lines for the state machine.
+     */
+    private ByteLineScanner scanner_;
+
+    /**
+     * Comment state carried from one line to the next.
+     */
+    private LineStatus status_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a ByteStatsCollector.
+     */
+    public ByteStatsCollector()
+    {
+        buffer_  = new byte[INITIAL_BUFFER_SIZE];
+        scanner_ = new ByteLineScanner();
+        status_  = new LineStatus();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns true if files in the given encoding can be scanned byte by byte.
+     * The encoding must encode ASCII as is and use a single byte per char, or
+     * be UTF-8 where no byte of a multibyte char falls in the ASCII range.
+     *
+     * @param charsetName Name of the encoding.
+     * @return boolean
+     */
+    public static boolean isSupported(String charsetName)
+    {
+        if (!Charset.isSupported(charsetName))
+            return false;
+
+        Charset charset = Charset.forName(charsetName);
+
+        if (charset.name().equals("UTF-8"))
+            return true;
+
+        if (!charset.canEncode() ||
+            charset.newEncoder().maxBytesPerChar() != 1.0f)
+            return false;
+
+        byte[] ascii = new byte[128];
+
+        for (int i = 0; i < ascii.length; i++)
+            ascii[i] = (byte) i;
+
+        try
+        {
+            String chars = new String(ascii, "US-ASCII");
+            return Arrays.equals(ascii, chars.getBytes(charsetName));
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns true if files in the platform's default encoding can be scanned
+     * byte by byte. This is the encoding {@link StatsCollector} reads with.
+     *
+     * @return boolean
+     */
+    public static boolean isDefaultEncodingSupported()
+    {
+        return isSupported(Charset.defaultCharset().name());
+    }
+
+
+    /**
+     * Scans a given file and returns the source code statistics.
+     *
+     * @param filename Name of the file.
+     * @return FileStats
+     * @throws IOException on I/O error.
+     */
+    public FileStats getStats(String filename) throws IOException
+    {
+        return getStats(new File(filename));
+    }
+
+
+    /**
+     * Scans a given file and returns the source code statistics.
+     *
+     * @param file File to scan.
+     * @return FileStats
+     * @throws IOException on I/O error.
+     */
+    public FileStats getStats(File file) throws IOException
+    {
+        InputStream is = new FileInputStream(file);
+
+        try
+        {
+            int size = (int) Math.min(file.length(), Integer.MAX_VALUE - 1);
+            return getStats(is, size);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+
+    /**
+     * Scans a stream and returns the source code statistics. The stream is
+     * not closed.
+     *
+     * @param is Stream of source code.
+     * @param sizeHint Expected number of bytes in the stream or 0 if unknown.
+     * @return FileStats
+     * @throws IOException on I/O error.
+     */
+    public FileStats getStats(InputStream is, int sizeHint) throws IOException
+    {
+        // One extra byte so a file of exactly sizeHint bytes hits EOF without
+        // growing the buffer
+        if (buffer_.length <= sizeHint)
+            buffer_ = new byte[sizeHint + 1];
+
+        int length = 0;
+        int read;
+
+        while ((read = is.read(buffer_, length, buffer_.length - length)) != -1)
+        {
+            length += read;
+
+            if (length == buffer_.length)
+            {
+                byte[] bigger = new byte[buffer_.length * 2];
+                System.arraycopy(buffer_, 0, bigger, 0, length);
+                buffer_ = bigger;
+            }
+        }
+
+        return getStats(buffer_, 0, length);
+    }
+
+
+    /**
+     * Scans the remaining bytes of a buffer, such as a memory mapped file,
+     * and returns the source code statistics. The position of the buffer is
+     * not changed. Direct buffers are copied into the read buffer in bulk.
+     *
+     * @param buffer Buffer of source code.
+     * @return FileStats
+     */
+    public FileStats getStats(ByteBuffer buffer)
+    {
+        int length = buffer.remaining();
+
+        if (buffer.hasArray())
+            return getStats(
+                buffer.array(),
+                buffer.arrayOffset() + buffer.position(),
+                length);
+
+        if (buffer_.length < length)
+            buffer_ = new byte[length];
+
+        buffer.duplicate().get(buffer_, 0, length);
+        return getStats(buffer_, 0, length);
+    }
+
+
+    /**
+     * Scans a buffer of source code. Lines end at a carriage return, a line
+     * feed or both, the same as BufferedReader.readLine().
+     *
+     * @param buffer Buffer containing source code.
+     * @param offset Position of the first byte.
+     * @param length Number of bytes to scan.
+     * @return FileStats
+     */
+    public FileStats getStats(byte[] buffer, int offset, int length)
+    {
+        FileStats stats = new FileStats();
+        int end = offset + length;
+        int start = offset;
+
+        for (int i = offset; i < end; i++)
+        {
+            byte b = buffer[i];
+
+            if (b == '\n' || b == '\r')
+            {
+                identify(stats, buffer, start, i);
+
+                if (b == '\r' && i + 1 < end && buffer[i + 1] == '\n')
+                    i++;
+
+                start = i + 1;
+            }
+        }
+
+        if (start < end)
+            identify(stats, buffer, start, end);
+
+        return stats;
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Categorizes a line the same way as the StatsCollector pipeline: every
+     * line counts towards the total, then the first of blank, brace, import
+     * or code/comment that matches.
+     *
+     * @param stats Stats to increment.
+     * @param buffer Buffer containing the line.
+     * @param start Position of the first byte of the line.
+     * @param end Position one past the last byte of the line.
+     */
+    private void identify(FileStats stats, byte[] buffer, int start, int end)
+    {
+        stats.incrementTotalLines();
+
+        // Same as String.trim()
+        while (start < end && (buffer[start] & 0xFF) <= ' ')
+            start++;
+
+        while (end > start && (buffer[end - 1] & 0xFF) <= ' ')
+            end--;
+
+        int length = end - start;
+
+        if (length == 0)
+        {
+            stats.incrementBlankLines();
+        }
+        else if (length == 1 && (buffer[start] == '{' || buffer[start] == '}'))
+        {
+            stats.incrementThrownOutLines();
+        }
+        else if (isImport(buffer, start, end))
+        {
+            stats.incrementThrownOutLines();
+        }
+        else
+        {
+            scanner_.setLine(buffer, start, end);
+            Machine.scanLine(scanner_, status_);
+
+            if (status_.isRealCode())
+                stats.incrementCodeLines();
+            else
+                stats.incrementCommentLines();
+        }
+    }
+
+
+    /**
+     * Returns true if the trimmed line is an import statement.
+     *
+     * @param buffer Buffer containing the line.
+     * @param start Position of the first byte of the line.
+     * @param end Position one past the last byte of the line.
+     * @return boolean
+     */
+    private static boolean isImport(byte[] buffer, int start, int end)
+    {
+        if (end - start < IMPORT.length)
+            return false;
+
+        int last = IMPORT.length - 1;
+
+        for (int i = 0; i < last; i++)
+            if (buffer[start + i] != IMPORT[i])
+                return false;
+
+        // StatsCollector turns tabs into spaces before matching
+        byte b = buffer[start + last];
+        return b == ' ' || b == '\t';
+    }
+}
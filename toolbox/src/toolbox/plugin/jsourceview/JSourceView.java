@@ -27,7 +27,6 @@ import nu.xom.Element;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
-import toolbox.util.Queue;
 import toolbox.util.XOMUtil;
 import toolbox.util.ui.ImageCache;
 import toolbox.util.ui.JHeaderPanel;
@@ -48,6 +47,9 @@ import toolbox.workspace.IStatusBar;
 import toolbox.workspace.PreferencedException;
 import toolbox.workspace.WorkspaceAction;
 
+import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingQueue;
+
 /**
  * JSourceView gathers statistics on one or more source files and presents them
  * in a table format for viewing.
@@ -88,6 +90,15 @@ public class JSourceView extends JPanel implements IPreferenced
      */
     private static final String ATTR_LAST_DIR = "dir";
 
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Maximum number of files waiting to be parsed before the scanner blocks.
+     */
+    private static final int WORK_QUEUE_CAPACITY = 1000;
+
     //--------------------------------------------------------------------------
     // Table Constants
     //--------------------------------------------------------------------------
@@ -198,10 +209,10 @@ public class JSourceView extends JPanel implements IPreferenced
     private TableSorter tableSorter_;
     
     /**
-     * Queue that acts as a pipe between the scanner thread and the parsing
-     * thread.
+     * Bounded queue that acts as a pipe between the scanner thread and the
+     * parsing threads.
      */
-    private Queue workQueue_;
+    private BlockingQueue workQueue_;
     
     /**
      * Thread that scans the file system looking for source files.
@@ -214,7 +225,7 @@ public class JSourceView extends JPanel implements IPreferenced
     private SourceScanner scanDirWorker_;
     
     /**
-     * Thread that parses source files and gathers statistics.
+     * Thread that runs the parser workers and merges their statistics.
      */
     private Thread parserThread_;
     
@@ -290,9 +301,9 @@ public class JSourceView extends JPanel implements IPreferenced
     /**
      * Returns the workQueue.
      * 
-     * @return Queue
+     * @return BlockingQueue
      */
-    public Queue getWorkQueue()
+    public BlockingQueue getWorkQueue()
     {
         return workQueue_;
     }
@@ -542,7 +553,7 @@ public class JSourceView extends JPanel implements IPreferenced
             {
                 goButton_.setText(LABEL_CANCEL_BUTTON);
                 String dir = dirField_.getText();
-                workQueue_ = new Queue();
+                workQueue_ = new LinkedBlockingQueue(WORK_QUEUE_CAPACITY);
                 tableModel_.setRowCount(0);
             
                 // To avoid a whole mess of sorting going on while the table is
@@ -2,75 +2,138 @@ package toolbox.plugin.jsourceview;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 
 import toolbox.util.ElapsedTime;
 
+import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Pops files off of the work queue and parses them to gather stats.
+ * <p>
+ * Parsing is spread over a number of worker threads. Each worker has its own
+ * StatsCollector and running totals, so workers share nothing but the work
+ * queue. The totals are merged once all the workers are done. Rows are handed
+ * to the table in batches and the parse status is refreshed at most a few
+ * times a second, so the event dispatch thread isn't flooded on large trees.
  */
 class SourceParser implements Runnable
 {
     private static final Logger logger_ = Logger.getLogger(SourceParser.class);
-    
+
     //--------------------------------------------------------------------------
-    // Fields 
+    // Constants
     //--------------------------------------------------------------------------
-    
+
+    /**
+     * Number of rows a worker collects before adding them to the table.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Minimum number of milliseconds between updates of the parse status.
+     */
+    private static final long STATUS_INTERVAL = 250;
+
+    /**
+     * Number of milliseconds a worker waits on the work queue before checking
+     * the cancel flag again.
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
     /**
      * Logical parent.
      */
     private final JSourceView sourceView_;
-    
+
+    /**
+     * Number of worker threads.
+     */
+    private final int threads_;
+
     /**
      * Cancel flag.
      */
-    private boolean cancel_;
+    private volatile boolean cancel_;
 
     /**
      * Statistics totals.
      */
     private FileStats totals_;
-    
+
+    /**
+     * Number of files parsed so far. Used to number the table rows.
+     */
+    private AtomicInteger fileCount_;
+
+    /**
+     * Time the parse status was last updated.
+     */
+    private volatile long lastStatus_;
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
-    
+
     /**
-     * Creates a SourceParser.
-     * 
+     * Creates a SourceParser with one worker per processor.
+     *
      * @param view Parent view.
      */
     SourceParser(JSourceView view)
+    {
+        this(view, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates a SourceParser.
+     *
+     * @param view Parent view.
+     * @param threads Number of worker threads.
+     */
+    SourceParser(JSourceView view, int threads)
     {
         sourceView_ = view;
+        threads_    = Math.max(1, threads);
+        fileCount_  = new AtomicInteger();
+        totals_     = new FileStats();
     }
 
-    
+
     /**
      * Returns the statistics totals.
-     * 
+     *
      * @return FileStats
      */
     public FileStats getTotals()
     {
         return totals_;
     }
-    
+
     //--------------------------------------------------------------------------
     // Public
     //--------------------------------------------------------------------------
 
-    /** 
+    /**
      * Cancels the parsing activity.
      */
     public void cancel()
     {
         cancel_ = true;
         // REMOVE: sourceView_.getTableSorter().setEnabled(true);
-        sourceView_.setParseStatus("Search canceled!");            
+        sourceView_.setParseStatus("Search canceled!");
     }
 
     //--------------------------------------------------------------------------
@@ -78,83 +141,212 @@ class SourceParser implements Runnable
     //--------------------------------------------------------------------------
 
     /**
-     * Pops source code off the work queue and parses collecting stats.
+     * Starts the workers, waits for them to drain the work queue and merges
+     * their totals.
      */
     public void run()
     {
         ElapsedTime elapsed = new ElapsedTime();
-        totals_ = new FileStats();
-        int fileCount = 0;
-        StatsCollector statsCollector = new StatsCollector();
-        
-        while (!sourceView_.getWorkQueue().isEmpty() || 
-                sourceView_.scanDirThread_.isAlive()) 
+        Worker[] workers = new Worker[threads_];
+        Thread[] threads = new Thread[threads_];
+
+        for (int i = 0; i < threads_; i++)
         {
-            if (cancel_)
-                break;
-                
-            // Pop file of the queue
-            String filename = (String) sourceView_.getWorkQueue().dequeue();
-            
-            if (filename != null)
+            workers[i] = new Worker();
+            threads[i] = new Thread(workers[i], "SourceParser-" + i);
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads_; i++)
+        {
+            try
             {
-                sourceView_.setParseStatus(
-                    "Parsing [" + 
-                    sourceView_.getWorkQueue().size() + 
-                    "] " + 
-                    filename + " ...");
-                 
-                // Parse file and add to totals
-                FileStats fileStats = null;
-                
-                try
-                {
-                    fileStats = statsCollector.getStats(filename);
-                    totals_.add(fileStats);
-                    ++fileCount;
-
-                    // Create table row data and append                    
-                    Object tableRow[] = 
-                        new Object[JSourceView.COL_NAMES.length];
-                    
-                    tableRow[0] = new Integer(fileCount);
-                    tableRow[1] = FilenameUtils.getFullPathNoEndSeparator(filename);
-                    tableRow[2] = FilenameUtils.getName(filename);
-                    tableRow[3] = new Integer(fileStats.getCodeLines());
-                    tableRow[4] = new Integer(fileStats.getCommentLines());
-                    tableRow[5] = new Integer(fileStats.getBlankLines());
-                    tableRow[6] = new Integer(fileStats.getThrownOutLines());
-                    tableRow[7] = new Integer(fileStats.getTotalLines());
-                    tableRow[8] = new Integer(fileStats.getPercent());
-                
-                    sourceView_.getTableModel().addRow(tableRow);
-                    
-                }
-                catch (Exception e)
-                {
-                    logger_.error("run", e);
-                }
+                threads[i].join();
+            }
+            catch (InterruptedException e)
+            {
+                cancel_ = true;
+                Thread.currentThread().interrupt();
+                break;
             }
         }
-    
+
+        FileStats totals = new FileStats();
+
+        for (int i = 0; i < threads_; i++)
+            totals.add(workers[i].subtotals_);
+
+        totals_ = totals;
+
         NumberFormat df = DecimalFormat.getIntegerInstance();
-        
+
         sourceView_.setParseStatus(
             "[Total " + df.format(totals_.getTotalLines()) + "]  " +
             "[Code " + df.format(totals_.getCodeLines()) + "]  " +
             "[Comments " + df.format(totals_.getCommentLines()) + "]  " +
             "[Empty " + df.format(totals_.getBlankLines()) + "]  " +
-            "[Thrown out " + df.format(totals_.getThrownOutLines()) + "]  " + 
-            "[Percent code vs comments " + df.format(totals_.getPercent()) + 
-            "%]"); 
-        
+            "[Thrown out " + df.format(totals_.getThrownOutLines()) + "]  " +
+            "[Percent code vs comments " + df.format(totals_.getPercent()) +
+            "%]");
+
         sourceView_.setScanStatus("Done parsing.");
         sourceView_.goButton_.setText(JSourceView.LABEL_GO_BUTTON);
-        
+
         // Turn the sorter back on
         // REMOVE: sourceView_.getTableSorter().setEnabled(true);
-        
+
         elapsed.setEndTime();
         sourceView_.setScanStatus("Elapsed time: " + elapsed.toString());
     }
-}
\ No newline at end of file
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Updates the parse status if it hasn't been updated recently.
+     *
+     * @param filename File being parsed.
+     */
+    private void updateStatus(String filename)
+    {
+        long now = System.currentTimeMillis();
+
+        if (now - lastStatus_ < STATUS_INTERVAL)
+            return;
+
+        lastStatus_ = now;
+
+        sourceView_.setParseStatus(
+            "Parsing [" +
+            sourceView_.getWorkQueue().size() +
+            "] " +
+            filename + " ...");
+    }
+
+    //--------------------------------------------------------------------------
+    // Worker
+    //--------------------------------------------------------------------------
+
+    /**
+     * Takes files off the work queue until the scanner is done or the parse
+     * is canceled.
+     */
+    class Worker implements Runnable
+    {
+        /**
+         * Collectors keep per line state so each worker gets its own.
+         */
+        private final StatsCollector statsCollector_ = new StatsCollector();
+
+        /**
+         * Scans files without decoding them into lines. Null if the default
+         * encoding isn't ASCII compatible.
+         */
+        private final ByteStatsCollector byteCollector_ =
+            ByteStatsCollector.isDefaultEncodingSupported()
+                ? new ByteStatsCollector()
+                : null;
+
+        /**
+         * Totals of the files parsed by this worker.
+         */
+        private final FileStats subtotals_ = new FileStats();
+
+        /**
+         * Rows waiting to be added to the table.
+         */
+        private final List rows_ = new ArrayList(BATCH_SIZE);
+
+        /*
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            BlockingQueue queue = sourceView_.getWorkQueue();
+
+            try
+            {
+                while (!cancel_)
+                {
+                    Object item =
+                        queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+
+                    if (item == null)
+                        continue;
+
+                    if (item == SourceScanner.END_OF_SCAN)
+                    {
+                        // Put it back for the other workers
+                        queue.offer(item);
+                        break;
+                    }
+
+                    parse((String) item);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                ; // Ignore
+            }
+            finally
+            {
+                flush();
+            }
+        }
+
+
+        /**
+         * Parses a file, adds it to the totals and queues its table row.
+         *
+         * @param filename File to parse.
+         */
+        private void parse(String filename)
+        {
+            updateStatus(filename);
+
+            try
+            {
+                FileStats fileStats = byteCollector_ != null
+                    ? byteCollector_.getStats(filename)
+                    : statsCollector_.getStats(filename);
+                subtotals_.add(fileStats);
+
+                // Create table row data and append
+                Vector tableRow = new Vector(JSourceView.COL_NAMES.length);
+
+                tableRow.add(new Integer(fileCount_.incrementAndGet()));
+                tableRow.add(FilenameUtils.getFullPathNoEndSeparator(filename));
+                tableRow.add(FilenameUtils.getName(filename));
+                tableRow.add(new Integer(fileStats.getCodeLines()));
+                tableRow.add(new Integer(fileStats.getCommentLines()));
+                tableRow.add(new Integer(fileStats.getBlankLines()));
+                tableRow.add(new Integer(fileStats.getThrownOutLines()));
+                tableRow.add(new Integer(fileStats.getTotalLines()));
+                tableRow.add(new Integer(fileStats.getPercent()));
+
+                rows_.add(tableRow);
+
+                if (rows_.size() >= BATCH_SIZE)
+                    flush();
+            }
+            catch (Exception e)
+            {
+                logger_.error("parse: " + filename, e);
+            }
+        }
+
+
+        /**
+         * Adds the pending rows to the table.
+         */
+        private void flush()
+        {
+            if (rows_.isEmpty())
+                return;
+
+            sourceView_.getTableModel().addRows(rows_.toArray());
+            rows_.clear();
+        }
+    }
+}
@@ -1,23 +1,44 @@
 package toolbox.plugin.jsourceview;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.OrFileFilter;
 
 import toolbox.util.ArrayUtil;
 import toolbox.util.io.filter.RegexFileFilter;
 import toolbox.util.service.Cancelable;
 
+import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+
 /** 
- * Scans file system recursively for files containing source code.
+ * Scans file system recursively for files containing source code. Source files
+ * are put on the work queue of the view followed by {@link #END_OF_SCAN} once
+ * the scan is complete. The work queue is bounded, so the scanner blocks when
+ * it gets too far ahead of the parser.
  */
 public class SourceScanner implements Runnable, Cancelable
 {
     // TODO: Change findJavaFiles() to use FileFinder with notifications 
     //       instead of fishing out source files in custom code.
     
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Put on the work queue after the last source file.
+     */
+    static final Object END_OF_SCAN = new Object();
+    
+    /**
+     * Number of milliseconds to wait on a full work queue before checking the
+     * cancel flag again.
+     */
+    private static final long OFFER_INTERVAL = 100;
+    
     //--------------------------------------------------------------------------
     // Fields 
     //--------------------------------------------------------------------------
@@ -35,7 +56,7 @@ public class SourceScanner implements Runnable, Cancelable
     /** 
      * Cancel flag. 
      */
-    private boolean canceled_;
+    private volatile boolean canceled_;
     
     /** 
      * File filter used to identify source files. 
@@ -81,24 +102,51 @@ public class SourceScanner implements Runnable, Cancelable
         if (isCanceled())
             return;
             
-        // Process files in current directory
-        File[] srcFiles = dir.listFiles((FileFilter) sourceFilter_);
+        // List the directory once and split into source files and dirs
+        File[] files = dir.listFiles();
+        
+        if (ArrayUtil.isNullOrEmpty(files))
+            return;
         
-        if (!ArrayUtil.isNullOrEmpty(srcFiles))
-            for (int i = 0; i < srcFiles.length; i++)
-                sourceView_.getWorkQueue().enqueue(
-                    srcFiles[i].getAbsolutePath());
+        List dirs = new ArrayList();
+        
+        for (int i = 0; i < files.length && !isCanceled(); i++)
+        {
+            if (files[i].isDirectory())
+                dirs.add(files[i]);
+            else if (sourceFilter_.accept(files[i]))
+                enqueue(files[i].getAbsolutePath());
+        }
         
         // Process dirs in current directory
-        File dirs[] = dir.listFiles((FileFilter) DirectoryFileFilter.INSTANCE);
+        for (int i = 0, n = dirs.size(); i < n; i++)
+        {
+            File subdir = (File) dirs.get(i);
+            sourceView_.setScanStatus("Scanning " + subdir + " ...");
+            findJavaFiles(subdir);
+        }
+    }
+    
+    
+    /**
+     * Puts an item on the work queue, waiting while the queue is full unless
+     * the scan is canceled.
+     * 
+     * @param item Item to put on the queue.
+     */
+    protected void enqueue(Object item)
+    {
+        BlockingQueue queue = sourceView_.getWorkQueue();
         
-        if (!ArrayUtil.isNullOrEmpty(dirs))
+        try
+        {
+            while (!isCanceled())
+                if (queue.offer(item, OFFER_INTERVAL, TimeUnit.MILLISECONDS))
+                    return;
+        }
+        catch (InterruptedException e)
         {
-            for (int i = 0; i < dirs.length; i++)
-            {
-                sourceView_.setScanStatus("Scanning " + dirs[i] + " ...");
-                findJavaFiles(dirs[i]);
-            }    
+            cancel();
         }
     }
 
@@ -136,7 +184,14 @@ public class SourceScanner implements Runnable, Cancelable
      */
     public void run()
     {
-        findJavaFiles(dir_);
-        sourceView_.setScanStatus("Done scanning.");
+        try
+        {
+            findJavaFiles(dir_);
+            sourceView_.setScanStatus("Done scanning.");
+        }
+        finally
+        {
+            enqueue(END_OF_SCAN);
+        }
     }
 }
\ No newline at end of file
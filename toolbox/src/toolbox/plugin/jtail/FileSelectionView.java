@@ -35,6 +35,12 @@ public class FileSelectionView extends JPanel
      */
     private JButton aggregateButton_;
     
+    /**
+     * Button that will open the currently selected file in an indexed view
+     * suitable for very large files.
+     */
+    private JButton viewButton_;
+    
     //--------------------------------------------------------------------------
     //  Constructors
     //--------------------------------------------------------------------------
@@ -79,8 +85,10 @@ public class FileSelectionView extends JPanel
         JPanel buttonPanel = new JPanel(new FlowLayout());
         tailButton_ = new JSmartButton("Tail");
         aggregateButton_ = new JSmartButton("Aggregate");
+        viewButton_ = new JSmartButton("View");
         buttonPanel.add(tailButton_);
         buttonPanel.add(aggregateButton_);
+        buttonPanel.add(viewButton_);
         add(buttonPanel, BorderLayout.SOUTH);
     }
     
@@ -119,4 +127,15 @@ public class FileSelectionView extends JPanel
     {
         return aggregateButton_;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Returns the view button.
+     * 
+     * @return JButton
+     */
+    public JButton getViewButton()
+    {
+        return viewButton_;
+    }
+}
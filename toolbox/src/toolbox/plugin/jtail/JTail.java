@@ -5,6 +5,9 @@ import java.awt.Component;
 import java.awt.Event;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ContainerAdapter;
+import java.awt.event.ContainerEvent;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.IOException;
@@ -171,6 +174,20 @@ public class JTail extends JPanel implements IPreferenced
     {
         statusBar_ = statusBar;
     }
+    
+    
+    /**
+     * Closes any file views that are still open so their refresh timers and
+     * file handles are released.
+     */
+    public void destroy()
+    {
+        Component[] tabs = tabbedPane_.getComponents();
+        
+        for (int i = 0; i < tabs.length; i++)
+            if (tabs[i] instanceof LogFileView)
+                ((LogFileView) tabs[i]).close();
+    }
 
     //--------------------------------------------------------------------------
     // Public Static
@@ -359,29 +376,77 @@ public class JTail extends JPanel implements IPreferenced
             
         fileSelectionPane_.getAggregateButton().
             addActionListener(new AggregateButtonListener());
+            
+        fileSelectionPane_.getViewButton().
+            addActionListener(new ViewButtonListener());
+        
+        // A file view holds a timer and an open file until it is closed
+        tabbedPane_.addContainerListener(new ContainerAdapter()
+        {
+            public void componentRemoved(ContainerEvent e)
+            {
+                if (e.getChild() instanceof LogFileView)
+                    ((LogFileView) e.getChild()).close();
+            }
+        });
+    }
+    
+    
+    /**
+     * Adds an indexed view of a file to the output area.
+     * 
+     * @param file File to view.
+     * @throws IOException on I/O error.
+     */
+    protected void addView(File file) throws IOException
+    {
+        final LogFileView view = new LogFileView(file);
+        
+        view.getCloseButton().addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                tabbedPane_.remove(view);
+                statusBar_.setInfo("Closed " + view.getFile());
+            }
+        });
+        
+        tabbedPane_.addTab(file.getName(), view);
+        
+        tabbedPane_.setToolTipTextAt(
+            tabbedPane_.getTabCount() - 1, file.getAbsolutePath());
+            
+        tabbedPane_.setSelectedComponent(view);
+        statusBar_.setInfo("Added view for " + file);
     }
     
     
     /**
      * Returns the currently selected TailPane. 
      * 
-     * @return TailPane
+     * @return TailPane or null if the selected tab is not a tail.
      */
     protected TailPane getSelectedTail()
     {
-        return (TailPane) tabbedPane_.getSelectedComponent();
+        Component selected = tabbedPane_.getSelectedComponent();
+        
+        if (!(selected instanceof TailPane))
+            return null;
+            
+        return (TailPane) selected;
     }
     
     
     /**
      * Returns the configuration of currently selected tail in the tabbed pane.
      * 
-     * @return ITailViewConfig.
+     * @return ITailViewConfig or null if the selected tab is not a tail.
      * @throws IOException on I/O error.  
      */
     protected ITailViewConfig getSelectedConfig() throws IOException
     {
-        return getSelectedTail().getConfiguration();
+        TailPane tailPane = getSelectedTail();
+        return tailPane == null ? null : tailPane.getConfiguration();
     }
     
     //--------------------------------------------------------------------------
@@ -608,10 +673,47 @@ public class JTail extends JPanel implements IPreferenced
         {
             String file = fileSelectionPane_.getFileExplorer().getFilePath();
             TailPane tailPane = getSelectedTail();
+            
+            if (tailPane == null)
+            {
+                statusBar_.setWarning("Please select a tail first.");
+                return;
+            }
+            
             tailPane.aggregate(file);
         }
     }
 
+    //--------------------------------------------------------------------------
+    // ViewButtonListener
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Opens an indexed view of the currently selected file in the file 
+     * explorer.
+     */
+    class ViewButtonListener extends SmartAction
+    {
+        /**
+         * Creates a ViewButtonListener.
+         */
+        ViewButtonListener()
+        {
+            super("View", true, false, null);    
+        }
+
+        
+        /**
+         * @see toolbox.util.ui.SmartAction#runAction(
+         *      java.awt.event.ActionEvent)
+         */
+        public void runAction(ActionEvent e) throws Exception
+        {
+            addView(new File(
+                fileSelectionPane_.getFileExplorer().getFilePath()));
+        }
+    }
+
     //--------------------------------------------------------------------------
     // CloseButtonListener
     //--------------------------------------------------------------------------
@@ -792,6 +894,12 @@ public class JTail extends JPanel implements IPreferenced
          */
         private boolean lastAntiAlias_;
         
+        /**
+         * Tail that was selected when the dialog was opened. The dialog is
+         * not modal so another tab may be selected by the time it is used.
+         */
+        private TailPane tailPane_;
+        
         /**
          * Creates a SetFontAction.
          */
@@ -814,9 +922,19 @@ public class JTail extends JPanel implements IPreferenced
          */
         public void runAction(ActionEvent e) throws Exception
         {
+            tailPane_ = getSelectedTail();
+            
+            if (tailPane_ == null)
+            {
+                statusBar_.setWarning("Please select a tail first.");
+                return;
+            }
+            
+            ITailViewConfig config = tailPane_.getConfiguration();
+            
             // Remember state just in case user cancels operation
-            lastFont_      = getSelectedConfig().getFont();
-            lastAntiAlias_ = getSelectedConfig().isAntiAliased();
+            lastFont_      = config.getFont();
+            lastAntiAlias_ = config.isAntiAliased();
             
             // Show font selection dialog with font from the current
             // tail set as the default selected font
@@ -846,10 +964,10 @@ public class JTail extends JPanel implements IPreferenced
             try
             {
                 // Apply current settings
-                ITailViewConfig config = getSelectedConfig();
+                ITailViewConfig config = tailPane_.getConfiguration();
                 config.setFont(fontChooser.getSelectedFont());
                 config.setAntiAliased(fontChooser.isAntiAliased());
-                getSelectedTail().setConfiguration(config);
+                tailPane_.setConfiguration(config);
             }
             catch (FontChooserException fse)
             {
@@ -873,10 +991,10 @@ public class JTail extends JPanel implements IPreferenced
             
             try
             {
-                config = getSelectedConfig();
+                config = tailPane_.getConfiguration();
                 config.setFont(lastFont_);            
                 config.setAntiAliased(lastAntiAlias_);
-                getSelectedTail().setConfiguration(config);
+                tailPane_.setConfiguration(config);
             }
             catch (IOException e)
             {
@@ -894,10 +1012,10 @@ public class JTail extends JPanel implements IPreferenced
             try
             {
                 // Use new settings
-                ITailViewConfig config = getSelectedConfig();
+                ITailViewConfig config = tailPane_.getConfiguration();
                 config.setFont(fontChooser.getSelectedFont());
                 config.setAntiAliased(fontChooser.isAntiAliased());
-                getSelectedTail().setConfiguration(config);
+                tailPane_.setConfiguration(config);
             }
             catch (FontChooserException fse)
             {
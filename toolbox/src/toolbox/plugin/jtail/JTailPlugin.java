@@ -93,6 +93,8 @@ public class JTailPlugin extends AbstractPlugin
      */
     public void destroy()
     {
+        if (jtail_ != null)
+            jtail_.destroy();
     }
     
     //--------------------------------------------------------------------------
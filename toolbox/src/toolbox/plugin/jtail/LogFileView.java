@@ -0,0 +1,440 @@
+package toolbox.plugin.jtail;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.swing.AbstractAction;
+import javax.swing.AbstractListModel;
+import javax.swing.JButton;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JToolBar;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.FontUtil;
+import toolbox.util.io.LineIndex;
+import toolbox.util.ui.ImageCache;
+import toolbox.util.ui.JHeaderPanel;
+import toolbox.util.ui.JSmartToggleButton;
+
+/**
+ * A read-only view of a file of any size. Unlike {@link TailPane}, which
+ * appends every line to a text component, this view is backed by a
+ * {@link toolbox.util.io.LineIndex} and a virtual list that only fetches the
+ * lines that are actually visible. Scrolling through a multi-gigabyte log
+ * costs a few megabytes of heap for the line index.
+ * <p>
+ * The file is re-indexed periodically so lines appended to the file show up
+ * in the view. When auto tail is enabled, the view stays scrolled to the last
+ * line.
+ */
+public class LogFileView extends JHeaderPanel
+{
+    private static final Logger logger_ = Logger.getLogger(LogFileView.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Interval in milliseconds between checks for new lines.
+     */
+    private static final int REFRESH_INTERVAL = 1000;
+
+    /**
+     * Number of lines fetched from the index on a cache miss.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Index of the file being viewed.
+     */
+    private LineIndex index_;
+
+    /**
+     * Virtual list model over the index.
+     */
+    private LineIndexListModel model_;
+
+    /**
+     * Displays the visible lines.
+     */
+    private JList list_;
+
+    /**
+     * Keeps the last line visible when selected.
+     */
+    private JSmartToggleButton autoTailButton_;
+
+    /**
+     * Closes the view.
+     */
+    private JButton closeButton_;
+
+    /**
+     * Periodically refreshes the index.
+     */
+    private Timer timer_;
+
+    /**
+     * Set once the view has been closed.
+     */
+    private volatile boolean closed_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a LogFileView and starts indexing the file in the background.
+     *
+     * @param file File to view.
+     * @throws IOException on I/O error.
+     */
+    public LogFileView(File file) throws IOException
+    {
+        super(file.getName());
+        index_ = new LineIndex(file);
+        model_ = new LineIndexListModel();
+        buildView();
+
+        timer_ = new Timer(true);
+        timer_.schedule(new RefreshTask(), 0, REFRESH_INTERVAL);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the file being viewed.
+     *
+     * @return File
+     */
+    public File getFile()
+    {
+        return index_.getFile();
+    }
+
+
+    /**
+     * Returns the close button.
+     *
+     * @return JButton
+     */
+    public JButton getCloseButton()
+    {
+        return closeButton_;
+    }
+
+
+    /**
+     * Stops refreshing and releases the file. Safe to call more than once.
+     */
+    public void close()
+    {
+        if (closed_)
+            return;
+
+        closed_ = true;
+        timer_.cancel();
+
+        try
+        {
+            index_.close();
+        }
+        catch (IOException e)
+        {
+            logger_.warn("Closing " + getFile(), e);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Protected
+    //--------------------------------------------------------------------------
+
+    /**
+     * Builds the GUI.
+     */
+    protected void buildView()
+    {
+        list_ = new JList(model_);
+        list_.setFont(FontUtil.getPreferredMonoFont());
+        list_.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+
+        // A fixed cell size stops JList from asking for every element up
+        // front to measure it. Only visible lines are ever fetched.
+        list_.setPrototypeCellValue(
+            "MMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMM");
+
+        JToolBar tb = JHeaderPanel.createToolBar();
+
+        autoTailButton_ =
+            JHeaderPanel.createToggleButton(
+                ImageCache.getIcon(ImageCache.IMAGE_LOCK),
+                "AutoTail",
+                new AutoTailAction());
+
+        autoTailButton_.setSelected(true);
+
+        closeButton_ =
+            JHeaderPanel.createButton(
+                ImageCache.getIcon(ImageCache.IMAGE_DELETE),
+                "Close view",
+                new CloseAction());
+
+        tb.add(autoTailButton_);
+        tb.add(closeButton_);
+
+        setContent(new JScrollPane(list_));
+        setToolBar(tb);
+    }
+
+    //--------------------------------------------------------------------------
+    // LineIndexListModel
+    //--------------------------------------------------------------------------
+
+    /**
+     * List model that fetches lines from the index on demand and caches a
+     * small window of lines around the last one requested. Only accessed on
+     * the event dispatch thread.
+     */
+    class LineIndexListModel extends AbstractListModel
+    {
+        /**
+         * Number of lines published to the list.
+         */
+        private int size_;
+
+        /**
+         * Line number of the first cached line.
+         */
+        private int cacheFirst_;
+
+        /**
+         * Cached lines.
+         */
+        private String[] cache_ = new String[0];
+
+        /**
+         * Publishes changes to the index to the list.
+         *
+         * @param result Result of the refresh.
+         */
+        void update(int result)
+        {
+            int oldSize = size_;
+            int newSize = index_.getLineCount();
+
+            // Last line may have been unterminated
+            cache_ = new String[0];
+
+            if (result == LineIndex.RESET || newSize < oldSize)
+            {
+                size_ = 0;
+
+                if (oldSize > 0)
+                    fireIntervalRemoved(this, 0, oldSize - 1);
+
+                oldSize = 0;
+            }
+
+            size_ = newSize;
+
+            if (newSize > oldSize)
+                fireIntervalAdded(this, oldSize, newSize - 1);
+
+            if (oldSize > 0)
+                fireContentsChanged(this, oldSize - 1, oldSize - 1);
+
+            if (autoTailButton_.isSelected() && newSize > 0)
+                list_.ensureIndexIsVisible(newSize - 1);
+        }
+
+        /*
+         * @see javax.swing.ListModel#getSize()
+         */
+        public int getSize()
+        {
+            return size_;
+        }
+
+        /*
+         * @see javax.swing.ListModel#getElementAt(int)
+         */
+        public Object getElementAt(int index)
+        {
+            if (index < cacheFirst_ || index >= cacheFirst_ + cache_.length)
+            {
+                int first = Math.max(0, index - CACHE_SIZE / 2);
+
+                try
+                {
+                    // The index may have been reset by the refresh thread
+                    // before the reset has reached this model, so only ask
+                    // for lines it still has
+                    synchronized (index_)
+                    {
+                        int available = 
+                            Math.min(size_, index_.getLineCount());
+                        
+                        if (index >= available)
+                            return "";
+
+                        int count = Math.min(CACHE_SIZE, available - first);
+                        cache_ = index_.getLines(first, count);
+                        cacheFirst_ = first;
+                    }
+                }
+                catch (IOException e)
+                {
+                    logger_.error("Reading line " + index, e);
+                    return "";
+                }
+            }
+
+            return cache_[index - cacheFirst_];
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // RefreshTask
+    //--------------------------------------------------------------------------
+
+    /**
+     * Indexes newly appended lines off the event dispatch thread and
+     * publishes them to the list model as each chunk is indexed, so a huge
+     * file can be browsed while it is still being indexed.
+     */
+    class RefreshTask extends TimerTask implements LineIndex.Listener
+    {
+        /**
+         * Most significant change not yet published to the model or
+         * UNCHANGED if no update is queued on the event dispatch thread.
+         */
+        private int pending_ = LineIndex.UNCHANGED;
+
+        /*
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            try
+            {
+                index_.refresh(this);
+            }
+            catch (IOException e)
+            {
+                if (!closed_)
+                    logger_.error("Indexing " + getFile(), e);
+
+                cancel();
+            }
+        }
+
+
+        /*
+         * @see toolbox.util.io.LineIndex.Listener#indexed(
+         *      toolbox.util.io.LineIndex, int)
+         */
+        public void indexed(LineIndex index, int result)
+        {
+            synchronized (this)
+            {
+                boolean queued = pending_ != LineIndex.UNCHANGED;
+
+                // RESET outranks APPENDED so a queued reset is never lost
+                pending_ = Math.max(pending_, result);
+
+                if (queued)
+                    return;
+            }
+
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    int update;
+
+                    synchronized (RefreshTask.this)
+                    {
+                        update = pending_;
+                        pending_ = LineIndex.UNCHANGED;
+                    }
+
+                    model_.update(update);
+                }
+            });
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // AutoTailAction
+    //--------------------------------------------------------------------------
+
+    /**
+     * Scrolls to the last line when auto tail is turned on.
+     */
+    class AutoTailAction extends AbstractAction
+    {
+        /**
+         * Creates an AutoTailAction.
+         */
+        AutoTailAction()
+        {
+            super("AutoTail");
+        }
+
+
+        /*
+         * @see java.awt.event.ActionListener#actionPerformed(
+         *      java.awt.event.ActionEvent)
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            if (autoTailButton_.isSelected() && model_.getSize() > 0)
+                list_.ensureIndexIsVisible(model_.getSize() - 1);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // CloseAction
+    //--------------------------------------------------------------------------
+
+    /**
+     * Stops refreshing the view. Removal from the container is left to the
+     * owner via {@link #getCloseButton()}. Owners should also call
+     * {@link LogFileView#close()} when the view is removed some other way.
+     */
+    class CloseAction extends AbstractAction
+    {
+        /**
+         * Creates a CloseAction.
+         */
+        CloseAction()
+        {
+            super("Close");
+        }
+
+
+        /*
+         * @see java.awt.event.ActionListener#actionPerformed(
+         *      java.awt.event.ActionEvent)
+         */
+        public void actionPerformed(ActionEvent e)
+        {
+            close();
+        }
+    }
+}
@@ -25,11 +25,11 @@ import javax.swing.JToolBar;
 import javax.swing.SwingUtilities;
 import javax.swing.text.StyleConstants;
 
-import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
 import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.io.output.NullWriter;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.TTCCLayout;
@@ -39,15 +39,18 @@ import org.apache.regexp.RESyntaxException;
 import toolbox.plugin.jtail.config.ITailViewConfig;
 import toolbox.plugin.jtail.filter.CutLineFilter;
 import toolbox.plugin.jtail.filter.ILineFilter;
+import toolbox.plugin.jtail.filter.LineFilterPipeline;
 import toolbox.plugin.jtail.filter.LineNumberDecorator;
 import toolbox.plugin.jtail.filter.RegexLineFilter;
 import toolbox.plugin.jtail.filter.StyledSegment;
 import toolbox.tail.Tail;
+import toolbox.tail.TailScheduler;
 import toolbox.tail.TailAdapter;
 import toolbox.util.ArrayUtil;
 import toolbox.util.ExceptionUtil;
 import toolbox.util.FontUtil;
 import toolbox.util.concurrent.BatchingQueueReader;
+import toolbox.util.concurrent.DropPolicy;
 import toolbox.util.concurrent.IBatchingQueueListener;
 import toolbox.util.service.ServiceException;
 import toolbox.util.ui.ImageCache;
@@ -122,6 +125,19 @@ public class TailPane extends JHeaderPanel
      */
     public static final String LOG_LOG4J = "[Log4J]";
 
+    /**
+     * Max number of lines waiting to be appended to the text area. Once this
+     * many lines are queued the oldest are dropped. Tails never block on the
+     * queue since they share the polling threads of the TailScheduler with
+     * every other tail in the VM.
+     */
+    private static final int QUEUE_CAPACITY = 10000;
+
+    /**
+     * Max number of lines appended to the text area in a single batch.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
@@ -166,11 +182,6 @@ public class TailPane extends JHeaderPanel
      */
     private JTextField cutField_;
 
-    /**
-     * Lines are places in this queue for the UI component to pick up from.
-     */
-    private BlockingQueue queue_;
-
     /**
      * Optimization to read lines from the queue in batch instead of one'zies.
      */
@@ -186,6 +197,11 @@ public class TailPane extends JHeaderPanel
      */
     private ILineFilter[] filters_;
 
+    /**
+     * Applies filters_ to each line and keeps per-filter statistics.
+     */
+    private LineFilterPipeline pipeline_;
+
     /**
      * Filter that includes lines matching a regular expression.
      */
@@ -257,6 +273,27 @@ public class TailPane extends JHeaderPanel
     // Protected
     //--------------------------------------------------------------------------
 
+    /**
+     * Creates the reader that hands queued lines to the text area. Its queue
+     * is bounded and drops the oldest lines when full so that a tail whose
+     * pane cannot keep up never blocks a polling thread shared with other
+     * tails.
+     *
+     * @param name Name of the reader thread.
+     * @param capacity Max number of queued lines.
+     * @return BatchingQueueReader
+     */
+    static BatchingQueueReader createQueueReader(String name, int capacity)
+    {
+        BatchingQueueReader reader = 
+            new BatchingQueueReader(new LinkedBlockingQueue(capacity), name);
+
+        reader.setMaxBatchSize(MAX_BATCH_SIZE);
+        reader.setDropPolicy(DropPolicy.DROP_OLDEST);
+        return reader;
+    }
+
+
     /**
      * Initializes the tail.
      *
@@ -264,11 +301,11 @@ public class TailPane extends JHeaderPanel
      */
     protected void init() throws IOException
     {
-        queue_          = new LinkedBlockingQueue();
         queueListener_  = new TailQueueListener();
-        queueReader_    = new BatchingQueueReader(queue_,
+        queueReader_    = createQueueReader(
                               ArrayUtil.toString(config_.getFilenames()) +
-                              "-BatchingQueueReader");
+                              "-BatchingQueueReader",
+                              QUEUE_CAPACITY);
 
         queueReader_.addBatchingQueueListener(queueListener_);
         queueReader_.start();
@@ -415,6 +452,8 @@ public class TailPane extends JHeaderPanel
         lineNumberDecorator_ = new LineNumberDecorator();
         lineNumberDecorator_.setEnabled(false);
         filters_[2] = lineNumberDecorator_;
+
+        pipeline_ = new LineFilterPipeline(filters_);
     }
 
 
@@ -722,6 +761,11 @@ public class TailPane extends JHeaderPanel
             else
             {
                 tail_.follow(new File(filename_), new NullWriter());
+                
+                // Idle files are the norm..don't spin on them and share
+                // the polling threads with all other tailed files
+                tail_.setAdaptive(true);
+                tail_.setScheduler(TailScheduler.getShared());
             }
         }
 
@@ -757,7 +801,7 @@ public class TailPane extends JHeaderPanel
         {
             try
             {
-                queue_.put(line);
+                queueReader_.offer(line);
             }
             catch (InterruptedException e)
             {
@@ -788,6 +832,11 @@ public class TailPane extends JHeaderPanel
     {
         int cnt = 0;
         
+        /**
+         * Styled segments of the line being filtered. Reused for every line.
+         */
+        private List segments_ = new ArrayList();
+        
         //----------------------------------------------------------------------
         //  IBatchingQueueListener Interface
         //----------------------------------------------------------------------
@@ -847,35 +896,25 @@ public class TailPane extends JHeaderPanel
 //                    logger_.debug("[Batch size] = " + objs.length);
 //            }
             
-            List segments = new ArrayList();
-            
             // Iterate over each line delivered
             for (int i = 0; i < objs.length; i++)
             {
-                segments.clear();
+                segments_.clear();
                 StringBuffer line = new StringBuffer((String) objs[i]);
 
                 // Apply filters
-                boolean discard = false;
-                
-                for (int j = 0; j < filters_.length; j++)
-                {
-                    discard = !filters_[j].filter(line, segments);
-                    if (discard)
-                        break;
-                }
-
+                boolean discard = !pipeline_.filter(line, segments_);
                 
                 if (!discard)
                 {
-                    if (segments.isEmpty())
+                    if (segments_.isEmpty())
                         tailArea_.append(line + "\n");
                     else
                     {
                         //logger_.debug("at least one segment exists!");
                         int pos = 0;
 
-                        for (Iterator it = segments.iterator(); it.hasNext();)
+                        for (Iterator it = segments_.iterator(); it.hasNext();)
                         {
                             StyledSegment segment = (StyledSegment) it.next();
 
@@ -1046,12 +1085,24 @@ public class TailPane extends JHeaderPanel
          */
         public void runAction(ActionEvent e) throws Exception
         {
-            queueReader_.stop();
-
+            // Stop the tails first so no more lines are queued. Stopping a
+            // tail waits for a poll in progress, which never blocks on the
+            // queue since full queues drop their oldest lines.
             for (int i = 0;
                 i < contexts_.length;
                 contexts_[i++].getTail().stop());
 
+            queueReader_.stop();
+
+            if (queueReader_.getDroppedCount() > 0)
+                logger_.info("Dropped " + queueReader_.getDroppedCount() + 
+                    " lines of " + ArrayUtil.toString(config_.getFilenames()) +
+                    " that could not be shown fast enough");
+
+            logger_.info("Filter statistics for " + 
+                ArrayUtil.toString(config_.getFilenames()) + 
+                SystemUtils.LINE_SEPARATOR + pipeline_.getStatistics());
+
             pauseButton_.setEnabled(false);
             startButton_.setEnabled(true);
             stopButton_.setEnabled(false);
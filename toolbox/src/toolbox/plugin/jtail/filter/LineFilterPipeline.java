@@ -0,0 +1,206 @@
+package toolbox.plugin.jtail.filter;
+
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
+
+/**
+ * Runs a line through a fixed sequence of {@link ILineFilter}s and keeps
+ * per-filter counters of how many lines each filter saw, how many it passed
+ * on and how much time it spent, so that an expensive filter is easy to spot.
+ * Disabled filters are skipped entirely and are not counted.
+ * <p>
+ * A pipeline is intended to be driven by a single thread. The counters may be
+ * read from other threads but are not guaranteed to be mutually consistent.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * LineFilterPipeline pipeline = new LineFilterPipeline(new ILineFilter[] {
+ *     new RegexLineFilter("ERROR"),
+ *     new LineNumberDecorator()
+ * });
+ *
+ * List segments = new ArrayList();
+ *
+ * if (pipeline.filter(line, segments))
+ *     ...
+ *
+ * System.out.println(pipeline.getStatistics());
+ * </pre>
+ */
+public class LineFilterPipeline
+{
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Filters applied in order.
+     */
+    private ILineFilter[] filters_;
+
+    /**
+     * Number of lines evaluated by each filter.
+     */
+    private long[] evaluated_;
+
+    /**
+     * Number of lines passed on by each filter.
+     */
+    private long[] passed_;
+
+    /**
+     * Nanoseconds spent in each filter.
+     */
+    private long[] elapsed_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a LineFilterPipeline.
+     *
+     * @param filters Filters to apply in order.
+     */
+    public LineFilterPipeline(ILineFilter[] filters)
+    {
+        filters_ = filters;
+        evaluated_ = new long[filters.length];
+        passed_ = new long[filters.length];
+        elapsed_ = new long[filters.length];
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Runs a line through the enabled filters, stopping at the first filter
+     * that rejects it.
+     *
+     * @param line Line of text to filter. May be modified by the filters.
+     * @param segments List that the filters append StyledSegments to.
+     * @return True if every filter accepted the line, false otherwise.
+     */
+    public boolean filter(StringBuffer line, List segments)
+    {
+        for (int i = 0; i < filters_.length; i++)
+        {
+            ILineFilter filter = filters_[i];
+
+            if (filter == null || !filter.isEnabled())
+                continue;
+
+            long start = System.nanoTime();
+            boolean accepted = filter.filter(line, segments);
+            elapsed_[i] += System.nanoTime() - start;
+            evaluated_[i]++;
+
+            if (!accepted)
+                return false;
+
+            passed_[i]++;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns the filters in this pipeline.
+     *
+     * @return ILineFilter[]
+     */
+    public ILineFilter[] getFilters()
+    {
+        return filters_;
+    }
+
+
+    /**
+     * Returns the number of lines evaluated by a filter.
+     *
+     * @param index Index of the filter.
+     * @return long
+     */
+    public long getEvaluatedCount(int index)
+    {
+        return evaluated_[index];
+    }
+
+
+    /**
+     * Returns the number of lines passed on by a filter.
+     *
+     * @param index Index of the filter.
+     * @return long
+     */
+    public long getPassedCount(int index)
+    {
+        return passed_[index];
+    }
+
+
+    /**
+     * Returns the total time spent in a filter.
+     *
+     * @param index Index of the filter.
+     * @return long Elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos(int index)
+    {
+        return elapsed_[index];
+    }
+
+
+    /**
+     * Clears all counters.
+     */
+    public void resetStatistics()
+    {
+        for (int i = 0; i < filters_.length; i++)
+        {
+            evaluated_[i] = 0;
+            passed_[i] = 0;
+            elapsed_[i] = 0;
+        }
+    }
+
+
+    /**
+     * Returns a table of the counters of each filter that has seen at least
+     * one line.
+     *
+     * @return String
+     */
+    public String getStatistics()
+    {
+        StringBuffer sb = new StringBuffer();
+
+        sb.append(StringUtils.rightPad("Filter", 24));
+        sb.append(StringUtils.leftPad("Lines", 12));
+        sb.append(StringUtils.leftPad("Passed", 12));
+        sb.append(StringUtils.leftPad("ns/line", 10));
+        sb.append(SystemUtils.LINE_SEPARATOR);
+
+        for (int i = 0; i < filters_.length; i++)
+        {
+            if (evaluated_[i] == 0)
+                continue;
+
+            String name = filters_[i].getClass().getName();
+            name = name.substring(name.lastIndexOf('.') + 1);
+
+            sb.append(StringUtils.rightPad(name, 24));
+            sb.append(StringUtils.leftPad(evaluated_[i] + "", 12));
+            sb.append(StringUtils.leftPad(passed_[i] + "", 12));
+            sb.append(StringUtils.leftPad(
+                (elapsed_[i] / evaluated_[i]) + "", 10));
+            sb.append(SystemUtils.LINE_SEPARATOR);
+        }
+
+        return sb.toString();
+    }
+}
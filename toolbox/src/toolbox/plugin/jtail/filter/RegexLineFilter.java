@@ -1,42 +1,87 @@
 package toolbox.plugin.jtail.filter;
 
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
-import org.apache.regexp.RE;
 import org.apache.regexp.RESyntaxException;
 
 /**
- * RegexLineFilter applies a regular expression to a string of text. If there 
+ * RegexLineFilter applies a regular expression to a string of text. If there
  * is a match, the text is returned, otherwise a null is returned.
+ * <p>
+ * The expression is compiled once into a {@link java.util.regex.Pattern} and
+ * matched directly against the line's StringBuffer so no String is created per
+ * line. When the expression starts with a literal run of characters that every
+ * match must contain (ex: <code>ERROR.*timeout</code>), lines are first checked
+ * for that literal with a plain substring search and lines without it are
+ * rejected without running the regular expression engine at all. Expressions
+ * that are nothing but a literal never touch the engine.
  */
 public class RegexLineFilter extends AbstractLineFilter
 {
     //--------------------------------------------------------------------------
-    // Fields 
+    // Constants
     //--------------------------------------------------------------------------
-    
-    /** 
+
+    /**
+     * Characters with special meaning in a regular expression.
+     */
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+    /**
+     * Characters that quantify the character preceding them and allow it to
+     * be absent.
+     */
+    private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
      * Regular expression.
      */
     private String strRegExp_;
-    
-    /** 
+
+    /**
      * Flag to match case.
      */
     private boolean matchCase_;
-    
-    /** 
-     * Regular expression engine. 
+
+    /**
+     * Compiled regular expression.
+     */
+    private Pattern pattern_;
+
+    /**
+     * Reusable matcher for pattern_.
+     */
+    private Matcher matcher_;
+
+    /**
+     * Literal that every match must contain or null if there is none.
+     */
+    private String literal_;
+
+    /**
+     * True if the regular expression is nothing but literal_.
      */
-    private RE regExp_;
-    
+    private boolean literalOnly_;
+
+    /**
+     * Number of lines rejected by the literal check alone.
+     */
+    private long literalRejects_;
+
     //--------------------------------------------------------------------------
     //  Constructors
     //--------------------------------------------------------------------------
 
     /**
      * Creates a RegexLineFilter that matches any string.
-     * 
+     *
      * @throws RESyntaxException on an invalid regular expression.
      */
     public RegexLineFilter() throws RESyntaxException
@@ -47,8 +92,8 @@ public class RegexLineFilter extends AbstractLineFilter
 
     /**
      * Creates a RegexLineFilter with the given regular expression. The match
-     * is case insensetive by default. 
-     * 
+     * is case insensetive by default.
+     *
      * @param regularExpression Regular expression to match against.
      * @throws RESyntaxException on an invalid regular expression.
      */
@@ -57,11 +102,11 @@ public class RegexLineFilter extends AbstractLineFilter
         this(regularExpression, false);
     }
 
-        
+
     /**
      * Creates a RegexLineFilter with the given regular expression and case
      * matching flag.
-     * 
+     *
      * @param regularExpression Regular expression to match.
      * @param matchCase Set to true to observe case sensetivity.
      * @throws RESyntaxException if the regular expression is invalid.
@@ -69,27 +114,36 @@ public class RegexLineFilter extends AbstractLineFilter
     public RegexLineFilter(String regularExpression, boolean matchCase)
         throws RESyntaxException
     {
+        matchCase_ = matchCase;
         setRegularExpression(regularExpression);
-        setMatchCase(matchCase);
     }
 
     //--------------------------------------------------------------------------
     //  ILineFilter Interface
     //--------------------------------------------------------------------------
-    
+
     /**
      * Filters a line based on a regular expression.
-     * 
+     *
      * @see toolbox.plugin.jtail.filter.ILineFilter#filter(java.lang.StringBuffer)
      */
     public boolean filter(StringBuffer line)
     {
-        if (isEnabled())
-            return regExp_.match(line.toString()) ? true : false;    
-        else
+        if (!isEnabled())
+            return true;
+
+        if (literal_ != null && !containsLiteral(line))
+        {
+            literalRejects_++;
+            return false;
+        }
+
+        if (literalOnly_)
             return true;
+
+        return matcher_.reset(line).find();
     }
-    
+
     /*
      * @see toolbox.plugin.jtail.filter.ILineFilter#filter(java.lang.StringBuffer, java.util.List)
      */
@@ -97,36 +151,164 @@ public class RegexLineFilter extends AbstractLineFilter
     {
         return filter(line);
     }
-    
+
     //--------------------------------------------------------------------------
     //  Public
     //--------------------------------------------------------------------------
-    
+
     /**
      * Sets the regular expression.
-     * 
+     *
      * @param regExp Regular expression.
      * @throws RESyntaxException on invalid regular expression.
      */
     public void setRegularExpression(String regExp) throws RESyntaxException
     {
+        try
+        {
+            pattern_ = Pattern.compile(
+                regExp, matchCase_ ? 0 : Pattern.CASE_INSENSITIVE);
+        }
+        catch (PatternSyntaxException pse)
+        {
+            throw new RESyntaxException(pse.getMessage());
+        }
+
         strRegExp_ = regExp;
-        regExp_ = new RE(strRegExp_);
+        matcher_ = pattern_.matcher("");
+        literal_ = requiredLiteral(regExp);
+
+        literalOnly_ =
+            literal_ != null &&
+            literal_.length() == regExp.length();
+
+        literalRejects_ = 0;
     }
-   
-   
+
+
+    /**
+     * Returns the regular expression.
+     *
+     * @return String
+     */
+    public String getRegularExpression()
+    {
+        return strRegExp_;
+    }
+
+
     /**
      * Sets case matching.
-     * 
+     *
      * @param matchCase Flag to match case.
      */
-    public void setMatchCase(boolean matchCase) 
+    public void setMatchCase(boolean matchCase)
     {
         matchCase_ = matchCase;
-        
-        if (!matchCase_)
-            regExp_.setMatchFlags(RE.MATCH_CASEINDEPENDENT);
-        else
-            regExp_.setMatchFlags(RE.MATCH_NORMAL);
+        setRegularExpression(strRegExp_);
+    }
+
+
+    /**
+     * Returns the literal that lines are checked for before the regular
+     * expression is applied.
+     *
+     * @return Literal or null if the expression has no literal prefix.
+     */
+    public String getLiteral()
+    {
+        return literal_;
+    }
+
+
+    /**
+     * Returns the number of lines that were rejected by the literal check
+     * without running the regular expression since it was last set.
+     *
+     * @return long
+     */
+    public long getLiteralRejects()
+    {
+        return literalRejects_;
+    }
+
+    //--------------------------------------------------------------------------
+    //  Package
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the longest run of literal characters at the start of a regular
+     * expression that any match is guaranteed to contain. Alternation anywhere
+     * in the expression, escapes and embedded flags end the run so the result
+     * is always safe to use as a prefilter.
+     *
+     * @param regExp Regular expression.
+     * @return Literal or null if there is none.
+     */
+    static String requiredLiteral(String regExp)
+    {
+        if (regExp.indexOf('|') >= 0)
+            return null;
+
+        int n = regExp.length();
+        int start = regExp.startsWith("^") ? 1 : 0;
+        int i = start;
+
+        while (i < n && META_CHARS.indexOf(regExp.charAt(i)) < 0)
+            i++;
+
+        // Quantifier applies to the last character of the run
+        if (i < n && OPTIONAL_QUANTIFIERS.indexOf(regExp.charAt(i)) >= 0)
+            i--;
+
+        return i > start ? regExp.substring(start, i) : null;
+    }
+
+    //--------------------------------------------------------------------------
+    //  Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Checks whether the line contains literal_ honoring the case flag.
+     *
+     * @param line Line to search.
+     * @return boolean
+     */
+    private boolean containsLiteral(StringBuffer line)
+    {
+        if (matchCase_)
+            return line.indexOf(literal_) >= 0;
+
+        int n = literal_.length();
+        int last = line.length() - n;
+
+        for (int i = 0; i <= last; i++)
+        {
+            int j = 0;
+
+            while (j < n &&
+                   equalsIgnoreCase(line.charAt(i + j), literal_.charAt(j)))
+                j++;
+
+            if (j == n)
+                return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Compares two characters the same way String.equalsIgnoreCase() does.
+     *
+     * @param a First character.
+     * @param b Second character.
+     * @return boolean
+     */
+    private static boolean equalsIgnoreCase(char a, char b)
+    {
+        return a == b ||
+            Character.toUpperCase(a) == Character.toUpperCase(b) ||
+            Character.toLowerCase(a) == Character.toLowerCase(b);
     }
-}
\ No newline at end of file
+}
@@ -582,12 +582,12 @@ public class TunnelPane extends JPanel implements IPreferenced {
 
 
         /*
-         * @see toolbox.tunnel.TcpTunnelListener#bytesRead(toolbox.tunnel.TcpTunnel, int, int)
+         * @see toolbox.tunnel.TcpTunnelListener#bytesRead(toolbox.tunnel.TcpTunnel, int, long)
          */
         public void bytesRead(
             TcpTunnel tunnel,
             int connBytesRead,
-            int totalBytesRead) {
+            long totalBytesRead) {
             incomingHeader_.setTitle("Sent to Remote Host: "
                 + connBytesRead
                 + " conn  "
@@ -597,12 +597,12 @@ public class TunnelPane extends JPanel implements IPreferenced {
 
 
         /*
-         * @see toolbox.tunnel.TcpTunnelListener#bytesWritten(toolbox.tunnel.TcpTunnel, int, int)
+         * @see toolbox.tunnel.TcpTunnelListener#bytesWritten(toolbox.tunnel.TcpTunnel, int, long)
          */
         public void bytesWritten(
             TcpTunnel tunnel,
             int connBytesWritten,
-            int totalBytesWritten) {
+            long totalBytesWritten) {
             outgoingHeader_.setTitle("Received from Remote Host: "
                 + connBytesWritten
                 + " conn  "
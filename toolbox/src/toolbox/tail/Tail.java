@@ -2,14 +2,18 @@ package toolbox.tail;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Date;
-import java.util.Stack;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
 import toolbox.util.ArrayUtil;
@@ -54,6 +58,18 @@ import toolbox.util.statemachine.StateMachine;
  * // Change of mind...wheee
  * tail.start();
  * </pre>
+ * 
+ * By default the tail polls its source every millisecond. With
+ * {@link #setAdaptive(boolean)} the polling interval instead backs off
+ * exponentially while the source is idle (up to {@link #getMaxPollDelay()}) and
+ * snaps back as soon as new lines arrive, so idle tails are nearly free.
+ * In adaptive mode, truncation and rotation of a tailed file are detected by 
+ * comparing the size of the open file with the size of the file currently at
+ * the tailed path.
+ * <p>
+ * Instead of a thread per tail, file tails can be multiplexed over a shared
+ * pool of threads by assigning a {@link TailScheduler} with 
+ * {@link #setScheduler(TailScheduler)} before the tail is started.
  */
 public class Tail implements Startable, Suspendable
 {
@@ -69,6 +85,18 @@ public class Tail implements Startable, Suspendable
      */
     public static final int DEFAULT_BACKLOG = 20;
 
+    /**
+     * Default upper bound in milliseconds of the polling interval in adaptive
+     * mode.
+     */
+    public static final int DEFAULT_MAX_POLL_DELAY = 250;
+    
+    /**
+     * Polling interval in milliseconds in adaptive mode right after a line has
+     * been read.
+     */
+    static final int MIN_POLL_DELAY = 1;
+
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
@@ -99,10 +127,42 @@ public class Tail implements Startable, Suspendable
      */
     private int backlog_;
 
+    /**
+     * Channel of the file being tailed in adaptive mode. Used to track the 
+     * read position and the size of the open file.
+     */
+    private FileChannel channel_;
+
+    /**
+     * Flag to poll with exponential backoff and detect rotation by size 
+     * instead of the fixed 1ms polling of the default tailer.
+     */
+    private boolean adaptive_;
+
+    /**
+     * Upper bound of the polling interval in adaptive mode.
+     */
+    private int maxPollDelay_;
+
+    /**
+     * Scheduler which polls this tail. Null to use a dedicated thread.
+     */
+    private TailScheduler scheduler_;
+
+    /**
+     * Set once the backlog has been shown by a scheduled tail.
+     */
+    private boolean primed_;
+
+    /**
+     * Set while a scheduled tail has reported being paused.
+     */
+    private boolean pausedFired_;
+
     /**
      * Flag that is checked to shutdown gracefully.
      */
-    private boolean pendingShutdown_;
+    private volatile boolean pendingShutdown_;
 
     /**
      * Thread name..mostly for debugging.
@@ -126,6 +186,8 @@ public class Tail implements Startable, Suspendable
         listeners_       = new TailListener[0];
         pendingShutdown_ = false;
         backlog_         = DEFAULT_BACKLOG;
+        adaptive_        = false;
+        maxPollDelay_    = DEFAULT_MAX_POLL_DELAY;
         machine_         = ServiceUtil.createStateMachine(this);
     }
 
@@ -142,9 +204,6 @@ public class Tail implements Startable, Suspendable
     {
         machine_.checkTransition(ServiceTransition.START);
         
-        String name = "Tail-" + (isFile() ? file_.getName() : threadName_);
-        tailer_ = new Thread(new Tailer(), name);
-        
         try
         {
             connect();
@@ -154,8 +213,25 @@ public class Tail implements Startable, Suspendable
             throw new ServiceException(fnfe);
         }
         
-        tailer_.start();
-        machine_.transition(ServiceTransition.START);            
+        if (isScheduled())
+        {
+            primed_ = false;
+            pausedFired_ = false;
+            machine_.transition(ServiceTransition.START);
+            scheduler_.register(this);
+        }
+        else
+        {
+            String name = "Tail-" + (isFile() ? file_.getName() : threadName_);
+            
+            tailer_ = new Thread(
+                adaptive_ ? (Runnable) new AdaptiveTailer() : new Tailer(), 
+                name);
+            
+            tailer_.start();
+            machine_.transition(ServiceTransition.START);
+        }
+        
         fireTailStarted();
     }
 
@@ -176,7 +252,10 @@ public class Tail implements Startable, Suspendable
             if (isSuspended())
                 resume();
 
-            ThreadUtil.stop(tailer_);
+            if (isScheduled())
+                scheduler_.unregister(this);
+            else
+                ThreadUtil.stop(tailer_);
 
             // Change of plans..when the tail is stopped,
             // don't close the stream.
@@ -320,6 +399,89 @@ public class Tail implements Startable, Suspendable
     }
 
 
+    /**
+     * Returns true if the tail polls with an adaptive interval.
+     *
+     * @return boolean
+     */
+    public boolean isAdaptive()
+    {
+        return adaptive_;
+    }
+
+
+    /**
+     * Enables polling with an adaptive interval instead of every millisecond.
+     * Takes effect the next time the tail is started.
+     *
+     * @param adaptive True to enable adaptive polling.
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        adaptive_ = adaptive;
+    }
+
+
+    /**
+     * Returns the upper bound of the polling interval in adaptive mode.
+     *
+     * @return int
+     */
+    public int getMaxPollDelay()
+    {
+        return maxPollDelay_;
+    }
+
+
+    /**
+     * Sets the upper bound of the polling interval in adaptive mode. This is
+     * the worst case latency of delivering a line after a period of 
+     * inactivity.
+     *
+     * @param millis Max polling interval in milliseconds.
+     */
+    public void setMaxPollDelay(int millis)
+    {
+        maxPollDelay_ = Math.max(MIN_POLL_DELAY, millis);
+    }
+
+
+    /**
+     * Returns the scheduler that polls this tail.
+     *
+     * @return TailScheduler or null if the tail runs in its own thread.
+     */
+    public TailScheduler getScheduler()
+    {
+        return scheduler_;
+    }
+
+
+    /**
+     * Sets the scheduler to poll this tail instead of a dedicated thread. Only
+     * file tails can be scheduled; reader tails always get their own thread 
+     * since reads from them may block. Takes effect the next time the tail is
+     * started.
+     *
+     * @param scheduler Scheduler or null to use a dedicated thread.
+     */
+    public void setScheduler(TailScheduler scheduler)
+    {
+        scheduler_ = scheduler;
+    }
+
+
+    /**
+     * Returns true if this tail is polled by a scheduler.
+     *
+     * @return boolean
+     */
+    protected boolean isScheduled()
+    {
+        return scheduler_ != null && isFile();
+    }
+
+
     /**
      * Returns true if tailing a file, false if tailing a reader.
      *
@@ -395,23 +557,21 @@ public class Tail implements Startable, Suspendable
     {
         if (isFile())
         {
-            ReverseFileReader reverser = new ReverseFileReader(file_);
-            Stack backlog = new Stack();
+            // Decode with the same charset used to read the file forwards
+            ReverseFileReader reverser = new ReverseFileReader(
+                file_, Charset.defaultCharset().name());
 
-            for (int i = 0; i < backlog_; i++)
+            try
             {
-                String line = reverser.readLineNormal();
+                String[] lines = reverser.readLastLines(backlog_);
 
-                if (line != null)
-                    backlog.push(line);
-                else
-                    break;
+                for (int i = 0; i < lines.length; i++)
+                    fireNextLine(lines[i]);
+            }
+            finally
+            {
+                reverser.close();
             }
-
-            while (!backlog.isEmpty())
-                fireNextLine((String) backlog.pop());
-
-            reverser.close();
         }
     }
 
@@ -423,11 +583,130 @@ public class Tail implements Startable, Suspendable
      */
     protected void connect() throws FileNotFoundException
     {
-        if (isFile())
+        if (isFile() && (adaptive_ || isScheduled()))
+            openChannel();
+        else if (isFile())
             reader_ = new BufferedReader(new FileReader(file_));
         else
             reader_ = new BufferedReader(reader_);
     }
+    
+    
+    /**
+     * Opens the tailed file for reading from the beginning and keeps a handle
+     * on its channel.
+     * 
+     * @throws FileNotFoundException if file not found.
+     */
+    protected void openChannel() throws FileNotFoundException
+    {
+        FileInputStream fis = new FileInputStream(file_);
+        channel_ = fis.getChannel();
+        reader_ = new BufferedReader(new InputStreamReader(fis));
+    }
+    
+    
+    /**
+     * Re-opens the tailed file if it was truncated or rotated.
+     * 
+     * @return True if the tail was re-attached, false otherwise.
+     * @throws IOException on I/O error.
+     */
+    protected boolean reattachIfRotated() throws IOException
+    {
+        if (!isRotated())
+            return false;
+        
+        IOUtils.closeQuietly(reader_);
+        openChannel();
+        fireReattached();
+        logger_.debug("Re-attached to " + file_.getName());
+        return true;
+    }
+    
+    
+    /**
+     * Reads and delivers at most the given number of lines without blocking.
+     * Called repeatedly by the {@link TailScheduler} in place of a tailer 
+     * thread. The first call shows the backlog.
+     * 
+     * @param maxLines Maximum number of lines to deliver.
+     * @return Number of lines delivered.
+     * @throws IOException on I/O error.
+     */
+    int poll(int maxLines) throws IOException
+    {
+        if (!primed_)
+        {
+            showBacklog();
+            channel_.position(channel_.size());
+            primed_ = true;
+        }
+        
+        if (isSuspended())
+        {
+            if (!pausedFired_)
+            {
+                pausedFired_ = true;
+                fireTailPaused();
+            }
+            
+            return 0;
+        }
+        
+        if (pausedFired_)
+        {
+            pausedFired_ = false;
+            fireTailUnpaused();
+        }
+        
+        int lines = 0;
+        
+        while (lines < maxLines)
+        {
+            String line = reader_.readLine();
+            
+            if (line != null)
+            {
+                fireNextLine(line);
+                lines++;
+            }
+            else if (lines > 0 || !reattachIfRotated())
+            {
+                break;
+            }
+        }
+        
+        return lines;
+    }
+    
+    
+    /**
+     * Returns true if the file at the tailed path is no longer the file that
+     * is open, or if the open file was truncated. Only meaningful once all 
+     * data of the open file has been read.
+     * 
+     * @return boolean
+     * @throws IOException on I/O error.
+     */
+    protected boolean isRotated() throws IOException
+    {
+        // Gone for now..keep reading the old one until it is recreated
+        if (!file_.exists())
+            return false;
+        
+        long position = channel_.position();
+        long length = file_.length();
+        
+        // Truncated in place or replaced by a smaller file
+        if (length < position)
+            return true;
+        
+        // The size of the open file is read after the size of the path. If
+        // they are the same file, an append in between grows both, so a 
+        // larger path can only be a different file.
+        return length > channel_.size();
+    }
 
     //--------------------------------------------------------------------------
     // Event Listener Support
@@ -530,7 +809,7 @@ public class Tail implements Startable, Suspendable
     }
 
     // -------------------------------------------------------------------------
-    // TailToWriter
+    // Tailer
     // -------------------------------------------------------------------------
     
     /**
@@ -617,4 +896,58 @@ public class Tail implements Startable, Suspendable
             }
         }
     }
-}
\ No newline at end of file
+    
+    // -------------------------------------------------------------------------
+    // AdaptiveTailer
+    // -------------------------------------------------------------------------
+    
+    /**
+     * Tailer that backs off exponentially while its source is idle.
+     */
+    class AdaptiveTailer implements Runnable
+    {
+        /*
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            try
+            {
+                showBacklog();
+                
+                // Seek to end of file. Nothing has been buffered yet.
+                if (isFile())
+                    channel_.position(channel_.size());
+                
+                int delay = MIN_POLL_DELAY;
+                
+                while (!pendingShutdown_)
+                {
+                    checkPaused();
+                    
+                    String line = reader_.readLine();
+                    
+                    if (line != null)
+                    {
+                        fireNextLine(line);
+                        delay = MIN_POLL_DELAY;
+                    }
+                    else if (isFile() && reattachIfRotated())
+                    {
+                        delay = MIN_POLL_DELAY;
+                    }
+                    else
+                    {
+                        ThreadUtil.sleep(delay);
+                        delay = Math.min(delay * 2, maxPollDelay_);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                if (!pendingShutdown_)
+                    logger_.error("AdaptiveTailer.run", e);
+            }
+        }
+    }
+}
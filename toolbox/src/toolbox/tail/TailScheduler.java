@@ -0,0 +1,474 @@
+package toolbox.tail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import edu.emory.mathcs.backport.java.util.concurrent.ScheduledFuture;
+import edu.emory.mathcs.backport.java.util.concurrent.ScheduledThreadPoolExecutor;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.service.ServiceState;
+import toolbox.util.service.ServiceTransition;
+import toolbox.util.service.ServiceUtil;
+import toolbox.util.service.Startable;
+import toolbox.util.statemachine.StateMachine;
+
+/**
+ * TailScheduler multiplexes any number of file {@link Tail}s over a small,
+ * fixed pool of threads. Each registered tail is polled in turn; a poll
+ * delivers at most a fixed budget of lines so a single busy file cannot starve
+ * the others. Tails that were cut off by their budget are polled again
+ * straight away while idle tails back off exponentially up to their
+ * {@link Tail#getMaxPollDelay()}.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * TailScheduler scheduler = new TailScheduler(2, 500);
+ * scheduler.start();
+ *
+ * for (int i = 0; i &lt; files.length; i++)
+ * {
+ *     Tail tail = new Tail();
+ *     tail.follow(files[i], writer);
+ *     tail.setScheduler(scheduler);
+ *     tail.start();
+ * }
+ * </pre>
+ *
+ * @see toolbox.tail.Tail#setScheduler(TailScheduler)
+ */
+public class TailScheduler implements Startable
+{
+    private static final Logger logger_ = Logger.getLogger(TailScheduler.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default number of polling threads.
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Default maximum number of lines delivered by a tail per poll.
+     */
+    public static final int DEFAULT_LINE_BUDGET = 500;
+
+    //--------------------------------------------------------------------------
+    // Static
+    //--------------------------------------------------------------------------
+
+    /**
+     * Lazily created scheduler shared by the whole VM.
+     */
+    private static TailScheduler shared_;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Number of polling threads.
+     */
+    private int threads_;
+
+    /**
+     * Maximum number of lines delivered by a tail per poll.
+     */
+    private int lineBudget_;
+
+    /**
+     * Executes the polls.
+     */
+    private ScheduledThreadPoolExecutor executor_;
+
+    /**
+     * Maps a registered Tail to its PollTask.
+     */
+    private Map tasks_;
+
+    /**
+     * State machine for this scheduler's lifecycle.
+     */
+    private StateMachine machine_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a TailScheduler with default settings.
+     */
+    public TailScheduler()
+    {
+        this(DEFAULT_THREADS, DEFAULT_LINE_BUDGET);
+    }
+
+
+    /**
+     * Creates a TailScheduler.
+     *
+     * @param threads Number of polling threads.
+     * @param lineBudget Maximum number of lines delivered by a tail per poll.
+     */
+    public TailScheduler(int threads, int lineBudget)
+    {
+        threads_ = threads;
+        lineBudget_ = lineBudget;
+        tasks_ = new HashMap();
+        machine_ = ServiceUtil.createStateMachine(this);
+    }
+
+    //--------------------------------------------------------------------------
+    // Static
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns a running scheduler with default settings shared by all clients
+     * in the VM. Its threads are daemons so it never needs to be stopped.
+     *
+     * @return TailScheduler
+     */
+    public static synchronized TailScheduler getShared()
+    {
+        if (shared_ == null)
+        {
+            shared_ = new TailScheduler();
+            shared_.start();
+        }
+
+        return shared_;
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the number of tails currently registered.
+     *
+     * @return int
+     */
+    public synchronized int getTailCount()
+    {
+        return tasks_.size();
+    }
+
+
+    /**
+     * Returns the maximum number of lines delivered by a tail per poll.
+     *
+     * @return int
+     */
+    public int getLineBudget()
+    {
+        return lineBudget_;
+    }
+
+    //--------------------------------------------------------------------------
+    // Package
+    //--------------------------------------------------------------------------
+
+    /**
+     * Starts polling a tail. Called by {@link Tail#start()}.
+     *
+     * @param tail Tail to poll.
+     * @throws IllegalStateException if the scheduler is not running.
+     */
+    synchronized void register(Tail tail)
+    {
+        if (!isRunning())
+            throw new IllegalStateException("TailScheduler is not running");
+
+        if (tasks_.containsKey(tail))
+            return;
+
+        PollTask task = new PollTask(tail);
+        tasks_.put(tail, task);
+        task.schedule(0);
+    }
+
+
+    /**
+     * Stops polling a tail. Called by {@link Tail#stop()}. A poll that is
+     * already in progress is waited for, so no more lines are delivered once
+     * this returns, unless it is called from the poll itself.
+     *
+     * @param tail Tail to stop polling.
+     */
+    synchronized void unregister(Tail tail)
+    {
+        PollTask task = (PollTask) tasks_.remove(tail);
+
+        if (task == null)
+            return;
+
+        task.cancel();
+
+        while (task.isRunning() && !task.isPollingThread())
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Startable Interface
+    //--------------------------------------------------------------------------
+
+    /**
+     * Starts the polling threads.
+     *
+     * @see toolbox.util.service.Startable#start()
+     */
+    public synchronized void start()
+    {
+        machine_.checkTransition(ServiceTransition.START);
+
+        executor_ = new ScheduledThreadPoolExecutor(threads_, new ThreadFactory()
+        {
+            private int count_ = 0;
+
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "TailScheduler-" + count_++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        machine_.transition(ServiceTransition.START);
+    }
+
+
+    /**
+     * Stops the polling threads. Registered tails are no longer polled but
+     * remain running as far as their own lifecycle is concerned.
+     *
+     * @see toolbox.util.service.Startable#stop()
+     */
+    public synchronized void stop()
+    {
+        machine_.checkTransition(ServiceTransition.STOP);
+
+        for (Iterator i = tasks_.values().iterator(); i.hasNext();)
+            ((PollTask) i.next()).cancel();
+
+        tasks_.clear();
+        executor_.shutdownNow();
+        executor_ = null;
+        machine_.transition(ServiceTransition.STOP);
+    }
+
+
+    /*
+     * @see toolbox.util.service.Startable#isRunning()
+     */
+    public boolean isRunning()
+    {
+        return getState() == ServiceState.RUNNING;
+    }
+
+    //--------------------------------------------------------------------------
+    // Service Interface
+    //--------------------------------------------------------------------------
+
+    /*
+     * @see toolbox.util.service.Service#getState()
+     */
+    public ServiceState getState()
+    {
+        return (ServiceState) machine_.getState();
+    }
+
+    //--------------------------------------------------------------------------
+    // PollTask
+    //--------------------------------------------------------------------------
+
+    /**
+     * Polls a single tail and reschedules itself. Only one poll of a given
+     * tail is ever in flight since the next one is scheduled when the current
+     * one completes.
+     */
+    class PollTask implements Runnable
+    {
+        /**
+         * Tail being polled.
+         */
+        private Tail tail_;
+
+        /**
+         * Current polling delay in milliseconds.
+         */
+        private int delay_;
+
+        /**
+         * Pending execution of this task.
+         */
+        private ScheduledFuture future_;
+
+        /**
+         * Set once the tail has been unregistered.
+         */
+        private boolean cancelled_;
+
+        /**
+         * Thread running a poll or null if no poll is in progress.
+         */
+        private Thread poller_;
+
+        /**
+         * Number of polls in a row that failed.
+         */
+        private int failures_;
+
+        /**
+         * Creates a PollTask.
+         *
+         * @param tail Tail to poll.
+         */
+        PollTask(Tail tail)
+        {
+            tail_ = tail;
+            delay_ = Tail.MIN_POLL_DELAY;
+        }
+
+
+        /**
+         * Schedules the next poll. Must be called while holding the
+         * scheduler's lock.
+         *
+         * @param delay Delay in milliseconds.
+         */
+        void schedule(long delay)
+        {
+            if (!cancelled_)
+                future_ = executor_.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+
+        /**
+         * Cancels the next poll. Must be called while holding the scheduler's
+         * lock.
+         */
+        void cancel()
+        {
+            cancelled_ = true;
+
+            if (future_ != null)
+                future_.cancel(false);
+        }
+
+
+        /**
+         * Returns true if a poll is in progress. Must be called while holding
+         * the scheduler's lock.
+         *
+         * @return boolean
+         */
+        boolean isRunning()
+        {
+            return poller_ != null;
+        }
+
+
+        /**
+         * Returns true if the current thread is running the poll. Must be
+         * called while holding the scheduler's lock.
+         *
+         * @return boolean
+         */
+        boolean isPollingThread()
+        {
+            return poller_ == Thread.currentThread();
+        }
+
+
+        /*
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            synchronized (TailScheduler.this)
+            {
+                if (cancelled_)
+                    return;
+
+                poller_ = Thread.currentThread();
+            }
+
+            int lines = 0;
+
+            try
+            {
+                lines = tail_.poll(lineBudget_);
+
+                if (failures_ > 0)
+                {
+                    logger_.info("Polling " + tail_.getFile() + 
+                        " recovered after " + failures_ + " failures");
+                    
+                    failures_ = 0;
+                }
+            }
+            catch (Exception e)
+            {
+                // Only the first of a run of failures is worth a stack trace
+                if (failures_++ == 0)
+                    logger_.error("Polling " + tail_.getFile() + 
+                        " failed, retrying every " + tail_.getMaxPollDelay() +
+                        "ms", e);
+                else
+                    logger_.debug("Polling " + tail_.getFile() + 
+                        " failed again: " + e);
+            }
+            finally
+            {
+                synchronized (TailScheduler.this)
+                {
+                    poller_ = null;
+                    TailScheduler.this.notifyAll();
+                }
+            }
+
+            if (failures_ > 0)
+            {
+                // Don't hammer a source that keeps failing
+                delay_ = tail_.getMaxPollDelay();
+            }
+            else if (lines >= lineBudget_)
+            {
+                // More to read..go to the back of the line
+                delay_ = 0;
+            }
+            else if (lines > 0)
+            {
+                delay_ = Tail.MIN_POLL_DELAY;
+            }
+            else
+            {
+                delay_ = Math.min(
+                    Math.max(delay_ * 2, Tail.MIN_POLL_DELAY),
+                    tail_.getMaxPollDelay());
+            }
+
+            synchronized (TailScheduler.this)
+            {
+                if (executor_ != null)
+                    schedule(delay_);
+            }
+        }
+    }
+}
@@ -28,12 +28,12 @@ public class DefaultTcpTunnelListener implements TcpTunnelListener {
     /**
      * Total number of bytes written to the tunnel.
      */
-    private int totalBytesWritten_;
+    private long totalBytesWritten_;
 
     /**
      * Total number of bytes read by the tunnel.
      */
-    private int totalBytesRead_;
+    private long totalBytesRead_;
 
     // --------------------------------------------------------------------------
     // Constructors
@@ -58,24 +58,24 @@ public class DefaultTcpTunnelListener implements TcpTunnelListener {
 
 
     /*
-     * @see toolbox.tunnel.TcpTunnelListener#bytesRead(toolbox.tunnel.TcpTunnel, int, int)
+     * @see toolbox.tunnel.TcpTunnelListener#bytesRead(toolbox.tunnel.TcpTunnel, int, long)
      */
     public void bytesRead(
         TcpTunnel tunnel,
         int connBytesRead,
-        int totalBytesRead) {
+        long totalBytesRead) {
         // logger_.debug("[bytesRead]" + connBytesRead + " " + totalBytesRead);
         totalBytesRead_ = totalBytesRead;
     }
 
 
     /*
-     * @see toolbox.tunnel.TcpTunnelListener#bytesWritten(toolbox.tunnel.TcpTunnel, int, int)
+     * @see toolbox.tunnel.TcpTunnelListener#bytesWritten(toolbox.tunnel.TcpTunnel, int, long)
      */
     public void bytesWritten(
         TcpTunnel tunnel,
         int connBytesWritten,
-        int totalBytesWritten) {
+        long totalBytesWritten) {
         // logger_.debug("[bytesWritten]" + connBytesWritten + " " +
         // totalBytesWritten);
         totalBytesWritten_ = totalBytesWritten;
@@ -120,9 +120,9 @@ public class DefaultTcpTunnelListener implements TcpTunnelListener {
     /**
      * Returns the totalBytesRead.
      * 
-     * @return int
+     * @return long
      */
-    public int getTotalBytesRead() {
+    public long getTotalBytesRead() {
         return totalBytesRead_;
     }
 
@@ -130,9 +130,9 @@ public class DefaultTcpTunnelListener implements TcpTunnelListener {
     /**
      * Returns the totalBytesWritten.
      * 
-     * @return int
+     * @return long
      */
-    public int getTotalBytesWritten() {
+    public long getTotalBytesWritten() {
         return totalBytesWritten_;
     }
 }
\ No newline at end of file
@@ -0,0 +1,722 @@
+package toolbox.tunnel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.io.ByteBufferPool;
+import toolbox.util.service.ServiceException;
+import toolbox.util.service.ServiceState;
+import toolbox.util.service.ServiceTransition;
+import toolbox.util.service.ServiceUtil;
+import toolbox.util.service.Startable;
+import toolbox.util.statemachine.StateMachine;
+
+/**
+ * A SelectorRelay shuttles bytes between pairs of non-blocking socket channels
+ * using a small, fixed number of event loop threads. It is the non-blocking
+ * counterpart to {@link toolbox.tunnel.Relay} which dedicates a thread per
+ * direction per connection.
+ * <p>
+ * Each event loop owns a {@link java.nio.channels.Selector} and a single
+ * direct read buffer. Data is read into the loop's buffer and written straight
+ * to the peer channel. Only when the peer cannot accept all of it is a buffer
+ * borrowed from a shared {@link toolbox.util.io.ByteBufferPool} to hold the
+ * remainder, so idle connections hold no buffers at all. While a direction has
+ * data pending, reads from its source are suspended which gives natural
+ * backpressure between fast and slow endpoints.
+ * <p>
+ * Optionally, each direction can have a tap stream which receives a copy of
+ * every chunk relayed in that direction followed by a flush(). When no tap is
+ * attached the data never leaves the direct buffer. The number of bytes
+ * relayed in each direction is counted whether or not a tap is attached.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * SelectorRelay relay = new SelectorRelay(2, 16384);
+ * relay.start();
+ *
+ * SocketChannel client = serverChannel.accept();
+ * SocketChannel remote = SocketChannel.open(new InetSocketAddress(host, port));
+ * relay.relay(client, remote, System.out, null);
+ * ...
+ * relay.stop();
+ * </pre>
+ *
+ * @see toolbox.tunnel.TcpTunnel
+ */
+public class SelectorRelay implements Startable {
+
+    private static final Logger logger_ = Logger.getLogger(SelectorRelay.class);
+
+    // -------------------------------------------------------------------------
+    // Constants
+    // -------------------------------------------------------------------------
+
+    /**
+     * Default number of event loop threads.
+     */
+    public static final int DEFAULT_LOOPS = 1;
+
+    /**
+     * Default size of a read/pending buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+    /**
+     * Maximum number of idle buffers retained by the buffer pool.
+     */
+    private static final int MAX_IDLE_BUFFERS = 256;
+
+    // -------------------------------------------------------------------------
+    // Fields
+    // -------------------------------------------------------------------------
+
+    /**
+     * Number of event loop threads.
+     */
+    private int loopCount_;
+
+    /**
+     * Size of read/pending buffers.
+     */
+    private int bufferSize_;
+
+    /**
+     * Event loops, one per thread.
+     */
+    private EventLoop[] loops_;
+
+    /**
+     * Index of the loop that receives the next connection.
+     */
+    private int nextLoop_;
+
+    /**
+     * Pool of buffers for data that could not be written immediately.
+     */
+    private ByteBufferPool pool_;
+
+    /**
+     * State machine for this relay's lifecycle.
+     */
+    private StateMachine machine_;
+
+    /**
+     * Number of bytes read from client channels.
+     */
+    private AtomicLong outgoingBytes_;
+
+    /**
+     * Number of bytes read from remote channels.
+     */
+    private AtomicLong incomingBytes_;
+
+    // -------------------------------------------------------------------------
+    // Constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Creates a SelectorRelay with a single event loop.
+     */
+    public SelectorRelay() {
+        this(DEFAULT_LOOPS, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    /**
+     * Creates a SelectorRelay.
+     *
+     * @param loops Number of event loop threads.
+     * @param bufferSize Size of the read and pending buffers in bytes.
+     */
+    public SelectorRelay(int loops, int bufferSize) {
+        if (loops < 1)
+            throw new IllegalArgumentException("Loops must be >= 1: " + loops);
+
+        loopCount_ = loops;
+        bufferSize_ = bufferSize;
+        pool_ = new ByteBufferPool(bufferSize, MAX_IDLE_BUFFERS, true);
+        machine_ = ServiceUtil.createStateMachine(this);
+        outgoingBytes_ = new AtomicLong();
+        incomingBytes_ = new AtomicLong();
+    }
+
+    // -------------------------------------------------------------------------
+    // Public
+    // -------------------------------------------------------------------------
+
+    /**
+     * Relays data between two connected socket channels until either one of
+     * them reaches end of stream or fails. Both channels are switched to
+     * non-blocking mode and are owned by this relay from here on; they are
+     * closed along with the taps when the relay of this pair ends.
+     *
+     * @param client Client side channel.
+     * @param remote Remote side channel.
+     * @param outgoingTap Receives a copy of data flowing from the client to
+     *        the remote host. Null for no tap.
+     * @param incomingTap Receives a copy of data flowing from the remote host
+     *        to the client. Null for no tap.
+     * @throws IOException if the channels cannot be switched to non-blocking.
+     * @throws IllegalStateException if the relay is not running.
+     */
+    public void relay(
+        SocketChannel client,
+        SocketChannel remote,
+        OutputStream outgoingTap,
+        OutputStream incomingTap)
+        throws IOException {
+
+        if (!isRunning())
+            throw new IllegalStateException("SelectorRelay is not running");
+
+        client.configureBlocking(false);
+        remote.configureBlocking(false);
+
+        Endpoint c = new Endpoint(client, outgoingTap, outgoingBytes_);
+        Endpoint r = new Endpoint(remote, incomingTap, incomingBytes_);
+        c.peer_ = r;
+        r.peer_ = c;
+
+        EventLoop loop;
+
+        synchronized (this) {
+            loop = loops_[nextLoop_];
+            nextLoop_ = (nextLoop_ + 1) % loops_.length;
+        }
+
+        loop.register(c);
+    }
+
+
+    /**
+     * Returns the number of connections currently being relayed.
+     *
+     * @return int
+     */
+    public synchronized int getConnectionCount() {
+        int count = 0;
+
+        if (loops_ != null)
+            for (int i = 0; i < loops_.length; i++)
+                count += loops_[i].connections_;
+
+        return count;
+    }
+
+
+    /**
+     * Returns the number of bytes relayed from clients to remote hosts.
+     *
+     * @return long
+     */
+    public long getOutgoingBytes() {
+        return outgoingBytes_.get();
+    }
+
+
+    /**
+     * Returns the number of bytes relayed from remote hosts to clients.
+     *
+     * @return long
+     */
+    public long getIncomingBytes() {
+        return incomingBytes_.get();
+    }
+
+
+    /**
+     * Returns the pool that backs pending writes.
+     *
+     * @return ByteBufferPool
+     */
+    public ByteBufferPool getBufferPool() {
+        return pool_;
+    }
+
+    // -------------------------------------------------------------------------
+    // Startable Interface
+    // -------------------------------------------------------------------------
+
+    /**
+     * Opens the selectors and starts the event loop threads.
+     *
+     * @see toolbox.util.service.Startable#start()
+     */
+    public synchronized void start() throws ServiceException {
+        machine_.checkTransition(ServiceTransition.START);
+
+        EventLoop[] loops = new EventLoop[loopCount_];
+
+        try {
+            for (int i = 0; i < loops.length; i++)
+                loops[i] = new EventLoop(Selector.open());
+        }
+        catch (IOException ioe) {
+            for (int i = 0; i < loops.length && loops[i] != null; i++)
+                loops[i].closeSelector();
+
+            throw new ServiceException(ioe);
+        }
+
+        loops_ = loops;
+        nextLoop_ = 0;
+        machine_.transition(ServiceTransition.START);
+
+        for (int i = 0; i < loops_.length; i++) {
+            Thread t = new Thread(loops_[i], "SelectorRelay-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+
+    /**
+     * Stops the event loops and closes all connections being relayed.
+     *
+     * @see toolbox.util.service.Startable#stop()
+     */
+    public synchronized void stop() {
+        machine_.checkTransition(ServiceTransition.STOP);
+        machine_.transition(ServiceTransition.STOP);
+
+        for (int i = 0; i < loops_.length; i++)
+            loops_[i].shutdown();
+    }
+
+
+    /*
+     * @see toolbox.util.service.Startable#isRunning()
+     */
+    public boolean isRunning() {
+        return getState() == ServiceState.RUNNING;
+    }
+
+    // -------------------------------------------------------------------------
+    // Service Interface
+    // -------------------------------------------------------------------------
+
+    /*
+     * @see toolbox.util.service.Service#getState()
+     */
+    public ServiceState getState() {
+        return (ServiceState) machine_.getState();
+    }
+
+    // -------------------------------------------------------------------------
+    // Endpoint
+    // -------------------------------------------------------------------------
+
+    /**
+     * One side of a relayed connection.
+     */
+    static class Endpoint {
+
+        /**
+         * Channel for this side of the connection.
+         */
+        SocketChannel channel_;
+
+        /**
+         * Registration of the channel with the owning loop's selector.
+         */
+        SelectionKey key_;
+
+        /**
+         * The other side of the connection.
+         */
+        Endpoint peer_;
+
+        /**
+         * Receives a copy of data read from this endpoint. May be null.
+         */
+        OutputStream tap_;
+
+        /**
+         * Relay wide total for this side that bytes read from this endpoint
+         * are added to.
+         */
+        AtomicLong count_;
+
+        /**
+         * Data read from this endpoint that the peer has not accepted yet.
+         */
+        ByteBuffer pending_;
+
+        /**
+         * Set once either side reaches end of stream. The connection is
+         * closed as soon as no more data is pending.
+         */
+        boolean closing_;
+
+        /**
+         * Set once the connection has been closed.
+         */
+        boolean closed_;
+
+        Endpoint(SocketChannel channel, OutputStream tap, AtomicLong count) {
+            channel_ = channel;
+            tap_ = tap;
+            count_ = count;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // EventLoop
+    // -------------------------------------------------------------------------
+
+    /**
+     * Services the readiness events for a subset of the relayed connections.
+     */
+    class EventLoop implements Runnable {
+
+        /**
+         * Selector for all channels owned by this loop.
+         */
+        private Selector selector_;
+
+        /**
+         * Connections waiting to be registered with the selector. Registration
+         * must happen on the loop thread to avoid blocking on select().
+         */
+        private List registrations_;
+
+        /**
+         * Direct buffer every read lands in.
+         */
+        private ByteBuffer readBuffer_;
+
+        /**
+         * Heap copy of the read buffer handed to taps.
+         */
+        private byte[] tapBuffer_;
+
+        /**
+         * Number of connections owned by this loop.
+         */
+        private volatile int connections_;
+
+        /**
+         * Cleared to make the loop exit.
+         */
+        private volatile boolean running_;
+
+        EventLoop(Selector selector) {
+            selector_ = selector;
+            registrations_ = new LinkedList();
+            readBuffer_ = ByteBuffer.allocateDirect(bufferSize_);
+            tapBuffer_ = new byte[bufferSize_];
+            running_ = true;
+        }
+
+
+        /**
+         * Queues a connection for registration with this loop.
+         *
+         * @param client Client side of the connection.
+         */
+        void register(Endpoint client) {
+            synchronized (registrations_) {
+                registrations_.add(client);
+            }
+
+            selector_.wakeup();
+        }
+
+
+        /**
+         * Requests the loop to exit and close all of its connections.
+         */
+        void shutdown() {
+            running_ = false;
+            selector_.wakeup();
+        }
+
+
+        /**
+         * Closes the selector ignoring any errors.
+         */
+        void closeSelector() {
+            try {
+                selector_.close();
+            }
+            catch (IOException ioe) {
+                logger_.warn("Closing selector", ioe);
+            }
+        }
+
+        /*
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            try {
+                while (running_) {
+                    selector_.select();
+                    registerPending();
+
+                    for (Iterator i = selector_.selectedKeys().iterator();
+                         i.hasNext();) {
+
+                        SelectionKey key = (SelectionKey) i.next();
+                        i.remove();
+                        service(key);
+                    }
+                }
+            }
+            catch (IOException ioe) {
+                logger_.error("Event loop failed", ioe);
+            }
+            finally {
+                registerPending();
+
+                List endpoints = new ArrayList();
+
+                for (Iterator i = selector_.keys().iterator(); i.hasNext();)
+                    endpoints.add(((SelectionKey) i.next()).attachment());
+
+                for (Iterator i = endpoints.iterator(); i.hasNext();)
+                    close((Endpoint) i.next());
+
+                closeSelector();
+            }
+        }
+
+
+        /**
+         * Registers connections queued by relay() with the selector.
+         */
+        private void registerPending() {
+            List pending;
+
+            synchronized (registrations_) {
+                pending = new ArrayList(registrations_);
+                registrations_.clear();
+            }
+
+            for (Iterator i = pending.iterator(); i.hasNext();) {
+                Endpoint client = (Endpoint) i.next();
+                Endpoint remote = client.peer_;
+
+                connections_++;
+
+                try {
+                    client.key_ = client.channel_.register(
+                        selector_, SelectionKey.OP_READ, client);
+
+                    remote.key_ = remote.channel_.register(
+                        selector_, SelectionKey.OP_READ, remote);
+                }
+                catch (ClosedChannelException cce) {
+                    logger_.debug("Channel closed before registration", cce);
+                    close(client);
+                }
+            }
+        }
+
+
+        /**
+         * Dispatches the ready operations of a key.
+         *
+         * @param key Selected key.
+         */
+        private void service(SelectionKey key) {
+            Endpoint endpoint = (Endpoint) key.attachment();
+
+            try {
+                if (key.isValid() && key.isWritable())
+                    drain(endpoint);
+
+                if (key.isValid() && key.isReadable())
+                    read(endpoint);
+            }
+            catch (IOException ioe) {
+                logger_.debug("Relay terminated: " + ioe.getMessage());
+                close(endpoint);
+            }
+        }
+
+
+        /**
+         * Reads what is available from an endpoint and forwards it to its
+         * peer. Whatever the peer does not accept is parked in a pooled buffer
+         * and reading from the endpoint is suspended until it is drained.
+         *
+         * @param source Endpoint that is ready for reading.
+         * @throws IOException on I/O error.
+         */
+        private void read(Endpoint source) throws IOException {
+            ByteBuffer buffer = readBuffer_;
+            buffer.clear();
+
+            int n = source.channel_.read(buffer);
+
+            if (n < 0) {
+                endOfStream(source);
+                return;
+            }
+
+            if (n == 0)
+                return;
+
+            source.count_.addAndGet(n);
+            buffer.flip();
+
+            if (source.tap_ != null)
+                tap(source, buffer);
+
+            source.peer_.channel_.write(buffer);
+
+            if (buffer.hasRemaining()) {
+                ByteBuffer pending = pool_.borrow();
+                pending.put(buffer);
+                pending.flip();
+                source.pending_ = pending;
+                interestOff(source.key_, SelectionKey.OP_READ);
+                interestOn(source.peer_.key_, SelectionKey.OP_WRITE);
+            }
+        }
+
+
+        /**
+         * Writes data pending for an endpoint that has become writable.
+         *
+         * @param target Endpoint that is ready for writing.
+         * @throws IOException on I/O error.
+         */
+        private void drain(Endpoint target) throws IOException {
+            Endpoint source = target.peer_;
+            ByteBuffer pending = source.pending_;
+
+            if (pending != null) {
+                target.channel_.write(pending);
+
+                if (pending.hasRemaining())
+                    return;
+
+                source.pending_ = null;
+                pool_.release(pending);
+            }
+
+            interestOff(target.key_, SelectionKey.OP_WRITE);
+
+            if (source.closing_)
+                close(source);
+            else
+                interestOn(source.key_, SelectionKey.OP_READ);
+        }
+
+
+        /**
+         * Handles end of stream on an endpoint. Data still pending for the
+         * other direction is flushed before the connection is closed.
+         *
+         * @param source Endpoint that reached end of stream.
+         */
+        private void endOfStream(Endpoint source) {
+            Endpoint peer = source.peer_;
+            source.closing_ = true;
+            peer.closing_ = true;
+
+            if (peer.pending_ == null) {
+                close(source);
+            }
+            else {
+                // Wait for the drain of peer's data into source to close
+                interestOff(source.key_, SelectionKey.OP_READ);
+            }
+        }
+
+
+        /**
+         * Copies a chunk of relayed data to the tap of the endpoint it was
+         * read from. A failing tap is detached but does not interrupt the
+         * relay.
+         *
+         * @param source Endpoint the data was read from.
+         * @param buffer Data to copy. Position is left unchanged.
+         */
+        private void tap(Endpoint source, ByteBuffer buffer) {
+            int n = buffer.remaining();
+            buffer.mark();
+            buffer.get(tapBuffer_, 0, n);
+            buffer.reset();
+
+            try {
+                source.tap_.write(tapBuffer_, 0, n);
+                source.tap_.flush();
+            }
+            catch (IOException ioe) {
+                logger_.warn("Detaching failed tap", ioe);
+                IOUtils.closeQuietly(source.tap_);
+                source.tap_ = null;
+            }
+        }
+
+
+        /**
+         * Closes both sides of a connection and releases its pending buffers
+         * and taps.
+         *
+         * @param endpoint Either side of the connection.
+         */
+        private void close(Endpoint endpoint) {
+            if (endpoint.closed_)
+                return;
+
+            connections_--;
+
+            Endpoint[] sides = new Endpoint[] { endpoint, endpoint.peer_ };
+
+            for (int i = 0; i < sides.length; i++) {
+                Endpoint side = sides[i];
+                side.closed_ = true;
+
+                if (side.key_ != null)
+                    side.key_.cancel();
+
+                try {
+                    side.channel_.close();
+                }
+                catch (IOException ioe) {
+                    logger_.debug("Closing channel", ioe);
+                }
+
+                IOUtils.closeQuietly(side.tap_);
+                pool_.release(side.pending_);
+                side.pending_ = null;
+            }
+        }
+
+
+        /**
+         * Adds an operation to a key's interest set.
+         */
+        private void interestOn(SelectionKey key, int op) {
+            if (key.isValid())
+                key.interestOps(key.interestOps() | op);
+        }
+
+
+        /**
+         * Removes an operation from a key's interest set.
+         */
+        private void interestOff(SelectionKey key, int op) {
+            if (key.isValid())
+                key.interestOps(key.interestOps() & ~op);
+        }
+    }
+}
@@ -7,9 +7,13 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -104,6 +108,11 @@ import toolbox.workspace.PreferencedException;
  *   <li>TcpTunnel dumps response to screen and forwards to socket client
  *   <li>Socket client receives response and processes as normal
  * </ol>
+ * 
+ * By default each connection is relayed by two dedicated threads. For large
+ * numbers of concurrent connections, {@link #setNonBlocking(boolean)} switches
+ * to a {@link SelectorRelay} which multiplexes all connections over a few 
+ * selector threads.
  */
 public class TcpTunnel implements Startable, IPreferenced {
     
@@ -119,6 +128,8 @@ public class TcpTunnel implements Startable, IPreferenced {
     public static final String PROP_REMOTE_PORT     =   "remotePort";
     public static final String PROP_REMOTE_HOST     =   "remoteHost";
     public static final String PROP_LOCAL_PORT      =   "localPort";
+    public static final String PROP_NON_BLOCKING    =   "nonBlocking";
+    public static final String PROP_SELECTOR_THREADS=   "selectorThreads";
     
     /**
      * Java bean properties that are saved via the IPreferenced interface.
@@ -127,7 +138,9 @@ public class TcpTunnel implements Startable, IPreferenced {
         PROP_LOCAL_PORT,
         PROP_REMOTE_HOST,
         PROP_REMOTE_PORT,
-        PROP_SUPPRESS_BINARY 
+        PROP_SUPPRESS_BINARY,
+        PROP_NON_BLOCKING,
+        PROP_SELECTOR_THREADS
     };
 
     // --------------------------------------------------------------------------
@@ -186,12 +199,12 @@ public class TcpTunnel implements Startable, IPreferenced {
     /**
      * Total number of incoming bytes.
      */
-    private int inTotal_;
+    private long inTotal_;
 
     /**
      * Total number of outgoing bytes.
      */
-    private int outTotal_;
+    private long outTotal_;
 
     /**
      * Sink for incoming data from the remote host.
@@ -222,6 +235,22 @@ public class TcpTunnel implements Startable, IPreferenced {
      * State machine for this tunnels lifecycle.
      */
     private StateMachine machine_;
+
+    /**
+     * Flag to relay connections with a {@link SelectorRelay} instead of a
+     * pair of {@link Relay} threads per connection.
+     */
+    private boolean nonBlocking_;
+
+    /**
+     * Number of event loop threads used in non-blocking mode.
+     */
+    private int selectorThreads_;
+
+    /**
+     * Relay engine used in non-blocking mode. Null otherwise.
+     */
+    private volatile SelectorRelay selectorRelay_;
     
     //--------------------------------------------------------------------------
     // Main
@@ -244,6 +273,7 @@ public class TcpTunnel implements Startable, IPreferenced {
             Option transferredOption = new Option("t", "transferred", false, "Prints bytes transferred in real time");
             Option binaryOption = new Option("b", "suppressBinary", false, "Suppresses binary output");
             Option helpOption = new Option("h", "help", false, "Print usage");
+            Option nonBlockingOption = new Option("n", "nonBlocking", false, "Relays connections using non-blocking I/O");
 
             Option bindAddressOption = new Option("l", "bindAddress", true, "Address on this machine to bind to if more than one available");
             bindAddressOption.setArgName("Bind address");
@@ -254,6 +284,7 @@ public class TcpTunnel implements Startable, IPreferenced {
             options.addOption(quietOption);        
             options.addOption(transferredOption);
             options.addOption(binaryOption);
+            options.addOption(nonBlockingOption);
     
             // Parse options
             CommandLine cmdLine = parser.parse(options, args, true);
@@ -273,6 +304,9 @@ public class TcpTunnel implements Startable, IPreferenced {
                 else if (opt.equals(binaryOption.getOpt())) {
                     tunnel.setSuppressBinary(true);
                 }
+                else if (opt.equals(nonBlockingOption.getOpt())) {
+                    tunnel.setNonBlocking(true);
+                }
                 else if (opt.equals(transferredOption.getOpt())) {
                     Timer t = new Timer(true);
                     t.schedule(new ShowTransferredTask(tunnel), 1000, 1000);
@@ -372,6 +406,8 @@ public class TcpTunnel implements Startable, IPreferenced {
         setIncomingSink(System.out);
         setOutgoingSink(System.out);
         setBindAddress(bindAddress);
+        setNonBlocking(false);
+        setSelectorThreads(SelectorRelay.DEFAULT_LOOPS);
     }
     
     
@@ -496,12 +532,85 @@ public class TcpTunnel implements Startable, IPreferenced {
     }
 
 
+    /**
+     * Returns true if connections are relayed using non-blocking I/O.
+     * 
+     * @return boolean
+     */
+    public boolean isNonBlocking() {
+        return nonBlocking_;
+    }
+
+
+    /**
+     * Switches between relaying each connection with a pair of dedicated 
+     * threads (the default) and multiplexing all connections over a few 
+     * selector threads. Takes effect the next time the tunnel is started.
+     * <p>
+     * In non-blocking mode the incoming/outgoing sinks, binary suppression and
+     * listeners behave as usual. When both sinks are null or a 
+     * NullOutputStream and no listeners are registered, the data is relayed 
+     * without being copied out of the direct buffers at all.
+     * 
+     * @param nonBlocking True to use non-blocking I/O.
+     */
+    public void setNonBlocking(boolean nonBlocking) {
+        nonBlocking_ = nonBlocking;
+    }
+
+
+    /**
+     * Returns the number of selector threads used in non-blocking mode.
+     * 
+     * @return int
+     */
+    public int getSelectorThreads() {
+        return selectorThreads_;
+    }
+
+
+    /**
+     * Sets the number of selector threads used in non-blocking mode. Values
+     * less than one, e.g. from a hand edited preferences file, are replaced
+     * with the default.
+     * 
+     * @param selectorThreads Number of selector threads.
+     */
+    public void setSelectorThreads(int selectorThreads) {
+        if (selectorThreads < 1) {
+            logger_.warn("Invalid number of selector threads " 
+                + selectorThreads + ", using " + SelectorRelay.DEFAULT_LOOPS);
+            
+            selectorThreads = SelectorRelay.DEFAULT_LOOPS;
+        }
+        
+        selectorThreads_ = selectorThreads;
+    }
+
+
+    /**
+     * Returns the number of bytes relayed from the remote host to clients.
+     * In non-blocking mode this is counted by the selector relay so that
+     * connections relayed without taps are included.
+     * 
+     * @return long
+     */
     public long getTotalBytesRead() {
-        return inTotal_;
+        SelectorRelay relay = selectorRelay_;
+        return relay != null ? relay.getIncomingBytes() : inTotal_;
     }
 
+    
+    /**
+     * Returns the number of bytes relayed from clients to the remote host.
+     * In non-blocking mode this is counted by the selector relay so that
+     * connections relayed without taps are included.
+     * 
+     * @return long
+     */
     public long getTotalBytesWritten() {
-        return outTotal_;
+        SelectorRelay relay = selectorRelay_;
+        return relay != null ? relay.getOutgoingBytes() : outTotal_;
     }
     
     // --------------------------------------------------------------------------
@@ -529,18 +638,30 @@ public class TcpTunnel implements Startable, IPreferenced {
                 logger_.debug("xxx");
             }
             
-            serverSocket_ = new ServerSocket(localPort_, 0, bindAddress);
+            if (nonBlocking_) {
+                // Sockets accepted from a channel based server socket have
+                // channels of their own which SelectorRelay requires.
+                serverSocket_ = ServerSocketChannel.open().socket();
+                serverSocket_.bind(new InetSocketAddress(bindAddress, localPort_));
+                selectorRelay_ = new SelectorRelay(selectorThreads_, SelectorRelay.DEFAULT_BUFFER_SIZE);
+                selectorRelay_.start();
+            }
+            else {
+                serverSocket_ = new ServerSocket(localPort_, 0, bindAddress);
+            }
+            
             serverSocket_.setSoTimeout(5000);
-
-            Thread t = new Thread(new ServerThread());
-            t.start();
-            fireTunnelStarted();
         }
         catch (IOException ioe) {
             throw new ServiceException(ioe);
         }
 
+        // The server thread exits as soon as it sees the tunnel isn't running
         machine_.transition(ServiceTransition.START);
+        
+        Thread t = new Thread(new ServerThread());
+        t.start();
+        fireTunnelStarted();
     }
 
     
@@ -552,6 +673,16 @@ public class TcpTunnel implements Startable, IPreferenced {
     public void stop() {
         machine_.checkTransition(ServiceTransition.STOP);
         SocketUtil.close(serverSocket_);
+        
+        if (selectorRelay_ != null) {
+            selectorRelay_.stop();
+            
+            // Keep the totals once the relay is gone
+            inTotal_ = selectorRelay_.getIncomingBytes();
+            outTotal_ = selectorRelay_.getOutgoingBytes();
+            selectorRelay_ = null;
+        }
+        
         fireStatusChanged("Tunnel stopped");
         machine_.transition(ServiceTransition.STOP);
     }
@@ -729,6 +860,11 @@ public class TcpTunnel implements Startable, IPreferenced {
                     // Client socket
                     Socket client = serverSocket_.accept();
 
+                    if (nonBlocking_) {
+                        relayNonBlocking(client.getChannel());
+                        continue;
+                    }
+                    
                     // Remote socket
                     Socket remote = new Socket(remoteHost_, remotePort_);
 
@@ -795,6 +931,10 @@ public class TcpTunnel implements Startable, IPreferenced {
                 catch (SocketTimeoutException ste) {
                     alreadyListened = true;
                 }
+                catch (ClosedChannelException cce) {
+                    // Non-blocking mode server socket closed by stop()
+                    logger_.debug("Tunnel socket server channel closed.");
+                }
                 catch (Exception e) {
                     if (getState() != ServiceState.STOPPED) {
                         if (System.getProperty("java.awt.headless") == null)
@@ -805,6 +945,84 @@ public class TcpTunnel implements Startable, IPreferenced {
                 }
             }
         }
+        
+        
+        /**
+         * Connects to the remote host and hands the connection pair over to
+         * the selector relay. The sinks and monitors are wired up the same as
+         * in blocking mode except that the tap streams only receive a copy of
+         * the data; the selector relay forwards the data itself.
+         * 
+         * @param client Channel of the accepted client connection.
+         * @throws IOException on I/O error.
+         */
+        private void relayNonBlocking(SocketChannel client) throws IOException {
+            SocketChannel remote = null;
+            
+            try {
+                remote = SocketChannel.open(new InetSocketAddress(remoteHost_, remotePort_));
+            }
+            catch (IOException ioe) {
+                client.close();
+                throw ioe;
+            }
+            
+            fireStatusChanged(
+                "Tunnelling port " + localPort_ +
+                " to port " + remotePort_ +
+                " on host " + remoteHost_ + " ...");
+            
+            if (!hasTaps()) {
+                selectorRelay_.relay(client, remote, null, null);
+                return;
+            }
+            
+            MonitoredOutputStream mos = new MonitoredOutputStream(NAME_STREAM_OUT, new NullOutputStream());
+            mos.addOutputStreamListener(new InternalOutputStreamListener());
+            MulticastOutputStream outTap = new MulticastOutputStream();
+            outTap.addStream(mos);
+            
+            if (outgoingSink_ != null) {
+                printableOutgoingSink_ = new PrintableOutputStream(outgoingSink_, supressBinary_, SUBSTITUTION_CHAR);
+                outTap.addStream(printableOutgoingSink_);
+            }
+
+            MonitoredOutputStream mis = new MonitoredOutputStream(NAME_STREAM_IN, new NullOutputStream());
+            mis.addOutputStreamListener(new InternalOutputStreamListener());
+            MulticastOutputStream inTap = new MulticastOutputStream();
+            inTap.addStream(mis);
+            
+            if (incomingSink_ != null) {
+                printableIncomingSink_ = new PrintableOutputStream(incomingSink_, supressBinary_, SUBSTITUTION_CHAR);
+                inTap.addStream(printableIncomingSink_);
+            }
+
+            fireNewConnection(mis, mos);
+            selectorRelay_.relay(client, remote, outTap, inTap);
+        }
+        
+        
+        /**
+         * Returns true if anyone is interested in a copy of the tunneled data.
+         * 
+         * @return boolean
+         */
+        private boolean hasTaps() {
+            return !listeners_.isEmpty()
+                || !isNullSink(incomingSink_)
+                || !isNullSink(outgoingSink_);
+        }
+        
+        
+        /**
+         * Returns true if the given sink discards everything written to it.
+         * 
+         * @param sink Sink to check.
+         * @return boolean
+         */
+        private boolean isNullSink(OutputStream sink) {
+            return sink == null || sink instanceof NullOutputStream;
+        }
     }
     
     //--------------------------------------------------------------------------
@@ -850,14 +1068,14 @@ public class TcpTunnel implements Startable, IPreferenced {
 
         public void streamFlushed(MonitoredOutputStream stream) {
             String name = stream.getName();
-            int count = (int) stream.getCount();
+            long count = stream.getCount();
 
             if (NAME_STREAM_IN.equals(name)) {
-                fireBytesRead(count - inTotal_);
+                fireBytesRead((int) (count - inTotal_));
                 inTotal_ = count;
             }
             else if (NAME_STREAM_OUT.equals(name)) {
-                fireBytesWritten(count - outTotal_);
+                fireBytesWritten((int) (count - outTotal_));
                 outTotal_ = count;
             }
             else {
@@ -880,7 +1098,7 @@ public class TcpTunnel implements Startable, IPreferenced {
         public void bytesRead(
             TcpTunnel tunnel,
             int connBytesRead,
-            int totalBytesRead) {
+            long totalBytesRead) {
             //System.out.println("[Bytes read: " + connBytesRead + "]");
         }
 
@@ -888,7 +1106,7 @@ public class TcpTunnel implements Startable, IPreferenced {
         public void bytesWritten(
             TcpTunnel tunnel,
             int connBytesWritten,
-            int totalBytesWritten) {
+            long totalBytesWritten) {
             //System.out.println("[Bytes written: " + connBytesWritten + "]");
         }
 
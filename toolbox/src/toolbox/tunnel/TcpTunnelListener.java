@@ -26,7 +26,7 @@ public interface TcpTunnelListener {
      * @param totalBytesRead Total number of bytes read over the life of the
      *        tunnel.
      */
-    void bytesRead(TcpTunnel tunnel, int connBytesRead, int totalBytesRead);
+    void bytesRead(TcpTunnel tunnel, int connBytesRead, long totalBytesRead);
 
     
     /**
@@ -42,7 +42,7 @@ public interface TcpTunnelListener {
     void bytesWritten(
         TcpTunnel tunnel,
         int connBytesWritten,
-        int totalBytesWritten);
+        long totalBytesWritten);
                          
     
     /**
@@ -1,7 +1,10 @@
 package toolbox.util;
 
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.sql.Connection;
 import java.sql.Driver;
@@ -68,6 +71,16 @@ public final class JDBCUtil
      */
     public static final String SESSION_NAME = "jdbcutil";
     
+    //--------------------------------------------------------------------------
+    // Formatting Constants
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Number of rows buffered by {@link #format(ResultSet)} to estimate the
+     * widths of the columns.
+     */
+    public static final int DEFAULT_SAMPLE_ROWS = 1000;
+    
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -402,14 +415,57 @@ public final class JDBCUtil
      * @throws SQLException on sql error.
      */
     public static String format(ResultSet rs) throws SQLException 
+    {
+        StringWriter sw = new StringWriter();
+        
+        try
+        {
+            format(rs, sw, 0, DEFAULT_SAMPLE_ROWS, null);
+        }
+        catch (IOException e)
+        {
+            // StringWriter does not throw
+            throw new IllegalStateException(e.getMessage());
+        }
+        
+        return sw.toString();
+    }
+
+    
+    /**
+     * Formats a result set in a table like manner, writing each row as it is
+     * read so the whole result set is never held in memory. The widths of the
+     * columns are estimated from the header and the first sampleRows rows,
+     * which are buffered, and the rest of the rows are streamed straight to
+     * the writer. A value wider than its estimated column is written in full
+     * and pushes the rest of its row to the right.
+     * 
+     * @param rs ResultSet to format.
+     * @param out Writer to format to.
+     * @param maxRows Maximum number of rows to read, or 0 for all rows.
+     * @param sampleRows Number of rows used to estimate the column widths.
+     * @param values If not null, an Object[] with the values of each row read
+     *        is added to this list.
+     * @return Number of rows formatted.
+     * @throws SQLException on sql error.
+     * @throws IOException on I/O error.
+     */
+    public static int format(
+        ResultSet rs, 
+        Writer out, 
+        int maxRows, 
+        int sampleRows, 
+        List values) 
+        throws SQLException, IOException 
     {
         ResultSetMetaData meta = rs.getMetaData();
     
         int    numCols    = meta.getColumnCount();
         String header[]   = new String[numCols];
+        int    colType[]  = new int[numCols];
         int    colWidth[] = new int[numCols];                
         
-        // Figure out column headers and width
+        // Figure out column headers, types and width
         for (int i = 1; i <= numCols; i++) 
         {
             String colName = meta.getColumnLabel(i);
@@ -418,78 +474,63 @@ public final class JDBCUtil
                 (StringUtils.isBlank(colName) ? "[NULL]" : colName.trim());
                     
             header  [i - 1] = colName;
+            colType [i - 1] = meta.getColumnType(i);
             colWidth[i - 1] = colName.length();
         }
         
+        if (maxRows > 0 && maxRows < sampleRows)
+            sampleRows = maxRows;
+        
+        // First pass: buffer a prefix of the rows to estimate the widths
         int numRows = 0;
-        List rows = new ArrayList();
-        rows.add(header);
-
-        // Rows        
-        while (rs.next()) 
+        boolean more = true;
+        List sample = new ArrayList();
+        
+        while (numRows < sampleRows && (more = rs.next())) 
         {
             ++numRows;
-
-            String row[] = new String[numCols];
-             
-            for (int i = 1; i <= numCols; i++) 
-            {
-                Object obj = null;
-                
-                try 
-                {
-                    if (meta.getColumnType(i) == Types.LONGVARBINARY)
-                        obj = rs.getBytes(i);
-                    else
-                        obj = rs.getObject(i);
-                    
-                    if (obj instanceof byte[])
-                        obj = (new String((byte[]) obj));
-                }
-                catch (NullPointerException e) 
-                {
-                    obj = "[NULL]";
-                }
-
-                String value = null;
-                
-                if (obj != null)
-                    value = obj.toString().trim();
-                else
-                    value = "[NULL]";
-   
-                colWidth[i - 1] = Math.max(value.length(), colWidth[i - 1]);
-                row[i - 1] = value;
-            }
-
-            rows.add(row);
+            String[] row = readRow(rs, colType, values);
+            
+            for (int i = 0; i < numCols; i++)
+                colWidth[i] = Math.max(row[i].length(), colWidth[i]);
+            
+            sample.add(row);
         }
 
         for (int i = 0; i < colWidth.length; colWidth[i] = colWidth[i++] + 2);
 
-        String[] divider = new String[numCols];
+        StringBuffer divider = new StringBuffer();
         
         for (int i = 0; i < numCols; i++)
-            divider[i] = StringUtils.repeat("=", colWidth[i]);
+            divider.append(StringUtils.repeat("=", colWidth[i]));
 
-        rows.add(0, divider);
-        rows.add(2, divider);
+        divider.append("\n");
+        
+        out.write(divider.toString());
+        writeRow(out, header, colWidth);
+        out.write(divider.toString());
         
-        StringBuffer sb = new StringBuffer();            
+        for (Iterator i = sample.iterator(); i.hasNext();) 
+            writeRow(out, (String[]) i.next(), colWidth);
         
-        for (Iterator i = rows.iterator(); i.hasNext();) 
+        sample = null;
+        
+        // Second pass: stream the remaining rows
+        while (more && (maxRows <= 0 || numRows < maxRows) && rs.next())
         {
-            String[] row = (String[]) i.next();
-
-            for (int j = 0; j < row.length; j++) 
-                sb.append(StringUtils.rightPad(row[j], colWidth[j]));
-            
-            sb.append("\n");
+            ++numRows;
+            writeRow(out, readRow(rs, colType, values), colWidth);
         }
 
-        sb.append("\n");
-        sb.append(numRows + " rows\n");
-        return sb.toString();
+        out.write("\n");
+        
+        if (maxRows > 0 && numRows == maxRows)
+            out.write(numRows + " rows (limit reached)\n");
+        else
+            out.write(numRows + " rows\n");
+        
+        out.flush();
+        return numRows;
     }
 
     
@@ -631,6 +672,76 @@ public final class JDBCUtil
             DriverManager.setLogWriter(null);
     }
 
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Reads the current row of a result set as formatted strings.
+     * 
+     * @param rs Result set positioned at a row.
+     * @param colType SQL type of each column.
+     * @param values If not null, the values read are added as an Object[].
+     * @return String[]
+     * @throws SQLException on sql error.
+     */
+    private static String[] readRow(ResultSet rs, int[] colType, List values)
+        throws SQLException
+    {
+        String[] row = new String[colType.length];
+        Object[] raw = (values == null ? null : new Object[colType.length]);
+        
+        for (int i = 1; i <= colType.length; i++) 
+        {
+            Object obj = null;
+            
+            try 
+            {
+                if (colType[i - 1] == Types.LONGVARBINARY)
+                    obj = rs.getBytes(i);
+                else
+                    obj = rs.getObject(i);
+                
+                if (raw != null)
+                    raw[i - 1] = obj;
+                
+                if (obj instanceof byte[])
+                    obj = (new String((byte[]) obj));
+            }
+            catch (NullPointerException e) 
+            {
+                obj = "[NULL]";
+            }
+
+            row[i - 1] = (obj != null ? obj.toString().trim() : "[NULL]");
+        }
+        
+        if (raw != null)
+            values.add(raw);
+        
+        return row;
+    }
+    
+    
+    /**
+     * Writes a row padded to the column widths. A value that does not fit
+     * its column is followed by a single space.
+     * 
+     * @param out Writer to write to.
+     * @param row Values of the row.
+     * @param colWidth Width of each column.
+     * @throws IOException on I/O error.
+     */
+    private static void writeRow(Writer out, String[] row, int[] colWidth)
+        throws IOException
+    {
+        for (int j = 0; j < row.length; j++) 
+            out.write(StringUtils.rightPad(
+                row[j], Math.max(colWidth[j], row[j].length() + 1)));
+        
+        out.write("\n");
+    }
+
     //--------------------------------------------------------------------------
     // Driver Proxy
     //--------------------------------------------------------------------------
@@ -709,5 +820,5 @@ public final class JDBCUtil
         {
             return driver_.jdbcCompliant();
         }
-    }    
-}
\ No newline at end of file
+    }
+}
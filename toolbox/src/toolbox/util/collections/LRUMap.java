@@ -1,38 +1,51 @@
 package toolbox.util.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractCollection;
 import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * A Least Recently Used (LRU) Map which can be constrained by time
- * and/or size.  The LRUMap is purged of "old" data everytime it is 
+ * and/or size.  The LRUMap is purged of "old" data everytime it is
  * changed.  A key value pair's timestamp is considered "new" when:
- * 
+ *
  * <ol>
  *  <li>the key value pair is added (e.g. put() )
  *  <li>the key is found (e.g. containsKey(), get() )
  *  <li>the value is specifically accessed by
  *  <ol>
  *   <li><tt>Entry.getValue()</tt> when
- *       iterating over <tt>entrySet()</tt>.  
+ *       iterating over <tt>entrySet()</tt>.
  *   <li>calling <tt>containsValue()</tt> and there is a match
  *  </ol>
  * </ol>
+ *
+ * Entries are kept in a doubly linked list in access order alongside the
+ * backing map, so touching, adding and evicting an entry are all constant
+ * time. Since an entry moves to the end of the list every time it is touched,
+ * the list is also ordered by timestamp and expired entries are trimmed
+ * lazily from its head. Iteration over the views is from least to most
+ * recently used.
+ * <p>
+ * This class is not thread safe. See {@link StripedLRUMap} for a variant that
+ * can be shared between threads.
  */
 public class LRUMap implements Map, Serializable
 {
-    // TODO: Use an ObjectPool for LRUKey
-    
     //--------------------------------------------------------------------------
     // Constants
     //--------------------------------------------------------------------------
-    
+
     /**
      * No time limit.
      */
@@ -46,27 +59,34 @@ public class LRUMap implements Map, Serializable
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
-    
+
     /**
-     * Internal map.
+     * Maps each key to its Node. Never shared with callers since the nodes
+     * are internal.
      */
-    private Map map_;
-    
+    private transient Map map_;
+
     /**
-     * List of keys.
+     * Sentinel of the circular list of nodes. header_.next_ is the least
+     * recently used entry and header_.prev_ the most recently used.
      */
-    private List keys_;
+    private transient Node header_;
 
     /**
      * Max size of the map.
      */
     private int maxSize_;
-    
+
     /**
      * Time limit.
      */
     private long timeLimit_;
 
+    /**
+     * Number of structural modifications for fail-fast iterators.
+     */
+    private transient int modCount_;
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -79,11 +99,11 @@ public class LRUMap implements Map, Serializable
         this(DEFAULT_MAX_SIZE);
     }
 
-    
+
     /**
      * Constructs an LRUMap with a size of <tt>maxSize</tt> with no time
      * limit.
-     * 
+     *
      * @param maxSize Max size
      */
     public LRUMap(int maxSize)
@@ -91,11 +111,11 @@ public class LRUMap implements Map, Serializable
         this(maxSize, NO_TIME_LIMIT);
     }
 
-    
+
     /**
      * Constructs an LRUMap with a size of <tt>maxSize</tt> with a time limit
      * of <tt>timeLimit</tt> in milliseconds.
-     * 
+     *
      * @param maxSize Max size
      * @param timeLimit Time limit
      */
@@ -104,22 +124,28 @@ public class LRUMap implements Map, Serializable
         this(maxSize, timeLimit, new HashMap());
     }
 
-    
+
     /**
      * Constructs an LRUMap with a size of <tt>maxSize</tt> with a time limit
-     * of <tt>timeLimit</tt> in milliseconds and using <tt>backingMap</tt>
-     * to store the data.
-     * 
+     * of <tt>timeLimit</tt> in milliseconds that starts out with the contents
+     * of <tt>backingMap</tt>. The entries are added in the map's iteration
+     * order, so with more than <tt>maxSize</tt> entries the first ones are
+     * evicted. <tt>backingMap</tt> itself is not modified; the data is kept
+     * in a private map of the same class, or a HashMap if that class can't
+     * be instantiated.
+     *
      * @param maxSize Maximum size of this map
      * @param timeLimit Time limit in milliseconds that a key should exist
-     * @param backingMap Map used to store the key and values for the LRUMap
+     * @param backingMap Map with the initial contents of the LRUMap whose
+     *        class is used to store the data.
      */
     public LRUMap(int maxSize, long timeLimit, Map backingMap)
     {
         maxSize_   = maxSize;
         timeLimit_ = timeLimit;
-        map_       = backingMap;
-        keys_      = new LinkedList();
+        map_       = createIndex(backingMap.getClass());
+        header_    = new Node(null, null);
+        putAll(backingMap);
     }
 
     //--------------------------------------------------------------------------
@@ -134,10 +160,10 @@ public class LRUMap implements Map, Serializable
         return maxSize_;
     }
 
-    
+
     /**
      * Sets max size
-     * 
+     *
      * @param maxSize Max size
      */
     public void setMaxSize(int maxSize)
@@ -146,7 +172,7 @@ public class LRUMap implements Map, Serializable
         update();
     }
 
-    
+
     /**
      * @return Time limit
      */
@@ -155,10 +181,10 @@ public class LRUMap implements Map, Serializable
         return timeLimit_;
     }
 
-    
+
     /**
      * Sets time limit
-     * 
+     *
      * @param timeLimit Time limit
      */
     public void setTimeLimit(long timeLimit)
@@ -167,38 +193,41 @@ public class LRUMap implements Map, Serializable
         update();
     }
 
-    
+
+    /**
+     * Returns the value mapped to a key without updating its timestamp or
+     * its position in the list.
+     *
+     * @param key Key whose value is to be returned.
+     * @return Value or null if there is no mapping for the key.
+     */
+    public Object peek(Object key)
+    {
+        Node node = (Node) map_.get(key);
+        return (node == null ? null : node.value_);
+    }
+
+
     /**
      * Checks for if the LRUMap is above the max size or any of the elements
-     * have exceeded the maximum time limit.
+     * have exceeded the maximum time limit. Only the least recently used end
+     * of the list is examined so the cost is proportional to the number of
+     * entries removed.
      */
     public void update()
     {
         // Reset Size
-        while (keys_.size() > getMaxSize())
-        {
-            map_.remove(keys_.remove(0));
-        }
+        while (map_.size() > maxSize_)
+            removeNode(header_.next_);
 
         // Check Time
         if (timeLimit_ > 0)
         {
             long time = System.currentTimeMillis();
-            
-            for (Iterator i = keys_.iterator(); i.hasNext();)
-            {
-                LRUKey key = (LRUKey) i.next();
-                
-                if (time - key.getTime() > timeLimit_)
-                {
-                    i.remove();
-                    map_.remove(key);
-                }
-                else
-                {
-                    break;
-                }
-            }
+
+            while (header_.next_ != header_ &&
+                   time - header_.next_.time_ > timeLimit_)
+                removeNode(header_.next_);
         }
     }
 
@@ -212,27 +241,35 @@ public class LRUMap implements Map, Serializable
     public void clear()
     {
         map_.clear();
-        keys_.clear();
+        header_.next_ = header_;
+        header_.prev_ = header_;
+        modCount_++;
     }
 
-    
+
     /**
      * Returns <tt>true</tt> if this map contains a mapping for the specified
      * key.
-     * 
+     *
      * <b>NOTE:</b> If the key is found, then the timestamp for that entry
      * will be updated.
-     * 
+     *
      * @param key Key whose presence in this map is to be tested.
      * @return True if this map contains a mapping for the specified key
      */
     public boolean containsKey(Object key)
     {
         update();
-        return map_.containsKey(new LRUKey(key));
+        Node node = (Node) map_.get(key);
+
+        if (node == null)
+            return false;
+
+        touch(node);
+        return true;
     }
 
-    
+
     /**
      * Returns <tt>true</tt> if this map maps one or more keys to the
      * specified value. More formally, returns <tt>true</tt> if and only if
@@ -242,52 +279,41 @@ public class LRUMap implements Map, Serializable
      * implementations of the <tt>Map</tt> interface.
      * <p>
      * <b>NOTE:</b> Alter the timestamp of all entries with <tt>value</tt>
-     * 
+     *
      * @param value value whose presence in this map is to be tested.
      * @return <tt>true</tt> if this map maps one or more keys to the
      *         specified value.
      */
     public boolean containsValue(Object value)
     {
-        try
-        {
-            boolean rVal = false;
-            Iterator i = map_.entrySet().iterator();
+        update();
 
-            if (value == null)
-            {
-                while (i.hasNext())
-                {
-                    Map.Entry e = (Map.Entry) i.next();
-                    if (e.getValue() == null)
-                    {
-                        updateKey((LRUKey) e.getKey());
-                        rVal = true;
-                    }
-                }
-            }
-            else
+        // Collect matches first since touching reorders the list
+        Node matches = null;
+
+        for (Node n = header_.next_; n != header_; n = n.next_)
+        {
+            if (value == null ? n.value_ == null : value.equals(n.value_))
             {
-                while (i.hasNext())
-                {
-                    Map.Entry e = (Map.Entry) i.next();
-                    if (value.equals(e.getValue()))
-                    {
-                        updateKey((LRUKey) e.getKey());
-                        rVal = true;
-                    }
-                }
+                n.nextMatch_ = matches;
+                matches = n;
             }
-
-            return rVal;
         }
-        finally
+
+        boolean rVal = matches != null;
+
+        while (matches != null)
         {
-            update();
+            Node next = matches.nextMatch_;
+            matches.nextMatch_ = null;
+            touch(matches);
+            matches = next;
         }
+
+        return rVal;
     }
 
-    
+
     /**
      * Returns a set view of the mappings contained in this map. Each element
      * in the returned set is a <tt>Map.Entry</tt>. The set is backed by the
@@ -298,10 +324,10 @@ public class LRUMap implements Map, Serializable
      * <tt>Iterator.remove</tt>,<tt>Set.remove</tt>,<tt>removeAll</tt>,
      * <tt>retainAll</tt> and <tt>clear</tt> operations. It does not
      * support the <tt>add</tt> or <tt>addAll</tt> operations.
-     * 
+     *
      * <b>NOTE:</b> If the value of an entry is accessed, then the timestamp
      * for that entry will be updated.
-     * 
+     *
      * @return a set view of the mappings contained in this map.
      */
     public Set entrySet()
@@ -310,7 +336,7 @@ public class LRUMap implements Map, Serializable
         return new EntrySet();
     }
 
-    
+
     /**
      * Returns the value to which this map maps the specified key.  Returns
      * <tt>null</tt> if the map contains no mapping for this key.  A return
@@ -321,31 +347,26 @@ public class LRUMap implements Map, Serializable
      *
      * <b>NOTE:</b> If the key is found, then the timestamp for that entry
      * will be updated.
-     * 
+     *
      * @param key key whose associated value is to be returned.
      * @return the value to which this map maps the specified key, or
      *           <tt>null</tt> if the map contains no mapping for this key.
-     * 
+     *
      * @see #containsKey(Object)
      */
     public Object get(Object key)
     {
-        try
-        {
-            LRUKey lruKey =
-                (key instanceof LRUKey) ? (LRUKey) key : new LRUKey(key);
-                
-            updateKey(lruKey);
+        update();
+        Node node = (Node) map_.get(key);
 
-            return map_.get(lruKey);
-        }
-        finally
-        {
-            update();
-        }
+        if (node == null)
+            return null;
+
+        touch(node);
+        return node.value_;
     }
 
-    
+
     /**
      * Returns <tt>true</tt> if this map contains no key-value mappings.
      *
@@ -357,17 +378,17 @@ public class LRUMap implements Map, Serializable
         return map_.isEmpty();
     }
 
-    
+
     /**
      * Returns a set view of the keys contained in this map. The set is backed
      * by the map, so changes to the map are reflected in the set, and
      * vice-versa. If the map is modified while an iteration over the set is in
      * progress, the results of the iteration are undefined. The set supports
      * element removal, which removes the corresponding mapping from the map,
-     * via the <tt>Iterator.remove</tt>,<tt>Set.remove</tt>,<tt>removeAll</tt> 
-     * <tt>retainAll</tt>, and <tt>clear</tt> operations. It does not support 
+     * via the <tt>Iterator.remove</tt>,<tt>Set.remove</tt>,<tt>removeAll</tt>
+     * <tt>retainAll</tt>, and <tt>clear</tt> operations. It does not support
      * the add or <tt>addAll</tt> operations.
-     * 
+     *
      * @return a set view of the keys contained in this map.
      */
     public Set keySet()
@@ -376,21 +397,21 @@ public class LRUMap implements Map, Serializable
         return new KeySet();
     }
 
-    
+
     /**
      * Associates the specified value with the specified key in this map
      * (optional operation). If the map previously contained a mapping for this
      * key, the old value is replaced.
-     * 
+     *
      * @param key Key with which the specified value is to be associated.
      * @param value Value to be associated with the specified key.
      * @return Object
-     * 
+     *
      * Previous value associated with specified key, or <tt>null</tt> if
      * there was no mapping for key. A <tt>null</tt> return can also indicate
      * that the map previously associated <tt>null</tt> with the specified
      * key, if the implementation supports <tt>null</tt> values.
-     * 
+     *
      * @throws UnsupportedOperationException if the <tt>put</tt> operation is
      *         not supported by this map.
      * @throws ClassCastException if the class of the specified key or value
@@ -400,24 +421,27 @@ public class LRUMap implements Map, Serializable
      * @throws NullPointerException this map does not permit <tt>null</tt>
      *         keys or values, and the specified key or value is <tt>null</tt>.
      */
-    public Object put(Object key, Object value) 
+    public Object put(Object key, Object value)
         throws UnsupportedOperationException, ClassCastException,
                IllegalArgumentException, NullPointerException
     {
         try
         {
-            LRUKey lruKey = new LRUKey(key);
+            Node node = (Node) map_.get(key);
 
-            if (map_.containsKey(lruKey))
+            if (node != null)
             {
-                updateKey(lruKey);
-            }
-            else
-            {
-                keys_.add(lruKey);
+                Object old = node.value_;
+                node.value_ = value;
+                touch(node);
+                return old;
             }
 
-            return map_.put(lruKey, value);
+            node = new Node(key, value);
+            map_.put(key, node);
+            node.linkBefore(header_);
+            modCount_++;
+            return null;
         }
         finally
         {
@@ -425,12 +449,12 @@ public class LRUMap implements Map, Serializable
         }
     }
 
-    
+
     /**
      * Copies all of the mappings from the specified map to this map (optional
      * operation). These mappings will replace any mappings that this map had
      * for any of the keys currently in the specified map.
-     * 
+     *
      * @param t Mappings to be stored in this map.
      * @throws UnsupportedOperationException if the <tt>putAll</tt> method is
      *         not supported by this map.
@@ -452,28 +476,32 @@ public class LRUMap implements Map, Serializable
         }
     }
 
-    
+
     /**
      * Removes the mapping for this key from this map if present (optional
      * operation).
-     * 
+     *
      * @param key key whose mapping is to be removed from the map.
      * @return previous value associated with specified key, or <tt>null</tt>
      *         if there was no mapping for key. A <tt>null</tt> return can
      *         also indicate that the map previously associated <tt>null</tt>
-     *         with the specified key, if the implementation supports 
+     *         with the specified key, if the implementation supports
      *         <tt>null</tt>.
      *         values.
      * @throws UnsupportedOperationException if the <tt>remove</tt> method is
      *         not supported by this map.
      */
-    public Object remove(Object key) throws UnsupportedOperationException    
+    public Object remove(Object key) throws UnsupportedOperationException
     {
         try
         {
-            LRUKey lruKey = new LRUKey(key);
-            keys_.remove(lruKey);
-            return map_.remove(lruKey);
+            Node node = (Node) map_.get(key);
+
+            if (node == null)
+                return null;
+
+            removeNode(node);
+            return node.value_;
         }
         finally
         {
@@ -481,12 +509,12 @@ public class LRUMap implements Map, Serializable
         }
     }
 
-    
+
     /**
      * Returns the number of key-value mappings in this map. If the map
-     * contains more than <tt>Integer.MAX_VALUE</tt> elements, returns 
+     * contains more than <tt>Integer.MAX_VALUE</tt> elements, returns
      * <tt>Integer.MAX_VALUE</tt>.
-     * 
+     *
      * @return the number of key-value mappings in this map.
      */
     public int size()
@@ -495,73 +523,126 @@ public class LRUMap implements Map, Serializable
         return map_.size();
     }
 
-    
+
     /**
      * Returns a collection view of the values contained in this map. The
      * collection is backed by the map, so changes to the map are reflected in
      * the collection, and vice-versa. If the map is modified while an
      * iteration over the collection is in progress, the results of the
      * iteration are undefined. The collection supports element removal, which
-     * removes the corresponding mapping from the map, via the 
+     * removes the corresponding mapping from the map, via the
      * <tt>Iterator.remove</tt>, <tt>Collection.remove</tt>,<tt>removeAll</tt>,
-     * <tt>retainAll</tt> and <tt>clear</tt> operations. It does not support 
+     * <tt>retainAll</tt> and <tt>clear</tt> operations. It does not support
      * the add or <tt>addAll</tt> operations.
      * <p>
-     * 
+     *
      * <b>NOTE</b>: Does not Update the timestamp for the entry
-     * 
+     *
      * @return a collection view of the values contained in this map.
      */
-    public java.util.Collection values()
+    public Collection values()
     {
         update();
-        return map_.values();
+        return new Values();
     }
 
-    
+    //--------------------------------------------------------------------------
+    // Protected
+    //--------------------------------------------------------------------------
+
     /**
-     * Updates the given key.
-     * 
-     * @param key Key.
+     * Refreshes the timestamp of an entry and makes it the most recently used.
+     *
+     * @param node Entry to touch.
      */
-    protected void updateKey(LRUKey key)
+    protected void touch(Node node)
     {
-        if (map_.containsKey(key))
+        node.time_ = System.currentTimeMillis();
+
+        if (node.next_ != header_)
         {
-            // get reference to key and remove
-            key = (LRUKey) keys_.remove(keys_.indexOf(key));
-            key.update();
-            keys_.add(key);
+            node.unlink();
+            node.linkBefore(header_);
         }
     }
 
-    
+
+    /**
+     * Removes an entry from both the backing map and the list.
+     *
+     * @param node Entry to remove.
+     */
+    protected void removeNode(Node node)
+    {
+        map_.remove(node.key_);
+        node.unlink();
+        modCount_++;
+    }
+
     //--------------------------------------------------------------------------
     // Overrides java.lang.Object
     //--------------------------------------------------------------------------
-    
+
     /**
      * Returns a String that represents the value of this object.
-     * 
+     *
      * @return a string representation of the receiver
      */
     public String toString()
     {
         update();
-        return map_.toString();
+        StringBuffer sb = new StringBuffer("{");
+
+        for (Node n = header_.next_; n != header_; n = n.next_)
+        {
+            if (n != header_.next_)
+                sb.append(", ");
+
+            sb.append(n.key_ == this ? "(this Map)" : n.key_);
+            sb.append('=');
+            sb.append(n.value_ == this ? "(this Map)" : n.value_);
+        }
+
+        return sb.append('}').toString();
     }
 
-    
+
     /**
+     * Compares the mappings of two maps without updating any timestamps.
+     *
      * @param o Object to test for equality
      * @return True if equal, false otherwise
      */
     public boolean equals(Object o)
     {
-        return map_.equals(o);
+        if (o == this)
+            return true;
+
+        if (!(o instanceof Map))
+            return false;
+
+        Map m = (Map) o;
+
+        if (m.size() != map_.size())
+            return false;
+
+        for (Node n = header_.next_; n != header_; n = n.next_)
+        {
+            if (n.value_ == null)
+            {
+                if (m.get(n.key_) != null || !m.containsKey(n.key_))
+                    return false;
+            }
+            else if (!n.value_.equals(m.get(n.key_)))
+            {
+                return false;
+            }
+        }
+
+        return true;
     }
 
-    
+
     /**
      * Returns the hash code value for this map.  The hash code of a map is
      * defined to be the sum of the hash codes of each entry in the map's
@@ -581,36 +662,146 @@ public class LRUMap implements Map, Serializable
      */
     public int hashCode()
     {
-        return map_.hashCode();
+        int h = 0;
+
+        for (Node n = header_.next_; n != header_; n = n.next_)
+            h += n.hashCode();
+
+        return h;
     }
-    
+
     //--------------------------------------------------------------------------
-    // LRUKey
+    // Serialization
     //--------------------------------------------------------------------------
-    
+
     /**
-     * Least Recently Used Key
+     * Writes the entries in access order without recursing down the list.
+     *
+     * @param out Stream to write to.
+     * @throws IOException on I/O error.
      */
-    class LRUKey implements Serializable
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        out.writeObject(map_.getClass());
+        out.writeInt(map_.size());
+
+        for (Node n = header_.next_; n != header_; n = n.next_)
+        {
+            out.writeObject(n.key_);
+            out.writeObject(n.value_);
+            out.writeLong(n.time_);
+        }
+    }
+
+
+    /**
+     * Reads the entries written by writeObject().
+     *
+     * @param in Stream to read from.
+     * @throws IOException on I/O error.
+     * @throws ClassNotFoundException if a class cannot be found.
+     */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        map_ = createIndex((Class) in.readObject());
+        header_ = new Node(null, null);
+
+        for (int i = 0, n = in.readInt(); i < n; i++)
+        {
+            Node node = new Node(in.readObject(), in.readObject());
+            node.time_ = in.readLong();
+            map_.put(node.key_, node);
+            node.linkBefore(header_);
+        }
+    }
+
+
+    /**
+     * Creates the map from keys to nodes.
+     *
+     * @param mapClass Class of map to create.
+     * @return New instance of mapClass or a HashMap if it can't be created.
+     */
+    private static Map createIndex(Class mapClass)
+    {
+        try
+        {
+            return (Map) mapClass.newInstance();
+        }
+        catch (Exception e)
+        {
+            return new HashMap();
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Node
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entry of the map linked into the access ordered list.
+     */
+    protected static class Node implements Map.Entry
     {
         private Object key_;
+        private Object value_;
         private long time_;
+        private Node prev_;
+        private Node next_;
+
+        /**
+         * Temporary chain used by containsValue().
+         */
+        private Node nextMatch_;
 
         /**
-         * Creates a LRUKey.
-         * 
+         * Creates a Node that is linked only to itself.
+         *
          * @param key Key.
+         * @param value Value.
          */
-        LRUKey(Object key)
+        Node(Object key, Object value)
         {
             key_ = key;
-            update();
+            value_ = value;
+            time_ = System.currentTimeMillis();
+            prev_ = this;
+            next_ = this;
         }
 
-        
+
+        /**
+         * Links this node into the list in front of the given node.
+         *
+         * @param successor Node to insert before.
+         */
+        void linkBefore(Node successor)
+        {
+            next_ = successor;
+            prev_ = successor.prev_;
+            prev_.next_ = this;
+            successor.prev_ = this;
+        }
+
+
         /**
-         * Returns the time.
-         * 
+         * Unlinks this node from the list.
+         */
+        void unlink()
+        {
+            prev_.next_ = next_;
+            next_.prev_ = prev_;
+            prev_ = this;
+            next_ = this;
+        }
+
+
+        /**
+         * Returns the time this entry was last touched.
+         *
          * @return long
          */
         long getTime()
@@ -618,233 +809,360 @@ public class LRUMap implements Map, Serializable
             return time_;
         }
 
-        
+
         /**
-         * Updates the time. 
+         * @see java.util.Map.Entry#getKey()
          */
-        void update()
+        public Object getKey()
         {
-            time_ = System.currentTimeMillis();
+            return key_;
+        }
+
+
+        /**
+         * Returns the value without updating the timestamp.
+         *
+         * @see java.util.Map.Entry#getValue()
+         */
+        public Object getValue()
+        {
+            return value_;
+        }
+
+
+        /**
+         * @see java.util.Map.Entry#setValue(java.lang.Object)
+         */
+        public Object setValue(Object value)
+        {
+            Object old = value_;
+            value_ = value;
+            return old;
         }
 
-        // STANDARD METHODS
 
         /**
          * @see java.lang.Object#hashCode()
          */
         public int hashCode()
         {
-            return key_.hashCode();
+            return (key_ == null ? 0 : key_.hashCode()) ^
+                   (value_ == null ? 0 : value_.hashCode());
         }
 
-        
+
         /**
          * @see java.lang.Object#equals(java.lang.Object)
          */
         public boolean equals(Object object)
         {
-            if (object == null)
+            if (!(object instanceof Map.Entry))
                 return false;
 
-            // OBJECT IS AN LRUKey
-            if (object instanceof LRUKey)
-            {
-                LRUKey lruKey = (LRUKey) object;
-                boolean match = this.equals(lruKey.key_);
-                // UPDATE KEY, SINCE IT IS BEING ACCESSED
-                if (match)
-                    lruKey.update();
+            Map.Entry e = (Map.Entry) object;
 
-                return match;
-            }
-
-            // OBJECT IS NOT AN LRUKey
-            boolean match = this.key_.equals(object);
-            if (match)
-                this.update();
-            return match;
+            return (key_ == null
+                       ? e.getKey() == null
+                       : key_.equals(e.getKey())) &&
+                   (value_ == null
+                       ? e.getValue() == null
+                       : value_.equals(e.getValue()));
         }
 
-        
+
         /**
          * @see java.lang.Object#toString()
          */
         public String toString()
         {
-            return key_.toString();
+            return key_ + "=" + value_;
         }
+    }
+
+    //--------------------------------------------------------------------------
+    // NodeIterator
+    //--------------------------------------------------------------------------
+
+    /**
+     * Iterates over the nodes from least to most recently used. Fails fast
+     * if entries are added or removed other than through the iterator.
+     * Entries touched through the iterator move to the end of the list behind
+     * the entries not yet visited, so the iteration is bounded by the number
+     * of entries present when it started.
+     */
+    abstract class NodeIterator implements Iterator
+    {
+        private Node next_ = header_.next_;
+        private Node last_;
+        private int remaining_ = map_.size();
+        private int expectedModCount_ = modCount_;
+
+        /**
+         * Returns the view specific element for a node.
+         *
+         * @param node Node.
+         * @return Object
+         */
+        abstract Object element(Node node);
+
+        /**
+         * @see java.util.Iterator#hasNext()
+         */
+        public boolean hasNext()
+        {
+            return remaining_ > 0;
+        }
+
+        /**
+         * @see java.util.Iterator#next()
+         */
+        public Object next()
+        {
+            if (modCount_ != expectedModCount_)
+                throw new ConcurrentModificationException();
+
+            if (remaining_ <= 0)
+                throw new NoSuchElementException();
 
+            last_ = next_;
+            next_ = next_.next_;
+            remaining_--;
+            return element(last_);
+        }
+
+        /**
+         * @see java.util.Iterator#remove()
+         */
+        public void remove()
+        {
+            if (last_ == null)
+                throw new IllegalStateException();
+
+            if (modCount_ != expectedModCount_)
+                throw new ConcurrentModificationException();
+
+            removeNode(last_);
+            last_ = null;
+            expectedModCount_ = modCount_;
+        }
     }
 
     //--------------------------------------------------------------------------
     // Entry
     //--------------------------------------------------------------------------
-    
+
     /**
-     * Map entry
+     * Map entry handed out by the entry set. Accessing the value updates the
+     * timestamp of the entry.
      */
-    class Entry implements Map.Entry, Serializable
+    class Entry implements Map.Entry
     {
-        private Map.Entry entry_;
+        private Node node_;
 
         /**
          * Creates a Entry.
-         * 
-         * @param entry Entry
+         *
+         * @param node Node.
          */
-        Entry(Map.Entry entry)
+        Entry(Node node)
         {
-            entry_ = entry;
+            node_ = node;
         }
 
-        
+
         /**
          * @see java.util.Map.Entry#setValue(java.lang.Object)
          */
         public Object setValue(Object value)
         {
-            return entry_.setValue(value);
+            return node_.setValue(value);
         }
 
-        
+
         /**
          * @see java.util.Map.Entry#getValue()
          */
         public Object getValue()
         {
-            // Move key to bottom of keys
-            updateKey((LRUKey) entry_.getKey());
-            return entry_.getValue();
+            touch(node_);
+            return node_.value_;
         }
 
-        
+
         /**
          * @see java.util.Map.Entry#getKey()
          */
         public Object getKey()
         {
-            return ((LRUKey) entry_.getKey()).key_;
+            return node_.key_;
+        }
+
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        public int hashCode()
+        {
+            return node_.hashCode();
+        }
+
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        public boolean equals(Object object)
+        {
+            return node_.equals(object);
         }
     }
 
     //--------------------------------------------------------------------------
     // EntrySet
     //--------------------------------------------------------------------------
-    
+
     /**
      * Entry set.
      */
     class EntrySet extends AbstractSet
     {
-        private Set entrySet_;
-
-        /**
-         * Creates a EntrySet.
-         */
-        public EntrySet()
-        {
-            this.entrySet_ = map_.entrySet();
-        }
-
-        
         /**
          * @see java.util.Collection#iterator()
          */
         public Iterator iterator()
         {
-            return new Iterator()
+            return new NodeIterator()
             {
-                private Iterator iEntrySet_ = entrySet_.iterator();
-
-                /**
-                 * @see java.util.Iterator#hasNext()
-                 */
-                public boolean hasNext()
-                {
-                    return iEntrySet_.hasNext();
-                }
-
-                /**
-                 * @see java.util.Iterator#next()
-                 */
-                public Object next()
-                {
-                    return new Entry((Map.Entry) iEntrySet_.next());
-                }
-
-                /**
-                 * @see java.util.Iterator#remove()
-                 */
-                public void remove()
+                Object element(Node node)
                 {
-                    iEntrySet_.remove();
+                    return new Entry(node);
                 }
             };
         }
 
-        
+
         /**
          * @see java.util.Collection#size()
          */
         public int size()
         {
-            return entrySet_.size();
+            return map_.size();
+        }
+
+
+        /**
+         * @see java.util.Collection#clear()
+         */
+        public void clear()
+        {
+            LRUMap.this.clear();
         }
     }
 
     //--------------------------------------------------------------------------
     // KeySet
     //--------------------------------------------------------------------------
-    
+
     /**
      * Key set.
      */
     class KeySet extends AbstractSet
     {
-        private Set keySet_ = map_.keySet();
-
         /**
          * @see java.util.Collection#iterator()
          */
         public Iterator iterator()
         {
-            return new Iterator()
+            return new NodeIterator()
             {
-                private Iterator iKeySet_ = keySet_.iterator();
-
-                /**
-                 * @see java.util.Iterator#hasNext()
-                 */
-                public boolean hasNext()
+                Object element(Node node)
                 {
-                    return iKeySet_.hasNext();
+                    return node.key_;
                 }
+            };
+        }
 
-                /**
-                 * @see java.util.Iterator#next()
-                 */
-                public Object next()
-                {
-                    return ((LRUKey) iKeySet_.next()).key_;
-                }
 
-                /**
-                 * @see java.util.Iterator#remove()
-                 */
-                public void remove()
+        /**
+         * @see java.util.Collection#size()
+         */
+        public int size()
+        {
+            return map_.size();
+        }
+
+
+        /**
+         * @see java.util.Collection#contains(java.lang.Object)
+         */
+        public boolean contains(Object o)
+        {
+            return map_.containsKey(o);
+        }
+
+
+        /**
+         * @see java.util.Collection#remove(java.lang.Object)
+         */
+        public boolean remove(Object o)
+        {
+            Node node = (Node) map_.get(o);
+
+            if (node == null)
+                return false;
+
+            removeNode(node);
+            return true;
+        }
+
+
+        /**
+         * @see java.util.Collection#clear()
+         */
+        public void clear()
+        {
+            LRUMap.this.clear();
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Values
+    //--------------------------------------------------------------------------
+
+    /**
+     * Values collection.
+     */
+    class Values extends AbstractCollection
+    {
+        /**
+         * @see java.util.Collection#iterator()
+         */
+        public Iterator iterator()
+        {
+            return new NodeIterator()
+            {
+                Object element(Node node)
                 {
-                    iKeySet_.remove();
+                    return node.value_;
                 }
             };
         }
 
-        
+
         /**
          * @see java.util.Collection#size()
          */
         public int size()
         {
-            return keySet_.size();
+            return map_.size();
+        }
+
+
+        /**
+         * @see java.util.Collection#clear()
+         */
+        public void clear()
+        {
+            LRUMap.this.clear();
         }
     }
-}
\ No newline at end of file
+}
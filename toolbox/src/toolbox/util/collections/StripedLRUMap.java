@@ -0,0 +1,372 @@
+package toolbox.util.collections;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A thread safe {@link LRUMap} that splits its entries across a number of
+ * independently locked stripes so that threads working on different keys
+ * rarely contend. Each stripe is an LRUMap holding its share of the maximum
+ * size, which means eviction is least recently used per stripe rather than
+ * across the whole map. With a reasonable hash distribution the difference is
+ * negligible for caches.
+ * <p>
+ * The views returned by {@link #keySet()}, {@link #values()} and
+ * {@link #entrySet()} are snapshots taken one stripe at a time. They do not
+ * write through to the map and never throw
+ * ConcurrentModificationException.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * // 10,000 entries that expire after 5 minutes
+ * Map cache = new StripedLRUMap(10000, 5 * 60 * 1000);
+ * </pre>
+ */
+public class StripedLRUMap implements Map
+{
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default number of stripes.
+     */
+    public static final int DEFAULT_STRIPES = 16;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Stripes of the map. Each stripe is its own lock.
+     */
+    private final LRUMap[] stripes_;
+
+    /**
+     * Mask applied to a key's hash to select its stripe.
+     */
+    private final int mask_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a StripedLRUMap with the default number of stripes.
+     *
+     * @param maxSize Maximum size of the map.
+     * @param timeLimit Time limit in milliseconds that a key should exist or
+     *        LRUMap.NO_TIME_LIMIT.
+     */
+    public StripedLRUMap(int maxSize, long timeLimit)
+    {
+        this(maxSize, timeLimit, DEFAULT_STRIPES);
+    }
+
+
+    /**
+     * Creates a StripedLRUMap.
+     *
+     * @param maxSize Maximum size of the map.
+     * @param timeLimit Time limit in milliseconds that a key should exist or
+     *        LRUMap.NO_TIME_LIMIT.
+     * @param stripes Number of stripes. Rounded up to a power of two, but
+     *        no more than maxSize so that every stripe holds an entry.
+     */
+    public StripedLRUMap(int maxSize, long timeLimit, int stripes)
+    {
+        int n = 1;
+
+        while (n < stripes && n * 2 <= maxSize)
+            n <<= 1;
+
+        stripes_ = new LRUMap[n];
+        mask_ = n - 1;
+
+        // Spread the remainder so the stripes add up to exactly maxSize
+        for (int i = 0; i < n; i++)
+            stripes_[i] = new LRUMap(
+                maxSize / n + (i < maxSize % n ? 1 : 0), timeLimit);
+    }
+
+    //--------------------------------------------------------------------------
+    // Map Interface
+    //--------------------------------------------------------------------------
+
+    /*
+     * @see java.util.Map#get(java.lang.Object)
+     */
+    public Object get(Object key)
+    {
+        LRUMap stripe = stripeFor(key);
+
+        synchronized (stripe)
+        {
+            return stripe.get(key);
+        }
+    }
+
+
+    /*
+     * @see java.util.Map#put(java.lang.Object, java.lang.Object)
+     */
+    public Object put(Object key, Object value)
+    {
+        LRUMap stripe = stripeFor(key);
+
+        synchronized (stripe)
+        {
+            return stripe.put(key, value);
+        }
+    }
+
+
+    /*
+     * @see java.util.Map#remove(java.lang.Object)
+     */
+    public Object remove(Object key)
+    {
+        LRUMap stripe = stripeFor(key);
+
+        synchronized (stripe)
+        {
+            return stripe.remove(key);
+        }
+    }
+
+
+    /*
+     * @see java.util.Map#containsKey(java.lang.Object)
+     */
+    public boolean containsKey(Object key)
+    {
+        LRUMap stripe = stripeFor(key);
+
+        synchronized (stripe)
+        {
+            return stripe.containsKey(key);
+        }
+    }
+
+
+    /*
+     * @see java.util.Map#containsValue(java.lang.Object)
+     */
+    public boolean containsValue(Object value)
+    {
+        boolean found = false;
+
+        for (int i = 0; i < stripes_.length; i++)
+        {
+            synchronized (stripes_[i])
+            {
+                // All matches are touched, so don't stop at the first
+                found |= stripes_[i].containsValue(value);
+            }
+        }
+
+        return found;
+    }
+
+
+    /*
+     * @see java.util.Map#putAll(java.util.Map)
+     */
+    public void putAll(Map t)
+    {
+        for (Iterator i = t.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    /*
+     * @see java.util.Map#size()
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for (int i = 0; i < stripes_.length; i++)
+        {
+            synchronized (stripes_[i])
+            {
+                size += stripes_[i].size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /*
+     * @see java.util.Map#isEmpty()
+     */
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+
+    /*
+     * @see java.util.Map#clear()
+     */
+    public void clear()
+    {
+        for (int i = 0; i < stripes_.length; i++)
+        {
+            synchronized (stripes_[i])
+            {
+                stripes_[i].clear();
+            }
+        }
+    }
+
+
+    /**
+     * Returns a snapshot of the keys.
+     *
+     * @see java.util.Map#keySet()
+     */
+    public Set keySet()
+    {
+        return snapshot().keySet();
+    }
+
+
+    /**
+     * Returns a snapshot of the values.
+     *
+     * @see java.util.Map#values()
+     */
+    public Collection values()
+    {
+        return snapshot().values();
+    }
+
+
+    /**
+     * Returns a snapshot of the mappings. Unlike LRUMap, accessing the value
+     * of an entry does not update its timestamp.
+     *
+     * @see java.util.Map#entrySet()
+     */
+    public Set entrySet()
+    {
+        return snapshot().entrySet();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Removes expired entries from every stripe. Expired entries are otherwise
+     * only removed when their stripe is accessed.
+     */
+    public void update()
+    {
+        for (int i = 0; i < stripes_.length; i++)
+        {
+            synchronized (stripes_[i])
+            {
+                stripes_[i].update();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of stripes.
+     *
+     * @return int
+     */
+    public int getStripeCount()
+    {
+        return stripes_.length;
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides java.lang.Object
+    //--------------------------------------------------------------------------
+
+    /*
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object o)
+    {
+        return o == this || snapshot().equals(o);
+    }
+
+
+    /*
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+        return snapshot().hashCode();
+    }
+
+
+    /*
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return snapshot().toString();
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the stripe that holds a key.
+     *
+     * @param key Key.
+     * @return LRUMap
+     */
+    private LRUMap stripeFor(Object key)
+    {
+        int h = (key == null ? 0 : key.hashCode());
+
+        // Spread the high bits down so that keys with similar hash codes
+        // don't all land in the same stripe
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+
+        return stripes_[h & mask_];
+    }
+
+
+    /**
+     * Copies the contents of all stripes without updating timestamps.
+     *
+     * @return Map
+     */
+    private Map snapshot()
+    {
+        Map copy = new HashMap();
+
+        for (int i = 0; i < stripes_.length; i++)
+        {
+            synchronized (stripes_[i])
+            {
+                stripes_[i].update();
+
+                for (Iterator j = stripes_[i].keySet().iterator(); j.hasNext();)
+                {
+                    Object key = j.next();
+                    copy.put(key, stripes_[i].peek(key));
+                }
+            }
+        }
+
+        return copy;
+    }
+}
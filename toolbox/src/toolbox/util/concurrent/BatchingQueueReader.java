@@ -5,7 +5,9 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.CopyOnWriteArrayList;
 import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -20,12 +22,55 @@ import toolbox.util.statemachine.StateMachine;
 /**
  * Reads as much content off a queue as possible (batch mode) and delivers in a
  * single call to IBatchingQueueListener.nextBatch().
+ * <p>
+ * Batches are capped at a maximum size so that a flood of elements is 
+ * delivered in several manageable batches rather than one huge one. A linger
+ * time lets the reader wait briefly for more elements after the first one
+ * arrives so that a trickle of elements is not delivered one at a time.
+ * <p>
+ * Producers that share a bounded queue with the reader can add elements with
+ * {@link #offer(Object)}, which applies a {@link DropPolicy} when the queue is
+ * full and counts the elements dropped.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * BlockingQueue queue = new LinkedBlockingQueue(10000);
+ * BatchingQueueReader reader = new BatchingQueueReader(queue);
+ * reader.setMaxBatchSize(1000);
+ * reader.setMaxLinger(50);
+ * reader.setDropPolicy(DropPolicy.DROP_OLDEST);
+ * reader.addBatchingQueueListener(listener);
+ * reader.start();
+ * 
+ * // Producer
+ * reader.offer(element);
+ * </pre>
  */
 public class BatchingQueueReader implements Startable, Nameable
 {
     private static final Logger logger_ = 
         Logger.getLogger(BatchingQueueReader.class);
     
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Batch size that places no limit on the number of elements in a batch.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    
+    /**
+     * Default number of elements kept by DropPolicy.SAMPLE is one in ten.
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 10;
+    
+    /**
+     * Millis to wait for the first element of a batch before checking if the
+     * reader has been stopped.
+     */
+    private static final long POLL_TIMEOUT = 500;
+    
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
@@ -55,6 +100,52 @@ public class BatchingQueueReader implements Startable, Nameable
      */
     private StateMachine machine_;
     
+    /**
+     * Maximum number of elements in a batch.
+     */
+    private int maxBatchSize_;
+    
+    /**
+     * Maximum millis to wait for more elements once the first element of a
+     * batch has been read. 
+     */
+    private long maxLinger_;
+    
+    /**
+     * Policy applied by offer() when the queue is full.
+     */
+    private DropPolicy dropPolicy_;
+    
+    /**
+     * One of every sampleRate_ elements is kept by DropPolicy.SAMPLE.
+     */
+    private int sampleRate_;
+    
+    /**
+     * Reusable buffer that the worker drains the queue into.
+     */
+    private List buffer_;
+    
+    /**
+     * Number of elements offered while the queue was full.
+     */
+    private AtomicLong overflowCount_;
+    
+    /**
+     * Number of elements dropped by the drop policy.
+     */
+    private AtomicLong droppedCount_;
+    
+    /**
+     * Number of batches delivered.
+     */
+    private AtomicLong batchCount_;
+    
+    /**
+     * Number of elements delivered.
+     */
+    private AtomicLong elementCount_;
+    
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -80,8 +171,17 @@ public class BatchingQueueReader implements Startable, Nameable
     {
         setName(name);
         queue_ = queue;
-        listeners_ = new ArrayList();
+        listeners_ = new CopyOnWriteArrayList();
         machine_ = ServiceUtil.createStateMachine(this);
+        maxBatchSize_ = UNBOUNDED;
+        maxLinger_ = 0;
+        dropPolicy_ = DropPolicy.BLOCK;
+        sampleRate_ = DEFAULT_SAMPLE_RATE;
+        buffer_ = new ArrayList();
+        overflowCount_ = new AtomicLong();
+        droppedCount_ = new AtomicLong();
+        batchCount_ = new AtomicLong();
+        elementCount_ = new AtomicLong();
     }
 
     //--------------------------------------------------------------------------
@@ -148,6 +248,168 @@ public class BatchingQueueReader implements Startable, Nameable
         return (ServiceState) machine_.getState();
     }
     
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Adds an element to the queue, applying the drop policy if the queue is 
+     * full. Drop policies only have an effect on bounded queues.
+     * 
+     * @param element Element to add.
+     * @return True if the element was queued, false if it was dropped.
+     * @throws InterruptedException if interrupted while blocked.
+     */
+    public boolean offer(Object element) throws InterruptedException
+    {
+        DropPolicy policy = dropPolicy_;
+        
+        if (policy == DropPolicy.BLOCK)
+        {
+            queue_.put(element);
+            return true;
+        }
+        
+        if (queue_.offer(element))
+            return true;
+        
+        long overflow = overflowCount_.incrementAndGet();
+        
+        if (policy == DropPolicy.SAMPLE && overflow % sampleRate_ != 0)
+        {
+            droppedCount_.incrementAndGet();
+            return false;
+        }
+        
+        // Make room by dropping the oldest elements
+        while (!queue_.offer(element))
+            if (queue_.poll() != null)
+                droppedCount_.incrementAndGet();
+        
+        return true;
+    }
+    
+    
+    /**
+     * Returns the maximum number of elements in a batch.
+     * 
+     * @return int
+     */
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize_;
+    }
+    
+    
+    /**
+     * Sets the maximum number of elements in a batch. Defaults to UNBOUNDED.
+     * 
+     * @param maxBatchSize Maximum batch size. Must be at least 1.
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException(
+                "Max batch size must be at least 1: " + maxBatchSize);
+        
+        maxBatchSize_ = maxBatchSize;
+    }
+    
+    
+    /**
+     * Returns the maximum millis to wait for a batch to fill up.
+     * 
+     * @return long
+     */
+    public long getMaxLinger()
+    {
+        return maxLinger_;
+    }
+    
+    
+    /**
+     * Sets the maximum millis to wait for more elements once the first 
+     * element of a batch has been read. Defaults to 0 which delivers whatever
+     * is on the queue immediately.
+     * 
+     * @param maxLinger Max linger time in milliseconds.
+     */
+    public void setMaxLinger(long maxLinger)
+    {
+        maxLinger_ = maxLinger;
+    }
+    
+    
+    /**
+     * Returns the drop policy.
+     * 
+     * @return DropPolicy
+     */
+    public DropPolicy getDropPolicy()
+    {
+        return dropPolicy_;
+    }
+    
+    
+    /**
+     * Sets the policy that offer() applies when the queue is full. Defaults 
+     * to DropPolicy.BLOCK.
+     * 
+     * @param dropPolicy Drop policy.
+     */
+    public void setDropPolicy(DropPolicy dropPolicy)
+    {
+        dropPolicy_ = dropPolicy;
+    }
+    
+    
+    /**
+     * Sets how many overflowing elements DropPolicy.SAMPLE keeps.
+     * 
+     * @param sampleRate One of every sampleRate elements is kept.
+     */
+    public void setSampleRate(int sampleRate)
+    {
+        if (sampleRate < 1)
+            throw new IllegalArgumentException(
+                "Sample rate must be at least 1: " + sampleRate);
+        
+        sampleRate_ = sampleRate;
+    }
+    
+    
+    /**
+     * Returns the number of elements dropped by the drop policy.
+     * 
+     * @return long
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount_.get();
+    }
+    
+    
+    /**
+     * Returns the number of batches delivered.
+     * 
+     * @return long
+     */
+    public long getBatchCount()
+    {
+        return batchCount_.get();
+    }
+    
+    
+    /**
+     * Returns the number of elements delivered.
+     * 
+     * @return long
+     */
+    public long getElementCount()
+    {
+        return elementCount_.get();
+    }
+    
     //--------------------------------------------------------------------------
     // Event Notification
     //--------------------------------------------------------------------------
@@ -157,7 +419,7 @@ public class BatchingQueueReader implements Startable, Nameable
      *
      * @param elements New elements available.
      */
-    protected synchronized void fireNextBatch(Object[] elements)
+    protected void fireNextBatch(Object[] elements)
     {
         Iterator i = listeners_.iterator();
 
@@ -176,7 +438,7 @@ public class BatchingQueueReader implements Startable, Nameable
      *
      * @param listener Listener to add.
      */
-    public synchronized void addBatchingQueueListener(
+    public void addBatchingQueueListener(
         IBatchingQueueListener listener)
     {
         listeners_.add(listener);
@@ -188,7 +450,7 @@ public class BatchingQueueReader implements Startable, Nameable
      *
      * @param listener Listener to remove.
      */
-    public synchronized void removeBatchingQueueListener(
+    public void removeBatchingQueueListener(
         IBatchingQueueListener listener)
     {
         listeners_.remove(listener);
@@ -230,37 +492,27 @@ public class BatchingQueueReader implements Startable, Nameable
          */
         public void run()
         {
-            //logger_.debug(method + "Batching queue reader started!");
-
             while (isRunning())
             {
                 try
                 {
-                    Object first = queue_.poll(500, TimeUnit.MILLISECONDS);
-                    //take();
+                    Object first = 
+                        queue_.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
 
                     if (first != null)
                     {
-                        int size = queue_.size();
-    
-                        if (size > 0)
-                        {
-                            // Create array with one extra slot for the first
-                            Object[] objs = new Object[size + 1];
-    
-                            // Place first elemnt in array
-                            objs[0] = first;
-    
-                            // Read the rest from the queue
-                            for (int i = 1; i <= size; i++)
-                                objs[i] = queue_.take();
-    
-                            fireNextBatch(objs);
-                        }
-                        else
-                        {
-                            fireNextBatch(new Object[] {first});
-                        }
+                        buffer_.clear();
+                        buffer_.add(first);
+                        fill();
+                        
+                        // Listeners may hang on to the batch so it can't be
+                        // reused
+                        Object[] batch = buffer_.toArray();
+                        buffer_.clear();
+                        
+                        batchCount_.incrementAndGet();
+                        elementCount_.addAndGet(batch.length);
+                        fireNextBatch(batch);
                     }
                 }
                 catch (InterruptedException e)
@@ -268,8 +520,48 @@ public class BatchingQueueReader implements Startable, Nameable
                     break;
                 }
             }
+        }
+        
+        
+        /**
+         * Drains the queue into the buffer until the batch is full, lingering
+         * for more elements if a max linger time is set. If interrupted while
+         * lingering, the elements read so far are still delivered.
+         */
+        private void fill()
+        {
+            int max = maxBatchSize_;
+            queue_.drainTo(buffer_, max - buffer_.size());
             
-            //logger_.debug(StringUtil.banner("exiting polling loop in queue reader.."));
+            if (maxLinger_ <= 0)
+                return;
+            
+            long deadline = System.currentTimeMillis() + maxLinger_;
+            
+            while (buffer_.size() < max)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                
+                if (remaining <= 0)
+                    break;
+                
+                Object next = null;
+                
+                try
+                {
+                    next = queue_.poll(remaining, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                
+                if (next == null)
+                    break;
+                
+                buffer_.add(next);
+                queue_.drainTo(buffer_, max - buffer_.size());
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package toolbox.util.concurrent;
+
+import toolbox.util.AbstractConstant;
+
+/**
+ * DropPolicy determines what {@link BatchingQueueReader#offer(Object)} does
+ * with an element when the bounded queue being read is full.
+ * <ol>
+ *  <li>Block until there is room
+ *  <li>Drop the oldest queued element to make room
+ *  <li>Sample the overflow, keeping one of every n elements
+ * </ol>
+ *
+ * @see toolbox.util.concurrent.BatchingQueueReader
+ */
+public class DropPolicy extends AbstractConstant
+{
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Blocks the producer until there is room in the queue. Nothing is
+     * dropped.
+     */
+    public static final DropPolicy BLOCK = new DropPolicy("Block");
+
+    /**
+     * Drops the oldest element in the queue to make room for the new one.
+     */
+    public static final DropPolicy DROP_OLDEST = new DropPolicy("Drop oldest");
+
+    /**
+     * While the queue is full, keeps one of every n new elements (dropping
+     * the oldest element to make room for it) and drops the rest.
+     */
+    public static final DropPolicy SAMPLE = new DropPolicy("Sample");
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Name of the policy.
+     */
+    private String name_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Prevent construction.
+     *
+     * @param name Name of the policy.
+     */
+    private DropPolicy(String name)
+    {
+        name_ = name;
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides java.lang.Object
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the name of the policy.
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return name_;
+    }
+}
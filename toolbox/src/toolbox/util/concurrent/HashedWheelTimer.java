@@ -0,0 +1,389 @@
+package toolbox.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Timer that keeps scheduled tasks in a hashed wheel of buckets, one bucket
+ * per tick. Scheduling and cancelling a task are constant time, which makes
+ * the wheel suitable for very large numbers of short lived timeouts where
+ * {@link java.util.Timer}'s heap and per task bookkeeping become the
+ * bottleneck. The trade off is precision: tasks run on the first tick at or
+ * after their deadline.
+ * <p>
+ * Tasks run on the single timer thread and should be brief. The thread is a
+ * daemon and is started when the first task is scheduled.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * HashedWheelTimer timer = new HashedWheelTimer("checks", 100, 512);
+ * HashedWheelTimer.Timeout timeout = timer.schedule(runnable, 5000);
+ * ...
+ * timeout.cancel();
+ * timer.stop();
+ * </pre>
+ */
+public class HashedWheelTimer
+{
+    private static final Logger logger_ =
+        Logger.getLogger(HashedWheelTimer.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default tick duration in milliseconds.
+     */
+    public static final long DEFAULT_TICK_DURATION = 100;
+
+    /**
+     * Default number of buckets in the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Name of the timer thread.
+     */
+    private String name_;
+
+    /**
+     * Duration of a tick in milliseconds.
+     */
+    private long tickDuration_;
+
+    /**
+     * Buckets of Timeouts. The number of buckets is a power of two.
+     */
+    private List[] wheel_;
+
+    /**
+     * Mask to map a tick to its bucket.
+     */
+    private int mask_;
+
+    /**
+     * Number of ticks that have elapsed. Guarded by this.
+     */
+    private long tick_;
+
+    /**
+     * Time the timer thread started.
+     */
+    private long startTime_;
+
+    /**
+     * Timer thread. Null until the first task is scheduled.
+     */
+    private Thread thread_;
+
+    /**
+     * Set when the timer is stopped.
+     */
+    private volatile boolean stopped_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a HashedWheelTimer with the default tick duration and wheel
+     * size.
+     *
+     * @param name Name of the timer thread.
+     */
+    public HashedWheelTimer(String name)
+    {
+        this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+
+    /**
+     * Creates a HashedWheelTimer.
+     *
+     * @param name Name of the timer thread.
+     * @param tickDuration Duration of a tick in milliseconds.
+     * @param wheelSize Number of buckets. Rounded up to a power of two.
+     */
+    public HashedWheelTimer(String name, long tickDuration, int wheelSize)
+    {
+        if (tickDuration < 1)
+            throw new IllegalArgumentException(
+                "Tick duration must be at least 1ms: " + tickDuration);
+
+        if (wheelSize < 1 || wheelSize > (1 << 30))
+            throw new IllegalArgumentException(
+                "Invalid wheel size: " + wheelSize);
+
+        int size = 1;
+
+        while (size < wheelSize)
+            size <<= 1;
+
+        name_ = name;
+        tickDuration_ = tickDuration;
+        mask_ = size - 1;
+        wheel_ = new List[size];
+
+        for (int i = 0; i < size; i++)
+            wheel_[i] = new ArrayList();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Schedules a task to run once after a delay.
+     *
+     * @param task Task to run on the timer thread.
+     * @param delay Delay in milliseconds.
+     * @return Timeout that can be used to cancel the task.
+     * @throws IllegalStateException if the timer has been stopped.
+     */
+    public synchronized Timeout schedule(Runnable task, long delay)
+    {
+        if (stopped_)
+            throw new IllegalStateException("Timer " + name_ + " is stopped");
+
+        if (thread_ == null)
+        {
+            startTime_ = System.currentTimeMillis();
+            thread_ = new Thread(new Worker(), name_);
+            thread_.setDaemon(true);
+            thread_.start();
+        }
+
+        // Deadline is relative to the current time, not the last tick
+        long elapsed = System.currentTimeMillis() - startTime_;
+        long deadline = (elapsed + Math.max(0, delay)) / tickDuration_ + 1;
+
+        if (deadline <= tick_)
+            deadline = tick_ + 1;
+
+        Timeout timeout = new Timeout(task, deadline);
+        wheel_[(int) (deadline & mask_)].add(timeout);
+        return timeout;
+    }
+
+
+    /**
+     * Stops the timer. Tasks that have not run yet are discarded.
+     */
+    public void stop()
+    {
+        Thread thread;
+
+        synchronized (this)
+        {
+            stopped_ = true;
+            thread = thread_;
+
+            for (int i = 0; i < wheel_.length; i++)
+                wheel_[i].clear();
+        }
+
+        if (thread != null && thread != Thread.currentThread())
+        {
+            thread.interrupt();
+
+            try
+            {
+                thread.join(tickDuration_ * 10);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks waiting to run, including cancelled tasks
+     * that have not been removed from the wheel yet.
+     *
+     * @return int
+     */
+    public synchronized int getPendingCount()
+    {
+        int count = 0;
+
+        for (int i = 0; i < wheel_.length; i++)
+            count += wheel_[i].size();
+
+        return count;
+    }
+
+
+    /**
+     * @return Duration of a tick in milliseconds.
+     */
+    public long getTickDuration()
+    {
+        return tickDuration_;
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Advances the wheel by one tick and removes the tasks that are due.
+     *
+     * @return List of Timeouts to run.
+     */
+    private synchronized List nextTick()
+    {
+        tick_++;
+        List expired = null;
+
+        for (Iterator i = wheel_[(int) (tick_ & mask_)].iterator(); i.hasNext();)
+        {
+            Timeout timeout = (Timeout) i.next();
+
+            if (timeout.isCancelled())
+            {
+                i.remove();
+            }
+            else if (timeout.deadline_ <= tick_)
+            {
+                i.remove();
+
+                if (expired == null)
+                    expired = new ArrayList();
+
+                expired.add(timeout);
+            }
+        }
+
+        return expired;
+    }
+
+    //--------------------------------------------------------------------------
+    // Worker
+    //--------------------------------------------------------------------------
+
+    /**
+     * Sleeps until each tick and runs the tasks that are due.
+     */
+    class Worker implements Runnable
+    {
+        public void run()
+        {
+            long tick = 0;
+
+            while (!stopped_)
+            {
+                long sleep = startTime_ + (tick + 1) * tickDuration_
+                    - System.currentTimeMillis();
+
+                if (sleep > 0)
+                {
+                    try
+                    {
+                        Thread.sleep(sleep);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        continue;
+                    }
+                }
+
+                tick++;
+                List expired = nextTick();
+
+                if (expired == null)
+                    continue;
+
+                for (Iterator i = expired.iterator(); i.hasNext() && !stopped_;)
+                {
+                    Timeout timeout = (Timeout) i.next();
+
+                    try
+                    {
+                        timeout.expire();
+                    }
+                    catch (Throwable t)
+                    {
+                        logger_.error("Timer task failed: " + timeout.task_, t);
+                    }
+                }
+            }
+
+            logger_.debug("Timer " + name_ + " stopped");
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Timeout
+    //--------------------------------------------------------------------------
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public static class Timeout
+    {
+        private Runnable task_;
+        private long deadline_;
+        private boolean cancelled_;
+        private boolean expired_;
+
+        Timeout(Runnable task, long deadline)
+        {
+            task_ = task;
+            deadline_ = deadline;
+        }
+
+        /**
+         * Cancels the task if it has not run yet.
+         *
+         * @return True if the task was cancelled, false if it already ran or
+         *         was already cancelled.
+         */
+        public synchronized boolean cancel()
+        {
+            if (cancelled_ || expired_)
+                return false;
+
+            cancelled_ = true;
+            return true;
+        }
+
+
+        public synchronized boolean isCancelled()
+        {
+            return cancelled_;
+        }
+
+
+        public synchronized boolean isExpired()
+        {
+            return expired_;
+        }
+
+
+        /**
+         * Runs the task unless it was cancelled.
+         */
+        void expire()
+        {
+            synchronized (this)
+            {
+                if (cancelled_)
+                    return;
+
+                expired_ = true;
+            }
+
+            task_.run();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package toolbox.util.concurrent;
+
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies that any number of threads can record into without
+ * locking. Values are counted in log-linear buckets: every power of two is
+ * split into {@link #SUB_BUCKETS} equal buckets, so a percentile is accurate
+ * to within about 3% of its value whatever the range of the values. Values
+ * below {@link #SUB_BUCKETS} are counted exactly.
+ * <p>
+ * Recording is a handful of atomic operations and allocates nothing. Reading
+ * while other threads record is safe but the counts may be slightly out of
+ * step with each other; read after the recording threads are done for exact
+ * numbers. Threads that record at a very high rate can each use their own
+ * histogram and {@link #add(LatencyHistogram)} them together afterwards.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * LatencyHistogram histogram = new LatencyHistogram();
+ * long start = System.nanoTime();
+ * ...
+ * histogram.record(System.nanoTime() - start);
+ * long p99 = histogram.getPercentile(99.0);
+ * </pre>
+ */
+public class LatencyHistogram
+{
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Number of bits of precision kept for each value.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Number of buckets each power of two is split into.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets needed to cover every positive long.
+     */
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Number of values in each bucket.
+     */
+    private final AtomicLongArray buckets_;
+
+    /**
+     * Number of values recorded.
+     */
+    private final AtomicLong count_;
+
+    /**
+     * Sum of the values recorded.
+     */
+    private final AtomicLong total_;
+
+    /**
+     * Smallest value recorded.
+     */
+    private final AtomicLong min_;
+
+    /**
+     * Largest value recorded.
+     */
+    private final AtomicLong max_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates an empty LatencyHistogram.
+     */
+    public LatencyHistogram()
+    {
+        buckets_ = new AtomicLongArray(NUM_BUCKETS);
+        count_   = new AtomicLong();
+        total_   = new AtomicLong();
+        min_     = new AtomicLong(Long.MAX_VALUE);
+        max_     = new AtomicLong();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Records a value. Negative values, such as from a clock that went
+     * backwards, are recorded as zero.
+     *
+     * @param value Value to record, usually nanoseconds.
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+
+        buckets_.incrementAndGet(indexOf(value));
+        count_.incrementAndGet();
+        total_.addAndGet(value);
+
+        long min;
+
+        while (value < (min = min_.get()) && !min_.compareAndSet(min, value))
+            ;
+
+        long max;
+
+        while (value > (max = max_.get()) && !max_.compareAndSet(max, value))
+            ;
+    }
+
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other Histogram to add.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            long n = other.buckets_.get(i);
+
+            if (n != 0)
+                buckets_.addAndGet(i, n);
+        }
+
+        count_.addAndGet(other.count_.get());
+        total_.addAndGet(other.total_.get());
+
+        long min;
+        long otherMin = other.min_.get();
+
+        while (otherMin < (min = min_.get())
+            && !min_.compareAndSet(min, otherMin))
+            ;
+
+        long max;
+        long otherMax = other.max_.get();
+
+        while (otherMax > (max = max_.get())
+            && !max_.compareAndSet(max, otherMax))
+            ;
+    }
+
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets_.set(i, 0);
+
+        count_.set(0);
+        total_.set(0);
+        min_.set(Long.MAX_VALUE);
+        max_.set(0);
+    }
+
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return long
+     */
+    public long getCount()
+    {
+        return count_.get();
+    }
+
+
+    /**
+     * Returns the smallest value recorded or 0 if there are none.
+     *
+     * @return long
+     */
+    public long getMin()
+    {
+        return getCount() == 0 ? 0 : min_.get();
+    }
+
+
+    /**
+     * Returns the largest value recorded or 0 if there are none.
+     *
+     * @return long
+     */
+    public long getMax()
+    {
+        return max_.get();
+    }
+
+
+    /**
+     * Returns the mean of the values recorded or 0 if there are none.
+     *
+     * @return double
+     */
+    public double getMean()
+    {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total_.get() / count;
+    }
+
+
+    /**
+     * Returns the value at or below which the given percentage of the
+     * recorded values fall. The value is the upper bound of the bucket the
+     * percentile lands in, capped at the largest value recorded.
+     *
+     * @param percentile Percentile between 0 and 100, such as 99.9.
+     * @return long
+     */
+    public long getPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException(
+                "Percentile must be between 0 and 100: " + percentile);
+
+        long count = getCount();
+
+        if (count == 0)
+            return 0;
+
+        // Rank of the value, counting from 1
+        long rank = (long) Math.ceil(percentile / 100 * count);
+
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            seen += buckets_.get(i);
+
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the bucket a value is counted in.
+     *
+     * @param value Non-negative value.
+     * @return int
+     */
+    static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + sub - SUB_BUCKETS;
+    }
+
+
+    /**
+     * Returns the largest value counted in a bucket.
+     *
+     * @param index Bucket index.
+     * @return long
+     */
+    static long upperBoundOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+
+        // Overflows to Long.MIN_VALUE for the top bucket, which ends at
+        // Long.MAX_VALUE
+        return ((sub + 1) << shift) - 1;
+    }
+}
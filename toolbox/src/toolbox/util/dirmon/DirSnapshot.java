@@ -1,11 +1,24 @@
 package toolbox.util.dirmon;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Snapshot of a directory at a given point in time.
+ * <p>
+ * The snapshot is stored in columns instead of a FileSnapshot per file: the
+ * directory path is kept once as the prefix of every entry, file names are
+ * kept sorted in an array and sizes, timestamps and directory flags are kept
+ * in primitive arrays. FileSnapshots are only created on demand, which keeps
+ * large directory trees cheap to hold in memory and to persist with
+ * {@link #write(DataOutputStream)}.
  */
 public class DirSnapshot{
 
@@ -19,11 +32,37 @@ public class DirSnapshot{
     private File directory_;
 
     /**
-     * Snapshots of all the files in this directory.
-     * <ul>
-     *  <li>Key = String returned from FileSnapshot.getKey() 
-     *  <li>Value = FileSnapshot
-     * </ul>
+     * Absolute path of the directory shared by all the files in the snapshot.
+     */
+    private String prefix_;
+
+    /**
+     * Time the snapshot was taken.
+     */
+    private long timestamp_;
+
+    /**
+     * Names of the files in the directory in ascending order.
+     */
+    private String[] names_;
+
+    /**
+     * File lengths indexed the same as names_.
+     */
+    private long[] lengths_;
+
+    /**
+     * File last modified times indexed the same as names_.
+     */
+    private long[] lastModified_;
+
+    /**
+     * Bit is set if the file at the same index is a directory.
+     */
+    private BitSet directories_;
+
+    /**
+     * Map view created on demand by getFileSnapshots().
      */
     private Map fileSnapshots_;
 
@@ -32,28 +71,222 @@ public class DirSnapshot{
     // -------------------------------------------------------------------------
 
     public DirSnapshot(File dir){
-        fileSnapshots_ = new HashMap();
         setDirectory(dir);
         snap();
     }
 
+
+    /**
+     * Creates a snapshot from previously captured columns.
+     */
+    DirSnapshot(
+        File dir,
+        long timestamp,
+        String[] names,
+        long[] lengths,
+        long[] lastModified,
+        BitSet directories) {
+
+        setDirectory(dir);
+        timestamp_ = timestamp;
+        names_ = names;
+        lengths_ = lengths;
+        lastModified_ = lastModified;
+        directories_ = directories;
+    }
+
     // -------------------------------------------------------------------------
     // Public
     // -------------------------------------------------------------------------
 
     public void snap(){
-        fileSnapshots_.clear();
+        String[] names = getDirectory().list();
+
+        // Directory was deleted or can't be read
+        if (names == null)
+            names = new String[0];
+
+        Arrays.sort(names);
+
+        long[] lengths = new long[names.length];
+        long[] lastModified = new long[names.length];
+        BitSet directories = new BitSet(names.length);
 
-        File[] files = getDirectory().listFiles();
+        for (int i = 0; i < names.length; i++) {
+            File file = new File(getDirectory(), names[i]);
+            lengths[i] = file.length();
+            lastModified[i] = file.lastModified();
 
-        for (int i = 0; i < files.length; i++) {
-            FileSnapshot snapshot = new FileSnapshot(files[i]);
-            fileSnapshots_.put(snapshot.getKey(), snapshot);
-            Thread.yield();
+            if (file.isDirectory())
+                directories.set(i);
         }
+
+        timestamp_ = System.currentTimeMillis();
+        names_ = names;
+        lengths_ = lengths;
+        lastModified_ = lastModified;
+        directories_ = directories;
+        fileSnapshots_ = null;
+    }
+
+
+    /**
+     * @return Number of files in the snapshot.
+     */
+    public int size() {
+        return names_.length;
+    }
+
+
+    /**
+     * Returns the index of a file in this snapshot.
+     *
+     * @param name Name of the file without the directory.
+     * @return Index or a negative number if the file is not in the snapshot.
+     */
+    public int indexOf(String name) {
+        return Arrays.binarySearch(names_, name);
     }
 
 
+    public String getName(int index) {
+        return names_[index];
+    }
+
+
+    public long getLength(int index) {
+        return lengths_[index];
+    }
+
+
+    public long getLastModified(int index) {
+        return lastModified_[index];
+    }
+
+
+    public boolean isDirectory(int index) {
+        return directories_.get(index);
+    }
+
+
+    /**
+     * Creates a FileSnapshot for a file in this snapshot.
+     *
+     * @param index Index of the file.
+     * @return FileSnapshot
+     */
+    public FileSnapshot getFileSnapshot(int index) {
+        return new FileSnapshot(
+            prefix_ + names_[index],
+            directories_.get(index),
+            lastModified_[index],
+            lengths_[index],
+            new Date(timestamp_));
+    }
+
+
+    /**
+     * Writes this snapshot to a stream. The directory itself is not written.
+     * Since the names are sorted, each name is written as the length of the
+     * prefix it shares with the previous name followed by the rest of it.
+     *
+     * @param out Stream to write to.
+     * @throws IOException on I/O error.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(timestamp_);
+        out.writeInt(names_.length);
+
+        String previous = "";
+
+        for (int i = 0; i < names_.length; i++) {
+            writePrefixed(out, previous, names_[i]);
+            previous = names_[i];
+            out.writeLong(lengths_[i]);
+            out.writeLong(lastModified_[i]);
+            out.writeBoolean(directories_.get(i));
+        }
+    }
+
+
+    /**
+     * Reads a snapshot written by {@link #write(DataOutputStream)}.
+     *
+     * @param dir Directory the snapshot belongs to.
+     * @param in Stream to read from.
+     * @return DirSnapshot
+     * @throws IOException on I/O error.
+     */
+    public static DirSnapshot read(File dir, DataInputStream in)
+        throws IOException {
+
+        long timestamp = in.readLong();
+        int size = in.readInt();
+
+        String[] names = new String[size];
+        long[] lengths = new long[size];
+        long[] lastModified = new long[size];
+        BitSet directories = new BitSet(size);
+
+        String previous = "";
+
+        for (int i = 0; i < size; i++) {
+            names[i] = readPrefixed(in, previous);
+            previous = names[i];
+            lengths[i] = in.readLong();
+            lastModified[i] = in.readLong();
+
+            if (in.readBoolean())
+                directories.set(i);
+        }
+
+        return new DirSnapshot(
+            dir, timestamp, names, lengths, lastModified, directories);
+    }
+
+
+    /**
+     * Writes a string as the length of the prefix it shares with the previous
+     * string followed by the remainder.
+     *
+     * @param out Stream to write to.
+     * @param previous Previously written string.
+     * @param s String to write.
+     * @throws IOException on I/O error.
+     */
+    static void writePrefixed(DataOutputStream out, String previous, String s)
+        throws IOException {
+
+        int max = Math.min(Math.min(previous.length(), s.length()), 0xFFFF);
+        int common = 0;
+
+        while (common < max && previous.charAt(common) == s.charAt(common))
+            common++;
+
+        out.writeShort(common);
+        out.writeUTF(s.substring(common));
+    }
+
+
+    /**
+     * Reads a string written by writePrefixed().
+     *
+     * @param in Stream to read from.
+     * @param previous Previously read string.
+     * @return String
+     * @throws IOException on I/O error.
+     */
+    static String readPrefixed(DataInputStream in, String previous)
+        throws IOException {
+
+        int common = in.readUnsignedShort();
+
+        if (common > previous.length())
+            throw new IOException("Corrupt snapshot: bad prefix length " + common);
+
+        return previous.substring(0, common) + in.readUTF();
+    }
+
     // -------------------------------------------------------------------------
     // JavaBean Methods
     // -------------------------------------------------------------------------
@@ -65,10 +298,37 @@ public class DirSnapshot{
 
     public void setDirectory(File directory){
         directory_ = directory;
+        prefix_ = directory.getAbsolutePath();
+
+        if (!prefix_.endsWith(File.separator))
+            prefix_ += File.separator;
+
+        fileSnapshots_ = null;
     }
 
 
+    /**
+     * Returns snapshots of all the files in this directory. The map is
+     * created on first use; prefer the indexed accessors when scanning.
+     * <ul>
+     *  <li>Key = String returned from FileSnapshot.getKey()
+     *  <li>Value = FileSnapshot
+     * </ul>
+     *
+     * @return Map
+     */
     public Map getFileSnapshots(){
+        if (fileSnapshots_ == null) {
+            Map fileSnapshots = new HashMap(names_.length * 2);
+
+            for (int i = 0; i < names_.length; i++) {
+                FileSnapshot snapshot = getFileSnapshot(i);
+                fileSnapshots.put(snapshot.getKey(), snapshot);
+            }
+
+            fileSnapshots_ = fileSnapshots;
+        }
+
         return fileSnapshots_;
     }
-}
\ No newline at end of file
+}
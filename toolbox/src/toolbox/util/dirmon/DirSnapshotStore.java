@@ -0,0 +1,189 @@
+package toolbox.util.dirmon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Saves and loads a set of {@link DirSnapshot}s to and from a file so that a
+ * {@link DirectoryMonitor} can pick up where it left off after a restart.
+ * <p>
+ * Directories are written in sorted order with each path stored as the length
+ * of the prefix it shares with the previous path followed by the rest of it,
+ * so deep trees with long common paths stay small on disk. The file is
+ * written to a temporary file first and renamed into place.
+ */
+public class DirSnapshotStore {
+
+    // -------------------------------------------------------------------------
+    // Constants
+    // -------------------------------------------------------------------------
+
+    /**
+     * Identifies a snapshot file.
+     */
+    private static final int MAGIC = 0x44534E50; // DSNP
+
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    // -------------------------------------------------------------------------
+    // Fields
+    // -------------------------------------------------------------------------
+
+    /**
+     * File the snapshots are stored in.
+     */
+    private File file_;
+
+    // -------------------------------------------------------------------------
+    // Constructors
+    // -------------------------------------------------------------------------
+
+    /**
+     * Creates a DirSnapshotStore.
+     *
+     * @param file File the snapshots are stored in.
+     */
+    public DirSnapshotStore(File file) {
+        file_ = file;
+    }
+
+    // -------------------------------------------------------------------------
+    // Public
+    // -------------------------------------------------------------------------
+
+    /**
+     * Saves snapshots, replacing any previously saved.
+     *
+     * @param snapshots DirSnapshots to save.
+     * @throws IOException on I/O error.
+     */
+    public void save(Collection snapshots) throws IOException {
+        List sorted = new ArrayList(snapshots);
+
+        Collections.sort(sorted, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return path((DirSnapshot) o1).compareTo(path((DirSnapshot) o2));
+            }
+        });
+
+        File parent = file_.getAbsoluteFile().getParentFile();
+
+        if (parent != null)
+            parent.mkdirs();
+
+        File temp = new File(file_.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+
+            String previous = "";
+
+            for (Iterator i = sorted.iterator(); i.hasNext();) {
+                DirSnapshot snapshot = (DirSnapshot) i.next();
+                String path = path(snapshot);
+                DirSnapshot.writePrefixed(out, previous, path);
+                snapshot.write(out);
+                previous = path;
+            }
+
+            out.close();
+            out = null;
+
+            // Windows won't rename over an existing file
+            file_.delete();
+
+            if (!temp.renameTo(file_))
+                throw new IOException("Unable to rename " + temp + " to " + file_);
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+
+    /**
+     * Loads the saved snapshots.
+     *
+     * @return Map with key = absolute path of the directory and
+     *         value = DirSnapshot. Empty if nothing has been saved yet.
+     * @throws IOException on I/O error or if the file is not a snapshot file.
+     */
+    public Map load() throws IOException {
+        Map snapshots = new HashMap();
+
+        if (!file_.exists())
+            return snapshots;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file_)));
+
+            if (in.readInt() != MAGIC)
+                throw new IOException(file_ + " is not a snapshot file");
+
+            int version = in.readInt();
+
+            if (version != VERSION)
+                throw new IOException(
+                    "Unsupported snapshot version " + version + " in " + file_);
+
+            int count = in.readInt();
+            String previous = "";
+
+            for (int i = 0; i < count; i++) {
+                String path = DirSnapshot.readPrefixed(in, previous);
+                snapshots.put(path, DirSnapshot.read(new File(path), in));
+                previous = path;
+            }
+
+            return snapshots;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+
+    /**
+     * @return File the snapshots are stored in.
+     */
+    public File getFile() {
+        return file_;
+    }
+
+    // -------------------------------------------------------------------------
+    // Private
+    // -------------------------------------------------------------------------
+
+    private static String path(DirSnapshot snapshot) {
+        return snapshot.getDirectory().getAbsolutePath();
+    }
+}
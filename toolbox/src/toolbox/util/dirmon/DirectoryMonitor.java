@@ -1,6 +1,7 @@
 package toolbox.util.dirmon;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -8,6 +9,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutorService;
+import edu.emory.mathcs.backport.java.util.concurrent.Executors;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+
 import org.apache.commons.collections.buffer.BoundedFifoBuffer;
 import org.apache.log4j.Logger;
 
@@ -67,6 +75,20 @@ import toolbox.util.statemachine.StateMachine;
  * dm.stop();
  * dm.destroy();
  * </pre>
+ * <p>
+ * Large directory trees can be scanned faster by snapshotting several
+ * directories in parallel with {@link #setScanThreads(int)}. In incremental
+ * mode ({@link #setIncremental(boolean)}) only directories whose last
+ * modified time has changed are rescanned, which catches files being created,
+ * deleted and renamed. Since changing a file's contents does not touch its
+ * directory, every directory is still rescanned once every 
+ * {@link #setReconcileInterval(int) reconcile interval} scans to pick up
+ * changed files.
+ * <p>
+ * If a snapshot file is set with {@link #setSnapshotFile(File)}, the 
+ * directory snapshots are saved when the monitor stops and loaded when it
+ * starts, so changes made while the monitor was not running are reported on
+ * the first scan.
  */
 public class DirectoryMonitor 
     implements Startable, Suspendable, Destroyable, ObservableService , Nameable {
@@ -79,6 +101,7 @@ public class DirectoryMonitor
     
     private static final int DEFAULT_DELAY = 60000;       // 60 seconds
     private static final int DEFAULT_PER_DIR_DELAY = 100; // 100 milliseconds
+    private static final int DEFAULT_RECONCILE_INTERVAL = 10;
 
     //--------------------------------------------------------------------------
     // Fields 
@@ -154,6 +177,38 @@ public class DirectoryMonitor
      */
     private boolean recurse_;
 
+    /**
+     * Number of threads used to snapshot directories. 1 scans sequentially.
+     */
+    private int scanThreads_;
+    
+    /**
+     * Flag to only rescan directories whose last modified time has changed
+     * between full scans.
+     */
+    private boolean incremental_;
+    
+    /**
+     * In incremental mode, every n-th scan is a full scan.
+     */
+    private int reconcileInterval_;
+    
+    /**
+     * Number of scans completed.
+     */
+    private long scanCount_;
+    
+    /**
+     * Key = String which is File.getAbsolutePath() for a directory
+     * Value = Long last modified time of the directory when last snapshot
+     */
+    private Map dirModified_;
+    
+    /**
+     * Persists the directory snapshots between runs. Null if not persisted.
+     */
+    private DirSnapshotStore snapshotStore_;
+
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -178,7 +233,7 @@ public class DirectoryMonitor
      * @param subdirs Set to true to also monitor subdirectories.
      */
     public DirectoryMonitor(File dir, boolean subdirs) {
-        this(dir, dir.getAbsolutePath(), false);
+        this(dir, dir.getAbsolutePath(), subdirs);
     }
 
     
@@ -193,7 +248,10 @@ public class DirectoryMonitor
         
         setDelay(DEFAULT_DELAY);
         perDirectoryDelay_ = DEFAULT_PER_DIR_DELAY;
+        scanThreads_ = 1;
+        reconcileInterval_ = DEFAULT_RECONCILE_INTERVAL;
         dirSnapshots_ = new HashMap();
+        dirModified_ = new HashMap();
         recognizers_ = new ArrayList();
         stateMachine_ = ServiceUtil.createStateMachine(this);
         notifier_ = new ServiceNotifier(this);
@@ -261,8 +319,10 @@ public class DirectoryMonitor
                 + getName() 
                 + "]");
                         
-        monitor_.start();
+        // Running before the thread starts or it may see itself stopped and
+        // exit without scanning
         stateMachine_.transition(ServiceTransition.START);
+        monitor_.start();
         notifier_.fireServiceStateChanged();
     }
 
@@ -469,6 +529,96 @@ public class DirectoryMonitor
     }
    
     
+    /**
+     * Sets the delay in milliseconds between each directory when scanning 
+     * sequentially.
+     * 
+     * @param perDirectoryDelay Delay.
+     */
+    public void setPerDirectoryDelay(int perDirectoryDelay) {
+        perDirectoryDelay_ = perDirectoryDelay;
+    }
+    
+    
+    /**
+     * @return Number of threads used to snapshot directories.
+     */
+    public int getScanThreads() {
+        return scanThreads_;
+    }
+    
+    
+    /**
+     * Sets the number of threads used to snapshot directories. With more than
+     * one thread, directories are snapshot in parallel without the per 
+     * directory delay. Recognizers and listeners are still notified on the 
+     * monitor thread in directory order. Takes effect on the next start().
+     * 
+     * @param scanThreads Number of threads. Defaults to 1.
+     */
+    public void setScanThreads(int scanThreads) {
+        if (scanThreads < 1)
+            throw new IllegalArgumentException(
+                "Scan threads must be at least 1: " + scanThreads);
+        
+        scanThreads_ = scanThreads;
+    }
+    
+    
+    /**
+     * @return True if only changed directories are rescanned.
+     */
+    public boolean isIncremental() {
+        return incremental_;
+    }
+    
+    
+    /**
+     * Sets incremental mode in which only directories whose last modified
+     * time has changed are rescanned, except for a full scan every reconcile
+     * interval.
+     * 
+     * @param incremental True to turn on incremental mode.
+     */
+    public void setIncremental(boolean incremental) {
+        incremental_ = incremental;
+    }
+    
+    
+    /**
+     * Sets how often a full scan is done in incremental mode.
+     * 
+     * @param reconcileInterval Every n-th scan is a full scan. Defaults to 10.
+     */
+    public void setReconcileInterval(int reconcileInterval) {
+        if (reconcileInterval < 1)
+            throw new IllegalArgumentException(
+                "Reconcile interval must be at least 1: " + reconcileInterval);
+        
+        reconcileInterval_ = reconcileInterval;
+    }
+    
+    
+    /**
+     * Sets the file the directory snapshots are saved to when the monitor 
+     * stops and loaded from when it starts.
+     * 
+     * @param snapshotFile Snapshot file or null to not persist snapshots.
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        snapshotStore_ = 
+            snapshotFile == null ? null : new DirSnapshotStore(snapshotFile);
+    }
+    
+    
+    /**
+     * @return Snapshot file or null if snapshots are not persisted.
+     */
+    public File getSnapshotFile() {
+        return snapshotStore_ == null ? null : snapshotStore_.getFile();
+    }
+    
+    
     /**
      * Adds an activity to monitor.
      * 
@@ -496,7 +646,8 @@ public class DirectoryMonitor
      * @param directory Additional directory to monitor. Not for public usage
      */
     public void internalAddDirectory(File directory) {
-        monitoredDirectories_.add(directory);
+        if (!monitoredDirectories_.contains(directory))
+            monitoredDirectories_.add(directory);
     }
     
     
@@ -576,11 +727,27 @@ public class DirectoryMonitor
     
     class DirectoryScanner implements Runnable {
         
+        /**
+         * Snapshots directories in parallel or null if scanning sequentially.
+         */
+        private ExecutorService scanPool_;
+        
         public void run() {
             setup();
             boolean first = true;
             Throttler throttler = new Throttler();
             
+            if (scanThreads_ > 1) {
+                scanPool_ = Executors.newFixedThreadPool(scanThreads_, 
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, getName() + "-Scanner");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            }
+            
             // Check termination flag
             while (isRunning() || isSuspended()) {
                 
@@ -596,10 +763,7 @@ public class DirectoryMonitor
                             DirectoryMonitor.this,
                             "Started scan"));
 
-                        for (Iterator di = monitoredDirectories_.iterator(); di.hasNext() && isRunning();) {
-                            File dir = (File) di.next();
-                            scanDirectory(dir);
-                        }
+                        scanDirectories();
 
                         fireStatusChanged(new StatusEvent(
                             StatusEvent.TYPE_END_SCAN, 
@@ -644,6 +808,13 @@ public class DirectoryMonitor
                 }
             }
             
+            if (scanPool_ != null) {
+                scanPool_.shutdownNow();
+                scanPool_ = null;
+            }
+            
+            saveSnapshots();
+            
             logger_.debug("Exiting thread run()");
         }
 
@@ -704,18 +875,145 @@ public class DirectoryMonitor
             if (logger_.isDebugEnabled())
                 for (Iterator i = recognizers_.iterator(); i.hasNext();)
                     logger_.debug("Recognizer registered: " + i.next());
+            
+            loadSnapshots();
+        }
+        
+        
+        /**
+         * Loads the snapshots saved by the previous run so the first scan 
+         * reports changes made in the meantime.
+         */
+        private void loadSnapshots() {
+            if (snapshotStore_ == null)
+                return;
+            
+            try {
+                Map saved = snapshotStore_.load();
+                
+                // Only keep snapshots of directories that are still monitored
+                for (Iterator i = monitoredDirectories_.iterator(); i.hasNext();) {
+                    File dir = (File) i.next();
+                    String dirKey = dir.getAbsolutePath();
+                    DirSnapshot snapshot = (DirSnapshot) saved.get(dirKey);
+                    
+                    if (snapshot != null && !dirSnapshots_.containsKey(dirKey)) {
+                        
+                        // Saved snapshots are keyed by absolute path but 
+                        // recognizers compare them to new snapshots of the 
+                        // monitored File, which may be relative
+                        snapshot.setDirectory(dir);
+                        dirSnapshots_.put(dirKey, snapshot);
+                    }
+                }
+                
+                logger_.debug("Loaded " + saved.size() + " snapshots from " 
+                    + snapshotStore_.getFile());
+            }
+            catch (IOException e) {
+                logger_.error("Unable to load snapshots from " 
+                    + snapshotStore_.getFile(), e);
+            }
+        }
+        
+        
+        /**
+         * Saves the current snapshots for the next run.
+         */
+        private void saveSnapshots() {
+            if (snapshotStore_ == null)
+                return;
+            
+            try {
+                snapshotStore_.save(dirSnapshots_.values());
+                
+                logger_.debug("Saved " + dirSnapshots_.size() 
+                    + " snapshots to " + snapshotStore_.getFile());
+            }
+            catch (IOException e) {
+                logger_.error("Unable to save snapshots to " 
+                    + snapshotStore_.getFile(), e);
+            }
         }
 
-        private void scanDirectory(File dir){
-            String dirKey = dir.getAbsolutePath();
-            DirSnapshot beforeDirSnapshot = (DirSnapshot) dirSnapshots_.get(dirKey);
-
-            if (beforeDirSnapshot == null) {
-                dirSnapshots_.put(dirKey, new DirSnapshot(dir));
+        /**
+         * Scans the monitored directories, or in incremental mode only those 
+         * that changed unless a full scan is due.
+         */
+        private void scanDirectories() throws InterruptedException {
+            
+            // Copy since recognizers add newly created directories
+            List dirs = new ArrayList(monitoredDirectories_);
+            boolean full = !incremental_ || scanCount_ % reconcileInterval_ == 0;
+            scanCount_++;
+            
+            if (!full) {
+                for (Iterator i = dirs.iterator(); i.hasNext();) {
+                    File dir = (File) i.next();
+                    Long modified = (Long) dirModified_.get(dir.getAbsolutePath());
+                    
+                    if (modified != null && modified.longValue() == dir.lastModified())
+                        i.remove();
+                }
+                
+                logger_.trace("Incremental scan of " + dirs.size() + " directories");
+            }
+            
+            if (scanPool_ == null) {
+                for (Iterator i = dirs.iterator(); i.hasNext() && isRunning();) {
+                    File dir = (File) i.next();
+                    long modified = dir.lastModified();
+                    recognize(dir, new DirSnapshot(dir), modified);
+                    ThreadUtil.sleep(perDirectoryDelay_);
+                }
             }
             else {
-                DirSnapshot afterDirSnapshot = new DirSnapshot(dir);
+                List futures = new ArrayList(dirs.size());
+                long[] modified = new long[dirs.size()];
+                
+                for (int i = 0; i < dirs.size(); i++) {
+                    final File dir = (File) dirs.get(i);
+                    modified[i] = dir.lastModified();
+                    
+                    futures.add(scanPool_.submit(new Callable() {
+                        public Object call() {
+                            return new DirSnapshot(dir);
+                        }
+                    }));
+                }
+                
+                for (int i = 0; i < dirs.size() && isRunning(); i++) {
+                    try {
+                        DirSnapshot after = 
+                            (DirSnapshot) ((Future) futures.get(i)).get();
+                        recognize((File) dirs.get(i), after, modified[i]);
+                    }
+                    catch (ExecutionException e) {
+                        logger_.error("Error scanning " + dirs.get(i), e.getCause());
+                    }
+                }
+            }
+        }
+        
+        
+        /**
+         * Runs the recognizers against the previous and given snapshot of a
+         * directory, notifies listeners of the events and keeps the snapshot
+         * for the next scan. The directory's last modified time is read 
+         * before the snapshot is taken so that changes made during the 
+         * snapshot are picked up by the next incremental scan. It is only 
+         * recorded once the snapshot is kept, so a directory whose snapshot 
+         * was taken but never compared, e.g. because the monitor was 
+         * suspended, is scanned again.
+         */
+        private void recognize(
+            File dir, 
+            DirSnapshot afterDirSnapshot, 
+            long modified) {
+            String dirKey = dir.getAbsolutePath();
+            DirSnapshot beforeDirSnapshot = (DirSnapshot) dirSnapshots_.get(dirKey);
 
+            if (beforeDirSnapshot != null) {
                 for (Iterator i = recognizers_.iterator(); i.hasNext() && isRunning();) {
                     IFileActivityRecognizer recognizer = (IFileActivityRecognizer) i.next();
                     List recognizedEvents = recognizer.getRecognizedEvents(beforeDirSnapshot, afterDirSnapshot);
@@ -730,11 +1028,12 @@ public class DirectoryMonitor
                             logger_.error("ActivityRunner.run", e);
                         }
                     }
-                    ThreadUtil.sleep(perDirectoryDelay_);
                 }
-                // Update the snapshot to the latest
-                dirSnapshots_.put(dirKey, afterDirSnapshot);
             }
+            
+            // Update the snapshot to the latest
+            dirSnapshots_.put(dirKey, afterDirSnapshot);
+            dirModified_.put(dirKey, new Long(modified));
         }
     }
     
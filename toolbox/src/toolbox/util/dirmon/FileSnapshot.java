@@ -60,6 +60,30 @@ public class FileSnapshot {
         setLastModified(file.lastModified()); 
     }
 
+    
+    /**
+     * Creates a FileSnapshot from previously captured attributes.
+     * 
+     * @param absolutePath Absolute path of the file.
+     * @param directory True if the file is a directory.
+     * @param lastModified Last modified time of the file.
+     * @param length Length of the file.
+     * @param snapshotTimestamp Time the attributes were captured.
+     */
+    public FileSnapshot(
+        String absolutePath, 
+        boolean directory, 
+        long lastModified, 
+        long length, 
+        Date snapshotTimestamp) {
+        
+        setAbsolutePath(absolutePath);
+        setDirectory(directory);
+        setLastModified(lastModified);
+        setLength(length);
+        setSnapshotTimestamp(snapshotTimestamp);
+    }
+
     // -------------------------------------------------------------------------
     // Public 
     // -------------------------------------------------------------------------
@@ -1,14 +1,9 @@
 package toolbox.util.dirmon.recognizer;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import junit.framework.Assert;
-import toolbox.util.CollectionUtil;
 import toolbox.util.dirmon.DirSnapshot;
 import toolbox.util.dirmon.DirectoryMonitor;
 import toolbox.util.dirmon.FileSnapshot;
@@ -46,34 +41,24 @@ public class FileChangedRecognizer implements IFileActivityRecognizer {
         Assert.assertTrue(before.getDirectory().equals(after.getDirectory()));
         
         List changedFileEvents = new ArrayList();
-        Map beforeFileSnapshots = before.getFileSnapshots();
-        Map afterFileSnapshots = after.getFileSnapshots();
-        
-        Set beforeFileKeys = beforeFileSnapshots.keySet();
-        Set afterFileKeys = afterFileSnapshots.keySet();
-        
-        Collection commonFileKeys = 
-            CollectionUtil.intersection(beforeFileKeys, afterFileKeys);
-        
-        for (Iterator i = commonFileKeys.iterator(); i.hasNext();) {
-            String fileKey = (String) i.next();
+        // Compare the sorted columns of both snapshots directly instead of
+        // building the intersection of the keys on every scan
+        for (int b = 0, n = before.size(); b < n; b++) {
+            int a = after.indexOf(before.getName(b));
             
-            FileSnapshot beforeFileSnapshot = 
-                (FileSnapshot) beforeFileSnapshots.get(fileKey);
-                
-            FileSnapshot afterFileSnapshot = 
-                (FileSnapshot) afterFileSnapshots.get(fileKey);
+            if (a < 0)
+                continue;
             
             // check for change in timestamp or file size 
-            if (beforeFileSnapshot.getLastModified() != afterFileSnapshot.getLastModified() ||
-                beforeFileSnapshot.getLength() != afterFileSnapshot.getLength()) {
+            if (before.getLastModified(b) != after.getLastModified(a) ||
+                before.getLength(b) != after.getLength(a)) {
                 
                 FileEvent event = 
                     new FileEvent(
                         FileEvent.TYPE_FILE_CHANGED,
                         monitor_, 
-                        beforeFileSnapshot,
-                        afterFileSnapshot);
+                        before.getFileSnapshot(b),
+                        after.getFileSnapshot(a));
                 
                 changedFileEvents.add(event);
             }
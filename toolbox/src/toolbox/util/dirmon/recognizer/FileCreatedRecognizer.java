@@ -1,14 +1,9 @@
 package toolbox.util.dirmon.recognizer;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import junit.framework.Assert;
-import toolbox.util.CollectionUtil;
 import toolbox.util.dirmon.DirSnapshot;
 import toolbox.util.dirmon.DirectoryMonitor;
 import toolbox.util.dirmon.FileSnapshot;
@@ -46,27 +41,19 @@ public class FileCreatedRecognizer implements IFileActivityRecognizer {
         Assert.assertTrue(before.getDirectory().equals(after.getDirectory()));
         
         List createdFileEvents = new ArrayList();
-        Map beforeFileSnapshots = before.getFileSnapshots();
-        Map afterFileSnapshots = after.getFileSnapshots();
-        
-        Set beforeFileKeys = beforeFileSnapshots.keySet();
-        Set afterFileKeys = afterFileSnapshots.keySet();
-        
-        Collection allFileKeys = 
-            CollectionUtil.union(beforeFileKeys, afterFileKeys);
-        
-        Collection createdFileKeys =
-            CollectionUtil.difference(allFileKeys, beforeFileKeys);
-        
-        for (Iterator i = createdFileKeys.iterator(); i.hasNext();) {
-            String fileKey = (String) i.next();
+        // Look up each file in the before snapshot's sorted columns instead
+        // of building union and difference sets of the keys on every scan
+        for (int i = 0, n = after.size(); i < n; i++) {
+            
+            if (before.indexOf(after.getName(i)) >= 0)
+                continue;
 
             FileEvent event = 
                 new FileEvent(
                     FileEvent.TYPE_FILE_CREATED,
                     monitor_, 
                     (FileSnapshot) null, 
-                    (FileSnapshot) after.getFileSnapshots().get(fileKey));
+                    after.getFileSnapshot(i));
 
             createdFileEvents.add(event);
             monitorNewDirectories(event);
@@ -3,14 +3,21 @@ package toolbox.util.dirmon.recognizer;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+
+import edu.emory.mathcs.backport.java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.collections.ListUtils;
 import org.apache.log4j.Logger;
 
 import toolbox.util.FileUtil;
+import toolbox.util.concurrent.HashedWheelTimer;
 import toolbox.util.dirmon.DirSnapshot;
 import toolbox.util.dirmon.DirectoryMonitor;
 import toolbox.util.dirmon.FileSnapshot;
@@ -40,7 +47,15 @@ import toolbox.util.dirmon.event.StatusEvent;
  * {@link #getRecognizedEvents(DirSnapshot, DirSnapshot)} method. Instead, this
  * recognizer registers itself as a IDirectoryMonitorListener and uses the file
  * creation event as a cue to start monitoring a file for inactivity compliments
- * of a {@link java.util.Timer}.
+ * of a {@link toolbox.util.concurrent.HashedWheelTimer}.
+ * <p>
+ * Files are tracked per directory and each directory has at most one check
+ * scheduled at a time, so a thousand files dropped into the same directory
+ * cost one timer entry rather than a thousand. A file is finished once its
+ * size and timestamp have not changed for the quiet period and it can be
+ * opened for reading. The files that finish in the same check are delivered
+ * together to {@link ICreationFinishedListener}s in addition to the usual
+ * per file events.
  */
 public class FileCreationFinishedRecognizer 
     implements IFileActivityRecognizer, IDirectoryMonitorListener {
@@ -58,16 +73,36 @@ public class FileCreationFinishedRecognizer
     private DirectoryMonitor monitor_;
     
     /**
-     * The minimum number of seconds the file has been inactive after creation. 
-     * Inactive implies that the file's size and timestamp have not changed.
+     * The minimum number of milliseconds the file has been inactive after 
+     * creation. Inactive implies that the file's size and timestamp have not
+     * changed.
      */
-    private int inactiveFor_;
+    private long quietPeriod_;
     
     /**
-     * Timer on which checks for file inactivity are make after a file's 
+     * Timer on which checks for file inactivity are made after a file's 
      * creation.
      */
-    private Timer timer_;
+    private HashedWheelTimer timer_;
+    
+    /**
+     * Files waiting to finish grouped by directory. Guarded by itself.
+     * <ul>
+     *  <li>Key = String absolute path of the directory
+     *  <li>Value = PendingDirectory
+     * </ul>
+     */
+    private Map pending_;
+    
+    /**
+     * List of ICreationFinishedListeners.
+     */
+    private List listeners_;
+    
+    /**
+     * Set once destroyed. Guarded by pending_.
+     */
+    private boolean destroyed_;
 
     // -------------------------------------------------------------------------
     // Constructors
@@ -86,17 +121,160 @@ public class FileCreationFinishedRecognizer
         
         monitor_ = monitor;
         monitor_.addDirectoryMonitorListener(this);
-        inactiveFor_ = inactiveFor;
-        timer_ = new Timer(true);
+        quietPeriod_ = inactiveFor * 1000L;
+        pending_ = new HashMap();
+        listeners_ = new CopyOnWriteArrayList();
+        
+        timer_ = new HashedWheelTimer(
+            "FileCreationFinished[" + monitor.getName() + "]");
+    }
+
+    // -------------------------------------------------------------------------
+    // Public
+    // -------------------------------------------------------------------------
+    
+    /**
+     * @return Number of milliseconds a file must be inactive.
+     */
+    public long getQuietPeriod() {
+        return quietPeriod_;
+    }
+    
+    
+    /**
+     * Sets the number of milliseconds a file's size and timestamp must not
+     * change before it is recognized as finished. Applies to checks scheduled
+     * from now on.
+     * 
+     * @param quietPeriod Quiet period in milliseconds.
+     */
+    public void setQuietPeriod(long quietPeriod) {
+        quietPeriod_ = quietPeriod;
+    }
+    
+    
+    /**
+     * @return Number of files waiting to finish.
+     */
+    public int getPendingCount() {
+        synchronized (pending_) {
+            int count = 0;
+            
+            for (Iterator i = pending_.values().iterator(); i.hasNext();)
+                count += ((PendingDirectory) i.next()).files_.size();
+            
+            return count;
+        }
+    }
+    
+    
+    public void addCreationFinishedListener(ICreationFinishedListener listener) {
+        listeners_.add(listener);
+    }
+    
+    
+    public void removeCreationFinishedListener(ICreationFinishedListener listener) {
+        listeners_.remove(listener);
+    }
+    
+    
+    /**
+     * Stops checking files. Files still waiting to finish are forgotten.
+     */
+    public void destroy() {
+        monitor_.removeDirectoryMonitorListener(this);
+        
+        synchronized (pending_) {
+            destroyed_ = true;
+            pending_.clear();
+        }
+        
+        timer_.stop();
     }
 
     // -------------------------------------------------------------------------
     // Private
     // -------------------------------------------------------------------------
     
-    private void scheduleCheck(FileEvent creationEvent){
-        TimerTask task = new CheckInactivityTask(creationEvent);
-        timer_.schedule(task, inactiveFor_ * 1000);
+    /**
+     * Starts tracking a created file and schedules a check of its directory
+     * unless one is already scheduled.
+     */
+    private void track(FileEvent creationEvent) {
+        FileSnapshot snapshot = creationEvent.getAfterSnapshot();
+        
+        if (snapshot.isDirectory())
+            return;
+        
+        String dir = snapshot.toFile().getParentFile().getAbsolutePath();
+        
+        synchronized (pending_) {
+            if (destroyed_)
+                return;
+            
+            PendingDirectory pendingDir = (PendingDirectory) pending_.get(dir);
+            
+            if (pendingDir == null) {
+                pendingDir = new PendingDirectory(dir);
+                pending_.put(dir, pendingDir);
+            }
+            
+            pendingDir.files_.put(
+                snapshot.getAbsolutePath(), 
+                new PendingFile(snapshot));
+            
+            if (!pendingDir.scheduled_) {
+                pendingDir.scheduled_ = true;
+                timer_.schedule(pendingDir, quietPeriod_);
+            }
+        }
+    }
+    
+    
+    /**
+     * Delivers a batch of finished files to the directory monitor's listeners
+     * and then to the ICreationFinishedListeners.
+     */
+    private void fireCreationFinished(List events) {
+        
+        for (Iterator i = events.iterator(); i.hasNext();) {
+            try {
+                monitor_.fireDirectoryActivity((FileEvent) i.next());
+            }
+            catch (Exception e) {
+                logger_.error("Error delivering creation finished event", e);
+            }
+        }
+        
+        for (Iterator i = listeners_.iterator(); i.hasNext();) {
+            try {
+                ((ICreationFinishedListener) i.next()).creationFinished(events);
+            }
+            catch (Exception e) {
+                logger_.error("Error delivering creation finished batch", e);
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns true if the file can be opened and seeked to the end, which 
+     * fails on some platforms while another process is still writing it.
+     */
+    private static boolean isReadable(File file, long length) {
+        RandomAccessFile raf = null;
+        
+        try {
+            raf = new RandomAccessFile(file, "r");
+            raf.seek(Math.max(0, length - 1));
+            return true;
+        }
+        catch (IOException ioe) {
+            return false;
+        }
+        finally {
+            FileUtil.closeQuietly(raf);
+        }
     }
 
     // -------------------------------------------------------------------------
@@ -114,7 +292,7 @@ public class FileCreationFinishedRecognizer
         switch (changeEvent.getEventType()) {
             
             case FileEvent.TYPE_FILE_CREATED:
-                scheduleCheck(changeEvent);
+                track(changeEvent);
                 break;
         }
     }
@@ -143,126 +321,156 @@ public class FileCreationFinishedRecognizer
     }
     
     // -------------------------------------------------------------------------
-    // CheckInactivityTask
+    // PendingFile
     // -------------------------------------------------------------------------
     
-    class CheckInactivityTask extends TimerTask {
+    /**
+     * A created file waiting to finish.
+     */
+    static class PendingFile {
+        
+        private FileSnapshot creationSnapshot_;
+        private long length_;
+        private long lastModified_;
+        
+        /**
+         * Time the size or timestamp was last seen to change.
+         */
+        private long quietSince_;
+        
+        PendingFile(FileSnapshot creationSnapshot) {
+            creationSnapshot_ = creationSnapshot;
+            length_ = creationSnapshot.getLength();
+            lastModified_ = creationSnapshot.getLastModified();
+            quietSince_ = System.currentTimeMillis();
+        }
+    }
+    
+    // -------------------------------------------------------------------------
+    // PendingDirectory
+    // -------------------------------------------------------------------------
+    
+    /**
+     * Created files in one directory waiting to finish. Runs on the timer
+     * thread to check all of them at once.
+     */
+    class PendingDirectory implements Runnable {
+        
+        private String path_;
         
-        private FileEvent creationEvent_;
+        /**
+         * Key = String absolute path, Value = PendingFile. Guarded by pending_.
+         */
+        private Map files_;
         
+        /**
+         * True while a check is scheduled. Guarded by pending_.
+         */
+        private boolean scheduled_;
         
-        public CheckInactivityTask(FileEvent creationEvent) {
-            creationEvent_ = creationEvent;
+        PendingDirectory(String path) {
+            path_ = path;
+            files_ = new HashMap();
         }
- 
+        
         
         public void run() {
+            List candidates;
             
-            FileSnapshot creationSnapshot = creationEvent_.getAfterSnapshot();
-            File currentFile = creationSnapshot.toFile();
-            
-            if (!currentFile.exists()) {
-                // File was apparently deleted, moved, or renamed since the
-                // time of creation and no longer exists.
-                logger_.debug(
-                    "Created file "
-                    + currentFile
-                    + " no longer exists. Ceasing check for completion of writing.");
-                return;
+            synchronized (pending_) {
+                candidates = new ArrayList(files_.values());
             }
             
-            FileSnapshot currentSnapshot = new FileSnapshot(currentFile);
-            
-            RandomAccessFile raf = null;
-            
-            //logger_.debug(StringUtil.banner(
-            //    "Creation snapshot:\n" + AsMap.of(creationSnapshot)));
+            long now = System.currentTimeMillis();
+            long quietPeriod = quietPeriod_;
+            List finished = new ArrayList();
+            List gone = new ArrayList();
             
-            //logger_.debug(StringUtil.banner(
-            //    "Current  snapshot:\n" + AsMap.of(currentSnapshot)));
-            
-            try {
-                raf = new RandomAccessFile(currentFile, "r");
+            // Stat the files outside the lock so that creation events are not
+            // held up by a slow file system
+            for (Iterator i = candidates.iterator(); i.hasNext();) {
+                PendingFile file = (PendingFile) i.next();
+                File currentFile = file.creationSnapshot_.toFile();
                 
-                // If seeking to the end of the file succeeds, the file is
-                // apparently all there and can be consumed by other processes.
-                raf.seek(currentSnapshot.getLength() - 1);
-
-                logger_.debug(
-                    "File " 
-                    + creationSnapshot.getAbsolutePath() 
-                    + " recognized as finsiehd!");
+                if (!currentFile.exists()) {
+                    // File was apparently deleted, moved, or renamed since the
+                    // time of creation and no longer exists.
+                    logger_.debug(
+                        "Created file "
+                        + currentFile
+                        + " no longer exists. Ceasing check for completion of writing.");
+                    
+                    gone.add(file);
+                    continue;
+                }
                 
-                FileEvent finishedEvent = 
-                    new FileEvent(
-                        FileEvent.TYPE_FILE_CREATION_FINISHED,
-                        monitor_,
-                        creationSnapshot,
-                        currentSnapshot);
+                FileSnapshot currentSnapshot = new FileSnapshot(currentFile);
                 
-                monitor_.fireDirectoryActivity(finishedEvent);
+                if (currentSnapshot.getLength() != file.length_ ||
+                    currentSnapshot.getLastModified() != file.lastModified_) {
+                    
+                    file.length_ = currentSnapshot.getLength();
+                    file.lastModified_ = currentSnapshot.getLastModified();
+                    file.quietSince_ = now;
+                }
+                else if (now - file.quietSince_ >= quietPeriod &&
+                    isReadable(currentFile, currentSnapshot.getLength())) {
+                    
+                    logger_.debug(
+                        "File " 
+                        + currentFile
+                        + " recognized as finished!");
+                    
+                    finished.add(
+                        new FileEvent(
+                            FileEvent.TYPE_FILE_CREATION_FINISHED,
+                            monitor_,
+                            file.creationSnapshot_,
+                            currentSnapshot));
+                }
             }
-            catch (IOException ioe) {
-                //logger_.error("seek error" , ioe);
+            
+            synchronized (pending_) {
+                for (Iterator i = gone.iterator(); i.hasNext();)
+                    files_.remove(((PendingFile) i.next()).creationSnapshot_.getKey());
                 
-                logger_.debug(
-                    "File " 
-                    + creationSnapshot.getAbsolutePath() 
-                    + " still changing...checking again in "
-                    + inactiveFor_
-                    + " seconds.");
+                for (Iterator i = finished.iterator(); i.hasNext();)
+                    files_.remove(((FileEvent) i.next()).getBeforeSnapshot().getKey());
                 
-                // Keep waiting by scheduling another check...
-                FileEvent event = new FileEvent(
-                    FileEvent.TYPE_FILE_CREATED,
-                    monitor_,
-                    creationSnapshot,
-                    currentSnapshot);
+                scheduled_ = false;
                 
-                scheduleCheck(event);
-            }
-            catch (Exception e) {
-                logger_.error("non-io error on file completed recognization" , e);
-            }
-            finally {
-                FileUtil.closeQuietly(raf);
+                if (files_.isEmpty()) {
+                    pending_.remove(path_);
+                }
+                else if (!destroyed_) {
+                    // Check again when the file that has been quiet the 
+                    // longest is due. Files that are due but can't be read
+                    // yet wait another quiet period.
+                    long next = Long.MAX_VALUE;
+                    
+                    for (Iterator i = files_.values().iterator(); i.hasNext();) {
+                        PendingFile file = (PendingFile) i.next();
+                        long due = file.quietSince_ + quietPeriod - now;
+                        next = Math.min(next, due > 0 ? due : quietPeriod);
+                    }
+                    
+                    scheduled_ = true;
+                    
+                    timer_.schedule(this, 
+                        Math.max(next, timer_.getTickDuration()));
+                }
             }
             
-
-//            if (creationSnapshot.getLastModified() == 
-//                currentSnapshot.getLastModified()) {
-//                
-//                // Criteria met..fire an event!!
-//
-//                logger_.debug("File " + creationSnapshot.getAbsolutePath() + " recognized as finsiehd!");
-//                
-//                try {
-//                    FileEvent finishedEvent = 
-//                        new FileEvent(
-//                            FileEvent.TYPE_FILE_CREATION_FINISHED,
-//                            monitor_,
-//                            creationSnapshot,
-//                            currentSnapshot);
-//                    
-//                    // TODO: Verify this!
-//                    monitor_.fireDirectoryActivity(finishedEvent);
-//                }
-//                catch (Exception e) {
-//                    logger_.error(e);
-//                }
-//            }
-//            else {
-//                
-//                logger_.debug("File " + creationSnapshot.getAbsolutePath() + " still changing...checking again..");
-//                // Keep waiting by scheduling another check...
-//                FileEvent event = new FileEvent(
-//                    FileEvent.TYPE_FILE_CREATED,
-//                    monitor_,
-//                    creationSnapshot,
-//                    currentSnapshot);
-//                
-//                scheduleCheck(event);
-//            }
+            if (!finished.isEmpty()) {
+                Collections.sort(finished, new Comparator() {
+                    public int compare(Object o1, Object o2) {
+                        return ((FileEvent) o1).getAfterSnapshot().getKey().compareTo(
+                            ((FileEvent) o2).getAfterSnapshot().getKey());
+                    }
+                });
+                
+                fireCreationFinished(finished);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,9 @@
 package toolbox.util.dirmon.recognizer;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import junit.framework.Assert;
-import toolbox.util.CollectionUtil;
 import toolbox.util.dirmon.DirSnapshot;
 import toolbox.util.dirmon.DirectoryMonitor;
 import toolbox.util.dirmon.FileSnapshot;
@@ -46,26 +41,18 @@ public class FileDeletedRecognizer implements IFileActivityRecognizer {
         Assert.assertTrue(before.getDirectory().equals(after.getDirectory()));
         
         List deletedFileEvents = new ArrayList();
-        Map beforeFileSnapshots = before.getFileSnapshots();
-        Map afterFileSnapshots = after.getFileSnapshots();
-        
-        Set beforeFileKeys = beforeFileSnapshots.keySet();
-        Set afterFileKeys = afterFileSnapshots.keySet();
-        
-        Collection allFileKeys = 
-            CollectionUtil.union(beforeFileKeys, afterFileKeys);
-        
-        Collection deletedFileKeys =
-            CollectionUtil.difference(allFileKeys, afterFileKeys);
-        
-        for (Iterator i = deletedFileKeys.iterator(); i.hasNext();) {
-            String fileKey = (String) i.next();
+        // Look up each file in the after snapshot's sorted columns instead
+        // of building union and difference sets of the keys on every scan
+        for (int i = 0, n = before.size(); i < n; i++) {
+            
+            if (after.indexOf(before.getName(i)) >= 0)
+                continue;
 
             FileEvent event = 
                 new FileEvent(
                     FileEvent.TYPE_FILE_DELETED,
                     monitor_, 
-                    (FileSnapshot) before.getFileSnapshots().get(fileKey),
+                    before.getFileSnapshot(i),
                     (FileSnapshot) null); 
             
             deletedFileEvents.add(event);
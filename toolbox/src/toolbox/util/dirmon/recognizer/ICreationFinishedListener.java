@@ -0,0 +1,20 @@
+package toolbox.util.dirmon.recognizer;
+
+import java.util.List;
+
+/**
+ * Notification interface for batches of files recognized by the 
+ * {@link FileCreationFinishedRecognizer}.
+ */
+public interface ICreationFinishedListener {
+
+    /**
+     * Notification that the creation of a batch of files in the same 
+     * directory has finished.
+     * 
+     * @param events List of FileEvents of type 
+     *        FileEvent.TYPE_FILE_CREATION_FINISHED sorted by path.
+     * @throws Exception on error.
+     */
+    void creationFinished(List events) throws Exception;
+}
@@ -0,0 +1,158 @@
+package toolbox.util.io;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of equally sized {@link java.nio.ByteBuffer}s. Direct buffers
+ * are expensive to allocate and are not reclaimed until the garbage collector
+ * gets around to their owning object, so recycling them is considerably
+ * cheaper than allocating a new one for every transfer.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * ByteBufferPool pool = new ByteBufferPool(8192, 64, true);
+ * ByteBuffer buffer = pool.borrow();
+ *
+ * try
+ * {
+ *     channel.read(buffer);
+ *     ...
+ * }
+ * finally
+ * {
+ *     pool.release(buffer);
+ * }
+ * </pre>
+ */
+public class ByteBufferPool
+{
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Capacity of each buffer handed out by this pool.
+     */
+    private final int bufferSize_;
+
+    /**
+     * Maximum number of idle buffers retained by the pool. Buffers released
+     * once this limit is reached are left to the garbage collector.
+     */
+    private final int maxIdle_;
+
+    /**
+     * Flag to allocate direct buffers instead of heap buffers.
+     */
+    private final boolean direct_;
+
+    /**
+     * Idle buffers available for reuse.
+     */
+    private final LinkedList idle_;
+
+    /**
+     * Number of buffers allocated over the life of the pool.
+     */
+    private int allocated_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a ByteBufferPool.
+     *
+     * @param bufferSize Capacity of each buffer in bytes.
+     * @param maxIdle Maximum number of idle buffers to retain.
+     * @param direct Set to true to allocate direct buffers.
+     */
+    public ByteBufferPool(int bufferSize, int maxIdle, boolean direct)
+    {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException(
+                "Buffer size must be positive: " + bufferSize);
+
+        bufferSize_ = bufferSize;
+        maxIdle_ = maxIdle;
+        direct_ = direct;
+        idle_ = new LinkedList();
+        allocated_ = 0;
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns a cleared buffer from the pool, allocating a new one if no idle
+     * buffers are available.
+     *
+     * @return ByteBuffer
+     */
+    public synchronized ByteBuffer borrow()
+    {
+        if (!idle_.isEmpty())
+            return (ByteBuffer) idle_.removeFirst();
+
+        allocated_++;
+
+        return direct_
+            ? ByteBuffer.allocateDirect(bufferSize_)
+            : ByteBuffer.allocate(bufferSize_);
+    }
+
+
+    /**
+     * Returns a buffer to the pool. Buffers that did not originate from this
+     * pool are silently ignored.
+     *
+     * @param buffer Buffer to return. Null is ignored.
+     */
+    public synchronized void release(ByteBuffer buffer)
+    {
+        if (buffer == null ||
+            buffer.capacity() != bufferSize_ ||
+            buffer.isDirect() != direct_)
+            return;
+
+        buffer.clear();
+
+        if (idle_.size() < maxIdle_)
+            idle_.addFirst(buffer);
+    }
+
+
+    /**
+     * Returns the capacity of the buffers managed by this pool.
+     *
+     * @return int
+     */
+    public int getBufferSize()
+    {
+        return bufferSize_;
+    }
+
+
+    /**
+     * Returns the number of buffers currently idle in the pool.
+     *
+     * @return int
+     */
+    public synchronized int getIdleCount()
+    {
+        return idle_.size();
+    }
+
+
+    /**
+     * Returns the number of buffers allocated over the life of the pool.
+     *
+     * @return int
+     */
+    public synchronized int getAllocatedCount()
+    {
+        return allocated_;
+    }
+}
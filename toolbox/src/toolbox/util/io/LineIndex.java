@@ -0,0 +1,593 @@
+package toolbox.util.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Index of the line boundaries of a text file that provides random access to
+ * lines by line number without keeping the file's contents on the heap.
+ * <p>
+ * The file is scanned through a reused direct buffer and the start offset of
+ * every Nth line (the stride) is kept in a primitive long array. A line is
+ * fetched by seeking to the nearest preceding checkpoint and reading forward,
+ * so the heap used by the index is about <code>8 * lines / stride</code>
+ * bytes regardless of how long the lines are.
+ * <p>
+ * The index is built incrementally; {@link #refresh()} only scans bytes
+ * appended since the last refresh, which makes it suitable for files that are
+ * being tailed. A file that is truncated is indexed again from the beginning.
+ * A file that is replaced, as when a log is rotated, is reopened and indexed
+ * again from the beginning. Since the identity of a file is not available,
+ * replacement is detected by the file at the path being longer than the open
+ * file or shorter than what has been indexed. A {@link Listener} passed to
+ * {@link #refresh(Listener)} is told about a reset before the file is indexed
+ * again and about each chunk as it is indexed.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * LineIndex index = new LineIndex(new File("server.log"));
+ * index.refresh();
+ * String[] lines = index.getLines(index.getLineCount() - 10, 10);
+ * index.close();
+ * </pre>
+ */
+public class LineIndex
+{
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default number of lines between checkpoints.
+     */
+    public static final int DEFAULT_STRIDE = 128;
+
+    /**
+     * Returned by refresh() when the file has not changed.
+     */
+    public static final int UNCHANGED = 0;
+
+    /**
+     * Returned by refresh() when lines have been appended to the file.
+     */
+    public static final int APPENDED = 1;
+
+    /**
+     * Returned by refresh() when the file was truncated or replaced and
+     * re-indexed.
+     * Previously returned lines are no longer valid.
+     */
+    public static final int RESET = 2;
+
+    /**
+     * Size of the buffer used to scan the file for newlines.
+     */
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Size of the buffer used to read lines.
+     */
+    private static final int READ_BUFFER_SIZE = 16384;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * File being indexed.
+     */
+    private File file_;
+
+    /**
+     * Charset used to decode lines.
+     */
+    private String charset_;
+
+    /**
+     * Open handle to the file.
+     */
+    private RandomAccessFile raf_;
+
+    /**
+     * Channel used to read the file.
+     */
+    private FileChannel channel_;
+
+    /**
+     * Set once the index has been closed.
+     */
+    private boolean closed_;
+
+    /**
+     * Number of lines between checkpoints.
+     */
+    private int stride_;
+
+    /**
+     * Start offset of every stride'th line. Element k holds the start of line
+     * k * stride.
+     */
+    private long[] checkpoints_;
+
+    /**
+     * Number of valid elements in checkpoints_.
+     */
+    private int checkpointCount_;
+
+    /**
+     * Number of newline terminated lines indexed.
+     */
+    private int terminatedCount_;
+
+    /**
+     * Start offset of the line following the last newline.
+     */
+    private long lastLineStart_;
+
+    /**
+     * Number of bytes of the file indexed.
+     */
+    private long indexedLength_;
+
+    /**
+     * Buffer used to read lines.
+     */
+    private ByteBuffer readBuffer_;
+
+    /**
+     * Buffer used to scan the file. Only used while holding refreshLock_.
+     */
+    private ByteBuffer scanBuffer_;
+
+    /**
+     * Serializes refreshes so that scanning can proceed without holding the
+     * lock that guards the index.
+     */
+    private final Object refreshLock_ = new Object();
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a LineIndex using the platform charset and default stride.
+     *
+     * @param file File to index.
+     * @throws FileNotFoundException if the file does not exist.
+     */
+    public LineIndex(File file) throws FileNotFoundException
+    {
+        this(file, System.getProperty("file.encoding"), DEFAULT_STRIDE);
+    }
+
+
+    /**
+     * Creates a LineIndex. Lines are split on the newline byte so the charset
+     * must be ASCII compatible (ISO-8859-x, UTF-8, Cp125x, etc).
+     *
+     * @param file File to index.
+     * @param charset Name of the charset used to decode lines.
+     * @param stride Number of lines between checkpoints. Larger values use
+     *        less memory at the expense of slower random access.
+     * @throws FileNotFoundException if the file does not exist.
+     */
+    public LineIndex(File file, String charset, int stride)
+        throws FileNotFoundException
+    {
+        if (stride <= 0)
+            throw new IllegalArgumentException(
+                "Stride must be positive: " + stride);
+
+        file_ = file;
+        charset_ = charset;
+        stride_ = stride;
+        raf_ = new RandomAccessFile(file, "r");
+        channel_ = raf_.getChannel();
+        readBuffer_ = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        scanBuffer_ = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+        reset();
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Indexes any bytes appended to the file since the last refresh. Lines
+     * remain accessible while a refresh is in progress.
+     *
+     * @return UNCHANGED, APPENDED or RESET.
+     * @throws IOException on I/O error.
+     */
+    public int refresh() throws IOException
+    {
+        return refresh(null);
+    }
+
+
+    /**
+     * Indexes any bytes appended to the file since the last refresh and
+     * reports progress as it goes. Lines remain accessible while a refresh is
+     * in progress.
+     *
+     * @param listener Notified of a reset and of each indexed chunk on the
+     *        calling thread. May be null.
+     * @return UNCHANGED, APPENDED or RESET.
+     * @throws IOException on I/O error.
+     */
+    public int refresh(Listener listener) throws IOException
+    {
+        synchronized (refreshLock_)
+        {
+            int result = UNCHANGED;
+            FileChannel channel;
+            long size;
+            long pos;
+            long lineStart;
+            int terminated;
+
+            synchronized (this)
+            {
+                // Path length is read first so that an append between the
+                // two reads can't make the open file look replaced
+                long pathLength = file_.length();
+                size = channel_.size();
+
+                boolean replaced =
+                    file_.exists() &&
+                    (pathLength > size || pathLength < indexedLength_);
+
+                if (replaced && reopen())
+                    size = channel_.size();
+                else
+                    replaced = false;
+
+                if (replaced || size < indexedLength_)
+                {
+                    reset();
+                    result = RESET;
+                }
+
+                channel = channel_;
+
+                pos = indexedLength_;
+                lineStart = lastLineStart_;
+                terminated = terminatedCount_;
+            }
+
+            if (result == RESET && listener != null)
+                listener.indexed(this, RESET);
+
+            long[] found = new long[16];
+
+            while (pos < size)
+            {
+                scanBuffer_.clear();
+
+                if (size - pos < scanBuffer_.capacity())
+                    scanBuffer_.limit((int) (size - pos));
+
+                int length = channel.read(scanBuffer_, pos);
+
+                // Shrunk while scanning, picked up by the next refresh
+                if (length <= 0)
+                    break;
+
+                int foundCount = 0;
+
+                for (int i = 0; i < length; i++)
+                {
+                    if (scanBuffer_.get(i) == '\n')
+                    {
+                        terminated++;
+                        lineStart = pos + i + 1;
+
+                        if (terminated % stride_ == 0)
+                        {
+                            if (foundCount == found.length)
+                                found = grow(found, foundCount);
+
+                            found[foundCount++] = lineStart;
+                        }
+                    }
+                }
+
+                pos += length;
+
+                // Publish one buffer at a time so a huge file becomes
+                // browsable while it is still being indexed
+                synchronized (this)
+                {
+                    for (int i = 0; i < foundCount; i++)
+                        addCheckpoint(found[i]);
+
+                    terminatedCount_ = terminated;
+                    lastLineStart_ = lineStart;
+                    indexedLength_ = pos;
+                }
+
+                if (result == UNCHANGED)
+                    result = APPENDED;
+
+                if (listener != null)
+                    listener.indexed(this, APPENDED);
+            }
+
+            return result;
+        }
+    }
+
+
+    /**
+     * Returns the number of lines indexed. An unterminated last line counts
+     * as a line.
+     *
+     * @return int
+     */
+    public synchronized int getLineCount()
+    {
+        return terminatedCount_ + (lastLineStart_ < indexedLength_ ? 1 : 0);
+    }
+
+
+    /**
+     * Returns the number of bytes of the file that have been indexed.
+     *
+     * @return long
+     */
+    public synchronized long getIndexedLength()
+    {
+        return indexedLength_;
+    }
+
+
+    /**
+     * Returns a single line.
+     *
+     * @param line Zero based line number.
+     * @return String
+     * @throws IOException on I/O error.
+     * @throws IndexOutOfBoundsException if the line does not exist.
+     */
+    public String getLine(int line) throws IOException
+    {
+        return getLines(line, 1)[0];
+    }
+
+
+    /**
+     * Returns a range of consecutive lines. Line terminators (LF or CR/LF)
+     * are not included.
+     *
+     * @param first Zero based number of the first line.
+     * @param count Number of lines to return.
+     * @return String[] of count lines.
+     * @throws IOException on I/O error.
+     * @throws IndexOutOfBoundsException if the range does not exist.
+     */
+    public synchronized String[] getLines(int first, int count)
+        throws IOException
+    {
+        if (first < 0 || count < 0 || first + count > getLineCount())
+            throw new IndexOutOfBoundsException(
+                "Lines " + first + ".." + (first + count) + " of " +
+                getLineCount());
+
+        String[] lines = new String[count];
+        int line = (first / stride_) * stride_;
+        long pos = checkpoints_[first / stride_];
+
+        byte[] current = new byte[256];
+        int currentLength = 0;
+        int collected = 0;
+
+        readBuffer_.clear();
+        readBuffer_.flip();
+
+        while (collected < count)
+        {
+            if (!readBuffer_.hasRemaining())
+            {
+                if (pos >= indexedLength_)
+                {
+                    // Unterminated last line
+                    lines[collected++] =
+                        decode(current, currentLength);
+                    break;
+                }
+
+                readBuffer_.clear();
+
+                if (indexedLength_ - pos < readBuffer_.capacity())
+                    readBuffer_.limit((int) (indexedLength_ - pos));
+
+                int n = channel_.read(readBuffer_, pos);
+
+                if (n <= 0)
+                    throw new IOException(
+                        file_ + " shrunk to " + pos + " bytes while reading");
+
+                pos += n;
+                readBuffer_.flip();
+            }
+
+            byte b = readBuffer_.get();
+
+            if (b == '\n')
+            {
+                if (line >= first)
+                    lines[collected++] = decode(current, currentLength);
+
+                line++;
+                currentLength = 0;
+            }
+            else if (line >= first)
+            {
+                if (currentLength == current.length)
+                    current = grow(current, currentLength);
+
+                current[currentLength++] = b;
+            }
+        }
+
+        return lines;
+    }
+
+
+    /**
+     * Returns the file being indexed.
+     *
+     * @return File
+     */
+    public File getFile()
+    {
+        return file_;
+    }
+
+
+    /**
+     * Releases the handle to the file.
+     *
+     * @throws IOException on I/O error.
+     */
+    public synchronized void close() throws IOException
+    {
+        closed_ = true;
+        raf_.close();
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Replaces the open handle with a new handle to the file at the path.
+     * The old handle is kept if the file can't be opened, e.g. because it
+     * was removed again, and the next refresh tries again.
+     *
+     * @return True if the file was reopened.
+     * @throws IOException on I/O error.
+     */
+    private synchronized boolean reopen() throws IOException
+    {
+        if (closed_)
+            return false;
+
+        RandomAccessFile raf;
+
+        try
+        {
+            raf = new RandomAccessFile(file_, "r");
+        }
+        catch (FileNotFoundException e)
+        {
+            return false;
+        }
+
+        raf_.close();
+        raf_ = raf;
+        channel_ = raf.getChannel();
+        return true;
+    }
+
+
+    /**
+     * Clears the index.
+     */
+    private synchronized void reset()
+    {
+        checkpoints_ = new long[64];
+        checkpoints_[0] = 0;
+        checkpointCount_ = 1;
+        terminatedCount_ = 0;
+        lastLineStart_ = 0;
+        indexedLength_ = 0;
+    }
+
+
+    /**
+     * Appends a checkpoint.
+     *
+     * @param offset Start offset of the line.
+     */
+    private void addCheckpoint(long offset)
+    {
+        if (checkpointCount_ == checkpoints_.length)
+            checkpoints_ = grow(checkpoints_, checkpointCount_);
+
+        checkpoints_[checkpointCount_++] = offset;
+    }
+
+
+    /**
+     * Decodes a line dropping the carriage return of a CR/LF terminator.
+     *
+     * @param bytes Line contents.
+     * @param length Number of valid bytes.
+     * @return String
+     * @throws UnsupportedEncodingException if the charset is not supported.
+     */
+    private String decode(byte[] bytes, int length)
+        throws UnsupportedEncodingException
+    {
+        if (length > 0 && bytes[length - 1] == '\r')
+            length--;
+
+        return new String(bytes, 0, length, charset_);
+    }
+
+
+    /**
+     * Doubles the capacity of an array.
+     *
+     * @param array Array to grow.
+     * @param length Number of valid elements.
+     * @return long[]
+     */
+    private static long[] grow(long[] array, int length)
+    {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, length);
+        return grown;
+    }
+
+
+    /**
+     * Doubles the capacity of an array.
+     *
+     * @param array Array to grow.
+     * @param length Number of valid elements.
+     * @return byte[]
+     */
+    private static byte[] grow(byte[] array, int length)
+    {
+        byte[] grown = new byte[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, length);
+        return grown;
+    }
+
+    //--------------------------------------------------------------------------
+    // Interface Listener
+    //--------------------------------------------------------------------------
+
+    /**
+     * Receives progress of a refresh.
+     */
+    public static interface Listener
+    {
+        /**
+         * Signals that the index changed. Called with RESET once the index
+         * has been cleared and before the file is indexed again, and with
+         * APPENDED each time a chunk of the file has been indexed.
+         *
+         * @param index Index that changed.
+         * @param result RESET or APPENDED.
+         */
+        void indexed(LineIndex index, int result);
+    }
+}
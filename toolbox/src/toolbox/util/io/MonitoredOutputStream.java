@@ -135,6 +135,20 @@ public class MonitoredOutputStream extends FilterOutputStream
     }
 
     
+    /**
+     * Writes the array to the underlying stream in one call and updates the
+     * monitors once for the whole chunk.
+     * 
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        out.write(b, off, len);
+        throughputMonitor_.newBytesTransferred(len);
+        transferredMonitor_.newBytesTransferred(len);
+    }
+
+    
     /**
      * Causes firing of stream flushed event.
      * 
@@ -30,6 +30,11 @@ import toolbox.util.ArrayUtil;
  *     IOUtils.closeQuietly(mos);
  * }
  * </pre>
+ * 
+ * Array writes are fanned out to each member of the group as a single chunk so
+ * the cost of multicasting scales with the number of writes rather than the
+ * number of bytes. Group membership is copy-on-write, so writes never block
+ * on changes to the group.
  */
 public class MulticastOutputStream extends OutputStream {
 
@@ -48,9 +53,10 @@ public class MulticastOutputStream extends OutputStream {
     // --------------------------------------------------------------------------
 
     /**
-     * Members of the multicast group of streams.
+     * Members of the multicast group of streams. Replaced, never modified, when
+     * the group membership changes.
      */
-    private OutputStream[] streams_;
+    private volatile OutputStream[] streams_;
 
     // --------------------------------------------------------------------------
     // Constructors
@@ -112,10 +118,43 @@ public class MulticastOutputStream extends OutputStream {
      * 
      * @see java.io.OutputStream#write(int)
      */
-    public synchronized void write(int b) throws IOException {
-        for (int i = 0; i < streams_.length; i++) {
+    public void write(int b) throws IOException {
+        OutputStream[] streams = streams_;
+        
+        for (int i = 0; i < streams.length; i++) {
+            try {
+                streams[i].write(b);
+            }
+            catch (IOException ioe) {
+                logger_.error(ioe);
+            }
+        }
+    }
+
+
+    /*
+     * Writes the byte array to each stream in the multicast group.
+     * 
+     * @see java.io.OutputStream#write(byte[])
+     */
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+    
+    
+    /*
+     * Writes a portion of the byte array to each stream in the multicast group
+     * in a single call per stream. If one of the writes should fail, the 
+     * failure is logged and the operation continues.
+     * 
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        OutputStream[] streams = streams_;
+        
+        for (int i = 0; i < streams.length; i++) {
             try {
-                streams_[i].write(b);
+                streams[i].write(b, off, len);
             }
             catch (IOException ioe) {
                 logger_.error(ioe);
@@ -130,10 +169,12 @@ public class MulticastOutputStream extends OutputStream {
      * 
      * @see java.io.OutputStream#flush()
      */
-    public synchronized void flush() throws IOException {
-        for (int i = 0; i < streams_.length; i++) {
+    public void flush() throws IOException {
+        OutputStream[] streams = streams_;
+        
+        for (int i = 0; i < streams.length; i++) {
             try {
-                streams_[i].flush();
+                streams[i].flush();
             }
             catch (IOException ioe) {
                 logger_.error(ioe);
@@ -148,10 +189,12 @@ public class MulticastOutputStream extends OutputStream {
      * 
      * @see java.io.OutputStream#close()
      */
-    public synchronized void close() throws IOException {
-        for (int i = 0; i < streams_.length; i++) {
+    public void close() throws IOException {
+        OutputStream[] streams = streams_;
+        
+        for (int i = 0; i < streams.length; i++) {
             try {
-                streams_[i].close();
+                streams[i].close();
             }
             catch (IOException ioe) {
                 logger_.error(ioe);
@@ -28,6 +28,9 @@ import toolbox.util.service.Enableable;
  * System.out.println(sos.toString()); 
  * </pre>
  * 
+ * Array writes are filtered in bulk against a precomputed lookup table and
+ * forwarded to the underlying stream as a single chunk.
+ * 
  * @see java.io.OutputStream
  */
 public class PrintableOutputStream extends FilterOutputStream 
@@ -36,6 +39,25 @@ public class PrintableOutputStream extends FilterOutputStream
     // TODO: Allow exempt characters to be specified at runtime.
     // TODO: Allow customizable replacement characters with a map.
     
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Lookup table indexed by unsigned byte value. True if the byte is 
+     * printable and passes through the filter.
+     */
+    private static final boolean[] PRINTABLE = new boolean[256];
+    
+    static
+    {
+        for (int i = 32; i <= 126; i++)
+            PRINTABLE[i] = true;
+        
+        PRINTABLE['\n'] = true;
+        PRINTABLE['\t'] = true;
+    }
+    
     //--------------------------------------------------------------------------
     // Fields
     //--------------------------------------------------------------------------
@@ -45,6 +67,16 @@ public class PrintableOutputStream extends FilterOutputStream
      */
     private String substitute_;
     
+    /**
+     * Bytes of the replacement string. Empty array to discard.
+     */
+    private byte[] substituteBytes_;
+    
+    /**
+     * Reusable buffer for filtered output of array writes.
+     */
+    private byte[] filtered_;
+    
     /**
      * Flag for enabling/disabling the printable character criteria. When
      * not enabled, this stream is effectively a transparent passthrough.
@@ -96,14 +128,53 @@ public class PrintableOutputStream extends FilterOutputStream
      */
     public void write(int b) throws IOException
     {
-        char c = (char) b;
-        
+        if (!enabled_ || PRINTABLE[b & 0xff])
+            out.write(b);
+        else if (substituteBytes_.length > 0)
+            out.write(substituteBytes_); 
+    }
+    
+    
+    /**
+     * Filters out non-printable characters of a byte array and forwards the
+     * result to the underlying stream in a single write.
+     * 
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
         if (!enabled_)
-            super.write(b);
-        else if ((b >=  32 && b <= 126) || c == '\n' || c == '\t') 
-            super.write(b);
-        else if (!StringUtils.isEmpty(substitute_))
-            out.write(substitute_.getBytes()); 
+        {
+            out.write(b, off, len);
+            return;
+        }
+        
+        byte[] sub = substituteBytes_;
+        int max = len * Math.max(1, sub.length);
+        
+        if (filtered_ == null || filtered_.length < max)
+            filtered_ = new byte[max];
+        
+        byte[] filtered = filtered_;
+        int n = 0;
+        
+        for (int i = off, end = off + len; i < end; i++)
+        {
+            byte c = b[i];
+            
+            if (PRINTABLE[c & 0xff])
+            {
+                filtered[n++] = c;
+            }
+            else
+            {
+                for (int j = 0; j < sub.length; j++)
+                    filtered[n++] = sub[j];
+            }
+        }
+        
+        if (n > 0)
+            out.write(filtered, 0, n);
     }
     
     //--------------------------------------------------------------------------
@@ -144,6 +215,10 @@ public class PrintableOutputStream extends FilterOutputStream
     public void setSubstitute(String substitute)
     {
         substitute_ = substitute;
+        
+        substituteBytes_ = StringUtils.isEmpty(substitute) 
+            ? new byte[0] 
+            : substitute.getBytes();
     }
     
     
@@ -5,18 +5,48 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 /**
  * Reader that traverses a file efficiently in reverse order.
+ * <p>
+ * The file is read backwards in large blocks which are cached, so traversing
+ * the file costs one seek and read per block rather than per character. 
+ * Characters returned by {@link #read()} and {@link #readLine()} are the raw 
+ * bytes of the file. {@link #readLineNormal()} and {@link #readLastLines(int)}
+ * decode each line with the charset the reader was created with. Lines are 
+ * split on the newline byte which is safe for any ASCII compatible charset 
+ * (including UTF-8) since it never occurs within a multi-byte sequence.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * ReverseFileReader reader = new ReverseFileReader(new File("server.log"));
+ * String[] lastLines = reader.readLastLines(100);
+ * reader.close();
+ * </pre>
  */
 public class ReverseFileReader extends Reader
 {
     private static final Logger logger_ =
         Logger.getLogger(ReverseFileReader.class);
 
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Default size of the blocks read from the file.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 65536;
+    
+    /**
+     * Charset used when none is specified. Maps each byte to the character 
+     * with the same value.
+     */
+    private static final String DEFAULT_CHARSET = "ISO-8859-1";
+    
     //--------------------------------------------------------------------------
     // Fields 
     //--------------------------------------------------------------------------
@@ -31,6 +61,26 @@ public class ReverseFileReader extends Reader
      */
     private long pointer_;
 
+    /**
+     * Charset used to decode lines.
+     */
+    private String charset_;
+    
+    /**
+     * Cached block of the file.
+     */
+    private byte[] block_;
+    
+    /**
+     * File offset of the first byte in the cached block.
+     */
+    private long blockStart_;
+    
+    /**
+     * Number of valid bytes in the cached block.
+     */
+    private int blockLength_;
+    
     //--------------------------------------------------------------------------
     // Constructors
     //--------------------------------------------------------------------------
@@ -45,6 +95,46 @@ public class ReverseFileReader extends Reader
     public ReverseFileReader(File file) throws IOException, 
         FileNotFoundException
     {
+        this(file, DEFAULT_CHARSET, DEFAULT_BLOCK_SIZE);
+    }
+    
+    
+    /**
+     * Creates a ReverseFileReader.
+     * 
+     * @param file File to read in reverse order.
+     * @param charset Name of the charset used to decode lines.
+     * @throws IOException on I/O error.
+     * @throws FileNotFoundException for non-existant file. 
+     * @throws UnsupportedEncodingException if the charset is not supported.
+     */        
+    public ReverseFileReader(File file, String charset) throws IOException, 
+        FileNotFoundException
+    {
+        this(file, charset, DEFAULT_BLOCK_SIZE);
+    }
+    
+    
+    /**
+     * Creates a ReverseFileReader.
+     * 
+     * @param file File to read in reverse order.
+     * @param charset Name of the charset used to decode lines.
+     * @param blockSize Size of the blocks read from the file.
+     * @throws IOException on I/O error.
+     * @throws FileNotFoundException for non-existant file. 
+     * @throws UnsupportedEncodingException if the charset is not supported.
+     */        
+    public ReverseFileReader(File file, String charset, int blockSize) 
+        throws IOException, FileNotFoundException
+    {
+        // Fail fast on a bad charset
+        new String(new byte[0], charset);
+        
+        charset_ = charset;
+        block_ = new byte[blockSize];
+        blockStart_ = 0;
+        blockLength_ = 0;
         file_ = new RandomAccessFile(file, "r");
         pointer_ = file_.length();
     }
@@ -58,16 +148,10 @@ public class ReverseFileReader extends Reader
      */
     public int read() throws IOException
     {
-        int ch = -1;
+        if (atEnd())
+            return -1;
         
-        if (!atEnd())
-        {
-            file_.seek(pointer_ - 1);
-            ch = file_.read();
-            --pointer_;
-        }
-        
-        return ch;
+        return byteAt(--pointer_) & 0xff;
     }
 
     
@@ -163,32 +247,17 @@ public class ReverseFileReader extends Reader
      */
     public String readLine() throws IOException
     {
-        String line = null;
-        StringBuffer sb = new StringBuffer();
+        byte[] line = readLineBytes();
         
-        while (!atEnd())
-        {
-            int i = read();
-            char c = (char) i;
-            
-            if (c == '\n')
-            {
-                line = sb.toString();
-                break;
-            }
-            else if (atEnd())
-            {
-                sb.append(c);
-                line = sb.toString();
-                break;
-            }
-            else
-            {
-                sb.append(c);
-            }
-        }
+        if (line == null)
+            return null;
         
-        return line;
+        char[] chars = new char[line.length];
+        
+        for (int i = 0, j = line.length - 1; j >= 0; i++, j--)
+            chars[i] = (char) (line[j] & 0xff);
+        
+        return new String(chars);
     }
     
     
@@ -213,8 +282,53 @@ public class ReverseFileReader extends Reader
      */
     public String readLineNormal() throws IOException
     {
-        String line = readLine();
-        return (line != null ? StringUtils.reverse(line) : line);
+        byte[] line = readLineBytes();
+        return (line != null ? new String(line, charset_) : null);
+    }
+    
+    
+    /**
+     * Reads up to the last n lines before the current position of the reader
+     * and returns them in normal reading order, oldest line first. Unlike 
+     * readLineNormal(), a newline at the very end of the file terminates the
+     * last line instead of starting an empty one, and carriage returns of 
+     * CR/LF line endings are dropped, so the result matches what 
+     * BufferedReader.readLine() would have returned for those lines.
+     * 
+     * @param n Maximum number of lines to return.
+     * @return String[] of at most n lines. Empty if there are none.
+     * @throws IOException on I/O error.
+     */
+    public String[] readLastLines(int n) throws IOException
+    {
+        if (n <= 0)
+            return new String[0];
+        
+        // Trailing newline terminates the last line
+        if (!atEnd() && byteAt(pointer_ - 1) == '\n')
+            pointer_--;
+        
+        String[] lines = new String[n];
+        int count = 0;
+        
+        while (count < n)
+        {
+            byte[] line = readLineBytes();
+            
+            if (line == null)
+                break;
+            
+            int length = line.length;
+            
+            if (length > 0 && line[length - 1] == '\r')
+                length--;
+            
+            lines[n - ++count] = new String(line, 0, length, charset_);
+        }
+        
+        String[] result = new String[count];
+        System.arraycopy(lines, n - count, result, 0, count);
+        return result;
     }
     
     
@@ -228,4 +342,99 @@ public class ReverseFileReader extends Reader
     {
         return pointer_ <= 0;
     }
-}
\ No newline at end of file
+    
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Reads the bytes of the line preceding the current position and moves 
+     * the position to the newline that starts it.
+     * 
+     * @return Bytes of the line in normal order or null if the beginning of the
+     *         file has been reached.
+     * @throws IOException on I/O error.
+     */
+    private byte[] readLineBytes() throws IOException
+    {
+        if (atEnd())
+            return null;
+        
+        long end = pointer_;
+        long newline = -1;
+        
+        // Scan back block by block for the previous newline
+        for (long pos = end - 1; pos >= 0; )
+        {
+            ensureCached(pos);
+            
+            int i = (int) (pos - blockStart_);
+            
+            while (i >= 0 && block_[i] != '\n')
+                i--;
+            
+            if (i >= 0)
+            {
+                newline = blockStart_ + i;
+                break;
+            }
+            
+            pos = blockStart_ - 1;
+        }
+        
+        long start = newline + 1;
+        byte[] line = new byte[(int) (end - start)];
+        
+        if (start >= blockStart_ && end <= blockStart_ + blockLength_)
+        {
+            System.arraycopy(
+                block_, (int) (start - blockStart_), line, 0, line.length);
+        }
+        else
+        {
+            // Line spans more than one block
+            file_.seek(start);
+            file_.readFully(line);
+        }
+        
+        pointer_ = Math.max(newline, 0);
+        return line;
+    }
+    
+    
+    /**
+     * Returns the byte at the given offset of the file.
+     * 
+     * @param pos File offset.
+     * @return byte
+     * @throws IOException on I/O error.
+     */
+    private byte byteAt(long pos) throws IOException
+    {
+        ensureCached(pos);
+        return block_[(int) (pos - blockStart_)];
+    }
+    
+    
+    /**
+     * Makes sure the byte at the given offset is in the cached block. Since
+     * the file is traversed backwards, a new block is read such that it ends 
+     * right after the requested offset.
+     * 
+     * @param pos File offset.
+     * @throws IOException on I/O error.
+     */
+    private void ensureCached(long pos) throws IOException
+    {
+        if (pos >= blockStart_ && pos < blockStart_ + blockLength_)
+            return;
+        
+        long end = pos + 1;
+        long start = Math.max(0, end - block_.length);
+        
+        file_.seek(start);
+        file_.readFully(block_, 0, (int) (end - start));
+        blockStart_ = start;
+        blockLength_ = (int) (end - start);
+    }
+}
@@ -101,13 +101,13 @@ public class DefaultTransferredMonitor implements TransferredMonitor
      */
     public void newBytesTransferred(long count) 
     {
-        for (int i = 0; i < count; i++) 
-        {
-            ++totalTransferred_;
-            
-            if ((totalTransferred_ % getSampleLength()) == 0)
-                fireBytesTransferred();
-        }
+        long sampleLength = getSampleLength();
+        long before = totalTransferred_ / sampleLength;
+        totalTransferred_ += count;
+        
+        // Fire once for each sample boundary crossed by this chunk
+        for (long i = totalTransferred_ / sampleLength - before; i > 0; i--)
+            fireBytesTransferred();
     }
     
     
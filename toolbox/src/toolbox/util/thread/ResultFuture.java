@@ -0,0 +1,643 @@
+package toolbox.util.thread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.emory.mathcs.backport.java.util.concurrent.CancellationException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.Future;
+import edu.emory.mathcs.backport.java.util.concurrent.ScheduledThreadPoolExecutor;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * ResultFuture is the result of a request that completes some time in the
+ * future. Unlike ReturnValue, callers don't have to park a thread to find out
+ * when the result is available. Callbacks can be registered with
+ * {@link #whenComplete(Callback)} and results can be transformed and combined
+ * with {@link #then(Function)} and {@link #allOf(ResultFuture[])} without
+ * blocking. It also implements Future so it can be used wherever a
+ * backport-util-concurrent Future is expected.
+ * <p>
+ * A request fails if it throws an exception. Cancelling a running request
+ * with cancel(true) interrupts the thread processing it.
+ * <p>
+ * Callbacks and functions are run by the thread that completes the future, or
+ * by the registering thread if the future is already complete, so they should
+ * be short.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * ThreadDispatcher dispatcher =
+ *     new ThreadDispatcher(new WorkStealingStrategy());
+ *
+ * ResultFuture[] lookups = new ResultFuture[ips.length];
+ *
+ * for (int i = 0; i < ips.length; i++)
+ *     lookups[i] = dispatcher.submit(new Lookup(ips[i])).withTimeout(5000);
+ *
+ * ResultFuture.allOf(lookups).whenComplete(new ResultFuture.Callback()
+ * {
+ *     public void completed(Object value, Throwable error)
+ *     {
+ *         Object[] hostnames = (Object[]) value;
+ *         ...
+ *     }
+ * });
+ * </pre>
+ *
+ * @see toolbox.util.thread.ThreadDispatcher#submit(IThreadable)
+ */
+public class ResultFuture implements Future
+{
+    private static final Logger logger_ = Logger.getLogger(ResultFuture.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Not completed yet.
+     */
+    private static final int STATE_PENDING = 0;
+
+    /**
+     * Completed with a value.
+     */
+    private static final int STATE_SUCCEEDED = 1;
+
+    /**
+     * Completed with an error.
+     */
+    private static final int STATE_FAILED = 2;
+
+    /**
+     * Cancelled before completion.
+     */
+    private static final int STATE_CANCELLED = 3;
+
+    //--------------------------------------------------------------------------
+    // Static Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Shared timer for withTimeout(). Created on first use.
+     */
+    private static ScheduledThreadPoolExecutor timer_;
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Current state.
+     */
+    private int state_;
+
+    /**
+     * Value once completed successfully.
+     */
+    private Object value_;
+
+    /**
+     * Error once failed or cancelled.
+     */
+    private Throwable error_;
+
+    /**
+     * Callbacks to notify on completion. Null once completed.
+     */
+    private List callbacks_;
+
+    /**
+     * Thread processing the request or null if not running.
+     */
+    private Thread runner_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates an incomplete ResultFuture.
+     */
+    public ResultFuture()
+    {
+        state_ = STATE_PENDING;
+        callbacks_ = new ArrayList(2);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public Static
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns a future that is already completed with a value.
+     *
+     * @param value Value.
+     * @return ResultFuture
+     */
+    public static ResultFuture completed(Object value)
+    {
+        ResultFuture future = new ResultFuture();
+        future.complete(value);
+        return future;
+    }
+
+
+    /**
+     * Returns a future that completes with an Object[] of the values of all
+     * the given futures, in the same order, once all of them have completed.
+     * It fails as soon as any of them fails or is cancelled.
+     *
+     * @param futures Futures to combine.
+     * @return ResultFuture
+     */
+    public static ResultFuture allOf(final ResultFuture[] futures)
+    {
+        final ResultFuture all = new ResultFuture();
+        final Object[] values = new Object[futures.length];
+        final int[] remaining = new int[] {futures.length};
+
+        if (futures.length == 0)
+            all.complete(values);
+
+        for (int i = 0; i < futures.length; i++)
+        {
+            final int index = i;
+
+            futures[i].whenComplete(new Callback()
+            {
+                public void completed(Object value, Throwable error)
+                {
+                    if (error != null)
+                    {
+                        all.fail(error);
+                        return;
+                    }
+
+                    boolean done;
+
+                    synchronized (values)
+                    {
+                        values[index] = value;
+                        done = --remaining[0] == 0;
+                    }
+
+                    if (done)
+                        all.complete(values);
+                }
+            });
+        }
+
+        return all;
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Completes this future with a value if it is not already complete.
+     *
+     * @param value Value.
+     * @return True if this call completed the future.
+     */
+    public boolean complete(Object value)
+    {
+        return finish(STATE_SUCCEEDED, value, null);
+    }
+
+
+    /**
+     * Completes this future with an error if it is not already complete.
+     *
+     * @param error Cause of the failure.
+     * @return True if this call completed the future.
+     */
+    public boolean fail(Throwable error)
+    {
+        return finish(STATE_FAILED, null, error);
+    }
+
+
+    /**
+     * Returns true if this future completed with an error.
+     *
+     * @return boolean
+     */
+    public synchronized boolean isFailed()
+    {
+        return state_ == STATE_FAILED;
+    }
+
+
+    /**
+     * Registers a callback to be notified when this future completes. If it
+     * is already complete, the callback is notified immediately.
+     *
+     * @param callback Callback to notify.
+     * @return This future.
+     */
+    public ResultFuture whenComplete(Callback callback)
+    {
+        synchronized (this)
+        {
+            if (state_ == STATE_PENDING)
+            {
+                callbacks_.add(callback);
+                return this;
+            }
+        }
+
+        notify(callback);
+        return this;
+    }
+
+
+    /**
+     * Returns a future that completes with the result of applying a function
+     * to the value of this future. If this future fails or the function
+     * throws, the returned future fails.
+     *
+     * @param function Function to apply.
+     * @return ResultFuture
+     */
+    public ResultFuture then(final Function function)
+    {
+        final ResultFuture next = new ResultFuture();
+
+        whenComplete(new Callback()
+        {
+            public void completed(Object value, Throwable error)
+            {
+                if (error != null)
+                {
+                    next.fail(error);
+                    return;
+                }
+
+                try
+                {
+                    next.complete(function.apply(value));
+                }
+                catch (Exception e)
+                {
+                    next.fail(e);
+                }
+            }
+        });
+
+        return next;
+    }
+
+
+    /**
+     * Fails this future with a TimeoutException if it hasn't completed within
+     * the given time. The request itself is not interrupted.
+     *
+     * @param timeout Timeout in milliseconds.
+     * @return This future.
+     */
+    public ResultFuture withTimeout(final long timeout)
+    {
+        if (isDone())
+            return this;
+
+        final ScheduledThreadPoolExecutor timer = getTimer();
+        
+        final Future task = timer.schedule(new Runnable()
+        {
+            public void run()
+            {
+                fail(new TimeoutException(
+                    "Timed out after " + timeout + " ms"));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        // Don't keep the timer task around once no longer needed. Cancelling
+        // alone leaves it in the timer's queue until it would have run.
+        whenComplete(new Callback()
+        {
+            public void completed(Object value, Throwable error)
+            {
+                task.cancel(false);
+                timer.remove((Runnable) task);
+            }
+        });
+
+        return this;
+    }
+
+    //--------------------------------------------------------------------------
+    // Future Interface
+    //--------------------------------------------------------------------------
+
+    /**
+     * Cancels this future if it is not already complete.
+     *
+     * @param mayInterruptIfRunning True to interrupt the thread processing the
+     *        request.
+     * @return True if this call cancelled the future.
+     * @see edu.emory.mathcs.backport.java.util.concurrent.Future#cancel(
+     *      boolean)
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        List callbacks;
+
+        synchronized (this)
+        {
+            callbacks = transition(STATE_CANCELLED, null,
+                new CancellationException("Request cancelled"));
+
+            if (callbacks == null)
+                return false;
+
+            if (mayInterruptIfRunning && runner_ != null)
+                runner_.interrupt();
+        }
+
+        notifyAll(callbacks);
+        return true;
+    }
+
+
+    /**
+     * @see edu.emory.mathcs.backport.java.util.concurrent.Future#isCancelled()
+     */
+    public synchronized boolean isCancelled()
+    {
+        return state_ == STATE_CANCELLED;
+    }
+
+
+    /**
+     * @see edu.emory.mathcs.backport.java.util.concurrent.Future#isDone()
+     */
+    public synchronized boolean isDone()
+    {
+        return state_ != STATE_PENDING;
+    }
+
+
+    /**
+     * Waits for the value.
+     *
+     * @see edu.emory.mathcs.backport.java.util.concurrent.Future#get()
+     */
+    public synchronized Object get()
+        throws InterruptedException, ExecutionException
+    {
+        while (state_ == STATE_PENDING)
+            wait();
+
+        return report();
+    }
+
+
+    /**
+     * Waits for the value for at most the given time.
+     *
+     * @see edu.emory.mathcs.backport.java.util.concurrent.Future#get(long,
+     *      edu.emory.mathcs.backport.java.util.concurrent.TimeUnit)
+     */
+    public synchronized Object get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+        while (state_ == STATE_PENDING)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0)
+                throw new TimeoutException();
+
+            wait(remaining);
+        }
+
+        return report();
+    }
+
+    //--------------------------------------------------------------------------
+    // Strategy Support
+    //--------------------------------------------------------------------------
+
+    /**
+     * Runs a request in the current thread and completes this future with its
+     * result. Does nothing if the future was cancelled before the request
+     * started. Called by the dispatcher strategies.
+     *
+     * @param request Request to run.
+     */
+    public void run(IThreadable request)
+    {
+        synchronized (this)
+        {
+            if (state_ != STATE_PENDING)
+                return;
+
+            runner_ = Thread.currentThread();
+        }
+
+        try
+        {
+            complete(request.run());
+        }
+        catch (RuntimeException e)
+        {
+            fail(e);
+        }
+        catch (Error e)
+        {
+            fail(e);
+            throw e;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                runner_ = null;
+
+                // Don't let an interrupt from cancel() leak into the next
+                // request processed by a pooled thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Completes this future and notifies the callbacks.
+     *
+     * @param state Final state.
+     * @param value Value if succeeded.
+     * @param error Error if failed or cancelled.
+     * @return True if the future was completed by this call.
+     */
+    private boolean finish(int state, Object value, Throwable error)
+    {
+        List callbacks;
+
+        synchronized (this)
+        {
+            callbacks = transition(state, value, error);
+        }
+
+        if (callbacks == null)
+            return false;
+
+        notifyAll(callbacks);
+        return true;
+    }
+
+
+    /**
+     * Moves to a final state and wakes up waiting threads. Must be called
+     * with the lock held.
+     *
+     * @param state Final state.
+     * @param value Value if succeeded.
+     * @param error Error if failed or cancelled.
+     * @return Callbacks to notify or null if already complete.
+     */
+    private List transition(int state, Object value, Throwable error)
+    {
+        if (state_ != STATE_PENDING)
+            return null;
+
+        List callbacks = callbacks_;
+        state_ = state;
+        value_ = value;
+        error_ = error;
+        callbacks_ = null;
+        notifyAll();
+        return callbacks;
+    }
+
+
+    /**
+     * Notifies a list of callbacks.
+     *
+     * @param callbacks Callbacks to notify.
+     */
+    private void notifyAll(List callbacks)
+    {
+        for (Iterator i = callbacks.iterator(); i.hasNext();)
+            notify((Callback) i.next());
+    }
+
+
+    /**
+     * Notifies a callback of the outcome. Errors thrown by the callback are
+     * logged so that they don't prevent other callbacks from being notified.
+     *
+     * @param callback Callback to notify.
+     */
+    private void notify(Callback callback)
+    {
+        Object value;
+        Throwable error;
+
+        synchronized (this)
+        {
+            value = value_;
+            error = error_;
+        }
+
+        try
+        {
+            callback.completed(value, error);
+        }
+        catch (RuntimeException e)
+        {
+            logger_.error("Callback failed", e);
+        }
+    }
+
+
+    /**
+     * Returns the value or throws the appropriate exception. Must be called
+     * with the lock held once the future is complete.
+     *
+     * @return Object
+     * @throws ExecutionException if the future failed.
+     */
+    private Object report() throws ExecutionException
+    {
+        if (state_ == STATE_CANCELLED)
+            throw (CancellationException) error_;
+
+        if (state_ == STATE_FAILED)
+            throw new ExecutionException(error_);
+
+        return value_;
+    }
+
+
+    /**
+     * Returns the shared timer, creating it if necessary.
+     *
+     * @return ScheduledThreadPoolExecutor
+     */
+    static synchronized ScheduledThreadPoolExecutor getTimer()
+    {
+        if (timer_ == null)
+        {
+            timer_ = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "ResultFuture-Timer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return timer_;
+    }
+
+    //--------------------------------------------------------------------------
+    // Interfaces
+    //--------------------------------------------------------------------------
+
+    /**
+     * Notified when a ResultFuture completes.
+     */
+    public static interface Callback
+    {
+        /**
+         * Called once the future has completed.
+         *
+         * @param value Value if the future succeeded, null otherwise.
+         * @param error Cause if the future failed or was cancelled, null
+         *        otherwise.
+         */
+        void completed(Object value, Throwable error);
+    }
+
+
+    /**
+     * Transforms the value of a ResultFuture.
+     */
+    public static interface Function
+    {
+        /**
+         * Transforms a value.
+         *
+         * @param value Value to transform.
+         * @return Transformed value.
+         * @throws Exception on error.
+         */
+        Object apply(Object value) throws Exception;
+    }
+}
@@ -34,7 +34,7 @@ public final class ReturnValue
     /**
      * Current state.
      */
-    private int state_;
+    private volatile int state_;
     
     /**
      * The actual value of the return object, if any.
@@ -55,6 +55,22 @@ public final class ReturnValue
      * Is the return value available?
      */
     private EventSemaphore available_;
+    
+    /**
+     * Value of System.nanoTime() when this return value was created.
+     */
+    private long dispatchTime_ = System.nanoTime();
+    
+    /**
+     * Value of System.nanoTime() when the request was started. Only valid
+     * once started_ is set since any value, including 0, is a valid time.
+     */
+    private long startTime_;
+
+    /**
+     * Set once the request has been started.
+     */
+    private volatile boolean started_;
 
     //--------------------------------------------------------------------------
     // Constructors
@@ -109,9 +125,9 @@ public final class ReturnValue
      */
     public boolean isAvailable()
     {
-        // If this return value is constructed with a value, there is
-        // no need to allocate the event semaphore (expensive).
-        return available_ == null || available_.posted();
+        // setValue() writes the value before the volatile state, so once the
+        // state is finished the value can be read without waiting
+        return state_ == STATE_FINISHED;
     }
 
 
@@ -122,11 +138,14 @@ public final class ReturnValue
      */
     public Object getValue()
     {
-        if (isAvailable())
+        // setValue() clears the semaphore once posted
+        EventSemaphore available = available_;
+        
+        if (isAvailable() || available == null)
             return value_;
 
         // Wait for the value to be available.
-        available_.waitFor();
+        available.waitFor();
 
         return value_;
     }
@@ -141,6 +160,8 @@ public final class ReturnValue
         {
             if (state_ == STATE_PENDING)
             {
+                startTime_ = System.nanoTime();
+                started_ = true;
                 state_ = STATE_STARTED;
 
                 if (listener_ != null)
@@ -163,10 +184,12 @@ public final class ReturnValue
         if (isAvailable())
             throw new ValueAlreadyAssignedException();
 
+        // Assign the value before the state so that it is visible to threads
+        // that see the finished state
+        value_ = value;
         state_ = STATE_FINISHED;
 
         // Signal the availability of the value.
-        value_ = value;
 
         if (available_ != null)
         {
@@ -179,6 +202,40 @@ public final class ReturnValue
             listener_.finished(request_, value_);
     }
 
+    /**
+     * Returns the value of System.nanoTime() when the request was dispatched.
+     *
+     * @return long
+     */
+    public long getDispatchTime()
+    {
+        return dispatchTime_;
+    }
+
+
+    /**
+     * Returns the value of System.nanoTime() when the request was started.
+     * Only meaningful if {@link #hasStarted()} returns true.
+     *
+     * @return long
+     */
+    public long getStartTime()
+    {
+        return startTime_;
+    }
+
+
+    /**
+     * Returns true if the request has been started, whether or not it has
+     * finished since.
+     *
+     * @return boolean
+     */
+    public boolean hasStarted()
+    {
+        return started_;
+    }
+
     //--------------------------------------------------------------------------
     // Package
     //--------------------------------------------------------------------------
@@ -50,6 +50,24 @@ public class ThreadDispatcher extends AbstractDispatcher
     }
 
 
+    /**
+     * Dispatches the request in an alternate thread and returns a future that
+     * can be composed with other futures instead of blocking on the result.
+     *
+     * @param request Request to dispatch.
+     * @return ResultFuture
+     * @throws IllegalStateException if this dispatcher has been destroyed.
+     */
+    public ResultFuture submit(IThreadable request)
+        throws IllegalStateException
+    {
+        if (!isRunning())
+            throw new IllegalStateException();
+
+        return ((ThreadedDispatcherStrategy) getStrategy()).submit(request);
+    }
+
+
     /**
      * Blocks the current thread until all pending requests are complete. 
      */
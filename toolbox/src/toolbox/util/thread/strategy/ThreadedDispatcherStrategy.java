@@ -1,12 +1,19 @@
 package toolbox.util.thread.strategy;
 
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+
 import toolbox.util.thread.IThreadable;
+import toolbox.util.thread.ResultFuture;
 import toolbox.util.thread.ReturnValue;
 import toolbox.util.thread.ThreadContainer;
 
 /**
  * ThreadedDispatcherStrategy is the abstract class for all threaded 
- * dispatcher strategies. It offers a single method for thread creation. 
+ * dispatcher strategies. It offers a single method for thread creation and
+ * keeps metrics common to all strategies: the number of queued and active
+ * requests and the time requests spend waiting for a thread and being
+ * serviced. 
  */
 public abstract class ThreadedDispatcherStrategy 
     extends AbstractDispatcherStrategy
@@ -24,6 +31,31 @@ public abstract class ThreadedDispatcherStrategy
      * Thread container.
      */
     private ThreadContainer container_;
+    
+    /**
+     * Number of requests dispatched but not yet started.
+     */
+    private AtomicInteger queueDepth_;
+    
+    /**
+     * Number of requests currently being processed.
+     */
+    private AtomicInteger activeCount_;
+    
+    /**
+     * Number of requests that have finished.
+     */
+    private AtomicLong completedCount_;
+    
+    /**
+     * Total nanoseconds requests waited between dispatch and start.
+     */
+    private AtomicLong totalWaitTime_;
+    
+    /**
+     * Total nanoseconds requests took between start and finish.
+     */
+    private AtomicLong totalServiceTime_;
 
     //--------------------------------------------------------------------------
     // Constructors
@@ -36,6 +68,11 @@ public abstract class ThreadedDispatcherStrategy
     {
         container_ = new ThreadContainer();
         pendingResults_ = 0;
+        queueDepth_ = new AtomicInteger();
+        activeCount_ = new AtomicInteger();
+        completedCount_ = new AtomicLong();
+        totalWaitTime_ = new AtomicLong();
+        totalServiceTime_ = new AtomicLong();
     }
 
     //--------------------------------------------------------------------------
@@ -76,6 +113,33 @@ public abstract class ThreadedDispatcherStrategy
     }
 
 
+    /**
+     * Dispatches the request in an alternate thread and returns a future that
+     * completes with its result without having to block on it. If the request
+     * throws an exception, the future fails with that exception.
+     * 
+     * @param request Request to publish.
+     * @return ResultFuture
+     */
+    public ResultFuture submit(final IThreadable request)
+    {
+        final ResultFuture future = new ResultFuture();
+        
+        // No listener so that no EventSemaphore is allocated for a 
+        // ReturnValue that nobody waits on
+        dispatchAsync(new IThreadable()
+        {
+            public Object run()
+            {
+                future.run(request);
+                return null;
+            }
+        }, null);
+        
+        return future;
+    }
+
+
     /**
      * Blocks the current thread until all pending requests are complete. 
      */
@@ -108,6 +172,89 @@ public abstract class ThreadedDispatcherStrategy
         }
     }
 
+    //--------------------------------------------------------------------------
+    // Metrics
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Returns the number of requests that have been dispatched but not yet
+     * started.
+     * 
+     * @return int
+     */
+    public int getQueueDepth()
+    {
+        return queueDepth_.get();
+    }
+    
+    
+    /**
+     * Returns the number of requests currently being processed.
+     * 
+     * @return int
+     */
+    public int getActiveCount()
+    {
+        return activeCount_.get();
+    }
+    
+    
+    /**
+     * Returns the number of requests that have finished.
+     * 
+     * @return long
+     */
+    public long getCompletedCount()
+    {
+        return completedCount_.get();
+    }
+    
+    
+    /**
+     * Returns the total time requests spent waiting for a thread.
+     * 
+     * @return long Time in nanoseconds.
+     */
+    public long getTotalWaitTime()
+    {
+        return totalWaitTime_.get();
+    }
+    
+    
+    /**
+     * Returns the total time requests spent being processed.
+     * 
+     * @return long Time in nanoseconds.
+     */
+    public long getTotalServiceTime()
+    {
+        return totalServiceTime_.get();
+    }
+    
+    
+    /**
+     * Returns the average time a finished request spent waiting for a thread.
+     * 
+     * @return long Time in nanoseconds.
+     */
+    public long getAverageWaitTime()
+    {
+        long completed = completedCount_.get();
+        return completed == 0 ? 0 : totalWaitTime_.get() / completed;
+    }
+    
+    
+    /**
+     * Returns the average time a finished request spent being processed.
+     * 
+     * @return long Time in nanoseconds.
+     */
+    public long getAverageServiceTime()
+    {
+        long completed = completedCount_.get();
+        return completed == 0 ? 0 : totalServiceTime_.get() / completed;
+    }
+
     //--------------------------------------------------------------------------
     // Abstract Protected
     //--------------------------------------------------------------------------
@@ -138,6 +285,8 @@ public abstract class ThreadedDispatcherStrategy
             ++pendingResults_;
         }
 
+        queueDepth_.incrementAndGet();
+
         service(request, result);
     }
 
@@ -152,6 +301,11 @@ public abstract class ThreadedDispatcherStrategy
     protected void setStarted(ReturnValue returnValue)
     {
         returnValue.setStarted();
+        queueDepth_.decrementAndGet();
+        activeCount_.incrementAndGet();
+        
+        totalWaitTime_.addAndGet(
+            returnValue.getStartTime() - returnValue.getDispatchTime());
     }
 
 
@@ -165,6 +319,15 @@ public abstract class ThreadedDispatcherStrategy
      */
     protected void setResult(ReturnValue result, Object value)
     {
+        if (result.hasStarted())
+        {
+            activeCount_.decrementAndGet();
+            
+            totalServiceTime_.addAndGet(
+                System.nanoTime() - result.getStartTime());
+        }
+        
+        completedCount_.incrementAndGet();
         result.setValue(value);
 
         synchronized (this)
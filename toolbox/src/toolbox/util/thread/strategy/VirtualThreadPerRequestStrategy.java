@@ -0,0 +1,102 @@
+package toolbox.util.thread.strategy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.log4j.Logger;
+
+/**
+ * VirtualThreadPerRequestStrategy processes every request in a new virtual
+ * thread when the running JVM supports them (Java 21 and later). Virtual
+ * threads are cheap to create, so this strategy keeps the simplicity of
+ * ThreadPerRequestStrategy without its thread creation cost. On older JVMs it
+ * falls back to a platform thread per request.
+ */
+public class VirtualThreadPerRequestStrategy extends ThreadPerRequestStrategy
+{
+    private static final Logger logger_ =
+        Logger.getLogger(VirtualThreadPerRequestStrategy.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Thread.startVirtualThread(Runnable) or null if not supported.
+     */
+    private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+
+    //--------------------------------------------------------------------------
+    // Public Static
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns true if the running JVM supports virtual threads.
+     *
+     * @return boolean
+     */
+    public static boolean isSupported()
+    {
+        return START_VIRTUAL_THREAD != null;
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides ThreadedDispatcherStrategy
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates and starts a virtual thread if supported, otherwise a platform
+     * thread. Virtual threads are always daemon threads and do not belong to
+     * this strategy's thread container.
+     *
+     * @see toolbox.util.thread.strategy.ThreadedDispatcherStrategy#createThread(
+     *      java.lang.Runnable)
+     */
+    protected Thread createThread(Runnable runnable)
+    {
+        if (START_VIRTUAL_THREAD == null)
+            return super.createThread(runnable);
+
+        try
+        {
+            return (Thread) START_VIRTUAL_THREAD.invoke(
+                null, new Object[] {runnable});
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e.getMessage());
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getTargetException();
+
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IllegalStateException(cause.getMessage());
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Looks up Thread.startVirtualThread(Runnable).
+     *
+     * @return Method or null if not supported.
+     */
+    private static Method findStartVirtualThread()
+    {
+        try
+        {
+            return Thread.class.getMethod(
+                "startVirtualThread", new Class[] {Runnable.class});
+        }
+        catch (NoSuchMethodException e)
+        {
+            logger_.debug("Virtual threads not supported by this JVM");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package toolbox.util.thread.strategy;
+
+import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingDeque;
+import edu.emory.mathcs.backport.java.util.concurrent.Semaphore;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.thread.IThreadable;
+import toolbox.util.thread.ReturnValue;
+
+/**
+ * WorkStealingStrategy implements a thread-pool strategy in which every worker
+ * thread owns a deque of requests instead of all threads sharing one queue.
+ * Requests dispatched from outside the pool are spread round robin over the
+ * workers. Requests dispatched by a worker while it is processing a request
+ * are pushed onto the front of its own deque so that related work stays on
+ * the same thread. A worker whose deque is empty steals the oldest request
+ * from the back of another worker's deque, so threads only contend when one
+ * of them runs out of work.
+ * <p>
+ * Unlike ThreadPoolStrategy, the deques are unbounded and dispatching never
+ * blocks the sender.
+ * <p>
+ * <b>Example:</b>
+ * <pre class="snippet">
+ * ThreadDispatcher dispatcher =
+ *     new ThreadDispatcher(new WorkStealingStrategy());
+ *
+ * ReturnValue result = dispatcher.dispatch(request);
+ * </pre>
+ */
+public class WorkStealingStrategy extends ThreadedDispatcherStrategy
+{
+    private static final Logger logger_ =
+        Logger.getLogger(WorkStealingStrategy.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default pool size is one thread per processor.
+     */
+    public static final int DEFAULT_POOL_SIZE =
+        Runtime.getRuntime().availableProcessors();
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Worker threads.
+     */
+    private Worker[] workers_;
+
+    /**
+     * One permit per request waiting in a deque plus one per worker once the
+     * strategy has been destroyed.
+     */
+    private Semaphore available_;
+
+    /**
+     * Round robin counter that selects the worker for an external request.
+     */
+    private AtomicInteger next_;
+
+    /**
+     * The worker of the current thread if it belongs to this strategy.
+     */
+    private ThreadLocal currentWorker_;
+
+    /**
+     * Set once the strategy has been destroyed.
+     */
+    private volatile boolean shutdown_;
+
+    //--------------------------------------------------------------------------
+    // Constructors
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a work stealing pool with one thread per processor.
+     */
+    public WorkStealingStrategy()
+    {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+
+    /**
+     * Creates a work stealing pool consisting of poolSize threads.
+     *
+     * @param poolSize Number of threads in the pool.
+     */
+    public WorkStealingStrategy(int poolSize)
+    {
+        if (poolSize < 1)
+            throw new IllegalArgumentException(
+                "Pool size must be at least 1: " + poolSize);
+
+        available_ = new Semaphore(0);
+        next_ = new AtomicInteger();
+        currentWorker_ = new ThreadLocal();
+        workers_ = new Worker[poolSize];
+
+        for (int i = 0; i < poolSize; i++)
+            workers_[i] = new Worker(i);
+
+        for (int i = 0; i < poolSize; i++)
+            createThread(workers_[i]);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides ThreadedDispatcherStrategy
+    //--------------------------------------------------------------------------
+
+    /**
+     * Services the request by pushing it onto the deque of the current worker
+     * or, when called from outside the pool, onto the back of the next worker
+     * in round robin order.
+     *
+     * @see toolbox.util.thread.strategy.ThreadedDispatcherStrategy#service(
+     *      toolbox.util.thread.IThreadable, toolbox.util.thread.ReturnValue)
+     */
+    public void service(IThreadable request, ReturnValue result)
+    {
+        Task task = new Task(request, result);
+        Worker current = (Worker) currentWorker_.get();
+
+        if (current != null)
+        {
+            current.deque_.addFirst(task);
+        }
+        else
+        {
+            int index = (next_.getAndIncrement() & Integer.MAX_VALUE)
+                % workers_.length;
+
+            workers_[index].deque_.addLast(task);
+        }
+
+        available_.release();
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides AbstractDispatcherStrategy
+    //--------------------------------------------------------------------------
+
+    /**
+     * Signals the workers to exit once all requests already dispatched have
+     * been processed.
+     *
+     * @see toolbox.util.thread.strategy.AbstractDispatcherStrategy#destroy()
+     */
+    public void destroy()
+    {
+        shutdown_ = true;
+        available_.release(workers_.length);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return int
+     */
+    public int getPoolSize()
+    {
+        return workers_.length;
+    }
+
+
+    /**
+     * Returns the number of requests workers have stolen from each other.
+     *
+     * @return long
+     */
+    public long getStealCount()
+    {
+        long steals = 0;
+
+        for (int i = 0; i < workers_.length; i++)
+            steals += workers_[i].steals_;
+
+        return steals;
+    }
+
+    //--------------------------------------------------------------------------
+    // Task
+    //--------------------------------------------------------------------------
+
+    /**
+     * A Task encapsulates a request and its result.
+     */
+    static class Task
+    {
+        /**
+         * Request to complete.
+         */
+        private IThreadable request_;
+
+        /**
+         * End result of completing the request.
+         */
+        private ReturnValue result_;
+
+
+        /**
+         * Creates a Task.
+         *
+         * @param request Request.
+         * @param result Return value.
+         */
+        public Task(IThreadable request, ReturnValue result)
+        {
+            request_ = request;
+            result_ = result;
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Worker
+    //--------------------------------------------------------------------------
+
+    /**
+     * Worker thread that processes requests from its own deque and steals from
+     * the other workers when its deque is empty.
+     */
+    class Worker implements Runnable
+    {
+        /**
+         * Index of this worker.
+         */
+        private int index_;
+
+        /**
+         * Requests owned by this worker. The owner takes from the front and
+         * thieves take from the back.
+         */
+        private LinkedBlockingDeque deque_;
+
+        /**
+         * Number of requests stolen by this worker. Only written by the
+         * worker's own thread.
+         */
+        private volatile long steals_;
+
+
+        /**
+         * Creates a Worker.
+         *
+         * @param index Index of this worker.
+         */
+        Worker(int index)
+        {
+            index_ = index;
+            deque_ = new LinkedBlockingDeque();
+        }
+
+
+        /**
+         * Takes a permit for each request and processes requests until the
+         * strategy is destroyed and no requests remain.
+         */
+        public void run()
+        {
+            currentWorker_.set(this);
+
+            try
+            {
+                while (true)
+                {
+                    available_.acquire();
+                    Task task = null;
+
+                    // A permit guarantees a request unless it is one of the
+                    // shutdown permits. The request may be in a deque that
+                    // was already scanned, so keep looking.
+                    while ((task = find()) == null)
+                    {
+                        if (shutdown_)
+                            return;
+
+                        Thread.yield();
+                    }
+
+                    try
+                    {
+                        setStarted(task.result_);
+                        setResult(task.result_, process(task.request_));
+                    }
+                    catch (Exception e)
+                    {
+                        setResult(task.result_, e);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                logger_.error(e);
+            }
+            finally
+            {
+                currentWorker_.set(null);
+            }
+        }
+
+
+        /**
+         * Returns the next request from this worker's deque or one stolen from
+         * another worker, or null if all deques are empty.
+         *
+         * @return Task
+         */
+        private Task find()
+        {
+            Task task = (Task) deque_.pollFirst();
+
+            if (task != null)
+                return task;
+
+            for (int i = 1; i < workers_.length; i++)
+            {
+                Worker victim = workers_[(index_ + i) % workers_.length];
+                task = (Task) victim.deque_.pollLast();
+
+                if (task != null)
+                {
+                    steals_++;
+                    return task;
+                }
+            }
+
+            return null;
+        }
+    }
+}
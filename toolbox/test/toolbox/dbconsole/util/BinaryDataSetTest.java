@@ -0,0 +1,331 @@
+package toolbox.dbconsole.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.math.RandomUtils;
+import org.apache.log4j.Logger;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.stream.DataSetProducerAdapter;
+import org.dbunit.dataset.stream.StreamingDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSet;
+import org.dbunit.operation.DatabaseOperation;
+
+import toolbox.util.FileUtil;
+import toolbox.util.JDBCSession;
+import toolbox.util.JDBCUtil;
+
+/**
+ * Unit test for {@link BinaryDataSetWriter} and {@link BinaryDataSetProducer}.
+ */
+public class BinaryDataSetTest extends TestCase {
+
+    private static final Logger log = Logger.getLogger(BinaryDataSetTest.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    private static final String DB_DRIVER = "org.hsqldb.jdbcDriver";
+    private static final String DB_USER = "SA";
+    private static final String DB_PASSWORD = "";
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    private File file;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args) {
+        TestRunner.run(BinaryDataSetTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides TestCase
+    //--------------------------------------------------------------------------
+
+    protected void setUp() throws Exception {
+        file = FileUtil.createTempFile();
+    }
+
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that every kind of value survives a round trip, with and without
+     * compression, across several blocks and an empty table.
+     */
+    public void testRoundTrip() throws Exception {
+        log.info("Running testRoundTrip...");
+
+        Column[] columns = new Column[] {
+            new Column("ID", DataType.INTEGER),
+            new Column("VALUE", DataType.UNKNOWN)
+        };
+
+        Object[] values = new Object[] {
+            null,
+            "",
+            "caf\u00e9 \u4e2d",
+            new byte[] {0, -1, 127},
+            new BigDecimal("-12345678901234567890.0012"),
+            new BigDecimal("0"),
+            new Integer(Integer.MIN_VALUE),
+            new Long(Long.MAX_VALUE),
+            new Double(-1.5),
+            new Float(3.25f),
+            Timestamp.valueOf("2004-02-29 23:59:59.123456789"),
+            java.sql.Date.valueOf("1969-07-20"),
+            Time.valueOf("12:34:56"),
+            Boolean.TRUE,
+        };
+
+        DefaultTable table = new DefaultTable("VALUES", columns);
+
+        for (int i = 0; i < values.length; i++)
+            table.addRow(new Object[] {new Integer(i), values[i]});
+
+        IDataSet dataSet = new DefaultDataSet(
+            table, new DefaultTable("EMPTY", columns));
+
+        for (int compress = 0; compress < 2; compress++) {
+            write(dataSet, compress == 1, 3);
+
+            ITableIterator i =
+                new StreamingDataSet(new BinaryDataSetProducer(file))
+                    .iterator();
+
+            assertTrue(i.next());
+            ITable actual = i.getTable();
+            assertEquals("VALUES", actual.getTableMetaData().getTableName());
+
+            for (int row = 0; row < values.length; row++) {
+                assertEquals(new Integer(row), actual.getValue(row, "ID"));
+
+                Object value = actual.getValue(row, "VALUE");
+                String msg = "Compress " + compress + " row " + row;
+
+                if (values[row] instanceof byte[])
+                    assertTrue(msg, Arrays.equals(
+                        (byte[]) values[row], (byte[]) value));
+                else
+                    assertEquals(msg, values[row], value);
+            }
+
+            assertTrue(i.next());
+            assertEquals("EMPTY", i.getTableMetaData().getTableName());
+            assertFalse(i.next());
+        }
+    }
+
+
+    /**
+     * Tests export of a database to a compressed dump and import of the dump
+     * into another database.
+     */
+    public void testExportImport() throws Exception {
+        log.info("Running testExportImport...");
+
+        int id = RandomUtils.nextInt();
+        String source = "binSource" + id;
+        String dest = "binDest" + id;
+        String ddl = "CREATE TABLE DUMP (ID INTEGER PRIMARY KEY, "
+            + "NAME VARCHAR(50), AMOUNT DECIMAL(10,2), CREATED TIMESTAMP, "
+            + "DATA VARBINARY(16))";
+
+        JDBCSession.init(source, DB_DRIVER, "jdbc:hsqldb:mem:" + source,
+            DB_USER, DB_PASSWORD, false);
+
+        JDBCSession.init(dest, DB_DRIVER, "jdbc:hsqldb:mem:" + dest,
+            DB_USER, DB_PASSWORD, false);
+
+        try {
+            JDBCSession.executeUpdate(source, ddl);
+            JDBCSession.executeUpdate(dest, ddl);
+            populate(source, 2500);
+
+            Connection conn = JDBCSession.getConnection(source);
+
+            try {
+                IDatabaseConnection connection =
+                    new DatabaseConnection(conn);
+
+                write(connection.createDataSet(), true, 1000);
+                assertTrue(BinaryDataSetProducer.isBinary(file));
+            }
+            finally {
+                JDBCUtil.releaseConnection(conn);
+            }
+
+            conn = JDBCSession.getConnection(dest);
+
+            try {
+                DatabaseOperation.INSERT.execute(
+                    new DatabaseConnection(conn),
+                    new StreamingDataSet(new BinaryDataSetProducer(file)));
+            }
+            finally {
+                JDBCUtil.releaseConnection(conn);
+            }
+
+            String sql = "SELECT * FROM DUMP ORDER BY ID";
+
+            assertEquals(
+                JDBCSession.executeQuery(source, sql),
+                JDBCSession.executeQuery(dest, sql));
+        }
+        finally {
+            shutdown(source);
+            shutdown(dest);
+        }
+    }
+
+
+    /**
+     * Tests that the binary dump is smaller than FlatXml and that FlatXml is
+     * not mistaken for a binary dump.
+     */
+    public void testSmallerThanFlatXml() throws Exception {
+        log.info("Running testSmallerThanFlatXml...");
+
+        Column[] columns = new Column[] {
+            new Column("ID", DataType.INTEGER),
+            new Column("NAME", DataType.VARCHAR),
+            new Column("AMOUNT", DataType.NUMERIC)
+        };
+
+        DefaultTable table = new DefaultTable("SIZES", columns);
+
+        for (int i = 0; i < 1000; i++)
+            table.addRow(new Object[] {
+                new Integer(i), "name " + (i % 10), new BigDecimal(i * 3)});
+
+        IDataSet dataSet = new DefaultDataSet(table);
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        FlatXmlDataSet.write(dataSet, xml);
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        BinaryDataSetWriter.write(dataSet, binary, false);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        BinaryDataSetWriter.write(dataSet, compressed, true);
+
+        log.debug("FlatXml    : " + xml.size());
+        log.debug("Binary     : " + binary.size());
+        log.debug("Compressed : " + compressed.size());
+
+        assertTrue(binary.size() * 2 < xml.size());
+        assertTrue(compressed.size() < binary.size());
+
+        OutputStream os = new FileOutputStream(file);
+        xml.writeTo(os);
+        os.close();
+
+        assertFalse(BinaryDataSetProducer.isBinary(file));
+
+        try {
+            new BinaryDataSetProducer(file).produce();
+            fail("FlatXml should not be read as a binary dump");
+        }
+        catch (DataSetException e) {
+            log.debug("SUCCESS: " + e.getMessage());
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    private void write(IDataSet dataSet, boolean compress, int blockSize)
+        throws Exception {
+
+        OutputStream os = new FileOutputStream(file);
+
+        try {
+            BinaryDataSetWriter writer = new BinaryDataSetWriter(os, compress);
+            writer.setBlockSize(blockSize);
+
+            DataSetProducerAdapter producer =
+                new DataSetProducerAdapter(dataSet);
+
+            producer.setConsumer(writer);
+            producer.produce();
+        }
+        finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+
+    private void populate(String session, int rows) throws Exception {
+        Connection conn = JDBCSession.getConnection(session);
+
+        try {
+            PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO DUMP VALUES (?, ?, ?, ?, ?)");
+
+            for (int i = 0; i < rows; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, i % 7 == 0 ? null : "name " + i);
+                ps.setBigDecimal(3, new BigDecimal(i).movePointLeft(2));
+                ps.setTimestamp(4, new Timestamp(1100000000000L + i * 1000L));
+                ps.setBytes(5, new byte[] {(byte) i, (byte) (i >> 8)});
+                ps.executeUpdate();
+            }
+
+            JDBCUtil.close(ps);
+        }
+        finally {
+            JDBCUtil.releaseConnection(conn);
+        }
+    }
+
+
+    private void shutdown(String session) throws Exception {
+        Connection conn = JDBCSession.getConnection(session);
+
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute("SHUTDOWN");
+            JDBCUtil.close(stmt);
+        }
+        finally {
+            JDBCUtil.releaseConnection(conn);
+            JDBCSession.shutdown(session);
+        }
+    }
+}
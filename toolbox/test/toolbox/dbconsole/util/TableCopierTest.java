@@ -0,0 +1,273 @@
+package toolbox.dbconsole.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.lang.math.RandomUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.JDBCSession;
+import toolbox.util.JDBCUtil;
+
+/**
+ * Unit test for {@link TableCopier}. Copies between two in-memory instances of
+ * HSQLDB.
+ */
+public class TableCopierTest extends TestCase {
+
+    private static final Logger log = Logger.getLogger(TableCopierTest.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    private static final String DB_DRIVER = "org.hsqldb.jdbcDriver";
+    private static final String DB_USER = "SA";
+    private static final String DB_PASSWORD = "";
+
+    /**
+     * Tables in foreign key order.
+     */
+    private static final String[] TABLES = {"PARENT", "OTHER", "CHILD"};
+
+    /**
+     * Creates the tables. CHILD references PARENT and itself.
+     */
+    private static final String[] DDL = {
+        "CREATE TABLE PARENT (ID INTEGER PRIMARY KEY, NAME VARCHAR(50))",
+        "CREATE TABLE OTHER (ID INTEGER PRIMARY KEY, DATA VARBINARY(16))",
+        "CREATE TABLE CHILD (ID INTEGER PRIMARY KEY, PARENT_ID INTEGER, "
+            + "PREV_ID INTEGER, NOTE LONGVARCHAR, "
+            + "FOREIGN KEY (PARENT_ID) REFERENCES PARENT (ID), "
+            + "FOREIGN KEY (PREV_ID) REFERENCES CHILD (ID))"
+    };
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    private String source;
+    private String dest;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args) {
+        TestRunner.run(TableCopierTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides TestCase
+    //--------------------------------------------------------------------------
+
+    protected void setUp() throws Exception {
+        int id = RandomUtils.nextInt();
+        source = "copySource" + id;
+        dest = "copyDest" + id;
+
+        JDBCSession.init(source, DB_DRIVER, "jdbc:hsqldb:mem:" + source,
+            DB_USER, DB_PASSWORD, false);
+
+        JDBCSession.init(dest, DB_DRIVER, "jdbc:hsqldb:mem:" + dest,
+            DB_USER, DB_PASSWORD, false);
+
+        for (int i = 0; i < DDL.length; i++) {
+            JDBCSession.executeUpdate(source, DDL[i]);
+            JDBCSession.executeUpdate(dest, DDL[i]);
+        }
+    }
+
+
+    protected void tearDown() throws Exception {
+        shutdown(source);
+        shutdown(dest);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests getDependencies() on tables with foreign keys.
+     */
+    public void testGetDependencies() throws Exception {
+        log.info("Running testGetDependencies...");
+
+        Connection conn = JDBCSession.getConnection(source);
+
+        try {
+            Map dependencies =
+                TableCopier.getDependencies(conn, null, TABLES);
+
+            assertTrue(((Set) dependencies.get("PARENT")).isEmpty());
+            assertTrue(((Set) dependencies.get("OTHER")).isEmpty());
+
+            Set parents = (Set) dependencies.get("CHILD");
+            assertEquals(2, parents.size());
+            assertTrue(parents.contains("PARENT"));
+            assertTrue(parents.contains("CHILD"));
+        }
+        finally {
+            JDBCUtil.releaseConnection(conn);
+        }
+    }
+
+
+    /**
+     * Tests that all rows and values are copied with the destination
+     * constraints enabled, using small batches and commit intervals and more
+     * than one thread.
+     */
+    public void testCopy() throws Exception {
+        log.info("Running testCopy...");
+
+        int parents = 57;
+        int children = 503;
+        populate(parents, children);
+
+        // Existing rows in the destination should be cleared
+        JDBCSession.executeUpdate(dest, "INSERT INTO PARENT VALUES (-1, 'x')");
+        JDBCSession.executeUpdate(
+            dest, "INSERT INTO CHILD VALUES (-1, -1, NULL, NULL)");
+
+        TableCopier copier = new TableCopier(source, dest);
+        copier.setThreads(3);
+        copier.setFetchSize(10);
+        copier.setBatchSize(7);
+        copier.setCommitInterval(50);
+
+        Connection conn = JDBCSession.getConnection(source);
+        Map dependencies;
+
+        try {
+            dependencies = TableCopier.getDependencies(conn, null, TABLES);
+        }
+        finally {
+            JDBCUtil.releaseConnection(conn);
+        }
+
+        copier.clear(TABLES, false);
+        copier.copy(TABLES, dependencies);
+
+        assertEquals(parents, count(dest, "PARENT"));
+        assertEquals(parents, count(dest, "OTHER"));
+        assertEquals(children, count(dest, "CHILD"));
+
+        for (int i = 0; i < TABLES.length; i++) {
+            String sql = "SELECT * FROM " + TABLES[i] + " ORDER BY ID";
+
+            assertEquals(
+                TABLES[i],
+                JDBCSession.executeQuery(source, sql),
+                JDBCSession.executeQuery(dest, sql));
+        }
+    }
+
+
+    /**
+     * Tests that a failing table stops the copy with its exception.
+     */
+    public void testCopyFailure() throws Exception {
+        log.info("Running testCopyFailure...");
+
+        populate(3, 3);
+        JDBCSession.executeUpdate(dest, "DROP TABLE CHILD");
+
+        try {
+            new TableCopier(source, dest).copy(TABLES, null);
+            fail("Expected copy of CHILD to fail");
+        }
+        catch (Exception e) {
+            log.debug("SUCCESS: " + e.getMessage());
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Fills the source tables. Every other child references the previous
+     * child.
+     */
+    private void populate(int parents, int children) throws Exception {
+        Connection conn = JDBCSession.getConnection(source);
+
+        try {
+            PreparedStatement ps =
+                conn.prepareStatement("INSERT INTO PARENT VALUES (?, ?)");
+
+            for (int i = 0; i < parents; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, i % 5 == 0 ? null : "parent " + i);
+                ps.executeUpdate();
+            }
+
+            JDBCUtil.close(ps);
+            ps = conn.prepareStatement("INSERT INTO OTHER VALUES (?, ?)");
+
+            for (int i = 0; i < parents; i++) {
+                ps.setInt(1, i);
+
+                if (i % 4 == 0)
+                    ps.setNull(2, Types.VARBINARY);
+                else
+                    ps.setBytes(2, new byte[] {(byte) i, (byte) -i, 0});
+
+                ps.executeUpdate();
+            }
+
+            JDBCUtil.close(ps);
+
+            ps = conn.prepareStatement(
+                "INSERT INTO CHILD VALUES (?, ?, ?, ?)");
+
+            for (int i = 0; i < children; i++) {
+                ps.setInt(1, i);
+                ps.setInt(2, i % parents);
+
+                if (i % 2 == 1)
+                    ps.setInt(3, i - 1);
+                else
+                    ps.setNull(3, Types.INTEGER);
+
+                ps.setString(4, "note " + i);
+                ps.executeUpdate();
+            }
+
+            JDBCUtil.close(ps);
+        }
+        finally {
+            JDBCUtil.releaseConnection(conn);
+        }
+    }
+
+
+    private int count(String session, String table) throws Exception {
+        return JDBCSession.executeCount(
+            session, "SELECT COUNT(*) FROM " + table);
+    }
+
+
+    private void shutdown(String session) throws Exception {
+        Connection conn = JDBCSession.getConnection(session);
+
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute("SHUTDOWN");
+            JDBCUtil.close(stmt);
+        }
+        finally {
+            JDBCUtil.releaseConnection(conn);
+            JDBCSession.shutdown(session);
+        }
+    }
+}
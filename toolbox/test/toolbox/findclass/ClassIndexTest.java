@@ -0,0 +1,151 @@
+package toolbox.findclass;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.FileUtil;
+
+/**
+ * Unit test for {@link toolbox.findclass.ClassIndex}.
+ */
+public class ClassIndexTest extends TestCase
+{
+    private static final Logger logger_ = Logger.getLogger(ClassIndexTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+        
+    /**
+     * Entrypoint.
+     * 
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(ClassIndexTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Tests that archives are indexed once, searched from the saved index and
+     * reindexed when they change.
+     * 
+     * @throws Exception on error.
+     */
+    public void testIndexedSearch() throws Exception
+    {
+        logger_.info("Running testIndexedSearch...");
+        
+        File jar = new File(FileUtil.createTempFilename() + ".jar");
+        File indexFile = new File(FileUtil.createTempFilename());
+        
+        try
+        {
+            writeJar(jar, new String[] {
+                "com/acme/Widget.class", 
+                "com/acme/WidgetFactory.class",
+                "com/acme/util/Gadget.class"});
+            
+            ClassIndex index = new ClassIndex(indexFile);
+            index.load();
+            
+            FindClassResult[] results = search(index, jar, "widget", true);
+            assertEquals(2, results.length);
+            assertEquals("com.acme.Widget", results[0].getClassFQN());
+            assertEquals(jar.getPath(), results[0].getClassLocation());
+            assertTrue(indexFile.exists());
+            assertFalse(index.isDirty());
+            
+            // Reload from disk, jar unchanged so nothing is reindexed
+            index = new ClassIndex(indexFile);
+            index.load();
+            assertEquals(1, index.getArchiveCount());
+            
+            results = search(index, jar, "com.acme.util.Gadget$", false);
+            assertEquals(1, results.length);
+            assertFalse(index.isDirty());
+            
+            assertEquals(0, search(index, jar, "gadget", false).length);
+            assertEquals(1, search(index, jar, "Gad(get)", false).length);
+            
+            // Change the jar
+            writeJar(jar, new String[] {"com/acme/Sprocket.class"});
+            jar.setLastModified(jar.lastModified() + 2000);
+            
+            assertEquals(1, search(index, jar, "Sprocket", false).length);
+            assertEquals(0, search(index, jar, "Widget", false).length);
+            
+            index = new ClassIndex(indexFile);
+            index.load();
+            assertEquals(1, index.getArchive(jar.getPath()).getClassCount());
+        }
+        finally
+        {
+            jar.delete();
+            indexFile.delete();
+        }
+    }
+    
+    
+    /**
+     * Tests extracting the literal part of a search string.
+     */
+    public void testGetLiteral()
+    {
+        logger_.info("Running testGetLiteral...");
+        
+        assertEquals("Object", FindClass.getLiteral("java.lang.Object", false));
+        assertEquals("object", FindClass.getLiteral("java.lang.Object", true));
+        assertEquals("Widget", FindClass.getLiteral("Widget", false));
+        assertNull(FindClass.getLiteral("Widget$", false));
+        assertNull(FindClass.getLiteral("Wid|Gad", false));
+        assertNull(FindClass.getLiteral("...", false));
+    }
+    
+    //--------------------------------------------------------------------------
+    // Helpers
+    //--------------------------------------------------------------------------
+    
+    private FindClassResult[] search(
+        ClassIndex index, 
+        File jar, 
+        String classToFind, 
+        boolean ignoreCase) throws Exception
+    {
+        FindClass finder = new FindClass();
+        finder.addSearchTarget(jar.getPath());
+        finder.setIndex(index);
+        return finder.findClass(classToFind, ignoreCase);
+    }
+    
+    
+    private void writeJar(File jar, String[] entries) throws Exception
+    {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+        
+        try
+        {
+            for (int i = 0; i < entries.length; i++)
+            {
+                zos.putNextEntry(new ZipEntry(entries[i]));
+                zos.write(new byte[] {(byte) 0xCA, (byte) 0xFE});
+                zos.closeEntry();
+            }
+        }
+        finally
+        {
+            zos.close();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package toolbox.findclass;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -226,6 +230,154 @@ public class FindClassTest extends TestCase
         finder.removeSearchListeners();
     }       
     
+    /**
+     * Tests searching archives in parallel.
+     * 
+     * @throws Exception on error.
+     */
+    public void testParallelSearch() throws Exception
+    {
+        logger_.info("Running testParallelSearch...");
+        
+        File[] jars = createJars(8, 200);
+        
+        try
+        {
+            FindClass finder = new FindClass();
+            finder.setThreads(4);
+            
+            for (int i = 0; i < jars.length; i++)
+                finder.addSearchTarget(jars[i].getPath());
+            
+            final List searched = new ArrayList();
+            
+            finder.addSearchListener(new FindClassAdapter()
+            {
+                public void targetSearched(String target, long elapsed)
+                {
+                    searched.add(target);
+                }
+            });
+            
+            FindClassResult[] results = finder.findClass("Class1.$", false);
+            
+            // Class10..Class19 in every jar
+            assertEquals(jars.length * 10, results.length);
+            assertEquals(jars.length, searched.size());
+            
+            for (int i = 0; i < jars.length; i++)
+                assertTrue(searched.contains(jars[i].getPath()));
+        }
+        finally
+        {
+            for (int i = 0; i < jars.length; i++)
+                jars[i].delete();
+        }
+    }
+    
+    
+    /**
+     * Tests canceling a parallel search part way through an archive.
+     * 
+     * @throws Exception on error.
+     */
+    public void testCancelParallelSearch() throws Exception
+    {
+        logger_.info("Running testCancelParallelSearch...");
+        
+        File[] jars = createJars(2, 5000);
+        
+        try
+        {
+            final FindClass finder = new FindClass();
+            finder.setThreads(2);
+            
+            for (int i = 0; i < jars.length; i++)
+                finder.addSearchTarget(jars[i].getPath());
+            
+            // Slow listener so the search is still in the first archives
+            SearchListener listener = new SearchListener()
+            {
+                public void classFound(FindClassResult searchResult)
+                {
+                    super.classFound(searchResult);
+                    ThreadUtil.sleep(1);
+                }
+            };
+            
+            finder.addSearchListener(listener);
+            
+            final FindClassResult[][] results = new FindClassResult[1][];
+            
+            Thread search = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        results[0] = finder.findClass("Class", false);
+                    }
+                    catch (Exception e)
+                    {
+                        logger_.error("Search failed", e);
+                    }
+                }
+            });
+            
+            search.start();
+            listener.waitForFirst();
+            ThreadUtil.sleep(200);
+            finder.cancel();
+            listener.waitForCancel();
+            search.join(5000);
+            
+            assertFalse(search.isAlive());
+            assertNotNull(results[0]);
+            assertTrue(results[0].length < 10000);
+        }
+        finally
+        {
+            for (int i = 0; i < jars.length; i++)
+                jars[i].delete();
+        }
+    }
+    
+    //--------------------------------------------------------------------------
+    // Helpers 
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Creates temporary jars containing empty classes named ClassN.
+     * 
+     * @param count Number of jars.
+     * @param classes Number of classes in each jar.
+     * @return File[]
+     * @throws Exception on error.
+     */
+    private File[] createJars(int count, int classes) throws Exception
+    {
+        File[] jars = new File[count];
+        
+        for (int i = 0; i < count; i++)
+        {
+            jars[i] = new File(FileUtil.createTempFilename() + ".jar");
+            
+            ZipOutputStream zos = 
+                new ZipOutputStream(new FileOutputStream(jars[i]));
+            
+            for (int j = 0; j < classes; j++)
+            {
+                zos.putNextEntry(
+                    new ZipEntry("jar" + i + "/Class" + j + ".class"));
+                zos.closeEntry();
+            }
+            
+            zos.close();
+        }
+        
+        return jars;
+    }
+    
     //--------------------------------------------------------------------------
     // SearchListener 
     //--------------------------------------------------------------------------
@@ -349,5 +501,15 @@ public class FindClassTest extends TestCase
             logger_.debug("SearchingTarget " + target);
             first_.release();
         }
+
+        
+        /**
+         * @see toolbox.findclass.FindClassListener#targetSearched(
+         *      java.lang.String, long)
+         */
+        public void targetSearched(String target, long elapsed)
+        {
+            logger_.debug("TargetSearched " + target + " " + elapsed + "ms");
+        }
     }
 }
\ No newline at end of file
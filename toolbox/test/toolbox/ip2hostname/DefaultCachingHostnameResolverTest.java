@@ -10,6 +10,8 @@ import junit.framework.TestCase;
 
 import org.apache.log4j.Logger;
 
+import toolbox.util.ThreadUtil;
+
 public class DefaultCachingHostnameResolverTest extends TestCase {
 
     private static final Logger log = Logger.getLogger(DefaultCachingHostnameResolverTest.class);
@@ -77,4 +79,85 @@ public class DefaultCachingHostnameResolverTest extends TestCase {
         cachingResolver.clear();
         assertFalse(cachingResolver.hasResolved("9.9.9.9"));
     }
-}
\ No newline at end of file
+    
+    public void testNegativeEntriesExpireSooner() {
+        CountingResolver counter = new CountingResolver(0);
+        cachingResolver = new DefaultCachingHostnameResolver(counter, 100, 60000, 50);
+        
+        cachingResolver.resolve("1.1.1.1");
+        cachingResolver.resolve("unresolvable");
+        cachingResolver.resolve("unresolvable");
+        assertEquals(2, counter.calls);
+        
+        ThreadUtil.sleep(100);
+        assertTrue(cachingResolver.hasResolved("1.1.1.1"));
+        assertFalse(cachingResolver.hasResolved("unresolvable"));
+        cachingResolver.resolve("unresolvable");
+        assertEquals(3, counter.calls);
+        assertEquals(2, ((DefaultCachingHostnameResolver) cachingResolver).getNegatives());
+    }
+    
+    public void testCacheIsBounded() {
+        CountingResolver counter = new CountingResolver(0);
+        DefaultCachingHostnameResolver resolver = 
+            new DefaultCachingHostnameResolver(counter, 160, 60000, 60000);
+        
+        for (int i = 0; i < 1000; i++)
+            resolver.resolve("10.0." + (i / 256) + "." + (i % 256));
+        
+        assertTrue(resolver.getCacheSize() <= 160);
+        assertEquals(1000, resolver.getMisses());
+        assertEquals(0, resolver.getHits());
+    }
+    
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        CountingResolver counter = new CountingResolver(500);
+        final DefaultCachingHostnameResolver resolver = new DefaultCachingHostnameResolver(counter);
+        final String[] results = new String[10];
+        Thread[] threads = new Thread[results.length];
+        
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    results[index] = resolver.resolve("9.9.9.9");
+                }
+            });
+            threads[i].start();
+        }
+        
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+        
+        assertEquals(1, counter.calls);
+        
+        for (int i = 0; i < results.length; i++)
+            assertEquals("host-9.9.9.9", results[i]);
+        
+        log.debug(resolver.toString());
+        assertEquals(9, resolver.getCoalesced());
+        assertEquals("host-9.9.9.9", resolver.resolve("9.9.9.9"));
+        assertEquals(1, resolver.getHits());
+    }
+    
+    /**
+     * Resolves ip addresses that start with a digit and counts the lookups.
+     */
+    static class CountingResolver implements HostnameResolver {
+        
+        int calls;
+        int delay;
+        
+        CountingResolver(int delay) {
+            this.delay = delay;
+        }
+        
+        public String resolve(String ipAddress) {
+            synchronized (this) {
+                calls++;
+            }
+            ThreadUtil.sleep(delay);
+            return Character.isDigit(ipAddress.charAt(0)) ? "host-" + ipAddress : ipAddress;
+        }
+    }
+}
@@ -6,11 +6,15 @@ import static org.mockito.Mockito.stub;
 
 import java.io.StringReader;
 
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
 
 import org.apache.log4j.Logger;
 
+import toolbox.util.ThreadUtil;
+
 public class IP2HostnameReaderTest extends TestCase {
 
     private static final Logger logger = Logger.getLogger(IP2HostnameReaderTest.class);
@@ -138,4 +142,72 @@ public class IP2HostnameReaderTest extends TestCase {
         logger.debug("Output: " + output);
         assertEquals(TEST_IP + " [" + TEST_HOSTNAME + "] ", output);
     }
-}
\ No newline at end of file
+    
+    public void testPipelinedPreservesOrder() throws Exception {
+        logger.info("Running testPipelinedPreservesOrder ...");
+        
+        StringBuffer input = new StringBuffer();
+        
+        for (int i = 0; i < 20; i++)
+            input.append("line " + i + " from 10.0.0." + i + "\n");
+        
+        AsyncHostnameResolver async = new AsyncHostnameResolver(new SlowCachingResolver(500), 20);
+        IP2HostnameReader reader = new IP2HostnameReader(
+            new StringReader(input.toString()), async, false, 100, 5000);
+        
+        long start = System.currentTimeMillis();
+        
+        for (int i = 0; i < 20; i++)
+            assertEquals("line " + i + " from host" + i, reader.readLine());
+        
+        assertNull(reader.readLine());
+        long elapsed = System.currentTimeMillis() - start;
+        logger.debug("Elapsed: " + elapsed);
+        
+        // Sequential lookups would take 10 seconds
+        assertTrue(elapsed < 5000);
+        reader.close();
+    }
+    
+    public void testPipelinedTimeout() throws Exception {
+        logger.info("Running testPipelinedTimeout ...");
+        
+        String input = TEST_IP + " " + TEST_IP + "\nno address\n";
+        AsyncHostnameResolver async = new AsyncHostnameResolver(new SlowCachingResolver(2000));
+        IP2HostnameReader reader = new IP2HostnameReader(
+            new StringReader(input), async, false, 10, 100);
+        
+        assertEquals(TEST_IP + " " + TEST_IP, reader.readLine());
+        assertEquals("no address", reader.readLine());
+        assertNull(reader.readLine());
+        reader.close();
+    }
+    
+    /**
+     * Resolves 10.0.0.x to hostx after a delay.
+     */
+    static class SlowCachingResolver implements CachingHostnameResolver {
+        
+        int delay;
+        ConcurrentHashMap cache = new ConcurrentHashMap();
+        
+        SlowCachingResolver(int delay) {
+            this.delay = delay;
+        }
+        
+        public void clear() {
+            cache.clear();
+        }
+        
+        public boolean hasResolved(String ipAddress) {
+            return cache.containsKey(ipAddress);
+        }
+        
+        public String resolve(String ipAddress) {
+            ThreadUtil.sleep(delay);
+            String hostname = ipAddress.startsWith("10.0.0.") ? "host" + ipAddress.substring(7) : ipAddress;
+            cache.put(ipAddress, hostname);
+            return hostname;
+        }
+    }
+}
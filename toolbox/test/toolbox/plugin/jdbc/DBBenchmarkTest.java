@@ -0,0 +1,262 @@
+package toolbox.plugin.jdbc;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.math.RandomUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.JDBCSession;
+import toolbox.util.JDBCUtil;
+
+/**
+ * Unit test for {@link toolbox.plugin.jdbc.DBBenchmark}.
+ */
+public class DBBenchmarkTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(DBBenchmarkTest.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    private static final String DB_DRIVER   = "org.hsqldb.jdbcDriver";
+    private static final String DB_USER     = "SA";
+    private static final String DB_PASSWORD = "";
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Name of the session the benchmark connects to.
+     */
+    private String session_;
+
+    /**
+     * Benchmark under test.
+     */
+    private DBBenchmark benchmark_;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(DBBenchmarkTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides TestCase
+    //--------------------------------------------------------------------------
+
+    protected void setUp() throws Exception
+    {
+        session_ = "dbbench" + RandomUtils.nextInt();
+
+        JDBCSession.init(session_, DB_DRIVER, "jdbc:hsqldb:mem:" + session_,
+            DB_USER, DB_PASSWORD, false);
+
+        benchmark_ = new DBBenchmark(
+            null, true, new PrintWriter(new StringWriter(), true))
+        {
+            protected Connection connect() throws SQLException
+            {
+                return JDBCSession.getConnection(session_);
+            }
+        };
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        JDBCSession.executeUpdate(session_, "shutdown");
+        JDBCSession.shutdown(session_);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that load() inserts every row in its range, commits in batches
+     * and restores auto-commit.
+     *
+     * @throws Exception on error.
+     */
+    public void testLoad() throws Exception
+    {
+        logger_.info("Running testLoad...");
+
+        createTable();
+        benchmark_.setLoadBatchSize(3);
+
+        AtomicLong loaded = new AtomicLong();
+        Connection conn = JDBCSession.getConnection(session_);
+
+        try
+        {
+            assertTrue(conn.getAutoCommit());
+
+            benchmark_.load(conn,
+                "INSERT INTO loaded(Id,Bid) VALUES (?,?)", 5, 25, 4, loaded);
+
+            assertTrue(conn.getAutoCommit());
+        }
+        finally
+        {
+            JDBCUtil.releaseConnection(conn);
+        }
+
+        assertEquals(20, loaded.get());
+        assertEquals(20, count("loaded", null));
+        assertEquals(20, count("loaded", "Id >= 5 AND Id < 25"));
+        assertEquals(20, count("loaded", "Bid = Id / 4"));
+        assertEquals(3, count("loaded", "Bid = 1"));
+        assertEquals(4, count("loaded", "Bid = 2"));
+    }
+
+
+    /**
+     * Tests that loader threads over adjacent ranges insert each row once and
+     * that a loader that fails keeps its error.
+     *
+     * @throws Exception on error.
+     */
+    public void testLoaderThread() throws Exception
+    {
+        logger_.info("Running testLoaderThread...");
+
+        createTable();
+        benchmark_.setLoadBatchSize(4);
+
+        String sql = "INSERT INTO loaded(Id,Bid) VALUES (?,?)";
+        AtomicLong loaded = new AtomicLong();
+
+        DBBenchmark.LoaderThread first =
+            benchmark_.new LoaderThread(sql, 0, 10, 10, loaded);
+
+        DBBenchmark.LoaderThread second =
+            benchmark_.new LoaderThread(sql, 10, 30, 10, loaded);
+
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertNull(first.getError());
+        assertNull(second.getError());
+        assertEquals(30, loaded.get());
+        assertEquals(30, count("loaded", null));
+        assertEquals(10, count("loaded", "Bid = 2"));
+
+        // Overlaps the rows already loaded
+        DBBenchmark.LoaderThread duplicate =
+            benchmark_.new LoaderThread(sql, 25, 35, 10, loaded);
+
+        duplicate.start();
+        duplicate.join();
+
+        assertNotNull(duplicate.getError());
+        assertEquals(30, count("loaded", null));
+    }
+
+
+    /**
+     * Tests that createDatabase() splits the accounts between the loaders
+     * and that random ids only pick rows that were loaded.
+     *
+     * @throws Exception on error.
+     */
+    public void testCreateDatabase() throws Exception
+    {
+        logger_.info("Running testCreateDatabase...");
+
+        benchmark_.setScaleFactor(2);
+        benchmark_.setLoadThreads(3);
+        benchmark_.setLoadBatchSize(5000);
+        benchmark_.createDatabase();
+
+        assertEquals(2, count("branches", null));
+        assertEquals(20, count("tellers", null));
+        assertEquals(200000, count("accounts", null));
+
+        for (int bid = 0; bid < 2; bid++)
+        {
+            assertEquals(10, count("tellers", "Bid = " + bid));
+            assertEquals(100000, count("accounts", "Bid = " + bid));
+        }
+
+        assertEquals(20, count("tellers", "Tid >= 0 AND Tid < 20"));
+        assertEquals(200000, count("accounts", "Aid >= 0 AND Aid < 200000"));
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertIdLoaded("branches", "Bid", DBBenchmark.BRANCH);
+            assertIdLoaded("tellers", "Tid", DBBenchmark.TELLER);
+            assertIdLoaded("accounts", "Aid", DBBenchmark.ACCOUNT);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a table to load rows into.
+     *
+     * @throws Exception on error.
+     */
+    private void createTable() throws Exception
+    {
+        JDBCSession.executeUpdate(session_,
+            "CREATE TABLE loaded (Id INTEGER NOT NULL PRIMARY KEY, "
+            + "Bid INTEGER)");
+    }
+
+
+    /**
+     * Returns the number of rows in a table.
+     *
+     * @param table Table name.
+     * @param where Condition or null for all rows.
+     * @return int
+     * @throws Exception on error.
+     */
+    private int count(String table, String where) throws Exception
+    {
+        String sql = "SELECT count(*) FROM " + table;
+
+        if (where != null)
+            sql += " WHERE " + where;
+
+        Object[][] results = JDBCSession.executeQueryArray(session_, sql);
+        return ((Number) results[0][0]).intValue();
+    }
+
+
+    /**
+     * Asserts that a random id of the given type matches a loaded row.
+     *
+     * @param table Table name.
+     * @param column Id column.
+     * @param type Type of id.
+     * @throws Exception on error.
+     */
+    private void assertIdLoaded(String table, String column, int type)
+        throws Exception
+    {
+        int id = benchmark_.getRandomID(type);
+        assertEquals(table + " " + id, 1,
+            count(table, column + " = " + id));
+    }
+}
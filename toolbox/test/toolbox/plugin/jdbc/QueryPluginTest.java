@@ -47,6 +47,9 @@ public class QueryPluginTest extends TestCase
             p.setMaxHistory(99);
             p.setSqlTerminator("#");
             p.setSendErrorToConsole(false);
+            p.setFetchSize(250);
+            p.setMaxTextRows(50);
+            p.setMaxTableRows(5000);
             
             Element root = new Element("root");
             p.savePrefs(root);
@@ -67,6 +70,9 @@ public class QueryPluginTest extends TestCase
             assertEquals(p.getSqlTerminator(), p2.getSqlTerminator());
             assertEquals(p.isSendErrorToConsole(), p2.isSendErrorToConsole());
             assertEquals(p.isContinueOnError(), p2.isContinueOnError());
+            assertEquals(p.getFetchSize(), p2.getFetchSize());
+            assertEquals(p.getMaxTextRows(), p2.getMaxTextRows());
+            assertEquals(p.getMaxTableRows(), p2.getMaxTableRows());
         }
         catch (HeadlessException he) {
             logger_.info("Skipping test because: " + he.getMessage());
@@ -0,0 +1,245 @@
+package toolbox.plugin.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.lang.math.RandomUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.JDBCSession;
+import toolbox.util.JDBCUtil;
+import toolbox.util.ThreadUtil;
+
+/**
+ * Unit test for {@link toolbox.plugin.jdbc.ResultSetTableModel}.
+ */
+public class ResultSetTableModelTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(ResultSetTableModelTest.class);
+
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    private static final String DB_DRIVER   = "org.hsqldb.jdbcDriver";
+    private static final String DB_USER     = "SA";
+    private static final String DB_PASSWORD = "";
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Name of the session with the test table.
+     */
+    private String session_;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(ResultSetTableModelTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides TestCase
+    //--------------------------------------------------------------------------
+
+    protected void setUp() throws Exception
+    {
+        session_ = "rsmodel" + RandomUtils.nextInt();
+
+        JDBCSession.init(session_, DB_DRIVER, "jdbc:hsqldb:mem:" + session_,
+            DB_USER, DB_PASSWORD, false);
+
+        JDBCSession.executeUpdate(session_,
+            "create table paged (id integer, name varchar(20))");
+
+        for (int i = 0; i < 25; i++)
+            JDBCSession.executeUpdate(session_,
+                "insert into paged values (" + i + ", 'name" + i + "')");
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        JDBCSession.executeUpdate(session_, "shutdown");
+        JDBCSession.shutdown(session_);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that rows are read a page at a time and the connection is
+     * released once the last row has been read.
+     *
+     * @throws Exception on error.
+     */
+    public void testPaging() throws Exception
+    {
+        logger_.info("Running testPaging...");
+
+        ResultSetTableModel model = createModel(3, 10, 0);
+        final List inserted = new ArrayList();
+
+        model.addTableModelListener(new TableModelListener()
+        {
+            public void tableChanged(TableModelEvent e)
+            {
+                assertEquals(TableModelEvent.INSERT, e.getType());
+                inserted.add(new Integer(e.getLastRow() - e.getFirstRow() + 1));
+            }
+        });
+
+        // Given rows plus the rest of the first page
+        assertEquals(10, model.getRowCount());
+        assertEquals(2, model.getColumnCount());
+        assertEquals("ID", model.getColumnName(0));
+        assertEquals(new Integer(0), model.getValueAt(0, 0));
+        assertEquals("name9", model.getValueAt(9, 1));
+        assertFalse(model.isClosed());
+
+        model.fetchPage();
+        assertEquals(20, model.getRowCount());
+
+        model.fetchPage();
+        assertEquals(25, model.getRowCount());
+        assertTrue(model.isClosed());
+        assertEquals("name24", model.getValueAt(24, 1));
+
+        model.fetchPage();
+        assertEquals(25, model.getRowCount());
+        assertEquals(2, inserted.size());
+        assertEquals(new Integer(10), inserted.get(0));
+        assertEquals(new Integer(5), inserted.get(1));
+    }
+
+
+    /**
+     * Tests that no more than the max number of rows are read.
+     *
+     * @throws Exception on error.
+     */
+    public void testMaxRows() throws Exception
+    {
+        logger_.info("Running testMaxRows...");
+
+        ResultSetTableModel model = createModel(0, 10, 15);
+        assertEquals(10, model.getRowCount());
+
+        model.fetchPage();
+        assertEquals(15, model.getRowCount());
+        assertTrue(model.isClosed());
+    }
+
+
+    /**
+     * Tests that asking for a value near the last row read reads the next
+     * page on another thread and inserts it on the event dispatch thread.
+     *
+     * @throws Exception on error.
+     */
+    public void testScheduledFetch() throws Exception
+    {
+        logger_.info("Running testScheduledFetch...");
+
+        ResultSetTableModel model = createModel(0, 10, 0);
+        final List insertedOnEDT = new ArrayList();
+
+        model.addTableModelListener(new TableModelListener()
+        {
+            public void tableChanged(TableModelEvent e)
+            {
+                insertedOnEDT.add(
+                    Boolean.valueOf(SwingUtilities.isEventDispatchThread()));
+            }
+        });
+
+        assertEquals(new Integer(9), model.getValueAt(9, 0));
+
+        for (int i = 0; i < 100 && model.getRowCount() < 20; i++)
+        {
+            SwingUtilities.invokeAndWait(new Runnable()
+            {
+                public void run()
+                {
+                }
+            });
+
+            ThreadUtil.sleep(50);
+        }
+
+        assertEquals(20, model.getRowCount());
+        assertEquals(1, insertedOnEDT.size());
+        assertEquals(Boolean.TRUE, insertedOnEDT.get(0));
+        model.close();
+    }
+
+
+    /**
+     * Tests that closing keeps the rows already read.
+     *
+     * @throws Exception on error.
+     */
+    public void testClose() throws Exception
+    {
+        logger_.info("Running testClose...");
+
+        ResultSetTableModel model = createModel(0, 5, 0);
+        model.close();
+        model.close();
+
+        assertTrue(model.isClosed());
+        assertEquals(5, model.getRowCount());
+        assertEquals(new Integer(4), model.getValueAt(4, 0));
+
+        model.fetchPage();
+        assertEquals(5, model.getRowCount());
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Creates a model over the test table seeded with rows read up front.
+     *
+     * @param seedRows Number of rows read before the model is created.
+     * @param pageSize Number of rows per page.
+     * @param maxRows Max rows or 0 for no limit.
+     * @return ResultSetTableModel
+     * @throws Exception on error.
+     */
+    private ResultSetTableModel createModel(
+        int seedRows,
+        int pageSize,
+        int maxRows)
+        throws Exception
+    {
+        Connection conn = JDBCSession.getConnection(session_);
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("select * from paged order by id");
+        List rows = new ArrayList();
+
+        for (int i = 0; i < seedRows && rs.next(); i++)
+            rows.add(new Object[] {rs.getObject(1), rs.getObject(2)});
+
+        return new ResultSetTableModel(
+            rs, stmt, conn, rows, pageSize, maxRows);
+    }
+}
@@ -0,0 +1,207 @@
+package toolbox.plugin.jsourceview;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.ResourceUtil;
+
+/**
+ * Unit test for {@link toolbox.plugin.jsourceview.ByteStatsCollector}.
+ */
+public class ByteStatsCollectorTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(ByteStatsCollectorTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(ByteStatsCollectorTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests getStats() on an empty buffer.
+     *
+     * @throws Exception on error.
+     */
+    public void testGetStatsEmpty() throws Exception
+    {
+        logger_.info("Running testGetStatsEmpty...");
+
+        FileStats stats = new ByteStatsCollector().getStats(new byte[0], 0, 0);
+
+        assertEquals(0, stats.getBlankLines());
+        assertEquals(0, stats.getCodeLines());
+        assertEquals(0, stats.getCommentLines());
+        assertEquals(0, stats.getThrownOutLines());
+        assertEquals(0, stats.getTotalLines());
+    }
+
+
+    /**
+     * Tests getStats(InputStream) on the same java file as StatsCollectorTest.
+     *
+     * @throws Exception on error.
+     */
+    public void testGetStatsStream() throws Exception
+    {
+        logger_.info("Running testGetStatsStream...");
+
+        InputStream is = ResourceUtil.getResource(
+            "toolbox/jsourceview/test/StatsCollectorTest_testGetStatus.txt");
+
+        FileStats stats;
+
+        try
+        {
+            stats = new ByteStatsCollector().getStats(is, 0);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(is);
+        }
+
+        assertEquals(6,  stats.getBlankLines());
+        assertEquals(7,  stats.getCodeLines());
+        assertEquals(21, stats.getCommentLines());
+        assertEquals(9,  stats.getThrownOutLines());
+        assertEquals(43, stats.getTotalLines());
+        assertEquals(18, stats.getPercent());
+    }
+
+
+    /**
+     * Tests that tricky input gives the same stats as StatsCollector.
+     *
+     * @throws Exception on error.
+     */
+    public void testSameAsStatsCollector() throws Exception
+    {
+        logger_.info("Running testSameAsStatsCollector...");
+
+        String[] sources = new String[]
+        {
+            "a\nb\n",
+            "a\r\nb\r\n\r\n",
+            "a\rb\r\rc",
+            "no newline at end",
+            "\t\n   \n\t{\t\n}  \n{}\n",
+            "import java.io.File;\nimport\tjava.util.List;\nimport\n",
+            "importFoo();\n  import x;\n",
+            "/* one\n   two\n   import inside;\n   three */ code();\n",
+            "code(); // trailing\n// line\n/**/x\n*/ x\n",
+            "a = b / c * d; /* x */ /* y\n */\n",
+            "caf\u00e9 = \"\u00fc\u00df\"; // \u00e9\n",
+            "\u000b\u000c  x  \u000b\n",
+        };
+
+        for (int i = 0; i < sources.length; i++)
+        {
+            byte[] bytes = sources[i].getBytes("UTF-8");
+
+            FileStats expected =
+                new StatsCollector().getStats(new StringReader(sources[i]));
+
+            FileStats actual =
+                new ByteStatsCollector().getStats(bytes, 0, bytes.length);
+
+            assertStats("Source " + i, expected, actual);
+        }
+    }
+
+
+    /**
+     * Tests getStats(ByteBuffer) on heap and direct buffers with an offset.
+     *
+     * @throws Exception on error.
+     */
+    public void testGetStatsByteBuffer() throws Exception
+    {
+        logger_.info("Running testGetStatsByteBuffer...");
+
+        byte[] bytes = "xx/* c */\ncode();\n\n}\n".getBytes("US-ASCII");
+
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(2);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(2);
+
+        FileStats fromHeap = new ByteStatsCollector().getStats(heap);
+        FileStats fromDirect = new ByteStatsCollector().getStats(direct);
+
+        assertEquals(2, heap.position());
+        assertEquals(2, direct.position());
+
+        assertEquals(4, fromHeap.getTotalLines());
+        assertEquals(1, fromHeap.getCommentLines());
+        assertEquals(1, fromHeap.getCodeLines());
+        assertEquals(1, fromHeap.getBlankLines());
+        assertEquals(1, fromHeap.getThrownOutLines());
+        assertStats("Direct", fromHeap, fromDirect);
+    }
+
+
+    /**
+     * Tests isSupported() for common encodings.
+     */
+    public void testIsSupported()
+    {
+        logger_.info("Running testIsSupported...");
+
+        assertTrue(ByteStatsCollector.isSupported("UTF-8"));
+        assertTrue(ByteStatsCollector.isSupported("US-ASCII"));
+        assertTrue(ByteStatsCollector.isSupported("ISO-8859-1"));
+        assertFalse(ByteStatsCollector.isSupported("UTF-16"));
+        assertFalse(ByteStatsCollector.isSupported("no-such-encoding"));
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Asserts that two stats have the same counts.
+     *
+     * @param msg Message prefix.
+     * @param expected Expected stats.
+     * @param actual Actual stats.
+     */
+    private void assertStats(String msg, FileStats expected, FileStats actual)
+    {
+        assertEquals(msg + " total",
+            expected.getTotalLines(), actual.getTotalLines());
+
+        assertEquals(msg + " code",
+            expected.getCodeLines(), actual.getCodeLines());
+
+        assertEquals(msg + " comments",
+            expected.getCommentLines(), actual.getCommentLines());
+
+        assertEquals(msg + " blank",
+            expected.getBlankLines(), actual.getBlankLines());
+
+        assertEquals(msg + " thrown out",
+            expected.getThrownOutLines(), actual.getThrownOutLines());
+    }
+}
@@ -0,0 +1,306 @@
+package toolbox.plugin.jsourceview;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compares the throughput of {@link StatsCollector}, which decodes each file
+ * into String lines, with {@link ByteStatsCollector}, which scans the bytes in
+ * place. Source files under the given directories are loaded into memory once
+ * so the numbers reflect scanning and not disk I/O. Both collectors run the
+ * same number of warmup and timed rounds and their totals are checked to be
+ * identical.
+ * <p>
+ * Usage: ScannerBenchmark [-w warmup rounds] [-r rounds] dir...
+ */
+public class ScannerBenchmark
+{
+    //--------------------------------------------------------------------------
+    // Constants
+    //--------------------------------------------------------------------------
+
+    /**
+     * Default number of untimed rounds to let the JIT settle.
+     */
+    private static final int DEFAULT_WARMUP = 3;
+
+    /**
+     * Default number of timed rounds.
+     */
+    private static final int DEFAULT_ROUNDS = 5;
+
+    /**
+     * File extensions that are scanned, same as SourceScanner.
+     */
+    private static final String[] EXTENSIONS = {".java", ".c", ".cpp", ".h"};
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Contents of the source files.
+     */
+    private List sources_ = new ArrayList();
+
+    /**
+     * Total number of bytes in all the source files.
+     */
+    private long bytes_;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args [-w warmup rounds] [-r rounds] dir...
+     * @throws Exception on error.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int warmup = DEFAULT_WARMUP;
+        int rounds = DEFAULT_ROUNDS;
+        ScannerBenchmark benchmark = new ScannerBenchmark();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-w"))
+                warmup = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-r"))
+                rounds = Integer.parseInt(args[++i]);
+            else
+                benchmark.load(new File(args[i]));
+        }
+
+        if (benchmark.sources_.isEmpty())
+        {
+            System.out.println(
+                "Usage: ScannerBenchmark [-w warmup rounds] [-r rounds] dir...");
+            return;
+        }
+
+        benchmark.run(warmup, rounds);
+    }
+
+    //--------------------------------------------------------------------------
+    // Public
+    //--------------------------------------------------------------------------
+
+    /**
+     * Loads the source files in a directory tree into memory.
+     *
+     * @param dir Root directory.
+     * @throws IOException on I/O error.
+     */
+    public void load(File dir) throws IOException
+    {
+        File[] files = dir.listFiles();
+
+        if (files == null)
+            return;
+
+        for (int i = 0; i < files.length; i++)
+        {
+            if (files[i].isDirectory())
+            {
+                load(files[i]);
+            }
+            else if (isSource(files[i].getName()))
+            {
+                InputStream is = new FileInputStream(files[i]);
+
+                try
+                {
+                    byte[] source = IOUtils.toByteArray(is);
+                    sources_.add(source);
+                    bytes_ += source.length;
+                }
+                finally
+                {
+                    IOUtils.closeQuietly(is);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Runs the benchmark and prints the results.
+     *
+     * @param warmup Number of untimed rounds per collector.
+     * @param rounds Number of timed rounds per collector.
+     * @throws IOException on I/O error.
+     */
+    public void run(int warmup, int rounds) throws IOException
+    {
+        NumberFormat nf = DecimalFormat.getIntegerInstance();
+
+        System.out.println(
+            "Scanning " + nf.format(sources_.size()) + " files, " +
+            nf.format(bytes_) + " bytes, " + warmup + " warmup and " +
+            rounds + " timed rounds");
+
+        for (int i = 0; i < warmup; i++)
+        {
+            scanStrings();
+            scanBytes();
+        }
+
+        long stringTime = 0;
+        long byteTime = 0;
+        FileStats stringStats = null;
+        FileStats byteStats = null;
+
+        // Alternate so neither collector consistently runs on a warmer heap
+        for (int i = 0; i < rounds; i++)
+        {
+            long start = System.currentTimeMillis();
+            stringStats = scanStrings();
+            stringTime += System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            byteStats = scanBytes();
+            byteTime += System.currentTimeMillis() - start;
+        }
+
+        System.out.println("Lines: " + nf.format(byteStats.getTotalLines()));
+        report("StatsCollector", stringTime, rounds, stringStats);
+        report("ByteStatsCollector", byteTime, rounds, byteStats);
+
+        if (byteTime > 0)
+            System.out.println(
+                "Speedup: " + new DecimalFormat("0.00").format(
+                    (double) stringTime / byteTime) + "x");
+
+        if (!equals(stringStats, byteStats))
+            System.out.println(
+                "MISMATCH:\n" + format(stringStats) + "\n" + format(byteStats));
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Scans all the sources with a StatsCollector.
+     *
+     * @return Totals
+     * @throws IOException on I/O error.
+     */
+    private FileStats scanStrings() throws IOException
+    {
+        StatsCollector collector = new StatsCollector();
+        FileStats totals = new FileStats();
+
+        for (int i = 0, n = sources_.size(); i < n; i++)
+        {
+            byte[] source = (byte[]) sources_.get(i);
+
+            totals.add(collector.getStats(
+                new InputStreamReader(new ByteArrayInputStream(source))));
+        }
+
+        return totals;
+    }
+
+
+    /**
+     * Scans all the sources with a ByteStatsCollector.
+     *
+     * @return Totals
+     */
+    private FileStats scanBytes()
+    {
+        ByteStatsCollector collector = new ByteStatsCollector();
+        FileStats totals = new FileStats();
+
+        for (int i = 0, n = sources_.size(); i < n; i++)
+        {
+            byte[] source = (byte[]) sources_.get(i);
+            totals.add(collector.getStats(source, 0, source.length));
+        }
+
+        return totals;
+    }
+
+
+    /**
+     * Prints the results for one collector.
+     *
+     * @param name Name of the collector.
+     * @param millis Total time of the timed rounds.
+     * @param rounds Number of timed rounds.
+     * @param stats Totals of the last round.
+     */
+    private void report(String name, long millis, int rounds, FileStats stats)
+    {
+        double seconds = Math.max(millis, 1) / 1000.0;
+        DecimalFormat df = new DecimalFormat("#,##0.0");
+
+        System.out.println(
+            name + ": " + millis / rounds + " ms/round, " +
+            df.format(bytes_ * rounds / seconds / (1024 * 1024)) + " MB/s, " +
+            df.format(stats.getTotalLines() * rounds / seconds) + " lines/s");
+    }
+
+
+    /**
+     * Returns true if two stats have the same counts.
+     *
+     * @param a First stats.
+     * @param b Second stats.
+     * @return boolean
+     */
+    private static boolean equals(FileStats a, FileStats b)
+    {
+        return a.getTotalLines() == b.getTotalLines()
+            && a.getCodeLines() == b.getCodeLines()
+            && a.getCommentLines() == b.getCommentLines()
+            && a.getBlankLines() == b.getBlankLines()
+            && a.getThrownOutLines() == b.getThrownOutLines();
+    }
+
+
+    /**
+     * Formats the counts of stats.
+     *
+     * @param stats Stats to format.
+     * @return String
+     */
+    private static String format(FileStats stats)
+    {
+        return "[Total " + stats.getTotalLines() + "] " +
+            "[Code " + stats.getCodeLines() + "] " +
+            "[Comments " + stats.getCommentLines() + "] " +
+            "[Empty " + stats.getBlankLines() + "] " +
+            "[Thrown out " + stats.getThrownOutLines() + "]";
+    }
+
+
+    /**
+     * Returns true if the file name has a source file extension.
+     *
+     * @param name File name.
+     * @return boolean
+     */
+    private static boolean isSource(String name)
+    {
+        for (int i = 0; i < EXTENSIONS.length; i++)
+            if (name.toLowerCase().endsWith(EXTENSIONS[i]))
+                return true;
+
+        return false;
+    }
+}
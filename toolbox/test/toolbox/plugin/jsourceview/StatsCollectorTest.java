@@ -105,4 +105,74 @@ public class StatsCollectorTest extends TestCase
         assertEquals(43, stats.getTotalLines());
         assertEquals(18, stats.getPercent());
     }
-}
\ No newline at end of file
+    
+    
+    /**
+     * Tests that stats gathered by collectors running on separate threads and
+     * merged add up to the stats gathered by a single collector.
+     * 
+     * @throws Exception on error.
+     */
+    public void testMergeParallelCollectors() throws Exception
+    {
+        logger_.info("Running testMergeParallelCollectors...");
+        
+        final String file = 
+            "toolbox/jsourceview/test/StatsCollectorTest_testGetStatus.txt";
+        
+        final int threads = 4;
+        final int filesPerThread = 25;
+        final FileStats[] subtotals = new FileStats[threads];
+        final Exception[] errors = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        
+        for (int i = 0; i < threads; i++)
+        {
+            final int index = i;
+            
+            workers[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    StatsCollector collector = new StatsCollector();
+                    subtotals[index] = new FileStats();
+                    
+                    try
+                    {
+                        for (int j = 0; j < filesPerThread; j++)
+                            subtotals[index].add(collector.getStats(file));
+                    }
+                    catch (Exception e)
+                    {
+                        errors[0] = e;
+                    }
+                }
+            });
+            
+            workers[i].start();
+        }
+        
+        FileStats totals = new FileStats();
+        
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i].join();
+            totals.add(subtotals[i]);
+        }
+        
+        if (errors[0] != null)
+            throw errors[0];
+        
+        FileStats single = new StatsCollector().getStats(file);
+        int n = threads * filesPerThread;
+        
+        logger_.debug(StringUtil.banner(totals.toString()));
+        
+        assertEquals(single.getBlankLines() * n, totals.getBlankLines());
+        assertEquals(single.getCodeLines() * n, totals.getCodeLines());
+        assertEquals(single.getCommentLines() * n, totals.getCommentLines());
+        assertEquals(single.getThrownOutLines() * n, totals.getThrownOutLines());
+        assertEquals(single.getTotalLines() * n, totals.getTotalLines());
+        assertEquals(single.getPercent(), totals.getPercent());
+    }
+}
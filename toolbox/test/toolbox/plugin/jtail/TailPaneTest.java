@@ -0,0 +1,150 @@
+package toolbox.plugin.jtail;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.log4j.Logger;
+
+import toolbox.tail.Tail;
+import toolbox.tail.TailAdapter;
+import toolbox.tail.TailScheduler;
+import toolbox.util.FileUtil;
+import toolbox.util.ThreadUtil;
+import toolbox.util.concurrent.BatchingQueueReader;
+
+/**
+ * Unit test for {@link toolbox.plugin.jtail.TailPane}.
+ */
+public class TailPaneTest extends TestCase
+{
+    private static final Logger logger_ = Logger.getLogger(TailPaneTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    public static void main(String[] args)
+    {
+        TestRunner.run(TailPaneTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that a pane whose queue is full and never drained does not stop
+     * another tail on the same scheduler from delivering lines.
+     *
+     * @throws Exception on error.
+     */
+    public void testFullQueueDoesNotStallScheduler() throws Exception
+    {
+        logger_.info("Running testFullQueueDoesNotStallScheduler...");
+
+        TailScheduler scheduler = new TailScheduler(1, 500);
+        scheduler.start();
+
+        File stalledFile = FileUtil.createTempFile();
+        File liveFile = FileUtil.createTempFile();
+        FileUtil.setFileContents(stalledFile, "", false);
+        FileUtil.setFileContents(liveFile, "", false);
+
+        // Never started so nothing is ever taken off its queue
+        final BatchingQueueReader stalled =
+            TailPane.createQueueReader("stalled", 10);
+
+        final int[] count = new int[1];
+
+        Tail stalledTail = new Tail();
+        Tail liveTail = new Tail();
+
+        try
+        {
+            stalledTail.follow(stalledFile, new NullWriter());
+            stalledTail.setBacklog(0);
+            stalledTail.setMaxPollDelay(20);
+            stalledTail.setScheduler(scheduler);
+            stalledTail.addTailListener(new TailAdapter()
+            {
+                public void nextLine(Tail tail, String line)
+                {
+                    try
+                    {
+                        stalled.offer(line);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        fail(e.getMessage());
+                    }
+                }
+            });
+
+            liveTail.follow(liveFile, new NullWriter());
+            liveTail.setBacklog(0);
+            liveTail.setMaxPollDelay(20);
+            liveTail.setScheduler(scheduler);
+            liveTail.addTailListener(new TailAdapter()
+            {
+                public void nextLine(Tail tail, String line)
+                {
+                    synchronized (count)
+                    {
+                        count[0]++;
+                    }
+                }
+            });
+
+            stalledTail.start();
+            liveTail.start();
+            ThreadUtil.sleep(100);
+
+            StringBuffer sb = new StringBuffer();
+
+            for (int i = 0; i < 100; i++)
+                sb.append("stalled " + i + "\n");
+
+            FileUtil.setFileContents(stalledFile, sb.toString(), true);
+            ThreadUtil.sleep(200);
+
+            for (int i = 0; i < 5; i++)
+                FileUtil.setFileContents(liveFile, "live " + i + "\n", true);
+
+            for (int i = 0; i < 200 && getCount(count) < 5; i++)
+                ThreadUtil.sleep(10);
+
+            assertEquals(5, getCount(count));
+            assertEquals(90, stalled.getDroppedCount());
+        }
+        finally
+        {
+            // Interrupts a poll stuck on the queue if the test failed
+            scheduler.stop();
+            stalledTail.stop();
+            liveTail.stop();
+            FileUtil.deleteQuietly(stalledFile);
+            FileUtil.deleteQuietly(liveFile);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Returns a count shared with a listener.
+     *
+     * @param count Count in the first element.
+     * @return int
+     */
+    private int getCount(int[] count)
+    {
+        synchronized (count)
+        {
+            return count[0];
+        }
+    }
+}
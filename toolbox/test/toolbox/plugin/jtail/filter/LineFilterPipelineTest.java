@@ -0,0 +1,80 @@
+package toolbox.plugin.jtail.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Unit test for {@link toolbox.plugin.jtail.filter.LineFilterPipeline}.
+ */
+public class LineFilterPipelineTest extends TestCase
+{
+    private static final Logger logger_ = 
+        Logger.getLogger(LineFilterPipelineTest.class);
+        
+    //--------------------------------------------------------------------------
+    // Main 
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint
+     * 
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(LineFilterPipelineTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Tests filtering and the per filter counters.
+     */
+    public void testFilter()
+    {
+        logger_.info("Running testFilter...");
+        
+        RegexLineFilter regex = new RegexLineFilter("error");
+        regex.setEnabled(true);
+        
+        LineNumberDecorator numbers = new LineNumberDecorator();
+        numbers.setEnabled(true);
+        
+        CutLineFilter cut = new CutLineFilter();
+        cut.setEnabled(false);
+        
+        LineFilterPipeline pipeline = new LineFilterPipeline(
+            new ILineFilter[] {regex, cut, numbers});
+        
+        List segments = new ArrayList();
+        StringBuffer line = new StringBuffer("an error");
+        
+        assertTrue(pipeline.filter(line, segments));
+        assertEquals("[1] an error", line.toString());
+        assertEquals(1, segments.size());
+        
+        assertFalse(pipeline.filter(new StringBuffer("all good"), segments));
+        
+        assertEquals(2, pipeline.getEvaluatedCount(0));
+        assertEquals(1, pipeline.getPassedCount(0));
+        assertEquals(0, pipeline.getEvaluatedCount(1));
+        assertEquals(1, pipeline.getEvaluatedCount(2));
+        assertEquals(1, pipeline.getPassedCount(2));
+        
+        String stats = pipeline.getStatistics();
+        logger_.debug("\n" + stats);
+        assertTrue(stats.indexOf("RegexLineFilter") >= 0);
+        assertTrue(stats.indexOf("CutLineFilter") < 0);
+        
+        pipeline.resetStatistics();
+        assertEquals(0, pipeline.getEvaluatedCount(0));
+        assertEquals(0, pipeline.getElapsedNanos(0));
+    }
+}
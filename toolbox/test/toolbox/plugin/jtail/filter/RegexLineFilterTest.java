@@ -4,6 +4,7 @@ import junit.framework.TestCase;
 import junit.textui.TestRunner;
 
 import org.apache.log4j.Logger;
+import org.apache.regexp.RESyntaxException;
 
 /**
  * Unit test for {@link toolbox.plugin.jtail.filter.RegexLineFilter}.
@@ -81,4 +82,65 @@ public class RegexLineFilterTest extends TestCase
         assertTrue(d.filter(sb));        
         assertEquals("howdy", sb.toString());
     }
-}
\ No newline at end of file
+    
+    
+    /**
+     * Tests extraction of the literal used to prefilter lines.
+     */
+    public void testRequiredLiteral()
+    {
+        logger_.info("Running testRequiredLiteral...");
+        
+        assertEquals("ERROR", RegexLineFilter.requiredLiteral("ERROR"));
+        assertEquals("ERROR ", RegexLineFilter.requiredLiteral("ERROR .*x"));
+        assertEquals("abc", RegexLineFilter.requiredLiteral("^abc[0-9]"));
+        assertEquals("ab", RegexLineFilter.requiredLiteral("abc*"));
+        assertEquals("abc", RegexLineFilter.requiredLiteral("abc+"));
+        assertNull(RegexLineFilter.requiredLiteral("a?"));
+        assertNull(RegexLineFilter.requiredLiteral(".*"));
+        assertNull(RegexLineFilter.requiredLiteral("abc|xyz"));
+        assertNull(RegexLineFilter.requiredLiteral("\\d+"));
+        assertNull(RegexLineFilter.requiredLiteral("(?i)abc"));
+    }
+    
+    
+    /**
+     * Tests that the literal prefilter gives the same answers as the regular
+     * expression.
+     */
+    public void testFilterLiteralPrefix()
+    {
+        logger_.info("Running testFilterLiteralPrefix...");
+        
+        RegexLineFilter filter = new RegexLineFilter("warn.*disk");
+        filter.setEnabled(true);
+        
+        assertTrue(filter.filter(new StringBuffer("12:00 WARN low Disk")));
+        assertFalse(filter.filter(new StringBuffer("12:00 WARN low memory")));
+        assertFalse(filter.filter(new StringBuffer("12:00 INFO disk ok")));
+        assertEquals(1, filter.getLiteralRejects());
+        
+        filter.setMatchCase(true);
+        assertFalse(filter.filter(new StringBuffer("12:00 WARN low Disk")));
+        assertTrue(filter.filter(new StringBuffer("warn: disk")));
+    }
+    
+    
+    /**
+     * Tests that an invalid expression is reported as an RESyntaxException.
+     */
+    public void testInvalidExpression()
+    {
+        logger_.info("Running testInvalidExpression...");
+        
+        try
+        {
+            new RegexLineFilter("[abc");
+            fail("Expected RESyntaxException");
+        }
+        catch (RESyntaxException e)
+        {
+            // Success
+        }
+    }
+}
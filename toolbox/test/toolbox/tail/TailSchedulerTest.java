@@ -0,0 +1,232 @@
+package toolbox.tail;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.log4j.Logger;
+
+import toolbox.util.FileUtil;
+import toolbox.util.ThreadUtil;
+
+/**
+ * Unit test for {@link toolbox.tail.TailScheduler}.
+ */
+public class TailSchedulerTest extends TestCase
+{
+    private static final Logger logger_ = 
+        Logger.getLogger(TailSchedulerTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+    
+    public static void main(String[] args)
+    {
+        TestRunner.run(TailSchedulerTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests more tails than threads all deliver their backlog and new lines.
+     * 
+     * @throws Exception on error.
+     */
+    public void testManyTailsFewThreads() throws Exception
+    {
+        logger_.info("Running testManyTailsFewThreads...");
+        
+        TailScheduler scheduler = new TailScheduler(2, 3);
+        scheduler.start();
+        
+        File[] files = new File[10];
+        Tail[] tails = new Tail[files.length];
+        MockTailListener[] listeners = new MockTailListener[files.length];
+        
+        try
+        {
+            for (int i = 0; i < files.length; i++)
+            {
+                files[i] = FileUtil.createTempFile();
+                FileUtil.setFileContents(files[i], "backlog " + i, false);
+                
+                listeners[i] = new MockTailListener();
+                tails[i] = new Tail();
+                tails[i].follow(files[i], new NullWriter());
+                tails[i].setBacklog(1);
+                tails[i].setMaxPollDelay(20);
+                tails[i].setScheduler(scheduler);
+                tails[i].addTailListener(listeners[i]);
+                tails[i].start();
+                listeners[i].waitForStart();
+            }
+            
+            assertEquals(files.length, scheduler.getTailCount());
+            
+            for (int i = 0; i < files.length; i++)
+                assertEquals("backlog " + i, listeners[i].waitForNextLine());
+            
+            // More lines than the budget
+            for (int i = 0; i < files.length; i++)
+                for (int j = 0; j < 10; j++)
+                    FileUtil.setFileContents(files[i], i + "-" + j + "\n", true);
+            
+            for (int i = 0; i < files.length; i++)
+                for (int j = 0; j < 10; j++)
+                    assertEquals(i + "-" + j, listeners[i].waitForNextLine());
+            
+            for (int i = 0; i < files.length; i++)
+            {
+                tails[i].stop();
+                listeners[i].waitForStop();
+            }
+            
+            assertEquals(0, scheduler.getTailCount());
+        }
+        finally
+        {
+            scheduler.stop();
+            
+            for (int i = 0; i < files.length; i++)
+                FileUtil.deleteQuietly(files[i]);
+        }
+    }
+    
+    
+    /**
+     * Tests a scheduled tail reports pause and unpause.
+     * 
+     * @throws Exception on error.
+     */
+    public void testSuspendResume() throws Exception
+    {
+        logger_.info("Running testSuspendResume...");
+        
+        TailScheduler scheduler = new TailScheduler(1, 10);
+        scheduler.start();
+        File file = FileUtil.createTempFile();
+        FileUtil.setFileContents(file, "", false);
+        
+        try
+        {
+            MockTailListener listener = new MockTailListener();
+            Tail tail = new Tail();
+            tail.follow(file, new NullWriter());
+            tail.setBacklog(0);
+            tail.setMaxPollDelay(20);
+            tail.setScheduler(scheduler);
+            tail.addTailListener(listener);
+            tail.start();
+            
+            tail.suspend();
+            listener.waitForPause();
+            FileUtil.setFileContents(file, "while paused\n", true);
+            ThreadUtil.sleep(100);
+            
+            tail.resume();
+            listener.waitForUnpause();
+            assertEquals("while paused", listener.waitForNextLine());
+            
+            tail.stop();
+        }
+        finally
+        {
+            scheduler.stop();
+            FileUtil.deleteQuietly(file);
+        }
+    }
+    
+    
+    /**
+     * Tests that stopping a tail waits for a poll in progress so no lines are
+     * delivered after stop() returns.
+     * 
+     * @throws Exception on error.
+     */
+    public void testStopWaitsForPoll() throws Exception
+    {
+        logger_.info("Running testStopWaitsForPoll...");
+        
+        TailScheduler scheduler = new TailScheduler(1, 10);
+        scheduler.start();
+        File file = FileUtil.createTempFile();
+        FileUtil.setFileContents(file, "", false);
+        
+        try
+        {
+            final int[] count = new int[1];
+            
+            Tail tail = new Tail();
+            tail.follow(file, new NullWriter());
+            tail.setBacklog(0);
+            tail.setMaxPollDelay(20);
+            tail.setScheduler(scheduler);
+            tail.addTailListener(new TailAdapter()
+            {
+                public void nextLine(Tail t, String line)
+                {
+                    synchronized (count)
+                    {
+                        count[0]++;
+                    }
+                    
+                    // Slow listener keeps the poll in progress
+                    ThreadUtil.sleep(50);
+                }
+            });
+            
+            tail.start();
+            
+            // Let the first poll skip to the end of the empty file
+            ThreadUtil.sleep(100);
+            
+            StringBuffer sb = new StringBuffer();
+            
+            for (int i = 0; i < 10; i++)
+                sb.append("line " + i + "\n");
+            
+            FileUtil.setFileContents(file, sb.toString(), true);
+            
+            for (int i = 0; i < 100 && getCount(count) == 0; i++)
+                ThreadUtil.sleep(10);
+            
+            tail.stop();
+            
+            int stopped = getCount(count);
+            assertTrue("A line should have been delivered", stopped > 0);
+            
+            ThreadUtil.sleep(200);
+            assertEquals("No lines after stop", stopped, getCount(count));
+            
+            assertEquals(0, scheduler.getTailCount());
+        }
+        finally
+        {
+            scheduler.stop();
+            FileUtil.deleteQuietly(file);
+        }
+    }
+    
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+    
+    /**
+     * Returns a count shared with a listener.
+     * 
+     * @param count Count in the first element.
+     * @return int
+     */
+    private int getCount(int[] count)
+    {
+        synchronized (count)
+        {
+            return count[0];
+        }
+    }
+}
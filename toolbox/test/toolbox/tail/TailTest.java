@@ -174,6 +174,52 @@ public class TailTest extends TestCase
     }
     
     
+    /**
+     * Tests adaptive mode picks up appended lines and re-attaches to a file 
+     * that was truncated.
+     * 
+     * @throws Exception on error.
+     */
+    public void testTailAdaptiveTruncated() throws Exception
+    {
+        logger_.info("Running testTailAdaptiveTruncated...");
+       
+        File file = FileUtil.createTempFile();
+        
+        try
+        {
+            FileUtil.setFileContents(file, makeParagraph(50) + "\n", false);
+            MockTailListener listener = new MockTailListener();
+            
+            Tail tail = new Tail();
+            tail.follow(file, new NullWriter());
+            tail.setBacklog(0);
+            tail.setAdaptive(true);
+            tail.setMaxPollDelay(50);
+            tail.addTailListener(listener);
+            tail.start();
+            listener.waitForStart();
+            
+            // Let the poller back off before appending
+            ThreadUtil.sleep(500);
+            FileUtil.setFileContents(file, "appended\n", true);
+            assertEquals("appended", listener.waitForNextLine());
+            
+            // Truncate and write a line
+            FileUtil.setFileContents(file, "truncated\n", false);
+            listener.waitForReattach();
+            assertEquals("truncated", listener.waitForNextLine());
+            
+            tail.stop();
+            listener.waitForStop();
+        }
+        finally
+        {
+            FileUtil.deleteQuietly(file);
+        }
+    }
+    
+    
     /**
      * Tests the lifecycle of a Tail object (start/stop/pause/unpause).
      * 
@@ -495,6 +541,7 @@ class MockTailListener implements TailListener
     private BlockingQueue endedEvents_    = new LinkedBlockingQueue();
     private BlockingQueue pauseEvents_    = new LinkedBlockingQueue();
     private BlockingQueue unpauseEvents_  = new LinkedBlockingQueue();
+    private BlockingQueue reattachEvents_ = new LinkedBlockingQueue();
 
     /**
      * @see TailListener#nextLine(Tail, String)
@@ -611,6 +658,15 @@ class MockTailListener implements TailListener
     public void tailReattached(Tail tail)
     {
         logger_.debug("Tail re-attached");
+        
+        try
+        {
+            reattachEvents_.put("reattach");    
+        }
+        catch (Exception e)
+        {
+            logger_.error(e);
+        }
     }
 
     
@@ -658,6 +714,17 @@ class MockTailListener implements TailListener
     }
     
     
+    /**
+     * Waits for the reattach event.
+     * 
+     * @throws InterruptedException on interruption.
+     */
+    public void waitForReattach() throws InterruptedException
+    {
+        reattachEvents_.take();
+    }
+    
+    
     /**
      * Waits for the end event.
      * 
@@ -14,6 +14,7 @@ import java.net.Socket;
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
 
+import nu.xom.Attribute;
 import nu.xom.Element;
 
 import org.apache.commons.io.output.NullOutputStream;
@@ -167,8 +168,8 @@ public class TcpTunnelTest extends TestCase
         server.stop();
         
         // Make sure count of bytes send/received adds up
-        int r = tunnelListener.getTotalBytesRead();
-        int w = tunnelListener.getTotalBytesWritten();
+        long r = tunnelListener.getTotalBytesRead();
+        long w = tunnelListener.getTotalBytesWritten();
         
         logger_.debug("Bytes read   : " + r);
         logger_.debug("Bytes written: " + w);
@@ -179,6 +180,127 @@ public class TcpTunnelTest extends TestCase
     }
     
     
+    /**
+     * Tests sending/receiving data through the tunnel in non-blocking mode.
+     */
+    public void testTcpTunnel_NonBlocking() throws Exception 
+    {   
+        logger_.info("Running testTcpTunnel_NonBlocking...");
+        
+        // Setup server
+        SocketServerConfig serverConfig = 
+            new SocketServerConfig(
+                "TcpTunnelServer",
+                SocketUtil.getFreePort(),
+                EchoConnectionHandler.class.getName());
+        
+        SocketServer server = new SocketServer(serverConfig);
+        DefaultSocketServerListener serverListener = new DefaultSocketServerListener();
+        server.addSocketServerListener(serverListener);
+        server.start();
+        serverListener.waitForStart();        
+        
+        // Setup tunnel
+        int tunnelPort = SocketUtil.getFreePort();
+        TcpTunnel tunnel = new TcpTunnel(tunnelPort, "localhost", serverConfig.getServerPort());
+        tunnel.setNonBlocking(true);
+        
+        StringOutputStream ab = new StringOutputStream();
+        tunnel.setIncomingSink(ab);
+        
+        StringOutputStream ba = new StringOutputStream();
+        tunnel.setOutgoingSink(ba);
+        
+        DefaultTcpTunnelListener tunnelListener = new DefaultTcpTunnelListener();
+        tunnel.addTcpTunnelListener(tunnelListener);
+        tunnel.start();
+        tunnelListener.waitForStarted();
+        
+        // Setup client
+        Socket socket = new Socket("localhost", tunnelPort);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+        BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+        try
+        {
+            String message = RandomStringUtils.randomAlphanumeric(100000);
+            
+            pw.println(message);
+            pw.flush();
+            serverListener.waitForAccept();
+            
+            assertEquals(message, read(br));
+            assertTrue(ba.toString().startsWith(message));
+            assertTrue(ab.toString().startsWith(message));
+            
+            write(pw, "terminate");
+        }
+        finally
+        {
+            socket.close();
+            tunnel.stop();
+            server.stop();
+        }
+    }
+    
+    
+    /**
+     * Tests that bytes are counted in non-blocking mode when nothing is
+     * tapping the relayed data.
+     */
+    public void testTcpTunnel_NonBlockingTotals() throws Exception 
+    {   
+        logger_.info("Running testTcpTunnel_NonBlockingTotals...");
+        
+        // Setup server
+        SocketServerConfig serverConfig = 
+            new SocketServerConfig(
+                "TcpTunnelServer",
+                SocketUtil.getFreePort(),
+                EchoConnectionHandler.class.getName());
+        
+        SocketServer server = new SocketServer(serverConfig);
+        DefaultSocketServerListener serverListener = new DefaultSocketServerListener();
+        server.addSocketServerListener(serverListener);
+        server.start();
+        serverListener.waitForStart();        
+        
+        // Setup tunnel without listeners or sinks so nothing is tapped
+        int tunnelPort = SocketUtil.getFreePort();
+        TcpTunnel tunnel = new TcpTunnel(tunnelPort, "localhost", serverConfig.getServerPort());
+        tunnel.setNonBlocking(true);
+        tunnel.setIncomingSink(new NullOutputStream());
+        tunnel.setOutgoingSink(new NullOutputStream());
+        tunnel.start();
+        
+        // Setup client
+        Socket socket = new Socket("localhost", tunnelPort);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+        BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+        try
+        {
+            String message = RandomStringUtils.randomAlphanumeric(1000);
+            int len = message.length() + System.getProperty("line.separator").length();
+            
+            pw.println(message);
+            pw.flush();
+            assertEquals(message, read(br));
+            
+            assertEquals(len, tunnel.getTotalBytesWritten());
+            assertEquals(len, tunnel.getTotalBytesRead());
+            
+            write(pw, "terminate");
+        }
+        finally
+        {
+            socket.close();
+            tunnel.stop();
+            server.stop();
+        }
+    }
+    
+    
     /**
      * Tests the IPreferenced interface implementation.
      */
@@ -190,10 +312,13 @@ public class TcpTunnelTest extends TestCase
         int remotePort = SocketUtil.getFreePort();
         String remoteHost= "localhost";
         boolean suppressBinary = RandomUtils.nextBoolean();
+        boolean nonBlocking = RandomUtils.nextBoolean();
         
         // savePrefs
         TcpTunnel tunnel = new TcpTunnel(localPort, remoteHost, remotePort);
         tunnel.setSuppressBinary(suppressBinary);
+        tunnel.setNonBlocking(nonBlocking);
+        tunnel.setSelectorThreads(3);
         
         Element prefs = new Element("root");
         tunnel.savePrefs(prefs);
@@ -209,6 +334,18 @@ public class TcpTunnelTest extends TestCase
         assertEquals(remoteHost, tunnel2.getRemoteHost());
         assertEquals(remotePort, tunnel2.getRemotePort());
         assertEquals(suppressBinary, tunnel2.isSuppressBinary());
+        assertEquals(nonBlocking, tunnel2.isNonBlocking());
+        assertEquals(3, tunnel2.getSelectorThreads());
+        
+        // An invalid thread count falls back to the default
+        prefs.getFirstChildElement(TcpTunnel.NODE_TCPTUNNEL).addAttribute(
+            new Attribute(TcpTunnel.PROP_SELECTOR_THREADS, "0"));
+        
+        TcpTunnel tunnel3 = new TcpTunnel();
+        tunnel3.applyPrefs(prefs);
+        
+        assertEquals(
+            SelectorRelay.DEFAULT_LOOPS, tunnel3.getSelectorThreads());
     }
 
 
@@ -1,14 +1,18 @@
 package toolbox.util;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.RandomUtils;
 import org.apache.log4j.Logger;
 
@@ -922,10 +926,146 @@ public class JDBCUtilTest extends TestCase
         }
     }
 
+
+    /**
+     * Tests that the streaming format() estimates the column widths from the
+     * sampled rows and still writes every row in full.
+     *
+     * @throws Exception on error.
+     */
+    public void testFormatStreaming() throws Exception
+    {
+        logger_.info("Running testFormatStreaming...");
+
+        String prefix = nextPrefix("JDBCUtilTest_FormatStreaming");
+        JDBCUtil.init(DB_DRIVER, DB_URL + prefix, DB_USER, DB_PASSWORD);
+        String table = "table_formatstreaming";
+        Connection conn = null;
+
+        try
+        {
+            populateFormatTable(table, 50);
+            conn = JDBCUtil.getConnection();
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(
+                "select * from " + table + " order by id");
+
+            StringWriter sw = new StringWriter();
+            List values = new ArrayList();
+            
+            assertEquals(50, JDBCUtil.format(rs, sw, 0, 10, values));
+            assertEquals(50, values.size());
+            assertEquals(new Integer(40), ((Object[]) values.get(40))[0]);
+            
+            String results = sw.toString();
+            logger_.debug("\n" + results);
+            
+            String[] lines = StringUtil.tokenize(results, "\n");
+            assertEquals(3 + 50 + 1, lines.length);
+            assertTrue(results.endsWith("\n50 rows\n"));
+            
+            // Sampled rows line up with the header
+            for (int i = 3; i < 3 + 10; i++)
+                assertEquals(lines[0].length(), lines[i].length());
+            
+            // The long value past the sample is written in full
+            assertTrue(lines[3 + 40].indexOf(StringUtils.repeat("x", 40)) > 0);
+            
+            JDBCUtil.close(rs);
+            JDBCUtil.close(stmt);
+        }
+        finally
+        {
+            JDBCUtil.releaseConnection(conn);
+            JDBCUtil.dropTable(table);
+            JDBCUtil.shutdown();
+            cleanup(prefix);
+        }
+    }
+
+
+    /**
+     * Tests that format() stops at the row limit and leaves the result set
+     * positioned at the next row.
+     *
+     * @throws Exception on error.
+     */
+    public void testFormatMaxRows() throws Exception
+    {
+        logger_.info("Running testFormatMaxRows...");
+
+        String prefix = nextPrefix("JDBCUtilTest_FormatMaxRows");
+        JDBCUtil.init(DB_DRIVER, DB_URL + prefix, DB_USER, DB_PASSWORD);
+        String table = "table_formatmaxrows";
+        Connection conn = null;
+
+        try
+        {
+            populateFormatTable(table, 50);
+            conn = JDBCUtil.getConnection();
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(
+                "select * from " + table + " order by id");
+
+            StringWriter sw = new StringWriter();
+            assertEquals(20, JDBCUtil.format(rs, sw, 20, 100, null));
+            assertTrue(sw.toString().endsWith("\n20 rows (limit reached)\n"));
+            
+            assertTrue(rs.next());
+            assertEquals(20, rs.getInt(1));
+            
+            JDBCUtil.close(rs);
+            
+            // Same output as format(ResultSet) when the sample covers all rows
+            rs = stmt.executeQuery("select * from " + table + " order by id");
+            String expected = JDBCUtil.format(rs);
+            JDBCUtil.close(rs);
+            
+            rs = stmt.executeQuery("select * from " + table + " order by id");
+            sw = new StringWriter();
+            JDBCUtil.format(rs, sw, 0, Integer.MAX_VALUE, null);
+            assertEquals(expected, sw.toString());
+            
+            JDBCUtil.close(rs);
+            JDBCUtil.close(stmt);
+        }
+        finally
+        {
+            JDBCUtil.releaseConnection(conn);
+            JDBCUtil.dropTable(table);
+            JDBCUtil.shutdown();
+            cleanup(prefix);
+        }
+    }
+
     //--------------------------------------------------------------------------
     // Helpers
     //--------------------------------------------------------------------------
 
+    /**
+     * Creates a table of ids and names where the name of row 40 is much
+     * longer than the others.
+     *
+     * @param table Name of the table.
+     * @param rows Number of rows to insert.
+     * @throws Exception on error.
+     */
+    protected void populateFormatTable(String table, int rows) throws Exception
+    {
+        JDBCUtil.executeUpdate(
+            "create table " + table + "(id integer, name varchar(100))");
+
+        for (int i = 0; i < rows; i++)
+        {
+            String name = (i == 40 ? StringUtils.repeat("x", 40) : "n" + i);
+            
+            JDBCUtil.executeUpdate(
+                "insert into " + table + "(id, name) values (" 
+                + i + ", '" + name + "')");
+        }
+    }
+
+
     /**
      * Cleans up HSQLDB file remnants.
      *
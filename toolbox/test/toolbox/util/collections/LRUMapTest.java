@@ -0,0 +1,303 @@
+package toolbox.util.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.ThreadUtil;
+
+/**
+ * Unit test for {@link toolbox.util.collections.LRUMap} and
+ * {@link toolbox.util.collections.StripedLRUMap}.
+ */
+public class LRUMapTest extends TestCase
+{
+    private static final Logger logger_ = Logger.getLogger(LRUMapTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(LRUMapTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that the least recently used entry is evicted and that get() and
+     * containsKey() count as a use.
+     */
+    public void testEvictLeastRecentlyUsed()
+    {
+        logger_.info("Running testEvictLeastRecentlyUsed...");
+
+        LRUMap map = new LRUMap(3);
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("c", "3");
+
+        assertEquals("1", map.get("a"));
+        assertTrue(map.containsKey("b"));
+
+        map.put("d", "4");
+        assertEquals(3, map.size());
+        assertFalse(map.containsKey("c"));
+
+        // Order is least to most recently used
+        Iterator i = map.keySet().iterator();
+        assertEquals("a", i.next());
+        assertEquals("b", i.next());
+        assertEquals("d", i.next());
+        assertFalse(i.hasNext());
+
+        map.setMaxSize(1);
+        assertEquals(1, map.size());
+        assertEquals("4", map.get("d"));
+    }
+
+
+    /**
+     * Tests that entries expire once the time limit is exceeded and that a
+     * touched entry survives.
+     */
+    public void testTimeLimit()
+    {
+        logger_.info("Running testTimeLimit...");
+
+        LRUMap map = new LRUMap(100, 200);
+        map.put("old", "1");
+        map.put("touched", "2");
+
+        ThreadUtil.sleep(120);
+        map.get("touched");
+        map.put("new", "3");
+        ThreadUtil.sleep(120);
+
+        assertNull(map.get("old"));
+        assertEquals("2", map.get("touched"));
+        assertEquals("3", map.get("new"));
+        assertEquals(2, map.size());
+    }
+
+
+    /**
+     * Tests the views including removal through iterators and touching
+     * entries while iterating.
+     */
+    public void testViews()
+    {
+        logger_.info("Running testViews...");
+
+        LRUMap map = new LRUMap(10);
+
+        for (int i = 0; i < 5; i++)
+            map.put("k" + i, new Integer(i));
+
+        int visited = 0;
+
+        for (Iterator i = map.entrySet().iterator(); i.hasNext(); visited++)
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+
+            if (((Integer) entry.getValue()).intValue() % 2 == 0)
+                i.remove();
+        }
+
+        assertEquals(5, visited);
+        assertEquals(2, map.size());
+        assertTrue(map.values().contains(new Integer(3)));
+
+        map.keySet().remove("k1");
+        assertEquals(1, map.size());
+
+        Map expected = new HashMap();
+        expected.put("k3", new Integer(3));
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals("{k3=3}", map.toString());
+
+        map.values().clear();
+        assertTrue(map.isEmpty());
+    }
+
+
+    /**
+     * Tests null values, removal and containsValue().
+     */
+    public void testRemoveAndContainsValue()
+    {
+        logger_.info("Running testRemoveAndContainsValue...");
+
+        LRUMap map = new LRUMap(3);
+        map.put("a", null);
+        map.put("b", "x");
+        map.put("c", "x");
+
+        assertTrue(map.containsValue(null));
+        assertTrue(map.containsValue("x"));
+        assertFalse(map.containsValue("y"));
+
+        // containsValue() touched b and c after a
+        map.put("d", "y");
+        assertFalse(map.containsKey("a"));
+
+        assertEquals("x", map.remove("b"));
+        assertNull(map.remove("b"));
+        assertEquals(2, map.size());
+    }
+
+
+    /**
+     * Tests that a serialized map keeps its contents and order.
+     *
+     * @throws Exception on error.
+     */
+    public void testSerialization() throws Exception
+    {
+        logger_.info("Running testSerialization...");
+
+        LRUMap map = new LRUMap(3);
+        map.put("a", "1");
+        map.put("b", "2");
+        map.get("a");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(map);
+        oos.close();
+
+        LRUMap copy = (LRUMap) new ObjectInputStream(
+            new ByteArrayInputStream(baos.toByteArray())).readObject();
+
+        assertEquals(map, copy);
+        assertEquals(3, copy.getMaxSize());
+
+        copy.put("c", "3");
+        copy.put("d", "4");
+        assertFalse(copy.containsKey("b"));
+    }
+
+
+    /**
+     * Tests that the contents of a backing map are copied in and that the
+     * backing map itself is left alone.
+     */
+    public void testBackingMap()
+    {
+        logger_.info("Running testBackingMap...");
+
+        Map backing = new LinkedHashMap();
+        backing.put("a", "1");
+        backing.put("b", "2");
+        backing.put("c", "3");
+
+        LRUMap map = new LRUMap(2, LRUMap.NO_TIME_LIMIT, backing);
+
+        // First entry in iteration order is the least recently used
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey("a"));
+        assertEquals("2", map.get("b"));
+        assertEquals("3", map.get("c"));
+
+        map.put("d", "4");
+        assertEquals(3, backing.size());
+        assertEquals("1", backing.get("a"));
+        assertFalse(backing.containsKey("d"));
+    }
+
+
+    /**
+     * Tests that the stripes of a StripedLRUMap add up to the max size.
+     */
+    public void testStripedMaxSize()
+    {
+        logger_.info("Running testStripedMaxSize...");
+
+        StripedLRUMap map = new StripedLRUMap(10, 0, 4);
+        assertEquals(4, map.getStripeCount());
+
+        for (int i = 0; i < 1000; i++)
+            map.put(new Integer(i), "x");
+
+        assertEquals(10, map.size());
+
+        // Clamped so that every stripe holds at least one entry
+        map = new StripedLRUMap(3, 0, 16);
+        assertEquals(2, map.getStripeCount());
+
+        for (int i = 0; i < 1000; i++)
+            map.put(new Integer(i), "x");
+
+        assertEquals(3, map.size());
+    }
+
+
+    /**
+     * Tests a StripedLRUMap shared by several threads stays within bounds.
+     *
+     * @throws Exception on error.
+     */
+    public void testStripedConcurrentAccess() throws Exception
+    {
+        logger_.info("Running testStripedConcurrentAccess...");
+
+        final StripedLRUMap map = new StripedLRUMap(1000, 0, 8);
+        assertEquals(8, map.getStripeCount());
+
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int offset = t * 10000;
+
+            threads[t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < 10000; i++)
+                    {
+                        Integer key = new Integer(offset + i);
+                        map.put(key, key);
+                        map.get(new Integer(offset + i / 2));
+                    }
+                }
+            });
+
+            threads[t].start();
+        }
+
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+
+        assertTrue(map.size() <= 1000);
+        assertTrue(map.size() > 0);
+        assertEquals(map.size(), map.keySet().size());
+
+        map.put("x", "y");
+        assertEquals("y", map.get("x"));
+        assertTrue(map.containsValue("y"));
+        assertEquals("y", map.remove("x"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+}
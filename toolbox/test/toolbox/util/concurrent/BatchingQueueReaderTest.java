@@ -9,6 +9,7 @@ import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingQueue;
 import org.apache.log4j.Logger;
 
 import toolbox.util.ArrayUtil;
+import toolbox.util.ThreadUtil;
 
 /**
  * Unit test for {@link toolbox.util.concurrent.BatchingQueueReader}.
@@ -217,6 +218,172 @@ public class BatchingQueueReaderTest extends TestCase
         }        
     }
     
+    
+    /**
+     * Tests that a large backlog is delivered in batches no larger than the
+     * max batch size.
+     * 
+     * @throws Exception on error.
+     */
+    public void testMaxBatchSize() throws Exception
+    {
+        logger_.info("Running testMaxBatchSize...");
+        
+        BlockingQueue q = new LinkedBlockingQueue();
+        
+        for (int i = 0; i < 25; i++)
+            q.put(new Integer(i));
+        
+        BatchingQueueReader r = new BatchingQueueReader(q);
+        r.setMaxBatchSize(10);
+        r.addBatchingQueueListener(new TestQueueListener());
+        r.start();
+        
+        assertEquals(10, ((Object[]) qout_.take()).length);
+        assertEquals(10, ((Object[]) qout_.take()).length);
+        
+        Object[] last = (Object[]) qout_.take();
+        assertEquals(5, last.length);
+        assertEquals(new Integer(24), last[4]);
+        
+        r.stop();
+        assertEquals(3, r.getBatchCount());
+        assertEquals(25, r.getElementCount());
+    }
+    
+    
+    /**
+     * Tests that elements trickling in within the linger time are delivered
+     * in a single batch.
+     * 
+     * @throws Exception on error.
+     */
+    public void testMaxLinger() throws Exception
+    {
+        logger_.info("Running testMaxLinger...");
+        
+        BlockingQueue q = new LinkedBlockingQueue();
+        BatchingQueueReader r = new BatchingQueueReader(q);
+        r.setMaxLinger(1000);
+        r.setMaxBatchSize(3);
+        r.addBatchingQueueListener(new TestQueueListener());
+        r.start();
+        
+        q.put("one");
+        ThreadUtil.sleep(100);
+        q.put("two");
+        ThreadUtil.sleep(100);
+        q.put("three");
+        
+        // Batch is full before the linger time expires
+        Object[] batch = (Object[]) qout_.take();
+        assertEquals(3, batch.length);
+        assertEquals("three", batch[2]);
+        
+        r.stop();
+    }
+    
+    
+    /**
+     * Tests DropPolicy.DROP_OLDEST on a bounded queue.
+     * 
+     * @throws Exception on error.
+     */
+    public void testDropOldest() throws Exception
+    {
+        logger_.info("Running testDropOldest...");
+        
+        BlockingQueue q = new LinkedBlockingQueue(3);
+        BatchingQueueReader r = new BatchingQueueReader(q);
+        r.setDropPolicy(DropPolicy.DROP_OLDEST);
+        
+        for (int i = 0; i < 5; i++)
+            assertTrue(r.offer(new Integer(i)));
+        
+        assertEquals(2, r.getDroppedCount());
+        
+        r.addBatchingQueueListener(new TestQueueListener());
+        r.start();
+        
+        Object[] batch = (Object[]) qout_.take();
+        assertEquals(3, batch.length);
+        assertEquals(new Integer(2), batch[0]);
+        assertEquals(new Integer(4), batch[2]);
+        
+        r.stop();
+    }
+    
+    
+    /**
+     * Tests DropPolicy.SAMPLE keeps one in every n overflowing elements.
+     * 
+     * @throws Exception on error.
+     */
+    public void testSample() throws Exception
+    {
+        logger_.info("Running testSample...");
+        
+        BlockingQueue q = new LinkedBlockingQueue(2);
+        BatchingQueueReader r = new BatchingQueueReader(q);
+        r.setDropPolicy(DropPolicy.SAMPLE);
+        r.setSampleRate(4);
+        
+        int kept = 0;
+        
+        for (int i = 0; i < 10; i++)
+            if (r.offer(new Integer(i)))
+                kept++;
+        
+        // 2 fit, then 2 of the 8 overflowing elements are sampled and each
+        // displaces an older element
+        assertEquals(4, kept);
+        assertEquals(8, r.getDroppedCount());
+        assertEquals(new Integer(5), q.take());
+        assertEquals(new Integer(9), q.take());
+    }
+    
+    
+    /**
+     * Tests that the default DropPolicy.BLOCK waits for room in the queue.
+     * 
+     * @throws Exception on error.
+     */
+    public void testBlock() throws Exception
+    {
+        logger_.info("Running testBlock...");
+        
+        BlockingQueue q = new LinkedBlockingQueue(1);
+        final BatchingQueueReader r = new BatchingQueueReader(q);
+        assertEquals(DropPolicy.BLOCK, r.getDropPolicy());
+        
+        r.offer("one");
+        
+        Thread producer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    r.offer("two");
+                }
+                catch (InterruptedException e)
+                {
+                    logger_.error(e);
+                }
+            }
+        });
+        
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        
+        assertEquals("one", q.take());
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals("two", q.take());
+        assertEquals(0, r.getDroppedCount());
+    }
+    
     //--------------------------------------------------------------------------
     // Helper Classes
     //--------------------------------------------------------------------------
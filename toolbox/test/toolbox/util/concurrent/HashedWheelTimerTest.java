@@ -0,0 +1,121 @@
+package toolbox.util.concurrent;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import edu.emory.mathcs.backport.java.util.concurrent.CountDownLatch;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.ThreadUtil;
+
+/**
+ * Unit test for {@link toolbox.util.concurrent.HashedWheelTimer}.
+ */
+public class HashedWheelTimerTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(HashedWheelTimerTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(HashedWheelTimerTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    //  Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that many tasks run no earlier than their delay, including
+     * delays longer than one revolution of the wheel.
+     *
+     * @throws Exception on error.
+     */
+    public void testSchedule() throws Exception
+    {
+        logger_.info("Running testSchedule...");
+
+        HashedWheelTimer timer = new HashedWheelTimer("test", 10, 8);
+        final int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger early = new AtomicInteger();
+
+        for (int i = 0; i < count; i++)
+        {
+            final long delay = i % 200;
+            final long scheduled = System.currentTimeMillis();
+
+            timer.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    if (System.currentTimeMillis() - scheduled < delay)
+                        early.incrementAndGet();
+
+                    latch.countDown();
+                }
+            }, delay);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+        assertEquals(0, timer.getPendingCount());
+        timer.stop();
+    }
+
+
+    /**
+     * Tests that a cancelled task does not run.
+     */
+    public void testCancel()
+    {
+        logger_.info("Running testCancel...");
+
+        HashedWheelTimer timer = new HashedWheelTimer("test", 10, 16);
+        final AtomicInteger runs = new AtomicInteger();
+
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                runs.incrementAndGet();
+            }
+        };
+
+        HashedWheelTimer.Timeout cancelled = timer.schedule(task, 100);
+        HashedWheelTimer.Timeout expired = timer.schedule(task, 50);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+
+        ThreadUtil.sleep(300);
+
+        assertEquals(1, runs.get());
+        assertTrue(expired.isExpired());
+        assertFalse(expired.cancel());
+        assertFalse(cancelled.isExpired());
+        timer.stop();
+
+        try
+        {
+            timer.schedule(task, 10);
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(true);
+        }
+    }
+}
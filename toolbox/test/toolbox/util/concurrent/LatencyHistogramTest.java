@@ -0,0 +1,224 @@
+package toolbox.util.concurrent;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Unit test for {@link toolbox.util.concurrent.LatencyHistogram}.
+ */
+public class LatencyHistogramTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(LatencyHistogramTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(LatencyHistogramTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    //  Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests an empty histogram.
+     */
+    public void testEmpty()
+    {
+        logger_.info("Running testEmpty...");
+
+        LatencyHistogram h = new LatencyHistogram();
+
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMin());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getPercentile(99.0));
+        assertEquals(0.0, h.getMean(), 0.0);
+    }
+
+
+    /**
+     * Tests that small values are counted exactly.
+     */
+    public void testSmallValuesExact()
+    {
+        logger_.info("Running testSmallValuesExact...");
+
+        LatencyHistogram h = new LatencyHistogram();
+
+        for (int i = 1; i <= 20; i++)
+            h.record(i);
+
+        assertEquals(20, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(20, h.getMax());
+        assertEquals(10, h.getPercentile(50.0));
+        assertEquals(19, h.getPercentile(95.0));
+        assertEquals(20, h.getPercentile(100.0));
+        assertEquals(1, h.getPercentile(0.0));
+        assertEquals(10.5, h.getMean(), 0.0);
+    }
+
+
+    /**
+     * Tests that percentiles of a wide range of values are within the
+     * precision of the buckets.
+     */
+    public void testPercentilePrecision()
+    {
+        logger_.info("Running testPercentilePrecision...");
+
+        LatencyHistogram h = new LatencyHistogram();
+
+        // One value per microsecond up to 100ms, in nanos
+        for (long i = 1; i <= 100000; i++)
+            h.record(i * 1000);
+
+        assertPercentile(h, 50.0, 50000000);
+        assertPercentile(h, 99.0, 99000000);
+        assertPercentile(h, 99.9, 99900000);
+        assertEquals(100000000, h.getMax());
+        assertEquals(100000000, h.getPercentile(100.0));
+    }
+
+
+    /**
+     * Tests the bucket index and bounds at the edges of the range.
+     */
+    public void testBuckets()
+    {
+        logger_.info("Running testBuckets...");
+
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789,
+            Long.MAX_VALUE / 3, Long.MAX_VALUE};
+
+        for (int i = 0; i < values.length; i++)
+        {
+            int index = LatencyHistogram.indexOf(values[i]);
+            long upper = LatencyHistogram.upperBoundOf(index);
+
+            assertTrue(values[i] + " <= " + upper, values[i] <= upper);
+
+            if (index > 0)
+                assertTrue(
+                    values[i] + " > " + (index - 1),
+                    values[i] > LatencyHistogram.upperBoundOf(index - 1));
+        }
+
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(
+            LatencyHistogram.indexOf(Long.MAX_VALUE)));
+
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(0, h.getMin());
+        assertEquals(Long.MAX_VALUE, h.getPercentile(100.0));
+    }
+
+
+    /**
+     * Tests that histograms add up to the same as one histogram.
+     */
+    public void testAdd()
+    {
+        logger_.info("Running testAdd...");
+
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            (i % 3 == 0 ? a : b).record(i * 17);
+            all.record(i * 17);
+        }
+
+        LatencyHistogram sum = new LatencyHistogram();
+        sum.add(a);
+        sum.add(b);
+
+        assertEquals(all.getCount(), sum.getCount());
+        assertEquals(all.getMin(), sum.getMin());
+        assertEquals(all.getMax(), sum.getMax());
+        assertEquals(all.getMean(), sum.getMean(), 0.0);
+        assertEquals(all.getPercentile(50.0), sum.getPercentile(50.0));
+        assertEquals(all.getPercentile(99.9), sum.getPercentile(99.9));
+
+        sum.reset();
+        assertEquals(0, sum.getCount());
+        assertEquals(0, sum.getMax());
+    }
+
+
+    /**
+     * Tests recording from many threads at once.
+     *
+     * @throws Exception on error.
+     */
+    public void testConcurrentRecord() throws Exception
+    {
+        logger_.info("Running testConcurrentRecord...");
+
+        final LatencyHistogram h = new LatencyHistogram();
+        final int perThread = 50000;
+        Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int offset = i;
+
+            threads[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    for (int j = 1; j <= perThread; j++)
+                        h.record(j + offset);
+                }
+            });
+
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+
+        assertEquals(threads.length * perThread, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(perThread + threads.length - 1, h.getMax());
+    }
+
+    //--------------------------------------------------------------------------
+    // Private
+    //--------------------------------------------------------------------------
+
+    /**
+     * Asserts that a percentile is within 1/32nd of the expected value.
+     *
+     * @param h Histogram.
+     * @param percentile Percentile to check.
+     * @param expected Exact value of the percentile.
+     */
+    private void assertPercentile(
+        LatencyHistogram h,
+        double percentile,
+        long expected)
+    {
+        long actual = h.getPercentile(percentile);
+
+        assertTrue(
+            "p" + percentile + " = " + actual + ", expected " + expected,
+            actual >= expected
+            && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,129 @@
+package toolbox.util.dirmon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.FileUtil;
+
+/**
+ * Unit test for {@link DirSnapshotStore}.
+ */
+public class DirSnapshotStoreTest extends TestCase {
+
+    private static final Logger log = Logger.getLogger(DirSnapshotStoreTest.class);
+
+    // -------------------------------------------------------------------------
+    // Main
+    // -------------------------------------------------------------------------
+
+    public static void main(String[] args) {
+        TestRunner.run(DirSnapshotStoreTest.class);
+    }
+
+    // -------------------------------------------------------------------------
+    // Unit Tests
+    // -------------------------------------------------------------------------
+
+    /**
+     * Tests that snapshots survive a save and load unchanged.
+     */
+    public void testSaveLoad() throws Exception {
+        log.info("Running testSaveLoad...");
+
+        File rootDir = FileUtil.createTempDir();
+        File subDir = new File(rootDir, "subdir");
+        File emptyDir = new File(rootDir, "subdir2");
+        File storeFile = new File(FileUtil.createTempFilename());
+
+        try {
+            assertTrue(subDir.mkdir());
+            assertTrue(emptyDir.mkdir());
+            FileUtils.writeStringToFile(new File(rootDir, "a.txt"), "a", "utf-8");
+            FileUtils.writeStringToFile(new File(rootDir, "ab.txt"), "ab", "utf-8");
+            FileUtils.writeStringToFile(new File(subDir, "b.txt"), "bbb", "utf-8");
+
+            List snapshots = new ArrayList();
+            snapshots.add(new DirSnapshot(subDir));
+            snapshots.add(new DirSnapshot(rootDir));
+            snapshots.add(new DirSnapshot(emptyDir));
+
+            DirSnapshotStore store = new DirSnapshotStore(storeFile);
+            store.save(snapshots);
+            log.debug("Saved " + storeFile.length() + " bytes");
+
+            Map loaded = new DirSnapshotStore(storeFile).load();
+            assertEquals(3, loaded.size());
+
+            for (int i = 0; i < snapshots.size(); i++) {
+                DirSnapshot expected = (DirSnapshot) snapshots.get(i);
+
+                DirSnapshot actual = (DirSnapshot) loaded.get(
+                    expected.getDirectory().getAbsolutePath());
+
+                assertNotNull(actual);
+                assertEquals(expected.size(), actual.size());
+                assertEquals(expected.getFileSnapshots().keySet(),
+                    actual.getFileSnapshots().keySet());
+
+                for (int j = 0; j < expected.size(); j++) {
+                    assertEquals(expected.getName(j), actual.getName(j));
+                    assertEquals(expected.getLength(j), actual.getLength(j));
+                    assertEquals(expected.isDirectory(j), actual.isDirectory(j));
+
+                    assertEquals(
+                        expected.getLastModified(j),
+                        actual.getLastModified(j));
+                }
+            }
+
+            DirSnapshot root = (DirSnapshot)
+                loaded.get(rootDir.getAbsolutePath());
+
+            int index = root.indexOf("subdir");
+            assertTrue(root.isDirectory(index));
+            assertEquals(subDir.getAbsolutePath(),
+                root.getFileSnapshot(index).getAbsolutePath());
+        }
+        finally {
+            FileUtils.deleteDirectory(rootDir);
+            storeFile.delete();
+        }
+    }
+
+
+    /**
+     * Tests that loading a missing file returns no snapshots and loading a
+     * file that isn't a snapshot file fails.
+     */
+    public void testLoadMissingAndCorrupt() throws Exception {
+        log.info("Running testLoadMissingAndCorrupt...");
+
+        File storeFile = new File(FileUtil.createTempFilename());
+
+        try {
+            assertTrue(new DirSnapshotStore(storeFile).load().isEmpty());
+
+            FileUtils.writeStringToFile(storeFile, "not a snapshot", "utf-8");
+
+            try {
+                new DirSnapshotStore(storeFile).load();
+                fail("Expected IOException");
+            }
+            catch (IOException e) {
+                log.debug("SUCCESS: " + e.getMessage());
+            }
+        }
+        finally {
+            storeFile.delete();
+        }
+    }
+}
@@ -9,6 +9,8 @@ import junit.textui.TestRunner;
 
 import edu.emory.mathcs.backport.java.util.concurrent.ArrayBlockingQueue;
 import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -121,6 +123,180 @@ public class DirectoryMonitorTest extends TestCase {
     }
     
     
+    /**
+     * Tests that files created and deleted in a subdirectory are recognized
+     * when scanning in parallel and incrementally.
+     */
+    public void testParallelIncrementalScan() throws Exception {
+        log.info("Running testParallelIncrementalScan...");
+        
+        File rootDir = FileUtil.createTempDir();
+        File subDir = new File(rootDir, "sub");
+        assertTrue(subDir.mkdir());
+        
+        DirectoryMonitor dm = new DirectoryMonitor(rootDir, true);
+        
+        try {
+            dm.addRecognizer(new FileCreatedRecognizer(dm));
+            dm.addRecognizer(new FileDeletedRecognizer(dm));
+            dm.setScanThreads(4);
+            dm.setIncremental(true);
+            dm.setReconcileInterval(3);
+            dm.setDelay(100);
+            
+            final BlockingQueue eventQueue = new LinkedBlockingQueue();
+            
+            dm.addDirectoryMonitorListener(new IDirectoryMonitorListener() {
+                
+                public void directoryActivity(FileEvent event) throws Exception {
+                    eventQueue.offer(event);
+                }
+                
+                public void statusChanged(StatusEvent statusEvent) throws Exception {
+                }
+            });
+            
+            dm.start();
+            ThreadUtil.sleep(1000);
+            
+            File file = new File(subDir, "created.txt");
+            FileUtils.writeStringToFile(file, "testing", "utf-8");
+            
+            FileEvent created = (FileEvent) eventQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("File creation not recognized", created);
+            assertEquals(FileEvent.TYPE_FILE_CREATED, created.getEventType());
+            
+            assertEquals(
+                file.getAbsolutePath(), 
+                created.getAfterSnapshot().getAbsolutePath());
+            
+            assertTrue(file.delete());
+            
+            FileEvent deleted = (FileEvent) eventQueue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("File deletion not recognized", deleted);
+            assertEquals(FileEvent.TYPE_FILE_DELETED, deleted.getEventType());
+            
+            assertEquals(
+                file.getAbsolutePath(), 
+                deleted.getBeforeSnapshot().getAbsolutePath());
+        }
+        finally {
+            dm.stop();
+            FileUtils.deleteDirectory(rootDir);
+        }
+    }
+    
+    
+    /**
+     * Tests that a directory whose snapshot was taken but not yet compared
+     * when the monitor was suspended is compared on the next incremental 
+     * scan instead of being skipped until the next full scan.
+     */
+    public void testSuspendDuringParallelScan() throws Exception {
+        log.info("Running testSuspendDuringParallelScan...");
+        
+        File rootDir = FileUtil.createTempDir();
+        File subDir = new File(rootDir, "sub");
+        assertTrue(subDir.mkdir());
+        
+        final DirectoryMonitor dm = new DirectoryMonitor(rootDir, true);
+        
+        try {
+            dm.addRecognizer(new FileCreatedRecognizer(dm));
+            dm.setScanThreads(2);
+            dm.setIncremental(true);
+            dm.setReconcileInterval(1000);
+            dm.setDelay(100);
+            
+            final BlockingQueue eventQueue = new LinkedBlockingQueue();
+            final int[] eventCount = new int[1];
+            
+            dm.addDirectoryMonitorListener(new IDirectoryMonitorListener() {
+                
+                public void directoryActivity(FileEvent event) throws Exception {
+                    
+                    // Suspend before the other directory is compared
+                    if (eventCount[0]++ == 0)
+                        dm.suspend();
+                    
+                    eventQueue.offer(event);
+                }
+                
+                public void statusChanged(StatusEvent statusEvent) throws Exception {
+                }
+            });
+            
+            dm.start();
+            ThreadUtil.sleep(1000);
+            
+            // Created while suspended so both show up in the same scan
+            dm.suspend();
+            FileUtils.writeStringToFile(new File(rootDir, "a.txt"), "a", "utf-8");
+            FileUtils.writeStringToFile(new File(subDir, "b.txt"), "b", "utf-8");
+            dm.resume();
+            
+            assertNotNull(
+                "First creation not recognized", 
+                eventQueue.poll(5, TimeUnit.SECONDS));
+            
+            assertTrue(dm.isSuspended());
+            assertNull(eventQueue.poll(500, TimeUnit.MILLISECONDS));
+            dm.resume();
+            
+            assertNotNull(
+                "Second creation not recognized", 
+                eventQueue.poll(5, TimeUnit.SECONDS));
+        }
+        finally {
+            if (dm.isSuspended())
+                dm.resume();
+            
+            dm.stop();
+            FileUtils.deleteDirectory(rootDir);
+        }
+    }
+    
+    
+    /**
+     * Tests that a file created while the monitor was stopped is reported on
+     * restart when the snapshots are persisted.
+     */
+    public void testChangesWhileStoppedAreReported() throws Exception {
+        log.info("Running testChangesWhileStoppedAreReported...");
+        
+        File dir = FileUtil.createTempDir();
+        
+        try {
+            assertChangesWhileStoppedAreReported(dir);
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    
+    /**
+     * Tests that persisted snapshots of a directory given by a relative path
+     * are compared against new snapshots without error on restart.
+     */
+    public void testChangesWhileStoppedAreReportedRelativeDir() 
+        throws Exception {
+        
+        log.info("Running testChangesWhileStoppedAreReportedRelativeDir...");
+        
+        File dir = new File("dirmon-relative-" + System.currentTimeMillis());
+        assertFalse(dir.isAbsolute());
+        assertTrue(dir.mkdir());
+        
+        try {
+            assertChangesWhileStoppedAreReported(dir);
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    
     public void xxxtestDirectoryMonitorWithSubDirs() throws Exception {
         log.info("Running testDirectoryMonitorWithSubDirs...");
         
@@ -210,4 +386,69 @@ public class DirectoryMonitorTest extends TestCase {
             FileUtils.cleanDirectory(mockDir);
         }
     }
-}
\ No newline at end of file
+
+
+    // -------------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------------
+    
+    /**
+     * Creates a file in a directory while its monitor is stopped and asserts
+     * that the restarted monitor reports it from the persisted snapshots.
+     * 
+     * @param dir Directory to monitor.
+     */
+    private void assertChangesWhileStoppedAreReported(File dir) 
+        throws Exception {
+        
+        File snapshotFile = new File(FileUtil.createTempFilename());
+        
+        try {
+            DirectoryMonitor dm = new DirectoryMonitor(dir);
+            dm.setSnapshotFile(snapshotFile);
+            dm.setDelay(100);
+            dm.start();
+            ThreadUtil.sleep(500);
+            dm.stop();
+            assertTrue(snapshotFile.exists());
+            
+            File file = new File(dir, "created.txt");
+            FileUtils.writeStringToFile(file, "testing", "utf-8");
+            
+            dm = new DirectoryMonitor(dir);
+            dm.setSnapshotFile(snapshotFile);
+            dm.addRecognizer(new FileCreatedRecognizer(dm));
+            dm.setDelay(100);
+            
+            final BlockingQueue eventQueue = new LinkedBlockingQueue();
+            
+            dm.addDirectoryMonitorListener(new IDirectoryMonitorListener() {
+                
+                public void directoryActivity(FileEvent event) throws Exception {
+                    eventQueue.offer(event);
+                }
+                
+                public void statusChanged(StatusEvent statusEvent) throws Exception {
+                }
+            });
+            
+            dm.start();
+            
+            try {
+                FileEvent created = (FileEvent) eventQueue.poll(5, TimeUnit.SECONDS);
+                assertNotNull("File creation not recognized", created);
+                assertEquals(FileEvent.TYPE_FILE_CREATED, created.getEventType());
+                
+                assertEquals(
+                    file.getAbsolutePath(), 
+                    created.getAfterSnapshot().getAbsolutePath());
+            }
+            finally {
+                dm.stop();
+            }
+        }
+        finally {
+            snapshotFile.delete();
+        }
+    }
+}
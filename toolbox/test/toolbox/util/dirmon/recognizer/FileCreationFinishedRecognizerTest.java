@@ -0,0 +1,162 @@
+package toolbox.util.dirmon.recognizer;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import edu.emory.mathcs.backport.java.util.concurrent.BlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.LinkedBlockingQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import toolbox.util.FileUtil;
+import toolbox.util.dirmon.DirectoryMonitor;
+import toolbox.util.dirmon.FileSnapshot;
+import toolbox.util.dirmon.event.FileEvent;
+
+/**
+ * Unit test for {@link FileCreationFinishedRecognizer}.
+ */
+public class FileCreationFinishedRecognizerTest extends TestCase {
+
+    private static final Logger logger_ = 
+        Logger.getLogger(FileCreationFinishedRecognizerTest.class);
+
+    // --------------------------------------------------------------------------
+    // Main
+    // --------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     * 
+     * @param args None recognized.
+     */
+    public static void main(String[] args) {
+        TestRunner.run(FileCreationFinishedRecognizerTest.class);
+    }
+
+    // --------------------------------------------------------------------------
+    // Unit Tests
+    // --------------------------------------------------------------------------
+
+    /**
+     * Tests that files created in the same directory at the same time are
+     * delivered as one batch.
+     * 
+     * @throws Exception on error.
+     */
+    public void testFilesFinishInOneBatch() throws Exception {
+        logger_.info("Running testFilesFinishInOneBatch...");
+
+        File dir = FileUtil.createTempDir();
+        DirectoryMonitor dm = new DirectoryMonitor(dir);
+        
+        FileCreationFinishedRecognizer recognizer = 
+            new FileCreationFinishedRecognizer(dm, 1);
+        
+        try {
+            recognizer.setQuietPeriod(300);
+            BlockingQueue batches = listen(recognizer);
+            
+            for (int i = 0; i < 100; i++) {
+                File file = new File(dir, "file" + i + ".txt");
+                FileUtils.writeStringToFile(file, "file" + i, "utf-8");
+                recognizer.directoryActivity(created(dm, file));
+            }
+            
+            assertEquals(100, recognizer.getPendingCount());
+            
+            List batch = (List) batches.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Batch not delivered", batch);
+            assertEquals(100, batch.size());
+            
+            FileEvent first = (FileEvent) batch.get(0);
+            assertEquals(FileEvent.TYPE_FILE_CREATION_FINISHED, first.getEventType());
+            assertTrue(first.getAfterSnapshot().getKey().endsWith("file0.txt"));
+            assertEquals(0, recognizer.getPendingCount());
+        }
+        finally {
+            recognizer.destroy();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    
+    /**
+     * Tests that a file is not finished while it is still being written to
+     * and that a deleted file is forgotten.
+     * 
+     * @throws Exception on error.
+     */
+    public void testQuietPeriod() throws Exception {
+        logger_.info("Running testQuietPeriod...");
+
+        File dir = FileUtil.createTempDir();
+        DirectoryMonitor dm = new DirectoryMonitor(dir);
+        
+        FileCreationFinishedRecognizer recognizer = 
+            new FileCreationFinishedRecognizer(dm, 1);
+        
+        try {
+            recognizer.setQuietPeriod(300);
+            BlockingQueue batches = listen(recognizer);
+            
+            File growing = new File(dir, "growing.txt");
+            File deleted = new File(dir, "deleted.txt");
+            FileUtils.writeStringToFile(growing, "x", "utf-8");
+            FileUtils.writeStringToFile(deleted, "x", "utf-8");
+            
+            recognizer.directoryActivity(created(dm, growing));
+            recognizer.directoryActivity(created(dm, deleted));
+            assertTrue(deleted.delete());
+            
+            long stopWriting = System.currentTimeMillis() + 1000;
+            StringBuffer contents = new StringBuffer("x");
+            
+            while (System.currentTimeMillis() < stopWriting) {
+                contents.append("x");
+                FileUtils.writeStringToFile(growing, contents.toString(), "utf-8");
+                assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+            }
+            
+            List batch = (List) batches.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Batch not delivered", batch);
+            assertEquals(1, batch.size());
+            
+            FileEvent event = (FileEvent) batch.get(0);
+            assertEquals(growing.getAbsolutePath(), event.getAfterSnapshot().getKey());
+            assertEquals(contents.length(), event.getAfterSnapshot().getLength());
+            assertEquals(0, recognizer.getPendingCount());
+        }
+        finally {
+            recognizer.destroy();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+    
+    // --------------------------------------------------------------------------
+    // Helpers
+    // --------------------------------------------------------------------------
+    
+    private BlockingQueue listen(FileCreationFinishedRecognizer recognizer) {
+        final BlockingQueue batches = new LinkedBlockingQueue();
+        
+        recognizer.addCreationFinishedListener(new ICreationFinishedListener() {
+            public void creationFinished(List events) {
+                batches.offer(events);
+            }
+        });
+        
+        return batches;
+    }
+    
+    
+    private FileEvent created(DirectoryMonitor dm, File file) {
+        return new FileEvent(
+            FileEvent.TYPE_FILE_CREATED, dm, null, new FileSnapshot(file));
+    }
+}
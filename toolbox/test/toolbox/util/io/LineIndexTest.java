@@ -0,0 +1,299 @@
+package toolbox.util.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.FileUtil;
+
+/**
+ * Unit test for {@link toolbox.util.io.LineIndex}.
+ */
+public class LineIndexTest extends TestCase
+{
+    private static final Logger logger_ = Logger.getLogger(LineIndexTest.class);
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Temp file initialized and reset for each test.
+     */
+    private File file_;
+
+    /**
+     * Index of the temp file.
+     */
+    private LineIndex index_;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(LineIndexTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides TestCase
+    //--------------------------------------------------------------------------
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws Exception
+    {
+        file_ = FileUtil.createTempFile();
+        FileUtil.setFileContents(file_, "", false);
+        index_ = null;
+    }
+
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception
+    {
+        if (index_ != null)
+            index_.close();
+
+        FileUtil.deleteQuietly(file_);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests indexing an empty file.
+     *
+     * @throws Exception on error.
+     */
+    public void testEmptyFile() throws Exception
+    {
+        logger_.info("Running testEmptyFile...");
+
+        index_ = new LineIndex(file_, "ISO-8859-1", 2);
+        assertEquals(LineIndex.UNCHANGED, index_.refresh());
+        assertEquals(0, index_.getLineCount());
+        assertEquals(0, index_.getLines(0, 0).length);
+    }
+
+
+    /**
+     * Tests random access to lines on either side of checkpoints including
+     * empty lines, CR/LF terminators and an unterminated last line.
+     *
+     * @throws Exception on error.
+     */
+    public void testGetLines() throws Exception
+    {
+        logger_.info("Running testGetLines...");
+
+        FileUtil.setFileContents(
+            file_, "zero\none\r\n\nthree\nfour\nfive", false);
+
+        index_ = new LineIndex(file_, "ISO-8859-1", 2);
+        assertEquals(LineIndex.APPENDED, index_.refresh());
+        assertEquals(6, index_.getLineCount());
+
+        assertEquals("zero", index_.getLine(0));
+        assertEquals("one", index_.getLine(1));
+        assertEquals("", index_.getLine(2));
+        assertEquals("three", index_.getLine(3));
+        assertEquals("five", index_.getLine(5));
+
+        String[] lines = index_.getLines(1, 4);
+        assertEquals(4, lines.length);
+        assertEquals("one", lines[0]);
+        assertEquals("four", lines[3]);
+
+        try
+        {
+            index_.getLine(6);
+            fail("Expected IndexOutOfBoundsException");
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // Success
+        }
+    }
+
+
+    /**
+     * Tests that refresh() picks up appended lines including completion of an
+     * unterminated last line.
+     *
+     * @throws Exception on error.
+     */
+    public void testRefreshAppended() throws Exception
+    {
+        logger_.info("Running testRefreshAppended...");
+
+        FileUtil.setFileContents(file_, "a\nb", false);
+        index_ = new LineIndex(file_, "ISO-8859-1", 3);
+        index_.refresh();
+        assertEquals(2, index_.getLineCount());
+        assertEquals("b", index_.getLine(1));
+
+        FileUtil.setFileContents(file_, "ee\nc\nd\ne\n", true);
+        assertEquals(LineIndex.APPENDED, index_.refresh());
+        assertEquals(5, index_.getLineCount());
+        assertEquals("bee", index_.getLine(1));
+        assertEquals("e", index_.getLine(4));
+        assertEquals(LineIndex.UNCHANGED, index_.refresh());
+    }
+
+
+    /**
+     * Tests that a truncated file is indexed from the beginning.
+     *
+     * @throws Exception on error.
+     */
+    public void testRefreshTruncated() throws Exception
+    {
+        logger_.info("Running testRefreshTruncated...");
+
+        FileUtil.setFileContents(file_, "one\ntwo\nthree\n", false);
+        index_ = new LineIndex(file_, "ISO-8859-1", 2);
+        index_.refresh();
+        assertEquals(3, index_.getLineCount());
+
+        FileUtil.setFileContents(file_, "new\n", false);
+        assertEquals(LineIndex.RESET, index_.refresh());
+        assertEquals(1, index_.getLineCount());
+        assertEquals("new", index_.getLine(0));
+    }
+
+
+    /**
+     * Tests that a file replaced by a new file, as when a log is rotated, is
+     * reopened and indexed from the beginning.
+     *
+     * @throws Exception on error.
+     */
+    public void testRefreshRotated() throws Exception
+    {
+        logger_.info("Running testRefreshRotated...");
+
+        File rotated = new File(file_.getPath() + ".1");
+
+        try
+        {
+            FileUtil.setFileContents(file_, "old\n", false);
+            index_ = new LineIndex(file_, "ISO-8859-1", 2);
+            index_.refresh();
+            assertEquals(1, index_.getLineCount());
+
+            assertTrue(file_.renameTo(rotated));
+            FileUtil.setFileContents(file_, "rotated one\nrotated two\n", false);
+
+            assertEquals(LineIndex.RESET, index_.refresh());
+            assertEquals(2, index_.getLineCount());
+            assertEquals("rotated one", index_.getLine(0));
+            assertEquals("rotated two", index_.getLine(1));
+            assertEquals(LineIndex.UNCHANGED, index_.refresh());
+        }
+        finally
+        {
+            FileUtil.deleteQuietly(rotated);
+        }
+    }
+
+
+    /**
+     * Tests that a listener hears about a reset before the file is indexed
+     * again and about each chunk while a large file is being indexed.
+     *
+     * @throws Exception on error.
+     */
+    public void testRefreshListener() throws Exception
+    {
+        logger_.info("Running testRefreshListener...");
+
+        StringBuffer sb = new StringBuffer();
+
+        for (int i = 0; i < 100000; i++)
+            sb.append("line " + i + "\n");
+
+        FileUtil.setFileContents(file_, sb.toString(), false);
+        index_ = new LineIndex(file_, "ISO-8859-1", 16);
+
+        final List results = new ArrayList();
+        final List counts = new ArrayList();
+
+        LineIndex.Listener listener = new LineIndex.Listener()
+        {
+            public void indexed(LineIndex index, int result)
+            {
+                results.add(new Integer(result));
+                counts.add(new Integer(index.getLineCount()));
+            }
+        };
+
+        assertEquals(LineIndex.APPENDED, index_.refresh(listener));
+        assertTrue(results.size() > 1);
+        assertFalse(results.contains(new Integer(LineIndex.RESET)));
+
+        // Lines are available before the whole file has been indexed
+        int first = ((Integer) counts.get(0)).intValue();
+        assertTrue(first > 0 && first < 100000);
+        assertEquals(new Integer(100000), counts.get(counts.size() - 1));
+
+        results.clear();
+        counts.clear();
+        FileUtil.setFileContents(file_, "new\n", false);
+
+        assertEquals(LineIndex.RESET, index_.refresh(listener));
+        assertEquals(new Integer(LineIndex.RESET), results.get(0));
+        assertEquals(new Integer(0), counts.get(0));
+        assertEquals(new Integer(LineIndex.APPENDED), results.get(1));
+        assertEquals(new Integer(1), counts.get(1));
+    }
+
+
+    /**
+     * Tests lines longer than the internal read buffer and checkpoint
+     * bookkeeping over many lines.
+     *
+     * @throws Exception on error.
+     */
+    public void testManyAndLongLines() throws Exception
+    {
+        logger_.info("Running testManyAndLongLines...");
+
+        StringBuffer sb = new StringBuffer();
+        StringBuffer longLine = new StringBuffer();
+
+        for (int i = 0; i < 50000; i++)
+            longLine.append((char) ('a' + i % 26));
+
+        for (int i = 0; i < 1000; i++)
+            sb.append("line " + i + "\n");
+
+        sb.append(longLine).append("\n");
+        FileUtil.setFileContents(file_, sb.toString(), false);
+
+        index_ = new LineIndex(file_);
+        index_.refresh();
+
+        assertEquals(1001, index_.getLineCount());
+        assertEquals("line 0", index_.getLine(0));
+        assertEquals("line 127", index_.getLine(127));
+        assertEquals("line 128", index_.getLine(128));
+        assertEquals("line 999", index_.getLine(999));
+        assertEquals(longLine.toString(), index_.getLine(1000));
+    }
+}
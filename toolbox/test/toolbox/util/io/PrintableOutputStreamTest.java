@@ -107,6 +107,36 @@ public class PrintableOutputStreamTest extends TestCase
     }
 
     
+    /**
+     * Tests write(byte[], offset, length) with a multi-character substitute
+     * matches the output of writing one byte at a time.
+     * 
+     * @throws Exception on error.
+     */
+    public void testWriteSubsetMatchesSingleByteWrites() throws Exception
+    {
+        logger_.info("Running testWriteSubsetMatchesSingleByteWrites...");
+        
+        byte[] input = new byte[512];
+        
+        for (int i = 0; i < input.length; i++)
+            input[i] = (byte) i;
+        
+        StringOutputStream bulk = new StringOutputStream();
+        PrintableOutputStream pos = new PrintableOutputStream(bulk, true, "<>");
+        pos.write(input, 100, 300);
+        
+        StringOutputStream single = new StringOutputStream();
+        pos = new PrintableOutputStream(single, true, "<>");
+        
+        for (int i = 100; i < 400; i++)
+            pos.write(input[i]);
+        
+        assertEquals(single.toString(), bulk.toString());
+        assertTrue(bulk.toString().indexOf("<>") >= 0);
+    }
+    
+    
     /**
      * Tests to make sure tabs and newlines are preserved.
      * 
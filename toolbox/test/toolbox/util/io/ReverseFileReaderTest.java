@@ -1,6 +1,7 @@
 package toolbox.util.io;
 
 import java.io.File;
+import java.io.FileOutputStream;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -215,6 +216,104 @@ public class ReverseFileReaderTest extends TestCase
         assertNull(reader_.readLine());
     }
     
+    /**
+     * Tests readLineNormal() with lines that straddle block boundaries.
+     * 
+     * @throws Exception on error.
+     */
+    public void testReadLineNormalAcrossBlocks() throws Exception
+    {
+        logger_.info("Running testReadLineNormalAcrossBlocks...");
+        
+        FileUtil.setFileContents(
+            file_, "first line\nsecond\n\nthe last line", false);
+        
+        reader_ = new ReverseFileReader(file_, "ISO-8859-1", 4);
+
+        assertEquals("the last line", reader_.readLineNormal());
+        assertEquals("", reader_.readLineNormal());
+        assertEquals("second", reader_.readLineNormal());
+        assertEquals("first line", reader_.readLineNormal());
+        assertNull(reader_.readLineNormal());
+    }
+    
+    //--------------------------------------------------------------------------
+    // Unit Tests: readLastLines()
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests readLastLines() for fewer, exactly and more lines than the file 
+     * contains.
+     * 
+     * @throws Exception on error.
+     */
+    public void testReadLastLines() throws Exception
+    {
+        logger_.info("Running testReadLastLines...");
+        
+        FileUtil.setFileContents(file_, "one\ntwo\nthree\nfour\nfive", false);
+        
+        reader_ = new ReverseFileReader(file_);
+        String[] lines = reader_.readLastLines(2);
+        assertEquals(2, lines.length);
+        assertEquals("four", lines[0]);
+        assertEquals("five", lines[1]);
+        assertEquals("three", reader_.readLineNormal());
+        reader_.close();
+        
+        reader_ = new ReverseFileReader(file_, "ISO-8859-1", 3);
+        lines = reader_.readLastLines(10);
+        assertEquals(5, lines.length);
+        assertEquals("one", lines[0]);
+        assertEquals("five", lines[4]);
+        assertEquals(0, reader_.readLastLines(10).length);
+        assertEquals(0, reader_.readLastLines(0).length);
+    }
+    
+    
+    /**
+     * Tests that readLastLines() treats a trailing newline as a line 
+     * terminator and drops the carriage returns of CR/LF line endings.
+     * 
+     * @throws Exception on error.
+     */
+    public void testReadLastLinesTerminated() throws Exception
+    {
+        logger_.info("Running testReadLastLinesTerminated...");
+        
+        FileUtil.setFileContents(file_, "one\r\ntwo\r\n\r\nthree\r\n", false);
+        reader_ = new ReverseFileReader(file_);
+        String[] lines = reader_.readLastLines(3);
+        
+        assertEquals(3, lines.length);
+        assertEquals("two", lines[0]);
+        assertEquals("", lines[1]);
+        assertEquals("three", lines[2]);
+    }
+    
+    
+    /**
+     * Tests that readLastLines() decodes multi-byte characters.
+     * 
+     * @throws Exception on error.
+     */
+    public void testReadLastLinesCharset() throws Exception
+    {
+        logger_.info("Running testReadLastLinesCharset...");
+        
+        String last = "gr\u00fc\u00dfe \u20ac";
+        FileOutputStream fos = new FileOutputStream(file_);
+        fos.write(("caf\u00e9\n" + last).getBytes("UTF-8"));
+        fos.close();
+        
+        reader_ = new ReverseFileReader(file_, "UTF-8", 5);
+        String[] lines = reader_.readLastLines(2);
+        
+        assertEquals(2, lines.length);
+        assertEquals("caf\u00e9", lines[0]);
+        assertEquals(last, lines[1]);
+    }
+    
     //--------------------------------------------------------------------------
     // Unit Tests: read()
     //--------------------------------------------------------------------------
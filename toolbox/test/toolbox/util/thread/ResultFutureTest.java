@@ -0,0 +1,308 @@
+package toolbox.util.thread;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import edu.emory.mathcs.backport.java.util.concurrent.CancellationException;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.ThreadUtil;
+import toolbox.util.thread.strategy.ThreadPoolStrategy;
+import toolbox.util.thread.strategy.WorkStealingStrategy;
+
+/**
+ * Unit test for {@link toolbox.util.thread.ResultFuture}.
+ */
+public class ResultFutureTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(ResultFutureTest.class);
+
+    //--------------------------------------------------------------------------
+    // Fields
+    //--------------------------------------------------------------------------
+
+    /**
+     * Dispatcher under test.
+     */
+    private ThreadDispatcher dispatcher_;
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(ResultFutureTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Overrides TestCase
+    //--------------------------------------------------------------------------
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws Exception
+    {
+        dispatcher_ = new ThreadDispatcher(new WorkStealingStrategy(4));
+    }
+
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception
+    {
+        dispatcher_.destroy();
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests submit() and then() composition.
+     *
+     * @throws Exception on error.
+     */
+    public void testSubmitThen() throws Exception
+    {
+        logger_.info("Running testSubmitThen...");
+
+        ResultFuture future = dispatcher_.submit(new Constant("hello", 50))
+            .then(new ResultFuture.Function()
+            {
+                public Object apply(Object value)
+                {
+                    return ((String) value).toUpperCase();
+                }
+            });
+
+        assertEquals("HELLO", future.get());
+        assertTrue(future.isDone());
+        assertFalse(future.isFailed());
+    }
+
+
+    /**
+     * Tests allOf() preserves order and fails if any request fails.
+     *
+     * @throws Exception on error.
+     */
+    public void testAllOf() throws Exception
+    {
+        logger_.info("Running testAllOf...");
+
+        ResultFuture[] futures = new ResultFuture[10];
+
+        for (int i = 0; i < futures.length; i++)
+            futures[i] = dispatcher_.submit(
+                new Constant(new Integer(i), (10 - i) * 10));
+
+        Object[] values = (Object[]) ResultFuture.allOf(futures).get();
+
+        for (int i = 0; i < values.length; i++)
+            assertEquals(new Integer(i), values[i]);
+
+        ResultFuture failing = ResultFuture.allOf(new ResultFuture[] {
+            ResultFuture.completed("ok"),
+            dispatcher_.submit(new IThreadable()
+            {
+                public Object run()
+                {
+                    throw new IllegalStateException("expected");
+                }
+            })
+        });
+
+        try
+        {
+            failing.get();
+            fail("Expected ExecutionException");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertTrue(failing.isFailed());
+        assertEquals(0, ((Object[]) ResultFuture.allOf(
+            new ResultFuture[0]).get()).length);
+    }
+
+
+    /**
+     * Tests that a callback registered after completion is notified.
+     */
+    public void testWhenComplete()
+    {
+        logger_.info("Running testWhenComplete...");
+
+        final Object[] notified = new Object[1];
+
+        ResultFuture.completed("done").whenComplete(new ResultFuture.Callback()
+        {
+            public void completed(Object value, Throwable error)
+            {
+                notified[0] = value;
+            }
+        });
+
+        assertEquals("done", notified[0]);
+    }
+
+
+    /**
+     * Tests withTimeout() and get() with a timeout.
+     *
+     * @throws Exception on error.
+     */
+    public void testTimeout() throws Exception
+    {
+        logger_.info("Running testTimeout...");
+
+        ResultFuture slow = dispatcher_.submit(new Constant("slow", 2000));
+
+        try
+        {
+            slow.get(100, TimeUnit.MILLISECONDS);
+            fail("Expected TimeoutException");
+        }
+        catch (TimeoutException e)
+        {
+            assertFalse(slow.isDone());
+        }
+
+        slow.withTimeout(100);
+
+        try
+        {
+            slow.get();
+            fail("Expected ExecutionException");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+
+    /**
+     * Tests that the timer task of withTimeout() is removed from the shared
+     * timer once the future completes.
+     *
+     * @throws Exception on error.
+     */
+    public void testTimeoutRemoved() throws Exception
+    {
+        logger_.info("Running testTimeoutRemoved...");
+
+        for (int i = 0; i < 10; i++)
+        {
+            ResultFuture fast = dispatcher_.submit(new Constant("fast", 0));
+            assertEquals("fast", fast.withTimeout(60000).get());
+        }
+
+        for (int i = 0; i < 50 && !ResultFuture.getTimer().getQueue().isEmpty();
+            i++)
+            ThreadUtil.sleep(20);
+
+        assertEquals(0, ResultFuture.getTimer().getQueue().size());
+    }
+
+
+    /**
+     * Tests that cancelling a running request interrupts its thread and that
+     * the interrupt does not leak into the next request on that thread.
+     *
+     * @throws Exception on error.
+     */
+    public void testCancelInterrupts() throws Exception
+    {
+        logger_.info("Running testCancelInterrupts...");
+
+        ThreadDispatcher single =
+            new ThreadDispatcher(new ThreadPoolStrategy(1, 10));
+
+        final boolean[] interrupted = new boolean[1];
+
+        ResultFuture future = single.submit(new IThreadable()
+        {
+            public Object run()
+            {
+                try
+                {
+                    Thread.sleep(10000);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted[0] = true;
+                }
+
+                return null;
+            }
+        });
+
+        ThreadUtil.sleep(200);
+        assertTrue(future.cancel(true));
+        assertFalse(future.cancel(true));
+        assertTrue(future.isCancelled());
+
+        try
+        {
+            future.get();
+            fail("Expected CancellationException");
+        }
+        catch (CancellationException e)
+        {
+            assertTrue(true);
+        }
+
+        ResultFuture next = single.submit(new IThreadable()
+        {
+            public Object run()
+            {
+                return Boolean.valueOf(Thread.currentThread().isInterrupted());
+            }
+        });
+
+        assertEquals(Boolean.FALSE, next.get());
+        assertTrue(interrupted[0]);
+        single.destroy();
+    }
+
+    //--------------------------------------------------------------------------
+    // Helper Classes
+    //--------------------------------------------------------------------------
+
+    /**
+     * Request that returns a value after a delay.
+     */
+    static class Constant implements IThreadable
+    {
+        private Object value_;
+        private int delay_;
+
+        Constant(Object value, int delay)
+        {
+            value_ = value;
+            delay_ = delay;
+        }
+
+        public Object run()
+        {
+            ThreadUtil.sleep(delay_);
+            return value_;
+        }
+    }
+}
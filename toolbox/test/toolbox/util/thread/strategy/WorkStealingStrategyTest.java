@@ -0,0 +1,188 @@
+package toolbox.util.thread.strategy;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.apache.log4j.Logger;
+
+import toolbox.util.ThreadUtil;
+import toolbox.util.thread.IThreadable;
+import toolbox.util.thread.ReturnValue;
+import toolbox.util.thread.ThreadDispatcher;
+
+/**
+ * Unit test for {@link toolbox.util.thread.strategy.WorkStealingStrategy} and
+ * {@link toolbox.util.thread.strategy.VirtualThreadPerRequestStrategy}.
+ */
+public class WorkStealingStrategyTest extends TestCase
+{
+    private static final Logger logger_ =
+        Logger.getLogger(WorkStealingStrategyTest.class);
+
+    //--------------------------------------------------------------------------
+    // Main
+    //--------------------------------------------------------------------------
+
+    /**
+     * Entrypoint.
+     *
+     * @param args None recognized.
+     */
+    public static void main(String[] args)
+    {
+        TestRunner.run(WorkStealingStrategyTest.class);
+    }
+
+    //--------------------------------------------------------------------------
+    // Unit Tests
+    //--------------------------------------------------------------------------
+
+    /**
+     * Tests that all dispatched requests are processed and the metrics add up.
+     */
+    public void testDispatch()
+    {
+        logger_.info("Running testDispatch...");
+
+        WorkStealingStrategy strategy = new WorkStealingStrategy(4);
+        ThreadDispatcher dispatcher = new ThreadDispatcher(strategy);
+        ReturnValue[] results = new ReturnValue[100];
+
+        for (int i = 0; i < results.length; i++)
+            results[i] = dispatcher.dispatch(new Square(i, 5));
+
+        for (int i = 0; i < results.length; i++)
+            assertEquals(new Integer(i * i), results[i].getValue());
+
+        logger_.debug("Steals: " + strategy.getStealCount()
+            + " avg wait: " + strategy.getAverageWaitTime()
+            + " avg service: " + strategy.getAverageServiceTime());
+
+        assertEquals(100, strategy.getCompletedCount());
+        assertEquals(0, strategy.getActiveCount());
+        assertEquals(0, strategy.getQueueDepth());
+        assertTrue(strategy.getTotalServiceTime() > 0);
+        assertTrue(strategy.getAverageWaitTime() > 0);
+
+        dispatcher.destroy();
+    }
+
+
+    /**
+     * Tests that idle workers steal from a busy worker's deque when requests
+     * are dispatched from within a worker.
+     */
+    public void testNestedDispatchIsStolen()
+    {
+        logger_.info("Running testNestedDispatchIsStolen...");
+
+        final WorkStealingStrategy strategy = new WorkStealingStrategy(4);
+        ThreadDispatcher dispatcher = new ThreadDispatcher(strategy);
+
+        ReturnValue outer = dispatcher.dispatch(new IThreadable()
+        {
+            public Object run()
+            {
+                // All of these land on the deque of the current worker
+                ReturnValue[] inner = new ReturnValue[20];
+
+                for (int i = 0; i < inner.length; i++)
+                    inner[i] = strategy.dispatch(new Square(i, 20));
+
+                int sum = 0;
+
+                for (int i = 0; i < inner.length; i++)
+                    sum += ((Integer) inner[i].getValue()).intValue();
+
+                return new Integer(sum);
+            }
+        });
+
+        assertEquals(new Integer(2470), outer.getValue());
+        assertTrue(strategy.getStealCount() > 0);
+        dispatcher.destroy();
+    }
+
+
+    /**
+     * Tests that exceptions are returned as the result and that destroy lets
+     * the workers finish pending requests.
+     */
+    public void testExceptionAndDestroy()
+    {
+        logger_.info("Running testExceptionAndDestroy...");
+
+        WorkStealingStrategy strategy = new WorkStealingStrategy(2);
+        ThreadDispatcher dispatcher = new ThreadDispatcher(strategy);
+
+        ReturnValue failed = dispatcher.dispatch(new IThreadable()
+        {
+            public Object run()
+            {
+                throw new IllegalArgumentException("expected");
+            }
+        });
+
+        ReturnValue[] results = new ReturnValue[10];
+
+        for (int i = 0; i < results.length; i++)
+            results[i] = dispatcher.dispatch(new Square(i, 10));
+
+        dispatcher.destroy();
+
+        assertTrue(failed.getValue() instanceof IllegalArgumentException);
+
+        for (int i = 0; i < results.length; i++)
+            assertEquals(new Integer(i * i), results[i].getValue());
+    }
+
+
+    /**
+     * Tests the virtual thread strategy on this JVM with or without virtual
+     * thread support.
+     */
+    public void testVirtualThreadPerRequest()
+    {
+        logger_.info("Running testVirtualThreadPerRequest...");
+        logger_.debug("Virtual threads supported: "
+            + VirtualThreadPerRequestStrategy.isSupported());
+
+        ThreadDispatcher dispatcher =
+            new ThreadDispatcher(new VirtualThreadPerRequestStrategy());
+
+        ReturnValue[] results = new ReturnValue[50];
+
+        for (int i = 0; i < results.length; i++)
+            results[i] = dispatcher.dispatch(new Square(i, 5));
+
+        for (int i = 0; i < results.length; i++)
+            assertEquals(new Integer(i * i), results[i].getValue());
+
+        dispatcher.destroy();
+    }
+
+    //--------------------------------------------------------------------------
+    // Helper Classes
+    //--------------------------------------------------------------------------
+
+    /**
+     * Request that squares a number after a delay.
+     */
+    static class Square implements IThreadable
+    {
+        private int value_;
+        private int delay_;
+
+        Square(int value, int delay)
+        {
+            value_ = value;
+            delay_ = delay;
+        }
+
+        public Object run()
+        {
+            ThreadUtil.sleep(delay_);
+            return new Integer(value_ * value_);
+        }
+    }
+}